@@ -0,0 +1,124 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+
+/**
+ * Builds real Jetty requests and responses for benchmarks, so that header lookups and writes cost what they cost in
+ * production instead of what a mock implementation costs.
+ */
+public final class BenchmarkRequests {
+
+    public static final String USER_AGENT_IE_10 = "Mozilla/5.0 (compatible; MSIE 10.0; Windows NT 6.1; Trident/6.0)";
+    public static final String USER_AGENT_IE_11 =
+            "Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; rv:11.0) like Gecko";
+    public static final String USER_AGENT_CHROME = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_12_6) "
+            + "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/61.0.3163.100 Safari/537.36";
+    public static final String USER_AGENT_CLIENT = "okhttp/3.8.1";
+
+    public static final FilterChain NO_OP_CHAIN = new FilterChain() {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+            // intentionally left blank
+        }
+    };
+
+    private BenchmarkRequests() {
+        // utility class
+    }
+
+    /**
+     * Creates a request with the given servlet path and headers, where {@code headers} is a list of alternating
+     * header names and values.
+     */
+    public static Request request(String method, String servletPath, String pathInfo, String... headers) {
+        checkArgument(headers.length % 2 == 0, "headers must be name/value pairs");
+
+        HttpFields fields = new HttpFields();
+        for (int i = 0; i < headers.length; i += 2) {
+            fields.add(headers[i], headers[i + 1]);
+        }
+
+        Request request = new Request(null, null);
+        request.setMetaData(new MetaData.Request(
+                method, new HttpURI(servletPath + pathInfo), HttpVersion.HTTP_1_1, fields));
+        request.setServletPath(servletPath);
+        request.setPathInfo(pathInfo);
+        request.setDispatcherType(DispatcherType.REQUEST);
+
+        return request;
+    }
+
+    /**
+     * Creates a response that is not attached to a connection. Only its headers can be used.
+     */
+    public static Response response() {
+        return new Response(null, null);
+    }
+
+    /**
+     * Clears the headers written to {@code response} by a previous invocation.
+     */
+    public static void reset(Response response) {
+        response.getHttpFields().clear();
+    }
+
+    /**
+     * Clears the attributes set on {@code request} by a previous invocation, such as the markers the filters leave so
+     * they only apply their policy once per request, and makes it a first dispatch again.
+     */
+    public static void reset(Request request) {
+        request.setDispatcherType(DispatcherType.REQUEST);
+        if (request.getAttributes() != null) {
+            request.getAttributes().clearAttributes();
+        }
+    }
+
+    /**
+     * Creates a {@link FilterConfig} backed by {@code initParameters}.
+     */
+    public static FilterConfig filterConfig(final Map<String, String> initParameters) {
+        return new FilterConfig() {
+            @Override
+            public String getFilterName() {
+                return "benchmark";
+            }
+
+            @Override
+            public ServletContext getServletContext() {
+                return null;
+            }
+
+            @Override
+            public String getInitParameter(String name) {
+                return initParameters.get(name);
+            }
+
+            @Override
+            public Enumeration<String> getInitParameterNames() {
+                return Collections.enumeration(initParameters.keySet());
+            }
+        };
+    }
+}
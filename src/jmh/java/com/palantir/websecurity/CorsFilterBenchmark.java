@@ -0,0 +1,148 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.filters.CorsFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.Filter;
+import javax.servlet.ServletException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.servlets.CrossOriginFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the per-request cost of CORS handling by the {@link CorsFilter}, with Jetty's {@link CrossOriginFilter}
+ * configured the same way as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class CorsFilterBenchmark {
+
+    private static final String ALLOWED_ORIGIN = "https://app.example.com";
+    private static final String WILDCARD_ORIGIN = "https://tenant.apps.example.com";
+    private static final String REJECTED_ORIGIN = "https://evil.example.org";
+
+    /**
+     * The requests sent to the filter, cycled through in order.
+     */
+    public enum RequestMix {
+        NO_ORIGIN(get(null)),
+        ACTUAL_ALLOWED(get(ALLOWED_ORIGIN), get(WILDCARD_ORIGIN)),
+        ACTUAL_REJECTED(get(REJECTED_ORIGIN)),
+        PREFLIGHT(preflight(ALLOWED_ORIGIN), preflight(WILDCARD_ORIGIN)),
+        // a single page application talking to its API: one preflight for every couple of calls
+        MIXED(
+                get(null),
+                preflight(ALLOWED_ORIGIN),
+                get(ALLOWED_ORIGIN),
+                get(ALLOWED_ORIGIN),
+                preflight(WILDCARD_ORIGIN),
+                get(WILDCARD_ORIGIN),
+                get(REJECTED_ORIGIN),
+                get(null));
+
+        private final Request[] requests;
+
+        RequestMix(Request... requests) {
+            this.requests = requests;
+        }
+
+        private static Request get(String origin) {
+            if (origin == null) {
+                return BenchmarkRequests.request("GET", "/api", "/hello",
+                        HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CHROME);
+            }
+            return BenchmarkRequests.request("GET", "/api", "/hello",
+                    HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CHROME,
+                    HttpHeaders.ORIGIN, origin);
+        }
+
+        private static Request preflight(String origin) {
+            return BenchmarkRequests.request("OPTIONS", "/api", "/hello",
+                    HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CHROME,
+                    HttpHeaders.ORIGIN, origin,
+                    HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "PUT",
+                    HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, "authorization, content-type");
+        }
+    }
+
+    @Param
+    private RequestMix mix;
+
+    /**
+     * Number of exact origins configured in addition to the origins used by the requests.
+     */
+    @Param({"1", "100"})
+    private int additionalOrigins;
+
+    private final Response response = BenchmarkRequests.response();
+
+    private CrossOriginFilter crossOriginFilter;
+    private CorsFilter corsFilter;
+
+    private Request[] requests;
+    private int index;
+
+    @Setup
+    public void before() throws ServletException {
+        List<String> origins = new ArrayList<>();
+        for (int i = 0; i < this.additionalOrigins; i++) {
+            origins.add("https://app" + i + ".example.net");
+        }
+        origins.add(ALLOWED_ORIGIN);
+        origins.add("https://*.apps.example.com");
+
+        CorsConfiguration cors = CorsConfiguration.builder()
+                .allowedOrigins(Joiner.on(",").join(origins))
+                .build();
+
+        this.crossOriginFilter = new CrossOriginFilter();
+        this.crossOriginFilter.init(BenchmarkRequests.filterConfig(ImmutableMap.of(
+                CrossOriginFilter.ALLOWED_ORIGINS_PARAM, cors.allowedOrigins().get(),
+                CrossOriginFilter.ALLOWED_METHODS_PARAM, WebSecurityBundle.DEFAULT_ALLOWED_METHODS,
+                CrossOriginFilter.ALLOWED_HEADERS_PARAM, WebSecurityBundle.DEFAULT_ALLOWED_HEADERS,
+                CrossOriginFilter.ALLOW_CREDENTIALS_PARAM,
+                Boolean.toString(WebSecurityBundle.DEFAULT_ALLOW_CREDENTIALS))));
+        this.corsFilter = new CorsFilter(cors);
+        this.requests = this.mix.requests;
+    }
+
+    @Benchmark
+    public Response crossOriginFilter() throws IOException, ServletException {
+        return doFilter(this.crossOriginFilter);
+    }
+
+    @Benchmark
+    public Response corsFilter() throws IOException, ServletException {
+        return doFilter(this.corsFilter);
+    }
+
+    private Response doFilter(Filter filter) throws IOException, ServletException {
+        BenchmarkRequests.reset(this.response);
+
+        Request request = this.requests[this.index];
+        this.index = (this.index + 1) % this.requests.length;
+        BenchmarkRequests.reset(request);
+
+        filter.doFilter(request, this.response, BenchmarkRequests.NO_OP_CHAIN);
+        return this.response;
+    }
+}
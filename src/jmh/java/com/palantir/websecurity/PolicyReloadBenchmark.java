@@ -0,0 +1,125 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.filters.CachingBrowserClassifier;
+import com.palantir.websecurity.filters.CorsFilter;
+import com.palantir.websecurity.filters.JerseyAwareWebSecurityFilter;
+import com.palantir.websecurity.filters.PolicyReference;
+import com.palantir.websecurity.filters.UserAgentBrowserClassifier;
+import com.palantir.websecurity.filters.WebSecurityMetrics;
+import io.dropwizard.validation.BaseValidator;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.servlet.ServletException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the throughput of the filters while a background thread reloads their policy through a
+ * {@link WebSecurityReloader}, compared to no reloads. The warm-up is longer than usual so the reload path is compiled
+ * before measuring, otherwise the compiler threads are measured rather than the reloads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Warmup(iterations = 15)
+@SuppressWarnings("checkstyle:designforextension")
+public class PolicyReloadBenchmark {
+
+    private static final String ORIGIN = "https://app.example.com";
+
+    private static final WebSecurityConfiguration FIRST = WebSecurityConfiguration.builder()
+            .frameOptions("deny")
+            .cors(CorsConfiguration.builder().allowedOrigins(ORIGIN).build())
+            .build();
+
+    private static final WebSecurityConfiguration SECOND = WebSecurityConfiguration.builder()
+            .frameOptions("sameorigin")
+            .cors(CorsConfiguration.builder().allowedOrigins(ORIGIN + ",https://other.example.com").build())
+            .build();
+
+    /**
+     * Time between reloads, or 0 to never reload.
+     */
+    @Param({"0", "1000", "100"})
+    private long reloadIntervalMicros;
+
+    private JerseyAwareWebSecurityFilter headerFilter;
+    private CorsFilter corsFilter;
+    private Thread reloadThread;
+    private volatile boolean reloading;
+
+    /**
+     * The request and response of each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadResponse {
+        private final Request request = BenchmarkRequests.request("GET", "", "/index.html",
+                HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CHROME,
+                HttpHeaders.ORIGIN, ORIGIN);
+        private final Response response = BenchmarkRequests.response();
+    }
+
+    @Setup(Level.Trial)
+    public void before() {
+        CachingBrowserClassifier classifier = new CachingBrowserClassifier(new UserAgentBrowserClassifier());
+        PolicyReference policies = new PolicyReference(
+                PathPolicies.compile(FIRST, classifier, WebSecurityMetrics.NOOP));
+        this.headerFilter = new JerseyAwareWebSecurityFilter(policies, "/api/*", WebSecurityMetrics.NOOP);
+        this.corsFilter = new CorsFilter(policies, WebSecurityMetrics.NOOP);
+
+        WebSecurityReloader reloader = new WebSecurityReloader(WebSecurityConfiguration.DEFAULT, FIRST,
+                BaseValidator.newValidator(), classifier, WebSecurityMetrics.NOOP, policies, Optional.empty());
+
+        if (this.reloadIntervalMicros > 0) {
+            this.reloading = true;
+            this.reloadThread = new Thread(() -> {
+                boolean first = false;
+                while (this.reloading) {
+                    reloader.reload(first ? FIRST : SECOND);
+                    first = !first;
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(this.reloadIntervalMicros));
+                }
+            });
+            this.reloadThread.setDaemon(true);
+            this.reloadThread.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void after() throws InterruptedException {
+        this.reloading = false;
+        if (this.reloadThread != null) {
+            this.reloadThread.join();
+        }
+    }
+
+    @Benchmark
+    public Response filters(ThreadResponse state) throws IOException, ServletException {
+        BenchmarkRequests.reset(state.request);
+        BenchmarkRequests.reset(state.response);
+
+        this.corsFilter.doFilter(state.request, state.response, BenchmarkRequests.NO_OP_CHAIN);
+        this.headerFilter.doFilter(state.request, state.response, BenchmarkRequests.NO_OP_CHAIN);
+        return state.response;
+    }
+}
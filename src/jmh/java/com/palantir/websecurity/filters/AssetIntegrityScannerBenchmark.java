@@ -0,0 +1,99 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks the {@link AssetIntegrityScanner} on a directory of scripts, styles and HTML pages of about 8 KB each,
+ * hashing every asset ({@code cold}) and taking every asset from an up to date index ({@code warm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class AssetIntegrityScannerBenchmark {
+
+    @Param("5000")
+    private int assets;
+
+    private Path directory;
+    private AssetIntegrityScanner cold;
+    private AssetIntegrityScanner warm;
+
+    @Setup
+    public void before() throws IOException {
+        this.directory = Files.createTempDirectory("asset-integrity");
+        Path root = Files.createDirectories(this.directory.resolve("assets"));
+        String filler = Strings.repeat("var value = 'abcdefghijklmnopqrstuvwxyz';\n", 190);
+        for (int i = 0; i < this.assets; i++) {
+            Path folder = Files.createDirectories(root.resolve("dir" + i % 50));
+            String contents = "/* " + i + " */\n" + filler;
+            if (i % 10 == 0) {
+                write(folder.resolve("page" + i + ".html"), "<html><script>" + contents + "</script>"
+                        + "<style>body { margin: " + i + "px; }</style></html>");
+            } else if (i % 3 == 0) {
+                write(folder.resolve("style" + i + ".css"), contents);
+            } else {
+                write(folder.resolve("script" + i + ".js"), contents);
+            }
+        }
+
+        this.cold = AssetIntegrityScanner.builder().directory(root).build();
+        this.warm = AssetIntegrityScanner.builder()
+                .directory(root)
+                .index(this.directory.resolve("assets.index"))
+                .build();
+        this.warm.scan();
+    }
+
+    @TearDown
+    public void after() throws IOException {
+        Files.walkFileTree(this.directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exception) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Benchmark
+    public AssetDigests cold() throws IOException {
+        return this.cold.scan();
+    }
+
+    @Benchmark
+    public AssetDigests warm() throws IOException {
+        return this.warm.scan();
+    }
+
+    private static void write(Path file, String contents) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.google.common.io.BaseEncoding;
+import com.palantir.websecurity.BenchmarkRequests;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Benchmarks the throughput of nonce generation by many request threads, compared to a {@link SecureRandom} shared by
+ * every thread, and the cost of injecting headers with a nonce. Run on a machine with at least as many cores as
+ * threads, otherwise the threads take turns and contention does not show.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(32)
+@SuppressWarnings("checkstyle:designforextension")
+public class CspNonceBenchmark {
+
+    private static final WebSecurityHeaderInjector INJECTOR = new WebSecurityHeaderInjector(
+            WebSecurityConfiguration.builder()
+                    .contentSecurityPolicy("default-src 'self'; script-src 'self' 'nonce-{nonce}'")
+                    .build());
+
+    private final SecureRandom sharedRandom = new SecureRandom();
+    private final CspNonceGenerator generator = new CspNonceGenerator();
+
+    /**
+     * The request and response of each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadExchange {
+        private final Request request = BenchmarkRequests.request("GET", "", "/index.html");
+        private final Response response = BenchmarkRequests.response();
+    }
+
+    @Benchmark
+    public String sharedSecureRandom() {
+        byte[] bytes = new byte[18];
+        this.sharedRandom.nextBytes(bytes);
+        return BaseEncoding.base64().encode(bytes);
+    }
+
+    @Benchmark
+    public String cspNonceGenerator() {
+        return this.generator.next();
+    }
+
+    @Benchmark
+    public Response injectHeadersWithNonce(ThreadExchange exchange) {
+        BenchmarkRequests.reset(exchange.response);
+        exchange.request.removeAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+
+        INJECTOR.injectHeaders(exchange.request, exchange.response);
+        return exchange.response;
+    }
+}
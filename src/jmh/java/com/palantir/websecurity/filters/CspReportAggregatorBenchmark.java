@@ -0,0 +1,54 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks counting a report in the {@link CspReportAggregator}, for a few frequent violations and for a storm of
+ * {@code distinct} violations that keep replacing the top violations of the bucket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class CspReportAggregatorBenchmark {
+
+    @Param({"8", "100000"})
+    private int distinct;
+
+    private final CspReportAggregator aggregator = new CspReportAggregator();
+    private CspReport[] reports;
+    private int next = 0;
+
+    @Setup
+    public void before() {
+        long timestamp = System.currentTimeMillis();
+        this.reports = new CspReport[this.distinct];
+        for (int i = 0; i < this.distinct; i++) {
+            this.reports[i] = CspReport.builder()
+                    .timestamp(timestamp)
+                    .documentUri("https://app.example.com/index.html?session=" + i)
+                    .effectiveDirective("img-src")
+                    .blockedUri("https://tracker" + i + ".example.net/pixel.gif")
+                    .build();
+        }
+    }
+
+    @Benchmark
+    public CspReportAggregator report() {
+        this.aggregator.onReport(this.reports[this.next]);
+        this.next = (this.next + 1) % this.reports.length;
+        return this.aggregator;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Benchmarks the request thread's share of receiving a CSP violation report: parsing the body and offering the
+ * reports to the {@link CspReportQueue}. With {@code keepUp} the worker discards reports as they come, without it the
+ * worker is stuck and every report is dropped, as in a report storm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class CspReportBenchmark {
+
+    private static final byte[] REPORT_URI_BODY = ("{\"csp-report\": {"
+            + "\"document-uri\": \"https://example.com/app/index.html\","
+            + "\"referrer\": \"\","
+            + "\"violated-directive\": \"script-src-elem\","
+            + "\"effective-directive\": \"script-src-elem\","
+            + "\"original-policy\": \"default-src 'self'; style-src 'self' 'unsafe-inline'; frame-ancestors 'self'; "
+            + "report-uri /csp-reports\","
+            + "\"disposition\": \"enforce\","
+            + "\"blocked-uri\": \"https://cdn.example.net/analytics.js\","
+            + "\"status-code\": 200,"
+            + "\"script-sample\": \"\"}}").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"true", "false"})
+    private boolean keepUp;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private CspReportQueue queue;
+    private CspReportServlet servlet;
+
+    @Setup
+    public void before() {
+        CspReportListener listener = report -> { };
+        if (!this.keepUp) {
+            listener = report -> {
+                try {
+                    this.release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+        }
+
+        this.queue = new CspReportQueue(1024, 1, listener, WebSecurityMetrics.NOOP);
+        this.servlet = new CspReportServlet(this.queue, 16384, WebSecurityMetrics.NOOP);
+        this.queue.start();
+    }
+
+    @TearDown
+    public void after() throws InterruptedException {
+        this.release.countDown();
+        this.queue.stop();
+    }
+
+    @Benchmark
+    public int report() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/csp-reports") {
+            @Override
+            public String getContentType() {
+                return "application/csp-report";
+            }
+        };
+        request.setContent(REPORT_URI_BODY);
+        HttpServletResponse response = new MockHttpServletResponse();
+        this.servlet.service(request, response);
+        return response.getStatus();
+    }
+}
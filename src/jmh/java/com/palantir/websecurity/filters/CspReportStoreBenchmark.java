@@ -0,0 +1,67 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks a worker storing a report in the {@link CspReportStore}, including its share of the grouped writes to disk
+ * and of rolling and deleting segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class CspReportStoreBenchmark {
+
+    private final CspReport report = CspReport.builder()
+            .timestamp(System.currentTimeMillis())
+            .documentUri("https://app.example.com/app/index.html")
+            .effectiveDirective("script-src-elem")
+            .blockedUri("https://cdn.example.net/analytics.js")
+            .disposition("enforce")
+            .statusCode(200)
+            .build();
+
+    private Path directory;
+    private CspReportStore store;
+
+    @Setup
+    public void before() throws IOException {
+        this.directory = Files.createTempDirectory("csp-reports");
+        this.store = new CspReportStore(this.directory, 4L * 1024 * 1024, TimeUnit.HOURS.toMillis(1),
+                32L * 1024 * 1024);
+        this.store.start();
+    }
+
+    @TearDown
+    public void after() throws Exception {
+        this.store.stop();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(this.directory)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    @Benchmark
+    public CspReportStore report() {
+        this.store.onReport(this.report);
+        return this.store;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.BenchmarkRequests;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.eclipse.jetty.http.HttpGenerator;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the responses of one page load through a {@link JerseyAwareWebSecurityFilter}, with every response
+ * getting all headers and with only documents getting them through a {@link DocumentHeadersResponseWrapper}. Each
+ * response's headers are then encoded the way Jetty writes them to an HTTP/1.1 connection, so the time shows whether
+ * the wrapper costs more than encoding the headers it leaves out. The benchmark returns the number of header bytes of
+ * the page load.
+ * <p>
+ * The page load is one HTML page with its scripts, styles, images and font, and the JSON calls it makes, with the
+ * default headers and a 200 character Content Security Policy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class DocumentHeadersBenchmark {
+
+    private static final String POLICY = "default-src 'self'; script-src 'self' https://cdn.example.com; "
+            + "style-src 'self' 'unsafe-inline' https://cdn.example.com; img-src 'self' data: https://img.example.com; "
+            + "frame-ancestors 'self'; report-uri /csp-reports";
+
+    /**
+     * The paths of the page load and their content types.
+     */
+    private static final String[][] PAGE_LOAD = {
+            {"/index.html", "text/html;charset=utf-8"},
+            {"/js/vendor.js", "application/javascript;charset=utf-8"},
+            {"/js/app.js", "application/javascript;charset=utf-8"},
+            {"/js/charts.js", "application/javascript;charset=utf-8"},
+            {"/css/vendor.css", "text/css;charset=utf-8"},
+            {"/css/app.css", "text/css;charset=utf-8"},
+            {"/img/logo.svg", "image/svg+xml"},
+            {"/img/header.png", "image/png"},
+            {"/img/avatar.png", "image/png"},
+            {"/img/icon-1.png", "image/png"},
+            {"/img/icon-2.png", "image/png"},
+            {"/img/icon-3.png", "image/png"},
+            {"/fonts/inter.woff2", "font/woff2"},
+            {"/data/user.json", "application/json"},
+            {"/data/items.json", "application/json"},
+    };
+
+    @Param({"false", "true"})
+    private boolean documentHeadersOnly;
+
+    private final ByteBuffer encoded = ByteBuffer.allocate(8192);
+    private JerseyAwareWebSecurityFilter filter;
+    private Request[] requests;
+    private Response[] responses;
+    private FilterChain[] chains;
+
+    @Setup
+    public void before() {
+        this.filter = new JerseyAwareWebSecurityFilter(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy(POLICY)
+                .documentHeadersOnly(this.documentHeadersOnly)
+                .build(), "/api/*");
+
+        this.requests = new Request[PAGE_LOAD.length];
+        this.responses = new Response[PAGE_LOAD.length];
+        this.chains = new FilterChain[PAGE_LOAD.length];
+        for (int i = 0; i < PAGE_LOAD.length; i++) {
+            this.requests[i] = BenchmarkRequests.request("GET", PAGE_LOAD[i][0], "",
+                    HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CHROME);
+            this.responses[i] = new AssetResponse();
+            this.chains[i] = new AssetChain(PAGE_LOAD[i][1]);
+        }
+    }
+
+    @Benchmark
+    public long pageLoad() throws IOException, ServletException {
+        long bytes = 0;
+        for (int i = 0; i < PAGE_LOAD.length; i++) {
+            BenchmarkRequests.reset(this.requests[i]);
+            BenchmarkRequests.reset(this.responses[i]);
+
+            this.filter.doFilter(this.requests[i], this.responses[i], this.chains[i]);
+
+            this.encoded.clear();
+            HttpGenerator.putTo(this.responses[i].getHttpFields(), this.encoded);
+            bytes += this.encoded.position();
+        }
+        return bytes;
+    }
+
+    /**
+     * Sets the content type, the way a static asset servlet does.
+     */
+    private static final class AssetChain implements FilterChain {
+        private final String contentType;
+
+        AssetChain(String contentType) {
+            this.contentType = contentType;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) {
+            response.setContentType(this.contentType);
+        }
+    }
+
+    /**
+     * A Jetty response that is not attached to a connection and keeps its content type in its headers.
+     */
+    private static final class AssetResponse extends Response {
+        AssetResponse() {
+            super(null, null);
+        }
+
+        @Override
+        public void setContentType(String type) {
+            getHttpFields().put(HttpHeaders.CONTENT_TYPE, type);
+        }
+
+        @Override
+        public String getContentType() {
+            return getHttpFields().get(HttpHeaders.CONTENT_TYPE);
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return false;
+        }
+    }
+}
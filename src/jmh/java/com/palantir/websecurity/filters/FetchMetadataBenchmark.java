@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.palantir.websecurity.BenchmarkRequests;
+import com.palantir.websecurity.FetchMetadataConfiguration;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the decisions of a {@link FetchMetadataPolicy} for a mix of same-origin, same-site, cross-site and
+ * unknown header values, and requests through a {@link FetchMetadataFilter} with and without Fetch Metadata headers.
+ * Each benchmark returns the number of requests that were allowed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class FetchMetadataBenchmark {
+
+    /**
+     * Sec-Fetch-Site, Sec-Fetch-Mode, Sec-Fetch-Dest and the method of each request.
+     */
+    private static final String[][] HEADERS = {
+            {"same-origin", "cors", "empty", "POST"},
+            {"same-origin", "no-cors", "script", "GET"},
+            {"same-site", "no-cors", "image", "GET"},
+            {"none", "navigate", "document", "GET"},
+            {"cross-site", "navigate", "document", "GET"},
+            {"cross-site", "no-cors", "script", "GET"},
+            {"cross-site", "cors", "empty", "POST"},
+            {"cross-site", "navigate", "embed", "GET"},
+            {"other-site", "teleport", "hologram", "GET"},
+    };
+
+    private FetchMetadataPolicy policy;
+    private FetchMetadataFilter filter;
+    private Request[] requests;
+    private Response response;
+
+    @Setup
+    public void before() {
+        this.policy = FetchMetadataPolicy.of(FetchMetadataConfiguration.builder()
+                .addAllowedDestinations("image", "font")
+                .build(), false);
+        this.filter = new FetchMetadataFilter(PathPrefixTrie.builder(this.policy)
+                .put("/widget", FetchMetadataPolicy.DISABLED)
+                .build(), WebSecurityMetrics.NOOP);
+
+        // only requests that are allowed, since the response is not attached to a connection
+        this.requests = new Request[] {
+                BenchmarkRequests.request("GET", "/index.html", ""),
+                BenchmarkRequests.request("POST", "/api", "/items",
+                        FetchMetadataPolicy.SEC_FETCH_SITE, "same-origin",
+                        FetchMetadataPolicy.SEC_FETCH_MODE, "cors",
+                        FetchMetadataPolicy.SEC_FETCH_DEST, "empty"),
+                BenchmarkRequests.request("GET", "/index.html", "",
+                        FetchMetadataPolicy.SEC_FETCH_SITE, "cross-site",
+                        FetchMetadataPolicy.SEC_FETCH_MODE, "navigate",
+                        FetchMetadataPolicy.SEC_FETCH_DEST, "document"),
+                BenchmarkRequests.request("GET", "/widget", "/embed.js",
+                        FetchMetadataPolicy.SEC_FETCH_SITE, "cross-site",
+                        FetchMetadataPolicy.SEC_FETCH_MODE, "no-cors",
+                        FetchMetadataPolicy.SEC_FETCH_DEST, "script"),
+        };
+        this.response = BenchmarkRequests.response();
+    }
+
+    @Benchmark
+    public int policy() {
+        int allowed = 0;
+        for (String[] headers : HEADERS) {
+            if (this.policy.isAllowed(headers[0], headers[1], headers[2], headers[3])) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+
+    @Benchmark
+    public int filter() throws IOException, ServletException {
+        for (Request request : this.requests) {
+            BenchmarkRequests.reset(request);
+            this.filter.doFilter(request, this.response, BenchmarkRequests.NO_OP_CHAIN);
+        }
+        return this.requests.length;
+    }
+}
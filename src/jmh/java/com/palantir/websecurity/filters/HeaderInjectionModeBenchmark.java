@@ -0,0 +1,110 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks whole requests through a Jetty server without the security headers, with the headers injected by a
+ * {@link JerseyAwareWebSecurityFilter} mapped to every dispatch, and with the headers injected by a
+ * {@link WebSecurityHeaderCustomizer}. The {@code forward} requests are dispatched twice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class HeaderInjectionModeBenchmark {
+
+    private static final String JERSEY_ROOT = "/api/*";
+
+    /**
+     * How the headers are injected.
+     */
+    public enum InjectionMode {
+        NONE, FILTER, CONNECTOR
+    }
+
+    @Param
+    private InjectionMode mode;
+
+    @Param({"/assets/index.html", "/forward/index.html"})
+    private String path;
+
+    private Server server;
+    private LocalConnector connector;
+    private String request;
+
+    @Setup
+    public void before() throws Exception {
+        this.server = new Server();
+        this.connector = new LocalConnector(this.server);
+        this.server.addConnector(this.connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(new ServletHolder(new OkServlet()), "/assets/*");
+        context.addServlet(new ServletHolder(new ForwardServlet()), "/forward/*");
+        this.server.setHandler(context);
+
+        PathPrefixTrie<WebSecurityHeaderInjector> injectors =
+                PathPrefixTrie.of(new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT));
+        if (this.mode == InjectionMode.FILTER) {
+            JerseyAwareWebSecurityFilter filter =
+                    new JerseyAwareWebSecurityFilter(injectors, JERSEY_ROOT, WebSecurityMetrics.NOOP);
+            context.addFilter(new FilterHolder(filter), "/*", EnumSet.allOf(DispatcherType.class));
+        } else if (this.mode == InjectionMode.CONNECTOR) {
+            new WebSecurityHeaderCustomizer(injectors, context, JERSEY_ROOT, WebSecurityMetrics.NOOP)
+                    .install(this.server);
+        }
+
+        this.server.start();
+        this.request = "GET " + this.path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+    }
+
+    @TearDown
+    public void after() throws Exception {
+        this.server.stop();
+    }
+
+    @Benchmark
+    public String request() throws Exception {
+        return this.connector.getResponses(this.request);
+    }
+
+    private static final class OkServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+            resp.setStatus(HttpServletResponse.SC_OK);
+        }
+    }
+
+    private static final class ForwardServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException, ServletException {
+            req.getRequestDispatcher("/assets" + req.getPathInfo()).forward(req, resp);
+        }
+    }
+}
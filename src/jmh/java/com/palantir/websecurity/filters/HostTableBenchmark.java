@@ -0,0 +1,80 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks looking up the tenant of a {@code Host} header in a {@link HostTable}, which should not depend on the
+ * number of tenants, against a {@link HashMap} that needs the host normalized first. One in four requests is for an
+ * unknown host.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class HostTableBenchmark {
+
+    private static final int REQUESTS = 1024;
+
+    @Param({"1", "1000", "50000"})
+    private int tenants;
+
+    private HostTable<String> table;
+    private Map<String, String> map;
+    private String[] hosts;
+    private int index;
+
+    @Setup
+    public void before() {
+        HostTable.Builder<String> builder = HostTable.builder("default");
+        this.map = new HashMap<>();
+        for (int tenant = 0; tenant < this.tenants; tenant++) {
+            builder.put(tenantHost(tenant), "tenant" + tenant);
+            this.map.put(tenantHost(tenant), "tenant" + tenant);
+        }
+        this.table = builder.build();
+
+        this.hosts = new String[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            int tenant = (int) ((i * 2654435761L) % this.tenants);
+            this.hosts[i] = i % 4 == 3 ? "unknown" + i + ".example.com:8443" : "Tenant" + tenant + ".Example.com:8443";
+        }
+    }
+
+    @Benchmark
+    public String hostTable() {
+        return this.table.get(nextHost());
+    }
+
+    @Benchmark
+    public String hashMap() {
+        String host = nextHost();
+        int colon = host.indexOf(':');
+        String value = this.map.get((colon < 0 ? host : host.substring(0, colon)).toLowerCase(Locale.ROOT));
+        return value == null ? "default" : value;
+    }
+
+    private String nextHost() {
+        String host = this.hosts[this.index];
+        this.index = (this.index + 1) % REQUESTS;
+        return host;
+    }
+
+    private static String tenantHost(int tenant) {
+        return "tenant" + tenant + ".example.com";
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.palantir.websecurity.BenchmarkRequests;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks writing large HTML pages through a {@link NonceHtmlResponseWrapper}, compared to writing them straight to
+ * the response. Pages are written in chunks, the way a servlet copies a resource to the response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class HtmlNonceBenchmark {
+
+    private static final String NONCE = "0123456789abcdefABCDEF+/";
+
+    private static final String SECTION = "<div class=\"row\"><p>Lorem ipsum <b>dolor</b> sit amet, consectetur "
+            + "adipiscing elit.</p><!-- <script> in a comment --><a href=\"/docs?a=1&amp;b=2\">docs</a></div>\n"
+            + "<script src=\"/js/app.js\"></script><style>.row > p { color: red; }</style>\n"
+            + "<script>var markup = '<script>' + \"</scripts>\";</script>\n";
+
+    @Param({"65536", "1048576"})
+    private int pageBytes;
+
+    @Param("8192")
+    private int chunkBytes;
+
+    private final DiscardingOutputStream output = new DiscardingOutputStream();
+    private final HttpServletResponse response = new HtmlResponse(this.output);
+
+    private byte[] page;
+
+    @Setup
+    public void before() {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html>\n<html><head><title>page</title></head><body>\n");
+        while (html.length() < this.pageBytes) {
+            html.append(SECTION);
+        }
+        html.append("</body></html>\n");
+        this.page = html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public long passThrough() throws IOException {
+        return write(this.response.getOutputStream());
+    }
+
+    @Benchmark
+    public long rewrite() throws IOException {
+        return write(new NonceHtmlResponseWrapper(this.response, NONCE).getOutputStream());
+    }
+
+    private long write(ServletOutputStream stream) throws IOException {
+        this.output.written = 0;
+        for (int offset = 0; offset < this.page.length; offset += this.chunkBytes) {
+            stream.write(this.page, offset, Math.min(this.chunkBytes, this.page.length - offset));
+        }
+        return this.output.written;
+    }
+
+    /**
+     * A response that always has HTML content and writes to a {@link DiscardingOutputStream}.
+     */
+    private static final class HtmlResponse extends HttpServletResponseWrapper {
+        private final ServletOutputStream output;
+
+        HtmlResponse(ServletOutputStream output) {
+            super(BenchmarkRequests.response());
+            this.output = output;
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/html;charset=utf-8";
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return this.output;
+        }
+    }
+
+    /**
+     * Counts the bytes written to it, so the writes can't be optimized away.
+     */
+    private static final class DiscardingOutputStream extends ServletOutputStream {
+        private long written;
+
+        @Override
+        public void write(int value) {
+            this.written++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            this.written += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            // intentionally left blank
+        }
+    }
+}
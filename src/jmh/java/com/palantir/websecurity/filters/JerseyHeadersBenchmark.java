@@ -0,0 +1,65 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.BenchmarkRequests;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import org.eclipse.jetty.server.Request;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks injecting the headers into the response of an annotated Jersey resource method, as the response filters
+ * of the {@link WebSecurityHeadersFeature} do, compared to injecting them into a servlet response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class JerseyHeadersBenchmark {
+
+    private final WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT);
+
+    private final Request servletRequest = BenchmarkRequests.request("GET", "/api", "/hello",
+            HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CHROME);
+    private final org.eclipse.jetty.server.Response servletResponse = BenchmarkRequests.response();
+
+    private ContainerRequest jerseyRequest;
+    private ContainerResponse jerseyResponse;
+
+    @Setup
+    public void before() {
+        this.jerseyRequest = new ContainerRequest(URI.create("http://localhost/api/"),
+                URI.create("http://localhost/api/hello"), "GET", null, new MapPropertiesDelegate());
+        this.jerseyRequest.header(HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CHROME);
+        this.jerseyResponse = new ContainerResponse(this.jerseyRequest, Response.ok().build());
+    }
+
+    @Benchmark
+    public Object jerseyResponse() {
+        this.jerseyResponse.getHeaders().clear();
+        this.injector.injectHeaders(this.jerseyRequest, this.jerseyResponse);
+        return this.jerseyResponse;
+    }
+
+    @Benchmark
+    public Object servletResponse() {
+        BenchmarkRequests.reset(this.servletResponse);
+        this.injector.injectHeaders(this.servletRequest, this.servletResponse);
+        return this.servletResponse;
+    }
+}
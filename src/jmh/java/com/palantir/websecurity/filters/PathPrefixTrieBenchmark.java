@@ -0,0 +1,59 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks looking up the policy of a request path in a {@link PathPrefixTrie}, which should depend on the length of
+ * the path rather than on the number of prefixes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class PathPrefixTrieBenchmark {
+
+    private static final String[][] PATHS = {
+            {"/index.html", null},
+            {"/api", "/v1/users/1234/settings"},
+            {"/docs", "/guides/getting-started.html"},
+            {"/widget", "/frame.html"},
+    };
+
+    @Param({"0", "4", "64", "1024"})
+    private int prefixes;
+
+    private PathPrefixTrie<String> trie;
+    private int index;
+
+    @Setup
+    public void before() {
+        PathPrefixTrie.Builder<String> builder = PathPrefixTrie.builder("root");
+        if (this.prefixes > 0) {
+            builder.put("/docs", "docs").put("/widget", "widget").put("/api/v1/public", "public");
+        }
+        for (int prefix = 3; prefix < this.prefixes; prefix++) {
+            builder.put("/app" + prefix + "/section" + prefix, "app" + prefix);
+        }
+        this.trie = builder.build();
+    }
+
+    @Benchmark
+    public String get() {
+        String[] path = PATHS[this.index];
+        this.index = (this.index + 1) % PATHS.length;
+
+        return this.trie.get(path[0], path[1]);
+    }
+}
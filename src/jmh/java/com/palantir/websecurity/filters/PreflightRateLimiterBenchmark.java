@@ -0,0 +1,66 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks taking a token from the {@link PreflightRateLimiter}: for an allowed origin under its limit, for an
+ * allowed origin far over its limit, and for a flood of distinct origins that are not allowed. Run with more threads,
+ * e.g. {@code -t 4}, to see how it scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class PreflightRateLimiterBenchmark {
+
+    private static final int ORIGINS = 4096;
+
+    private final PreflightRateLimiter underLimit =
+            new PreflightRateLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE, 1024, System::nanoTime);
+    private final PreflightRateLimiter overLimit = new PreflightRateLimiter(1, 1, 1024, System::nanoTime);
+    private final String[] origins = new String[ORIGINS];
+
+    @Setup
+    public void before() {
+        for (int i = 0; i < ORIGINS; i++) {
+            this.origins[i] = "https://evil" + i + ".example.org";
+        }
+    }
+
+    @Benchmark
+    public boolean allowedOriginUnderLimit() {
+        return this.underLimit.tryAcquire("https://app.example.com", true);
+    }
+
+    @Benchmark
+    public boolean allowedOriginOverLimit() {
+        return this.overLimit.tryAcquire("https://app.example.com", true);
+    }
+
+    @Benchmark
+    public boolean rejectedOriginFlood(ThreadIndex index) {
+        return this.overLimit.tryAcquire(this.origins[index.next()], false);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+
+        private int index;
+
+        int next() {
+            this.index = (this.index + 1) & (ORIGINS - 1);
+            return this.index;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.BenchmarkRequests;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the per-request cost of the security header filters and the {@link WebSecurityHeaderInjector}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class WebSecurityFilterBenchmark {
+
+    private static final String JERSEY_ROOT = "/api/*";
+
+    /**
+     * The requests sent to the filter, cycled through in order.
+     */
+    public enum RequestMix {
+        ASSET_MODERN(asset(BenchmarkRequests.USER_AGENT_CHROME)),
+        ASSET_IE(asset(BenchmarkRequests.USER_AGENT_IE_10), asset(BenchmarkRequests.USER_AGENT_IE_11)),
+        JERSEY(jersey(BenchmarkRequests.USER_AGENT_CLIENT), jersey(BenchmarkRequests.USER_AGENT_CHROME)),
+        // REST heavy traffic of an application that also serves its own frontend
+        MIXED(
+                jersey(BenchmarkRequests.USER_AGENT_CLIENT),
+                jersey(BenchmarkRequests.USER_AGENT_CHROME),
+                jersey(BenchmarkRequests.USER_AGENT_CLIENT),
+                asset(BenchmarkRequests.USER_AGENT_CHROME),
+                jersey(BenchmarkRequests.USER_AGENT_CHROME),
+                jersey(BenchmarkRequests.USER_AGENT_CLIENT),
+                asset(BenchmarkRequests.USER_AGENT_IE_11),
+                jersey(BenchmarkRequests.USER_AGENT_CHROME));
+
+        private final Request[] requests;
+
+        RequestMix(Request... requests) {
+            this.requests = requests;
+        }
+
+        private static Request asset(String userAgent) {
+            return BenchmarkRequests.request("GET", "", "/index.html", HttpHeaders.USER_AGENT, userAgent);
+        }
+
+        private static Request jersey(String userAgent) {
+            return BenchmarkRequests.request("GET", "/api", "/hello", HttpHeaders.USER_AGENT, userAgent);
+        }
+    }
+
+    @Param
+    private RequestMix mix;
+
+    private final Response response = BenchmarkRequests.response();
+
+    private WebSecurityHeaderInjector injector;
+    private WebSecurityFilter webSecurityFilter;
+    private JerseyAwareWebSecurityFilter jerseyAwareFilter;
+
+    private Request[] requests;
+    private int index;
+
+    private final FilterChain forwardChain = (req, resp) -> {
+        ((Request) req).setDispatcherType(DispatcherType.FORWARD);
+        this.jerseyAwareFilter.doFilter(req, resp, BenchmarkRequests.NO_OP_CHAIN);
+    };
+
+    @Setup
+    public void before() {
+        this.injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT);
+        this.webSecurityFilter = new WebSecurityFilter(WebSecurityConfiguration.DEFAULT);
+        this.jerseyAwareFilter = new JerseyAwareWebSecurityFilter(WebSecurityConfiguration.DEFAULT, JERSEY_ROOT);
+        this.requests = this.mix.requests;
+    }
+
+    @Benchmark
+    public Response injectHeaders() {
+        this.injector.injectHeaders(nextRequest(), this.response);
+        return this.response;
+    }
+
+    @Benchmark
+    public Response webSecurityFilter() throws IOException, ServletException {
+        this.webSecurityFilter.doFilter(nextRequest(), this.response, BenchmarkRequests.NO_OP_CHAIN);
+        return this.response;
+    }
+
+    @Benchmark
+    public Response jerseyAwareWebSecurityFilter() throws IOException, ServletException {
+        this.jerseyAwareFilter.doFilter(nextRequest(), this.response, BenchmarkRequests.NO_OP_CHAIN);
+        return this.response;
+    }
+
+    /**
+     * A request that is forwarded once, so the filter sees it twice.
+     */
+    @Benchmark
+    public Response jerseyAwareWebSecurityFilterForward() throws IOException, ServletException {
+        this.jerseyAwareFilter.doFilter(nextRequest(), this.response, this.forwardChain);
+        return this.response;
+    }
+
+    private Request nextRequest() {
+        // every invocation starts from an empty response, like a fresh exchange would
+        BenchmarkRequests.reset(this.response);
+
+        Request request = this.requests[this.index];
+        this.index = (this.index + 1) % this.requests.length;
+        BenchmarkRequests.reset(request);
+        return request;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.BenchmarkRequests;
+import com.palantir.websecurity.CorsConfiguration;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the overhead of {@link DropwizardWebSecurityMetrics} on the filters, compared to
+ * {@link WebSecurityMetrics#NOOP}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("checkstyle:designforextension")
+public class WebSecurityMetricsBenchmark {
+
+    private static final String ORIGIN = "https://app.example.com";
+
+    private static final Request[] HEADER_REQUESTS = {
+            BenchmarkRequests.request("GET", "/api", "/hello",
+                    HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CLIENT),
+            BenchmarkRequests.request("GET", "", "/index.html",
+                    HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_CHROME),
+            BenchmarkRequests.request("GET", "", "/index.html",
+                    HttpHeaders.USER_AGENT, BenchmarkRequests.USER_AGENT_IE_11),
+    };
+
+    private static final Request[] CORS_REQUESTS = {
+            BenchmarkRequests.request("GET", "/api", "/hello",
+                    HttpHeaders.ORIGIN, ORIGIN),
+            BenchmarkRequests.request("GET", "/api", "/hello",
+                    HttpHeaders.ORIGIN, "https://evil.example.org"),
+            BenchmarkRequests.request("OPTIONS", "/api", "/hello",
+                    HttpHeaders.ORIGIN, ORIGIN,
+                    HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "PUT",
+                    HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, "authorization, content-type"),
+    };
+
+    @Param({"false", "true"})
+    private boolean metricsEnabled;
+
+    private final Response response = BenchmarkRequests.response();
+
+    private JerseyAwareWebSecurityFilter jerseyAwareFilter;
+    private CorsFilter corsFilter;
+
+    private int headerIndex;
+    private int corsIndex;
+
+    @Setup
+    public void before() {
+        WebSecurityMetrics metrics = WebSecurityMetrics.NOOP;
+        if (this.metricsEnabled) {
+            metrics = new DropwizardWebSecurityMetrics(new MetricRegistry());
+        }
+
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT,
+                new CachingBrowserClassifier(new UserAgentBrowserClassifier()), metrics);
+        this.jerseyAwareFilter = new JerseyAwareWebSecurityFilter(injector, "/api/*", metrics);
+        this.corsFilter = new CorsFilter(CorsConfiguration.builder().allowedOrigins(ORIGIN).build(), metrics);
+    }
+
+    @Benchmark
+    public Response jerseyAwareWebSecurityFilter() throws IOException, ServletException {
+        BenchmarkRequests.reset(this.response);
+
+        Request request = HEADER_REQUESTS[this.headerIndex];
+        this.headerIndex = (this.headerIndex + 1) % HEADER_REQUESTS.length;
+        BenchmarkRequests.reset(request);
+
+        this.jerseyAwareFilter.doFilter(request, this.response, BenchmarkRequests.NO_OP_CHAIN);
+        return this.response;
+    }
+
+    @Benchmark
+    public Response corsFilter() throws IOException, ServletException {
+        BenchmarkRequests.reset(this.response);
+
+        Request request = CORS_REQUESTS[this.corsIndex];
+        this.corsIndex = (this.corsIndex + 1) % CORS_REQUESTS.length;
+        BenchmarkRequests.reset(request);
+
+        this.corsFilter.doFilter(request, this.response, BenchmarkRequests.NO_OP_CHAIN);
+        return this.response;
+    }
+}
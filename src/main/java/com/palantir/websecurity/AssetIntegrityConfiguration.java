@@ -0,0 +1,91 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Optional;
+import com.palantir.websecurity.filters.AssetIntegrityScanner;
+import io.dropwizard.validation.ValidationMethod;
+import java.util.List;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the {@link AssetIntegrityScanner}, which hashes the scripts and styles of the application's assets
+ * when it starts. If a value is not set, the default is used.
+ */
+@Value.Immutable
+@ImmutableStyles
+@JsonDeserialize(as = ImmutableAssetIntegrityConfiguration.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class AssetIntegrityConfiguration {
+
+    /**
+     * Directories of assets on disk, e.g. {@code /opt/my-app/assets}.
+     */
+    public abstract List<String> directories();
+
+    /**
+     * Directories of assets on the class path, e.g. {@code /assets} for the default {@code AssetsBundle}, in every jar
+     * and directory of the class path that has them.
+     */
+    public abstract List<String> classpathRoots();
+
+    /**
+     * The file the digests are cached in, with the size and modification time of the file they were computed from, so
+     * that a restart only hashes the assets that changed. Not cached by default.
+     */
+    public abstract Optional<String> index();
+
+    /**
+     * The file the Subresource Integrity manifest is written to: a JSON object of the {@code integrity} attribute of
+     * each script and style, keyed by its path within its directory. Not written by default.
+     */
+    public abstract Optional<String> manifest();
+
+    /**
+     * The number of threads hashing assets. Defaults to the number of processors.
+     */
+    public abstract Optional<Integer> threads();
+
+    /**
+     * Determines if the assets are scanned. Returns true if there are {@link #directories()} or
+     * {@link #classpathRoots()}, false otherwise.
+     */
+    @Value.Derived
+    public boolean enabled() {
+        return !directories().isEmpty() || !classpathRoots().isEmpty();
+    }
+
+    @ValidationMethod(message = "threads must be positive")
+    private boolean isThreadsValid() {
+        return threads().or(1) > 0;
+    }
+
+    /**
+     * Provides a configuration with default values, which is disabled.
+     */
+    public static final AssetIntegrityConfiguration DEFAULT = AssetIntegrityConfiguration.builder().build();
+
+    // hides implementation details
+    public static Builder builder() {
+        return ImmutableAssetIntegrityConfiguration.builder();
+    }
+
+    // hides implementation details
+    public interface Builder {
+
+        Builder addDirectories(String directory);
+
+        Builder addClasspathRoots(String classpathRoot);
+
+        Builder index(String index);
+
+        Builder manifest(String manifest);
+
+        Builder threads(int threads);
+
+        AssetIntegrityConfiguration build();
+    }
+}
@@ -7,18 +7,18 @@ package com.palantir.websecurity;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
+import com.palantir.websecurity.filters.CorsFilter;
 import io.dropwizard.validation.ValidationMethod;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
-import org.eclipse.jetty.servlets.CrossOriginFilter;
 import org.immutables.value.Value;
 
 /**
- * Configuration class used to set the properties for a {@link CrossOriginFilter}. If a value is not set it will not be
- * passed in as an initial parameter.
+ * Configuration class used to set the properties for a {@link CorsFilter}. The properties have the same meaning as the
+ * initial parameters of Jetty's {@code CrossOriginFilter}. If a value is not set, the default is used.
  */
 @Value.Immutable
 @ImmutableStyles
@@ -29,32 +29,38 @@ public abstract class CorsConfiguration {
     private static final String DISABLED_ORIGINS = "";
 
     /**
-     * If set, will be used to set the initial property {@code allowCredentials}.
+     * If set, will be used to set the property {@code allowCredentials}.
      */
     public abstract Optional<Boolean> allowCredentials();
 
     /**
-     * If set, will be used to set the initial property {@code allowedHeaders}.
+     * If set, will be used to set the property {@code allowedHeaders}.
      */
     public abstract Optional<String> allowedHeaders();
 
     /**
-     * If set, will be used to set the initial property {@code allowedMethods}.
+     * If set, will be used to set the property {@code allowedMethods}.
      */
     public abstract Optional<String> allowedMethods();
 
     /**
-     * If set, will be used to set the initial property {@code allowedOrigins}.
+     * If set, will be used to set the property {@code allowedOrigins}.
      */
     public abstract Optional<String> allowedOrigins();
 
     /**
-     * If set, will be used to set the initial property {@code chainPreflight}.
+     * If set to true, allowed preflight requests are answered by the filter and are not passed down the chain,
+     * regardless of {@link #chainPreflight()}. Defaults to false.
+     */
+    public abstract Optional<Boolean> answerPreflight();
+
+    /**
+     * If set, will be used to set the property {@code chainPreflight}.
      */
     public abstract Optional<Boolean> chainPreflight();
 
     /**
-     * Determines if {@link CrossOriginFilter} is applied. Returns true if there is an {@link #allowedOrigins()} value
+     * Determines if {@link CorsFilter} is applied. Returns true if there is an {@link #allowedOrigins()} value
      * set to a non-empty string, false otherwise.
      */
     @Value.Derived
@@ -63,15 +69,34 @@ public abstract class CorsConfiguration {
     }
 
     /**
-     * If set, will be used to set the initial property {@code exposedHeaders}.
+     * If set, will be used to set the property {@code exposedHeaders}.
      */
     public abstract Optional<String> exposedHeaders();
 
     /**
-     * If set, will be used to set the initial property {@code preflightMaxAge}.
+     * If set, will be used to set the property {@code preflightMaxAge}.
      */
     public abstract Optional<Long> preflightMaxAge();
 
+    /**
+     * The number of preflight requests per second allowed from each allowed origin, beyond which they are answered
+     * with {@code 429 Too Many Requests}. Origins only allowed by {@code *} count towards the
+     * {@link #rejectedPreflightRateLimit()} instead. Not limited if not set or 0.
+     */
+    public abstract Optional<Integer> preflightRateLimit();
+
+    /**
+     * The number of preflight requests per second allowed from all origins that are not allowed, or only allowed by
+     * {@code *}, together, beyond which they are answered with {@code 429 Too Many Requests}. Not limited if not set
+     * or 0.
+     */
+    public abstract Optional<Integer> rejectedPreflightRateLimit();
+
+    @ValidationMethod(message = "preflightRateLimit and rejectedPreflightRateLimit can't be negative")
+    private boolean isRateLimitsValid() {
+        return preflightRateLimit().or(0) >= 0 && rejectedPreflightRateLimit().or(0) >= 0;
+    }
+
     @ValidationMethod(message = "preflightMaxAge can't be negative")
     private boolean isPreflightMaxAgeNegative() {
         return preflightMaxAge().or(0L) >= 0L;
@@ -157,12 +182,18 @@ public abstract class CorsConfiguration {
 
         Builder allowedOrigins(String allowedOrigins);
 
+        Builder answerPreflight(boolean answerPreflight);
+
         Builder chainPreflight(boolean chainPreflight);
 
         Builder exposedHeaders(String exposedHeaders);
 
         Builder preflightMaxAge(long preflightMaxAge);
 
+        Builder preflightRateLimit(int preflightRateLimit);
+
+        Builder rejectedPreflightRateLimit(int rejectedPreflightRateLimit);
+
         CorsConfiguration build();
     }
 }
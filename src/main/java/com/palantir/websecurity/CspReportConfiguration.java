@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Optional;
+import com.palantir.websecurity.filters.CspReportServlet;
+import io.dropwizard.validation.ValidationMethod;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the {@link CspReportServlet}, which receives the violation reports of the Content Security Policy.
+ * If a value is not set, the default is used.
+ */
+@Value.Immutable
+@ImmutableStyles
+@JsonDeserialize(as = ImmutableCspReportConfiguration.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class CspReportConfiguration {
+
+    private static final String DISABLED_PATH = "";
+
+    /**
+     * The path within the application that receives the reports, e.g. {@code /csp-reports}. The path, with the
+     * application context, is added to the Content Security Policy as its {@code report-uri}.
+     */
+    public abstract Optional<String> path();
+
+    /**
+     * The number of reports waiting to be processed, beyond which new reports are dropped. Defaults to 1024.
+     */
+    public abstract Optional<Integer> queueSize();
+
+    /**
+     * The number of threads processing reports. Defaults to 1.
+     */
+    public abstract Optional<Integer> workers();
+
+    /**
+     * The largest request body read, in bytes. Defaults to 16384.
+     */
+    public abstract Optional<Integer> maxReportSize();
+
+    /**
+     * Where to keep the reports on disk. Not kept by default.
+     */
+    public abstract Optional<CspReportStoreConfiguration> store();
+
+    /**
+     * Determines if the {@link CspReportServlet} is registered. Returns true if there is a {@link #path()} value set to
+     * a non-empty string, false otherwise.
+     */
+    @Value.Derived
+    public boolean enabled() {
+        return !path().or(DISABLED_PATH).isEmpty();
+    }
+
+    @ValidationMethod(message = "path must start with '/' and can't contain wildcards or whitespace")
+    private boolean isPathValid() {
+        if (!enabled()) {
+            return true;
+        }
+
+        String path = path().get();
+        return path.startsWith("/") && path.indexOf('*') < 0 && !path.matches(".*\\s.*");
+    }
+
+    @ValidationMethod(message = "queueSize, workers and maxReportSize must be positive")
+    private boolean isSizesValid() {
+        return queueSize().or(1) > 0 && workers().or(1) > 0 && maxReportSize().or(1) > 0;
+    }
+
+    /**
+     * Provides a configuration with default values, which is disabled.
+     */
+    public static final CspReportConfiguration DEFAULT = CspReportConfiguration.builder().build();
+
+    // hides implementation details
+    public static Builder builder() {
+        return ImmutableCspReportConfiguration.builder();
+    }
+
+    // hides implementation details
+    public interface Builder {
+
+        Builder path(String path);
+
+        Builder queueSize(int queueSize);
+
+        Builder workers(int workers);
+
+        Builder maxReportSize(int maxReportSize);
+
+        Builder store(CspReportStoreConfiguration store);
+
+        CspReportConfiguration build();
+    }
+}
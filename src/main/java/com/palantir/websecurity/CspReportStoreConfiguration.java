@@ -0,0 +1,86 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Optional;
+import com.palantir.websecurity.filters.CspReportStore;
+import io.dropwizard.validation.ValidationMethod;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the {@link CspReportStore}, which keeps the received CSP violation reports in files. If a value is
+ * not set, the default is used.
+ */
+@Value.Immutable
+@ImmutableStyles
+@JsonDeserialize(as = ImmutableCspReportStoreConfiguration.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class CspReportStoreConfiguration {
+
+    private static final String DISABLED_DIRECTORY = "";
+
+    /**
+     * The directory the segment files are written to, e.g. {@code /var/log/my-app/csp-reports}.
+     */
+    public abstract Optional<String> directory();
+
+    /**
+     * The size in bytes at which a segment is closed and a new one started. Defaults to 16 MiB.
+     */
+    public abstract Optional<Long> segmentSize();
+
+    /**
+     * The age in minutes at which a segment is closed and a new one started. Defaults to 60.
+     */
+    public abstract Optional<Integer> segmentMinutes();
+
+    /**
+     * The total size in bytes of the segments kept, beyond which the oldest segments are deleted. Defaults to 256 MiB.
+     */
+    public abstract Optional<Long> maxSize();
+
+    /**
+     * Determines if the reports are stored. Returns true if there is a {@link #directory()} value set to a non-empty
+     * string, false otherwise.
+     */
+    @Value.Derived
+    public boolean enabled() {
+        return !directory().or(DISABLED_DIRECTORY).isEmpty();
+    }
+
+    @ValidationMethod(message = "segmentSize, segmentMinutes and maxSize must be positive, and maxSize at least "
+            + "segmentSize")
+    private boolean isSizesValid() {
+        // compared with the defaults filled in, since either size can be larger than the other's default
+        return segmentSize().or(1L) > 0 && segmentMinutes().or(1) > 0 && maxSize().or(1L) > 0
+                && maxSize().or(WebSecurityBundle.DEFAULT_MAX_CSP_REPORT_STORE_SIZE)
+                        >= segmentSize().or(WebSecurityBundle.DEFAULT_CSP_REPORT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Provides a configuration with default values, which is disabled.
+     */
+    public static final CspReportStoreConfiguration DEFAULT = CspReportStoreConfiguration.builder().build();
+
+    // hides implementation details
+    public static Builder builder() {
+        return ImmutableCspReportStoreConfiguration.builder();
+    }
+
+    // hides implementation details
+    public interface Builder {
+
+        Builder directory(String directory);
+
+        Builder segmentSize(long segmentSize);
+
+        Builder segmentMinutes(int segmentMinutes);
+
+        Builder maxSize(long maxSize);
+
+        CspReportStoreConfiguration build();
+    }
+}
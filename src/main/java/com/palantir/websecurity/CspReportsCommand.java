@@ -0,0 +1,59 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.palantir.websecurity.filters.CspReportStore;
+import io.dropwizard.cli.Command;
+import io.dropwizard.setup.Bootstrap;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.argparse4j.inf.Namespace;
+import net.sourceforge.argparse4j.inf.Subparser;
+
+/**
+ * A command that prints the CSP violation reports kept by a {@link CspReportStore}, one JSON object per line, e.g.
+ * {@code java -jar my-app.jar csp-reports /var/log/my-app/csp-reports --minutes 15}. It reads the segment files
+ * directly, so it works whether or not the application is running.
+ */
+final class CspReportsCommand extends Command {
+
+    static final String NAME = "csp-reports";
+
+    private static final int DEFAULT_MINUTES = 60;
+
+    private final Clock clock;
+    private final PrintStream output;
+
+    CspReportsCommand() {
+        this(Clock.systemUTC(), System.out);
+    }
+
+    CspReportsCommand(Clock clock, PrintStream output) {
+        super(NAME, "Prints the CSP violation reports received in the last minutes");
+
+        this.clock = checkNotNull(clock);
+        this.output = checkNotNull(output);
+    }
+
+    @Override
+    public void configure(Subparser subparser) {
+        subparser.addArgument("directory")
+                .help("the cspReports.store.directory of the application");
+        subparser.addArgument("--minutes")
+                .type(Integer.class)
+                .setDefault(DEFAULT_MINUTES)
+                .help("how far back to print reports from");
+    }
+
+    @Override
+    public void run(Bootstrap<?> bootstrap, Namespace namespace) throws Exception {
+        long since = this.clock.millis() - TimeUnit.MINUTES.toMillis(namespace.getInt("minutes"));
+        CspReportStore.read(Paths.get(namespace.getString("directory")), since, this.output::println);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.Optional;
+import com.palantir.websecurity.filters.FetchMetadataFilter;
+import com.palantir.websecurity.filters.FetchMetadataPolicy;
+import io.dropwizard.validation.ValidationMethod;
+import java.util.Set;
+import org.immutables.value.Value;
+
+/**
+ * Configuration for the {@link FetchMetadataFilter}, which rejects cross-site requests by their {@code Sec-Fetch-Site},
+ * {@code Sec-Fetch-Mode} and {@code Sec-Fetch-Dest} headers before they reach the application. Requests from browsers
+ * that don't send these headers are always allowed. If a value is not set, the default is used.
+ */
+@Value.Immutable
+@ImmutableStyles
+@JsonDeserialize(as = ImmutableFetchMetadataConfiguration.class)
+@SuppressWarnings("checkstyle:designforextension")
+public abstract class FetchMetadataConfiguration {
+
+    /**
+     * If set to false, requests are not checked, e.g. for the paths of widgets that other sites embed. Defaults to
+     * true.
+     */
+    public abstract Optional<Boolean> enabled();
+
+    /**
+     * If set to false, requests from other origins of the same site, e.g. from {@code https://docs.example.com} to
+     * {@code https://app.example.com}, are rejected like cross-site requests. Defaults to true.
+     */
+    public abstract Optional<Boolean> allowSameSite();
+
+    /**
+     * If set to false, cross-site navigations, e.g. following a link from another site, are rejected. Otherwise
+     * {@code GET} and {@code HEAD} navigations are allowed, except to load an {@code <object>} or {@code <embed>}.
+     * Defaults to true.
+     */
+    public abstract Optional<Boolean> allowNavigations();
+
+    /**
+     * {@code Sec-Fetch-Dest} values of cross-site requests that are allowed, e.g. {@code image} for images that other
+     * sites show.
+     */
+    public abstract Set<String> allowedDestinations();
+
+    @ValidationMethod(message = "allowedDestinations must be Sec-Fetch-Dest values, e.g. image")
+    private boolean isAllowedDestinationsValid() {
+        return FetchMetadataPolicy.DESTINATIONS.containsAll(allowedDestinations());
+    }
+
+    /**
+     * Provides a configuration with default values, which is enabled.
+     */
+    public static final FetchMetadataConfiguration DEFAULT = FetchMetadataConfiguration.builder().build();
+
+    /**
+     * Provides a configuration that is disabled.
+     */
+    public static final FetchMetadataConfiguration DISABLED = FetchMetadataConfiguration.builder()
+            .enabled(false)
+            .build();
+
+    // hides implementation details
+    public static Builder builder() {
+        return ImmutableFetchMetadataConfiguration.builder();
+    }
+
+    // hides implementation details
+    public interface Builder {
+
+        Builder enabled(boolean enabled);
+
+        Builder allowSameSite(boolean allowSameSite);
+
+        Builder allowNavigations(boolean allowNavigations);
+
+        Builder addAllowedDestinations(String... allowedDestinations);
+
+        Builder addAllAllowedDestinations(Iterable<String> allowedDestinations);
+
+        FetchMetadataConfiguration build();
+    }
+}
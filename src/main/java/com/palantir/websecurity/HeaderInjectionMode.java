@@ -0,0 +1,23 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+/**
+ * Where the {@link WebSecurityBundle} injects the App Security headers.
+ */
+public enum HeaderInjectionMode {
+
+    /**
+     * A servlet filter mapped to every dispatch, see
+     * {@link com.palantir.websecurity.filters.JerseyAwareWebSecurityFilter}.
+     */
+    FILTER,
+
+    /**
+     * A customizer of the application connectors that runs once per exchange, see
+     * {@link com.palantir.websecurity.filters.WebSecurityHeaderCustomizer}.
+     */
+    CONNECTOR
+}
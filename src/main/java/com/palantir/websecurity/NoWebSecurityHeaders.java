@@ -0,0 +1,23 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Leaves the App Security headers out of the responses of a Jersey resource method, or of every method of a resource
+ * class, e.g. to exempt a method of a class annotated with {@link WebSecurityHeaders}. A method annotation replaces the
+ * annotation of its class.
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface NoWebSecurityHeaders {}
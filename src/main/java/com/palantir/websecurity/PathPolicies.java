@@ -0,0 +1,363 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.websecurity.filters.AssetDigests;
+import com.palantir.websecurity.filters.BrowserClassifier;
+import com.palantir.websecurity.filters.CorsPolicy;
+import com.palantir.websecurity.filters.FetchMetadataPolicy;
+import com.palantir.websecurity.filters.HostTable;
+import com.palantir.websecurity.filters.PathPrefixTrie;
+import com.palantir.websecurity.filters.PolicySnapshot;
+import com.palantir.websecurity.filters.WebSecurityHeaderInjector;
+import com.palantir.websecurity.filters.WebSecurityMetrics;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import javax.servlet.DispatcherType;
+
+/**
+ * Derives configurations and compiles them, with their {@link WebSecurityConfiguration#paths()} and
+ * {@link WebSecurityConfiguration#hosts()}, into the policies of the filters. Every host and path gets a fully merged
+ * configuration when it is compiled, so requests never merge configurations. Hosts and paths with equal configurations
+ * share their compiled policies.
+ */
+final class PathPolicies {
+
+    private static final String REPORT_URI = "report-uri";
+
+    private PathPolicies() {
+        // utility class
+    }
+
+    /**
+     * Applies the {@code override} on top of the {@code defaults}. Overrides of the same path or host are applied on
+     * top of each other the same way.
+     */
+    static WebSecurityConfiguration derive(WebSecurityConfiguration defaults, WebSecurityConfiguration override) {
+        return WebSecurityConfiguration.builder()
+                .from(defaults)
+                .from(override)
+                .cspDirectives(cspDirectives(defaults, override))
+                .paths(merge(defaults.paths(), override.paths()))
+                .hosts(merge(defaults.hosts(), override.hosts()))
+                .build();
+    }
+
+    private static Map<String, WebSecurityConfiguration> merge(Map<String, WebSecurityConfiguration> defaults,
+            Map<String, WebSecurityConfiguration> overrides) {
+        Map<String, WebSecurityConfiguration> merged = new LinkedHashMap<>(defaults);
+        for (Map.Entry<String, WebSecurityConfiguration> override : overrides.entrySet()) {
+            merged.merge(override.getKey(), override.getValue(), PathPolicies::derive);
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the CSP directives of the {@code override} applied on top of those of the {@code defaults}. A policy of
+     * the override replaces the directives of the defaults along with their policy.
+     */
+    private static Map<String, String> cspDirectives(WebSecurityConfiguration defaults,
+            WebSecurityConfiguration override) {
+        Map<String, String> merged = new LinkedHashMap<>();
+        if (!override.contentSecurityPolicy().isPresent()) {
+            putDirectives(merged, defaults.cspDirectives());
+        }
+        putDirectives(merged, override.cspDirectives());
+        return merged;
+    }
+
+    private static void putDirectives(Map<String, String> merged, Map<String, String> directives) {
+        for (Map.Entry<String, String> directive : directives.entrySet()) {
+            merged.put(directive.getKey().toLowerCase(Locale.ROOT), directive.getValue());
+        }
+    }
+
+    /**
+     * Returns the configuration of a path, the {@code override} of the path applied on top of the {@code root}.
+     */
+    static WebSecurityConfiguration forPath(WebSecurityConfiguration root, WebSecurityConfiguration override) {
+        return WebSecurityConfiguration.builder()
+                .from(root)
+                .from(override)
+                .cspDirectives(cspDirectives(root, override))
+                .paths(ImmutableMap.of())
+                .hosts(ImmutableMap.of())
+                .build();
+    }
+
+    /**
+     * Returns the configuration of a host, with its paths, the {@code override} of the host applied on top of the
+     * {@code root} and its paths.
+     */
+    static WebSecurityConfiguration forHost(WebSecurityConfiguration root, WebSecurityConfiguration override) {
+        return WebSecurityConfiguration.builder()
+                .from(root)
+                .from(override)
+                .cspDirectives(cspDirectives(root, override))
+                .paths(merge(root.paths(), override.paths()))
+                .hosts(ImmutableMap.of())
+                .build();
+    }
+
+    /**
+     * Adds the hash sources of the inline scripts and styles of the {@code digests} to the root, so that every path
+     * and host gets them too. Policies that allow inline scripts or styles drop {@code 'unsafe-inline'} for them.
+     */
+    static WebSecurityConfiguration withAssetHashes(WebSecurityConfiguration derived, AssetDigests digests) {
+        if (digests.scriptHashes().isEmpty() && digests.styleHashes().isEmpty()) {
+            return derived;
+        }
+        return WebSecurityConfiguration.builder()
+                .from(derived)
+                .addAllCspScriptHashes(digests.scriptHashes())
+                .addAllCspStyleHashes(digests.styleHashes())
+                .build();
+    }
+
+    /**
+     * Adds a {@code report-uri} directive with the {@code reportUri} to the Content Security Policy of the root and of
+     * every path and host that overrides it, unless the policy is turned off or already has a {@code report-uri}. A
+     * policy made up of {@link WebSecurityConfiguration#cspDirectives() directives} gets it as a directive.
+     */
+    static WebSecurityConfiguration withReportUri(WebSecurityConfiguration derived, String reportUri) {
+        String policy = derived.contentSecurityPolicy().or(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY);
+        WebSecurityConfiguration.Builder builder = WebSecurityConfiguration.builder()
+                .from(overridesWithReportUri(derived, reportUri));
+        return withReportUri(builder, policy, derived.cspDirectives(), reportUri).build();
+    }
+
+    /**
+     * Sets the {@code policy} with the {@code reportUri} added, or adds the {@code report-uri} to the directives if
+     * the policy is turned off and the directives make up the whole policy.
+     */
+    private static WebSecurityConfiguration.Builder withReportUri(WebSecurityConfiguration.Builder builder,
+            String policy, Map<String, String> directives, String reportUri) {
+        builder.contentSecurityPolicy(policy);
+        if (hasReportUri(policy) || hasReportUri(directives)) {
+            return builder;
+        }
+
+        if (!policy.trim().isEmpty()) {
+            String trimmed = CharMatcher.is(';').or(CharMatcher.whitespace()).trimTrailingFrom(policy);
+            builder.contentSecurityPolicy(trimmed + "; " + REPORT_URI + " " + reportUri);
+        } else if (!directives.isEmpty()) {
+            builder.putCspDirectives(REPORT_URI, reportUri);
+        }
+        return builder;
+    }
+
+    private static boolean hasReportUri(Map<String, String> directives) {
+        for (String directive : directives.keySet()) {
+            if (directive.equalsIgnoreCase(REPORT_URI)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasReportUri(String policy) {
+        for (String directive : Splitter.on(';').trimResults().omitEmptyStrings().split(policy)) {
+            if (directive.regionMatches(true, 0, REPORT_URI, 0, REPORT_URI.length())
+                    && (directive.length() == REPORT_URI.length()
+                            || Character.isWhitespace(directive.charAt(REPORT_URI.length())))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the {@code report-uri} to the policy of the {@code override}, if it has one, and of its paths and hosts.
+     */
+    private static WebSecurityConfiguration overridesWithReportUri(WebSecurityConfiguration override,
+            String reportUri) {
+        Map<String, WebSecurityConfiguration> paths = new LinkedHashMap<>();
+        for (Map.Entry<String, WebSecurityConfiguration> path : override.paths().entrySet()) {
+            paths.put(path.getKey(), overridesWithReportUri(path.getValue(), reportUri));
+        }
+        Map<String, WebSecurityConfiguration> hosts = new LinkedHashMap<>();
+        for (Map.Entry<String, WebSecurityConfiguration> host : override.hosts().entrySet()) {
+            hosts.put(host.getKey(), overridesWithReportUri(host.getValue(), reportUri));
+        }
+
+        WebSecurityConfiguration.Builder builder = WebSecurityConfiguration.builder()
+                .from(override)
+                .paths(paths)
+                .hosts(hosts);
+        if (override.contentSecurityPolicy().isPresent()) {
+            withReportUri(builder, override.contentSecurityPolicy().get(), override.cspDirectives(), reportUri);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Determines if CORS is enabled for the root or for any path or host.
+     */
+    static boolean isCorsEnabled(WebSecurityConfiguration derived) {
+        return isEnabledForAny(derived, PathPolicies::isCorsEnabledForRoot);
+    }
+
+    /**
+     * Determines if cross-site requests are checked for the root or for any path or host.
+     */
+    static boolean isFetchMetadataEnabled(WebSecurityConfiguration derived) {
+        return isEnabledForAny(derived, PathPolicies::isFetchMetadataEnabledForRoot);
+    }
+
+    private static boolean isEnabledForAny(WebSecurityConfiguration derived,
+            Predicate<WebSecurityConfiguration> enabled) {
+        if (isEnabledForPaths(derived, enabled)) {
+            return true;
+        }
+
+        for (WebSecurityConfiguration override : derived.hosts().values()) {
+            if (isEnabledForPaths(forHost(derived, override), enabled)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEnabledForPaths(WebSecurityConfiguration config,
+            Predicate<WebSecurityConfiguration> enabled) {
+        if (enabled.test(config)) {
+            return true;
+        }
+
+        for (WebSecurityConfiguration override : config.paths().values()) {
+            if (enabled.test(forPath(config, override))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the policies of every filter from the {@code derived} configuration into one snapshot. The CORS and
+     * Fetch Metadata policies are only compiled if their filter is registered.
+     */
+    static PolicySnapshot compile(WebSecurityConfiguration derived, BrowserClassifier classifier,
+            WebSecurityMetrics metrics) {
+        return PolicySnapshot.of(
+                compileInjectors(derived, classifier, metrics),
+                isCorsEnabled(derived) ? compileCors(derived) : PolicySnapshot.DEFAULT.corsPolicies(),
+                isFetchMetadataEnabled(derived)
+                        ? compileFetchMetadata(derived)
+                        : PolicySnapshot.DEFAULT.fetchMetadataPolicies(),
+                derived);
+    }
+
+    static HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> compileInjectors(WebSecurityConfiguration derived,
+            BrowserClassifier classifier, WebSecurityMetrics metrics) {
+        return compileHosts(derived, config -> new WebSecurityHeaderInjector(config, classifier, metrics));
+    }
+
+    static HostTable<PathPrefixTrie<CorsPolicy>> compileCors(WebSecurityConfiguration derived) {
+        return compileHosts(derived, PathPolicies::compileCorsForRoot);
+    }
+
+    static HostTable<PathPrefixTrie<FetchMetadataPolicy>> compileFetchMetadata(WebSecurityConfiguration derived) {
+        return compileHosts(derived, PathPolicies::compileFetchMetadataForRoot);
+    }
+
+    /**
+     * Compiles the root and every host of the {@code derived} configuration, with their paths, compiling each distinct
+     * configuration once.
+     */
+    private static <T> HostTable<PathPrefixTrie<T>> compileHosts(WebSecurityConfiguration derived,
+            Function<WebSecurityConfiguration, T> compiler) {
+        Map<WebSecurityConfiguration, T> compiled = new HashMap<>();
+        Map<WebSecurityConfiguration, PathPrefixTrie<T>> tries = new HashMap<>();
+        Function<WebSecurityConfiguration, PathPrefixTrie<T>> compilePaths =
+                config -> compilePaths(config, c -> compiled.computeIfAbsent(c, compiler));
+
+        WebSecurityConfiguration root = WebSecurityConfiguration.builder()
+                .from(derived)
+                .hosts(ImmutableMap.of())
+                .build();
+        HostTable.Builder<PathPrefixTrie<T>> hosts = HostTable.builder(tries.computeIfAbsent(root, compilePaths));
+
+        for (Map.Entry<String, WebSecurityConfiguration> host : derived.hosts().entrySet()) {
+            hosts.put(host.getKey(), tries.computeIfAbsent(forHost(root, host.getValue()), compilePaths));
+        }
+
+        return hosts.build();
+    }
+
+    /**
+     * Returns the distinct compiled policies of every host and path.
+     */
+    static <T> ImmutableList<T> values(HostTable<PathPrefixTrie<T>> compiled) {
+        ImmutableSet.Builder<T> values = ImmutableSet.builder();
+        for (PathPrefixTrie<T> paths : compiled.values()) {
+            values.addAll(paths.values());
+        }
+        return values.build().asList();
+    }
+
+    private static <T> PathPrefixTrie<T> compilePaths(WebSecurityConfiguration config,
+            Function<WebSecurityConfiguration, T> compiler) {
+        PathPrefixTrie.Builder<T> paths =
+                PathPrefixTrie.builder(compiler.apply(forPath(config, WebSecurityConfiguration.DEFAULT)));
+
+        for (Map.Entry<String, WebSecurityConfiguration> path : config.paths().entrySet()) {
+            paths.put(path.getKey(), compiler.apply(forPath(config, path.getValue())));
+        }
+
+        return paths.build();
+    }
+
+    /**
+     * Returns the dispatcher types the filters of the {@code derived} configuration are mapped to.
+     */
+    static EnumSet<DispatcherType> dispatcherTypes(WebSecurityConfiguration derived) {
+        return parseDispatcherTypes(derived.dispatcherTypes().or(WebSecurityBundle.DEFAULT_DISPATCHER_TYPES));
+    }
+
+    /**
+     * Parses a comma-separated list of dispatcher types, ignoring case. Throws an {@link IllegalArgumentException} for
+     * an unknown type.
+     */
+    static EnumSet<DispatcherType> parseDispatcherTypes(String dispatcherTypes) {
+        EnumSet<DispatcherType> types = EnumSet.noneOf(DispatcherType.class);
+        for (String type : Splitter.on(',').trimResults().omitEmptyStrings().split(dispatcherTypes)) {
+            types.add(DispatcherType.valueOf(type.toUpperCase(Locale.ROOT)));
+        }
+        return types;
+    }
+
+    private static CorsPolicy compileCorsForRoot(WebSecurityConfiguration config) {
+        return isCorsEnabledForRoot(config) ? CorsPolicy.of(config.cors().get()) : CorsPolicy.DISABLED;
+    }
+
+    private static boolean isCorsEnabledForRoot(WebSecurityConfiguration config) {
+        return config.cors().isPresent() && config.cors().get().enabled();
+    }
+
+    /**
+     * Compiles the Fetch Metadata policy of the {@code config}, which allows cross-site CORS requests where CORS is
+     * enabled, since the {@link com.palantir.websecurity.filters.CorsFilter} decides on those.
+     */
+    private static FetchMetadataPolicy compileFetchMetadataForRoot(WebSecurityConfiguration config) {
+        return isFetchMetadataEnabledForRoot(config)
+                ? FetchMetadataPolicy.of(config.fetchMetadata().get(), isCorsEnabledForRoot(config))
+                : FetchMetadataPolicy.DISABLED;
+    }
+
+    private static boolean isFetchMetadataEnabledForRoot(WebSecurityConfiguration config) {
+        return config.fetchMetadata().isPresent()
+                && config.fetchMetadata().get().enabled().or(FetchMetadataPolicy.DEFAULT_ENABLED);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+
+/**
+ * An admin task that reloads the web security configuration from the
+ * {@link WebSecurityConfiguration#reloadFile()}. If the configuration is invalid the task fails and the filters keep
+ * their current policy.
+ */
+final class ReloadWebSecurityTask extends Task {
+
+    static final String NAME = "reload-web-security";
+
+    private final WebSecurityReloader reloader;
+    private final Path file;
+
+    ReloadWebSecurityTask(WebSecurityReloader reloader, Path file) {
+        super(NAME);
+
+        this.reloader = checkNotNull(reloader);
+        this.file = checkNotNull(file);
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        WebSecurityConfiguration configuration = this.reloader.reload(this.file);
+        output.println("Reloaded web security configuration from " + this.file + ": " + configuration);
+    }
+}
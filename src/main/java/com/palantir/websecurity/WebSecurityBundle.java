@@ -7,19 +7,44 @@ package com.palantir.websecurity;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.palantir.websecurity.filters.AssetDigests;
+import com.palantir.websecurity.filters.AssetIntegrityScanner;
+import com.palantir.websecurity.filters.CachingBrowserClassifier;
+import com.palantir.websecurity.filters.CorsFilter;
+import com.palantir.websecurity.filters.CorsPolicy;
+import com.palantir.websecurity.filters.CspReportAdminServlet;
+import com.palantir.websecurity.filters.CspReportAggregator;
+import com.palantir.websecurity.filters.CspReportListener;
+import com.palantir.websecurity.filters.CspReportQueue;
+import com.palantir.websecurity.filters.CspReportServlet;
+import com.palantir.websecurity.filters.CspReportStore;
+import com.palantir.websecurity.filters.DropwizardWebSecurityMetrics;
+import com.palantir.websecurity.filters.FetchMetadataFilter;
 import com.palantir.websecurity.filters.JerseyAwareWebSecurityFilter;
+import com.palantir.websecurity.filters.PolicyReference;
+import com.palantir.websecurity.filters.UserAgentBrowserClassifier;
+import com.palantir.websecurity.filters.WebSecurityHeaderCustomizer;
+import com.palantir.websecurity.filters.WebSecurityHeadersFeature;
+import com.palantir.websecurity.filters.WebSecurityMetrics;
 import io.dropwizard.Configuration;
 import io.dropwizard.ConfiguredBundle;
 import io.dropwizard.server.AbstractServerFactory;
+import io.dropwizard.server.DefaultServerFactory;
+import io.dropwizard.server.SimpleServerFactory;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
-import java.util.EnumSet;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 import java.util.Optional;
-import javax.servlet.DispatcherType;
-import javax.servlet.FilterRegistration;
-import org.eclipse.jetty.servlets.CrossOriginFilter;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
 
 /**
  * Applies and configures security filters to the application.
@@ -41,10 +66,62 @@ public final class WebSecurityBundle implements ConfiguredBundle<WebSecurityConf
      */
     public static final boolean DEFAULT_ALLOW_CREDENTIALS = false;
 
+    /**
+     * The default value of Metrics Enabled. Metrics are opt-in.
+     */
+    public static final boolean DEFAULT_METRICS_ENABLED = false;
+
+    /**
+     * The default value of Watch Reload File. The reload file is only reloaded by the admin task.
+     */
+    public static final boolean DEFAULT_WATCH_RELOAD_FILE = false;
+
+    /**
+     * The default value of Header Injection. Headers are injected by a servlet filter.
+     */
+    public static final HeaderInjectionMode DEFAULT_HEADER_INJECTION = HeaderInjectionMode.FILTER;
+
+    /**
+     * The default value of Dispatcher Types. The filters see every dispatch, but only do their work on the first.
+     */
+    public static final String DEFAULT_DISPATCHER_TYPES = "REQUEST,FORWARD,INCLUDE,ASYNC,ERROR";
+
+    /**
+     * The default value of CSP Report Queue Size. Reports beyond it are dropped until the workers catch up.
+     */
+    public static final int DEFAULT_CSP_REPORT_QUEUE_SIZE = 1024;
+
+    /**
+     * The default value of CSP Report Workers.
+     */
+    public static final int DEFAULT_CSP_REPORT_WORKERS = 1;
+
+    /**
+     * The default value of Max CSP Report Size, in bytes. Enough for a batch of reports with long URIs.
+     */
+    public static final int DEFAULT_MAX_CSP_REPORT_SIZE = 16384;
+
+    /**
+     * The default value of CSP Report Segment Size, in bytes.
+     */
+    public static final long DEFAULT_CSP_REPORT_SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * The default value of CSP Report Segment Minutes.
+     */
+    public static final int DEFAULT_CSP_REPORT_SEGMENT_MINUTES = 60;
+
+    /**
+     * The default value of Max CSP Report Store Size, in bytes.
+     */
+    public static final long DEFAULT_MAX_CSP_REPORT_STORE_SIZE = 256L * 1024 * 1024;
+
     private static final String ROOT_PATH = "/*";
 
     private final WebSecurityConfiguration applicationDefaults;
-    private WebSecurityConfiguration derivedConfiguration = null;
+    private final CspReportListener reportListener;
+    private WebSecurityReloader reloader = null;
+    private AssetDigests assetDigests = null;
 
     /**
      * Constructs a bundle with the out of the box defaults.
@@ -57,13 +134,23 @@ public final class WebSecurityBundle implements ConfiguredBundle<WebSecurityConf
      * Constructs a bundle with the {@link #applicationDefaults} as the application defaults.
      */
     public WebSecurityBundle(WebSecurityConfiguration applicationDefaults) {
+        this(applicationDefaults, CspReportListener.LOG);
+    }
+
+    /**
+     * Constructs a bundle with the {@link #applicationDefaults} as the application defaults, which passes the CSP
+     * violation reports it receives to the {@code reportListener} rather than logging them.
+     */
+    public WebSecurityBundle(WebSecurityConfiguration applicationDefaults, CspReportListener reportListener) {
         checkNotNull(applicationDefaults);
+        checkNotNull(reportListener);
         this.applicationDefaults = applicationDefaults;
+        this.reportListener = reportListener;
     }
 
     @Override
     public void initialize(Bootstrap<?> bootstrap) {
-        // do nothing
+        bootstrap.addCommand(new CspReportsCommand());
     }
 
     @Override
@@ -71,65 +158,246 @@ public final class WebSecurityBundle implements ConfiguredBundle<WebSecurityConf
         checkNotNull(configuration);
         checkNotNull(environment);
 
-        this.derivedConfiguration = WebSecurityConfiguration.builder()
-                .from(applicationDefaults)
-                .from(configuration.getWebSecurityConfiguration())
-                .build();
+        WebSecurityConfiguration derivedConfig =
+                PathPolicies.derive(this.applicationDefaults, configuration.getWebSecurityConfiguration());
+
+        WebSecurityMetrics metrics = WebSecurityMetrics.NOOP;
+        if (derivedConfig.metricsEnabled().or(DEFAULT_METRICS_ENABLED)) {
+            metrics = new DropwizardWebSecurityMetrics(environment.metrics());
+        }
+
+        Optional<String> cspReportUri =
+                applyCspReports(derivedConfig, environment, getApplicationContextPath(configuration), metrics);
+        if (cspReportUri.isPresent()) {
+            derivedConfig = PathPolicies.withReportUri(derivedConfig, cspReportUri.get());
+        }
+
+        this.assetDigests = scanAssets(derivedConfig.assetIntegrity().or(AssetIntegrityConfiguration.DEFAULT));
+        derivedConfig = PathPolicies.withAssetHashes(derivedConfig, this.assetDigests);
+
+        CachingBrowserClassifier classifier = new CachingBrowserClassifier(new UserAgentBrowserClassifier());
+        // shared by every filter and the Jersey feature, so a reload replaces all of their policies at once
+        PolicyReference policies = new PolicyReference(PathPolicies.compile(derivedConfig, classifier, metrics));
+        applyCors(derivedConfig, environment, policies, metrics);
+        applyWebSecurity(derivedConfig, environment, getJerseyRootPath(configuration), policies, classifier, metrics);
+        applyFetchMetadata(derivedConfig, environment, policies, metrics);
+
+        environment.jersey().register(new WebSecurityHeadersFeature(policies, classifier, metrics));
+
+        this.reloader = new WebSecurityReloader(this.applicationDefaults, derivedConfig, environment.getValidator(),
+                classifier, metrics, policies, cspReportUri, this.assetDigests);
+
+        if (derivedConfig.reloadFile().isPresent()) {
+            Path reloadFile = Paths.get(derivedConfig.reloadFile().get());
+            environment.admin().addTask(new ReloadWebSecurityTask(this.reloader, reloadFile));
 
-        applyCors(this.derivedConfiguration, environment);
-        applyWebSecurity(this.derivedConfiguration, environment, getJerseyRootPath(configuration));
+            if (derivedConfig.watchReloadFile().or(DEFAULT_WATCH_RELOAD_FILE)) {
+                environment.lifecycle().manage(new WebSecurityFileWatcher(this.reloader, reloadFile));
+            }
+        }
     }
 
     /**
-     * Returns the derived configuration. Must be called after {@link #run(WebSecurityConfigurable, Environment)}.
+     * Returns the derived configuration, which reflects the last reload. Must be called after
+     * {@link #run(WebSecurityConfigurable, Environment)}.
      */
     public WebSecurityConfiguration getDerivedConfiguration() {
-        checkState(this.derivedConfiguration != null);
-        return derivedConfiguration;
+        checkState(this.reloader != null);
+        return this.reloader.getConfiguration();
     }
 
-    private static void applyCors(WebSecurityConfiguration derivedConfig, Environment environment) {
-        if (!derivedConfig.cors().isPresent() || !derivedConfig.cors().get().enabled()) {
-            return;
+    /**
+     * Returns the digests of the assets scanned when the application started, e.g. to add the {@code integrity}
+     * attribute to the scripts and styles of a page. Must be called after
+     * {@link #run(WebSecurityConfigurable, Environment)}.
+     */
+    public AssetDigests getAssetDigests() {
+        checkState(this.assetDigests != null);
+        return this.assetDigests;
+    }
+
+    /**
+     * Replaces the policy of the filters with one derived from the application defaults and the {@code configuration},
+     * and returns the new derived configuration. The filters keep their policy if the configuration is invalid or
+     * changes {@code cspReports}, {@code assetIntegrity}, {@code metricsEnabled}, {@code headerInjection},
+     * {@code dispatcherTypes},
+     * {@code reloadFile}, {@code watchReloadFile} or whether CORS is enabled for any path, which need a restart. Must
+     * be called after {@link #run(WebSecurityConfigurable, Environment)}.
+     */
+    public WebSecurityConfiguration reload(WebSecurityConfiguration configuration) {
+        checkNotNull(configuration);
+        checkState(this.reloader != null);
+        return this.reloader.reload(configuration);
+    }
+
+    /**
+     * Hashes the assets, if asset integrity is enabled, and writes the Subresource Integrity manifest if there is one.
+     */
+    private static AssetDigests scanAssets(AssetIntegrityConfiguration config) throws IOException {
+        if (!config.enabled()) {
+            return AssetDigests.EMPTY;
         }
 
-        CrossOriginFilter filter = new CrossOriginFilter();
+        AssetIntegrityScanner.Builder builder = AssetIntegrityScanner.builder();
+        for (String directory : config.directories()) {
+            builder.directory(Paths.get(directory));
+        }
+        for (String classpathRoot : config.classpathRoots()) {
+            builder.classpathRoot(classpathRoot);
+        }
+        if (config.index().isPresent()) {
+            builder.index(Paths.get(config.index().get()));
+        }
+        if (config.threads().isPresent()) {
+            builder.threads(config.threads().get());
+        }
 
-        FilterRegistration.Dynamic dynamic = environment.servlets().addFilter("CrossOriginFilter", filter);
-        dynamic.addMappingForUrlPatterns(EnumSet.allOf(DispatcherType.class), true, ROOT_PATH);
-        dynamic.setInitParameters(buildCorsPropertyMap(derivedConfig.cors().get()));
+        AssetDigests digests = builder.build().scan();
+        if (config.manifest().isPresent()) {
+            digests.writeManifest(Paths.get(config.manifest().get()));
+        }
+        return digests;
     }
 
-    private static Map<String, String> buildCorsPropertyMap(CorsConfiguration cors) {
-        ImmutableMap.Builder<String, String> propertyBuilder = ImmutableMap.builder();
+    /**
+     * Registers the {@link CspReportServlet}, and the {@link CspReportAdminServlet} of the violations it receives on
+     * the admin connector, if CSP reports are enabled, and returns the URI the browsers post the reports to.
+     */
+    private Optional<String> applyCspReports(WebSecurityConfiguration derivedConfig, Environment environment,
+            String contextPath, WebSecurityMetrics metrics) {
+        if (!derivedConfig.cspReports().isPresent() || !derivedConfig.cspReports().get().enabled()) {
+            return Optional.empty();
+        }
+
+        CspReportConfiguration config = derivedConfig.cspReports().get();
+        CspReportAggregator aggregator = new CspReportAggregator();
+        ImmutableList.Builder<CspReportListener> listeners = ImmutableList.builder();
+        listeners.add(aggregator);
+        if (config.store().isPresent() && config.store().get().enabled()) {
+            CspReportStore store = createCspReportStore(config.store().get());
+            // managed before the queue, so it's stopped after the queue has passed on its last reports
+            environment.lifecycle().manage(store);
+            listeners.add(store);
+        }
+        listeners.add(this.reportListener);
+
+        List<CspReportListener> allListeners = listeners.build();
+        CspReportListener listener = report -> allListeners.forEach(each -> each.onReport(report));
+        CspReportQueue queue = new CspReportQueue(config.queueSize().or(DEFAULT_CSP_REPORT_QUEUE_SIZE),
+                config.workers().or(DEFAULT_CSP_REPORT_WORKERS), listener, metrics);
+        environment.lifecycle().manage(queue);
+
+        CspReportServlet servlet =
+                new CspReportServlet(queue, config.maxReportSize().or(DEFAULT_MAX_CSP_REPORT_SIZE), metrics);
+        environment.servlets()
+                .addServlet("CspReportServlet", servlet)
+                .addMapping(config.path().get());
+        environment.admin()
+                .addServlet("csp-reports", new CspReportAdminServlet(aggregator))
+                .addMapping("/csp-reports");
 
-        propertyBuilder.put(CrossOriginFilter.ALLOWED_ORIGINS_PARAM, cors.allowedOrigins().get());
-        propertyBuilder.put(CrossOriginFilter.ALLOWED_METHODS_PARAM, cors.allowedMethods().or(DEFAULT_ALLOWED_METHODS));
-        propertyBuilder.put(CrossOriginFilter.ALLOWED_HEADERS_PARAM, cors.allowedHeaders().or(DEFAULT_ALLOWED_HEADERS));
+        return Optional.of(contextPath + config.path().get());
+    }
 
-        String allowCredentials = Boolean.toString(cors.allowCredentials().or(DEFAULT_ALLOW_CREDENTIALS));
-        propertyBuilder.put(CrossOriginFilter.ALLOW_CREDENTIALS_PARAM, allowCredentials);
+    private static CspReportStore createCspReportStore(CspReportStoreConfiguration config) {
+        return new CspReportStore(Paths.get(config.directory().get()),
+                config.segmentSize().or(DEFAULT_CSP_REPORT_SEGMENT_SIZE),
+                TimeUnit.MINUTES.toMillis(config.segmentMinutes().or(DEFAULT_CSP_REPORT_SEGMENT_MINUTES)),
+                config.maxSize().or(DEFAULT_MAX_CSP_REPORT_STORE_SIZE));
+    }
 
-        if (cors.chainPreflight().isPresent()) {
-            propertyBuilder.put(CrossOriginFilter.CHAIN_PREFLIGHT_PARAM, Boolean.toString(cors.chainPreflight().get()));
+    private static void applyCors(WebSecurityConfiguration derivedConfig, Environment environment,
+            PolicyReference policies, WebSecurityMetrics metrics) {
+        if (!PathPolicies.isCorsEnabled(derivedConfig)) {
+            return;
         }
 
-        if (cors.preflightMaxAge().isPresent()) {
-            propertyBuilder.put(CrossOriginFilter.PREFLIGHT_MAX_AGE_PARAM, Long.toString(cors.preflightMaxAge().get()));
+        CorsFilter filter = new CorsFilter(policies, metrics);
+
+        if (metrics instanceof DropwizardWebSecurityMetrics) {
+            DropwizardWebSecurityMetrics dropwizardMetrics = (DropwizardWebSecurityMetrics) metrics;
+            // read through the reference, since the policies and caches are replaced when the configuration changes
+            dropwizardMetrics.registerCache("cors.origins", () -> sumStats(
+                    PathPolicies.values(policies.get().corsPolicies()), CorsPolicy::originCacheStats));
+            dropwizardMetrics.registerCache("cors.preflights", () -> sumStats(
+                    PathPolicies.values(policies.get().corsPolicies()), CorsPolicy::preflightCacheStats));
         }
 
-        if (cors.exposedHeaders().isPresent()) {
-            propertyBuilder.put(CrossOriginFilter.EXPOSED_HEADERS_PARAM, cors.exposedHeaders().get());
+        environment.servlets()
+                .addFilter("CorsFilter", filter)
+                .addMappingForUrlPatterns(PathPolicies.dispatcherTypes(derivedConfig), true, ROOT_PATH);
+    }
+
+    /**
+     * Registers the {@link FetchMetadataFilter} if cross-site requests are checked for any path or host. It is mapped
+     * after the other filters, so that rejected requests still get the security headers.
+     */
+    private static void applyFetchMetadata(WebSecurityConfiguration derivedConfig, Environment environment,
+            PolicyReference policies, WebSecurityMetrics metrics) {
+        if (!PathPolicies.isFetchMetadataEnabled(derivedConfig)) {
+            return;
         }
 
-        return propertyBuilder.build();
+        environment.servlets()
+                .addFilter("FetchMetadataFilter", new FetchMetadataFilter(policies, metrics))
+                .addMappingForUrlPatterns(PathPolicies.dispatcherTypes(derivedConfig), true, ROOT_PATH);
     }
 
-    private static void applyWebSecurity(WebSecurityConfiguration derivedConfig, Environment env, String jerseyRoot) {
-        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(derivedConfig, jerseyRoot);
+    private static void applyWebSecurity(WebSecurityConfiguration derivedConfig, Environment env, String jerseyRoot,
+            PolicyReference policies, CachingBrowserClassifier classifier, WebSecurityMetrics metrics) {
+        if (metrics instanceof DropwizardWebSecurityMetrics) {
+            DropwizardWebSecurityMetrics dropwizardMetrics = (DropwizardWebSecurityMetrics) metrics;
+            // re-registered by the reloader whenever the injectors are replaced
+            dropwizardMetrics.registerHeaders(PathPolicies.values(policies.get().injectors()));
+            dropwizardMetrics.registerCache("headers.userAgents", classifier::stats);
+        }
+
+        if (derivedConfig.headerInjection().or(DEFAULT_HEADER_INJECTION) == HeaderInjectionMode.CONNECTOR) {
+            WebSecurityHeaderCustomizer customizer =
+                    new WebSecurityHeaderCustomizer(policies, env.getApplicationContext(), jerseyRoot, metrics);
+            // the connectors only exist once the server is built, after the bundles have run
+            env.lifecycle().addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+                @Override
+                public void lifeCycleStarting(LifeCycle event) {
+                    if (event instanceof Server) {
+                        customizer.install((Server) event);
+                    }
+                }
+            });
+            return;
+        }
+
         env.servlets()
-                .addFilter("JerseyAwareWebSecurityFilter", filter)
-                .addMappingForUrlPatterns(EnumSet.allOf(DispatcherType.class), true, ROOT_PATH);
+                .addFilter("JerseyAwareWebSecurityFilter",
+                        new JerseyAwareWebSecurityFilter(policies, jerseyRoot, metrics))
+                .addMappingForUrlPatterns(PathPolicies.dispatcherTypes(derivedConfig), true, ROOT_PATH);
+    }
+
+    private static CacheStats sumStats(List<CorsPolicy> policies, Function<CorsPolicy, CacheStats> stats) {
+        CacheStats sum = new CacheStats(0, 0, 0, 0, 0, 0);
+        for (CorsPolicy policy : policies) {
+            sum = sum.plus(stats.apply(policy));
+        }
+        return sum;
+    }
+
+    /**
+     * Determines the Application Context Path from the {@link DefaultServerFactory} or {@link SimpleServerFactory},
+     * without a trailing slash. If the value cannot be found, then the root context is assumed.
+     */
+    private static String getApplicationContextPath(WebSecurityConfigurable configuration) {
+        String contextPath = "/";
+
+        if (configuration instanceof Configuration) {
+            Configuration dwConfig = (Configuration) configuration;
+            if (dwConfig.getServerFactory() instanceof DefaultServerFactory) {
+                contextPath = ((DefaultServerFactory) dwConfig.getServerFactory()).getApplicationContextPath();
+            } else if (dwConfig.getServerFactory() instanceof SimpleServerFactory) {
+                contextPath = ((SimpleServerFactory) dwConfig.getServerFactory()).getApplicationContextPath();
+            }
+        }
+
+        return contextPath == null || contextPath.equals("/") ? "" : contextPath;
     }
 
     /**
@@ -6,6 +6,17 @@ package com.palantir.websecurity;
 
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
+import com.palantir.websecurity.filters.ContentSecurityPolicy;
+import com.palantir.websecurity.filters.HostTable;
+import com.palantir.websecurity.filters.PathPrefixTrie;
+import io.dropwizard.validation.ValidationMethod;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.DispatcherType;
 import org.immutables.value.Value.Immutable;
 
 /**
@@ -23,6 +34,59 @@ public abstract class WebSecurityConfiguration {
      */
     public abstract Optional<String> contentSecurityPolicy();
 
+    /**
+     * Directives of the {@link #contentSecurityPolicy()} to set one by one, e.g. {@code script-src} to
+     * {@code 'self' https://cdn.example.com}, each replacing the directive of the same name. Unlike the policy, which
+     * replaces the whole policy of the configuration it is applied on top of, the directives are merged with the
+     * directives of that configuration. The policy sent is minified, see {@link ContentSecurityPolicy#minify()}.
+     */
+    public abstract Map<String, String> cspDirectives();
+
+    @ValidationMethod(message = "cspDirectives must be directive names with whitespace-separated values without ';' or "
+            + "',', and contentSecurityPolicy must be a single policy to use them")
+    private boolean isCspDirectivesValid() {
+        for (WebSecurityConfiguration config : withOverrides()) {
+            for (Map.Entry<String, String> directive : config.cspDirectives().entrySet()) {
+                if (!ContentSecurityPolicy.isDirectiveName(directive.getKey())
+                        || !ContentSecurityPolicy.isDirectiveValues(directive.getValue())) {
+                    return false;
+                }
+            }
+            if (!config.cspDirectives().isEmpty() && config.contentSecurityPolicy().isPresent()
+                    && !ContentSecurityPolicy.isSinglePolicy(config.contentSecurityPolicy().get())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hash sources of inline scripts that the {@link #contentSecurityPolicy()} allows, e.g. {@code 'sha384-...'},
+     * which are added to its {@code script-src}, see
+     * {@link ContentSecurityPolicy#withHashes(String, java.util.Collection)}. The hashes of paths and hosts are added
+     * to those of the configuration they are applied on top of. The bundle adds the hashes of the inline scripts of the
+     * {@link #assetIntegrity()} assets.
+     */
+    public abstract Set<String> cspScriptHashes();
+
+    /**
+     * Hash sources of inline styles that the {@link #contentSecurityPolicy()} allows, which are added to its
+     * {@code style-src} like the {@link #cspScriptHashes()}.
+     */
+    public abstract Set<String> cspStyleHashes();
+
+    @ValidationMethod(message = "cspScriptHashes and cspStyleHashes must be hash sources, e.g. 'sha384-...'")
+    private boolean isCspHashesValid() {
+        for (WebSecurityConfiguration config : withOverrides()) {
+            for (String hash : Iterables.concat(config.cspScriptHashes(), config.cspStyleHashes())) {
+                if (!ContentSecurityPolicy.isHashSource(hash)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Value to be returned in the response header {@link com.google.common.net.HttpHeaders#X_CONTENT_TYPE_OPTIONS}.
      */
@@ -38,11 +102,237 @@ public abstract class WebSecurityConfiguration {
      */
     public abstract Optional<String> xssProtection();
 
+    /**
+     * If set to true and the {@link #contentSecurityPolicy()} contains a nonce placeholder, the nonce is also added to
+     * the {@code script} and {@code style} tags without a nonce of {@code text/html} responses as they are written.
+     * Since that includes any tags injected into the HTML, it can only be set for {@link #paths()} that serve static,
+     * trusted files. Responses handled by Jersey are not rewritten. Defaults to false.
+     */
+    public abstract Optional<Boolean> htmlNonces();
+
+    /**
+     * If set to true, the Content Security Policy, Frame Options and XSS Protection are only injected into responses
+     * whose final content type may be rendered as a document, such as HTML, XML and PDF, and into responses without a
+     * content type. Every response still gets the Content Type Options. Responses handled by Jersey are picked by
+     * their media type. Defaults to false.
+     */
+    public abstract Optional<Boolean> documentHeadersOnly();
+
+    /**
+     * If set to true, the header names are written in lower case, the way HTTP/2 sends them, and the headers that
+     * HPACK can't keep indexed across the responses of a connection, such as a Content Security Policy with a nonce,
+     * are logged when the headers are prepared. Defaults to false.
+     */
+    public abstract Optional<Boolean> http2Headers();
+
+    /**
+     * The number of bytes the security headers may add to a response, counting the name, {@code ": "}, the value and
+     * the line break of each header. Headers over the budget are logged when they are prepared, and the responses
+     * that get them are counted by the metrics. Not checked by default.
+     */
+    public abstract Optional<Integer> headerBudget();
+
+    /**
+     * Where the headers are injected. {@link HeaderInjectionMode#CONNECTOR} injects them once per exchange at the
+     * connector level, which is cheaper and also covers responses Jetty sends outside of the servlet filter chain, but
+     * can't be combined with {@link #htmlNonces()} or {@link #documentHeadersOnly()}. Defaults to
+     * {@link HeaderInjectionMode#FILTER}.
+     */
+    public abstract Optional<HeaderInjectionMode> headerInjection();
+
+    /**
+     * Comma-separated {@link DispatcherType dispatcher types} the filters are mapped to, which must include
+     * {@code REQUEST}. Each filter applies its policy once per request, so later dispatches of a request that was
+     * already handled pass straight through. Defaults to all dispatcher types.
+     */
+    public abstract Optional<String> dispatcherTypes();
+
     /**
      * Configuration for CORS functionality.
      */
     public abstract Optional<CorsConfiguration> cors();
 
+    /**
+     * Configuration for rejecting cross-site requests by their Fetch Metadata headers. Paths and hosts that set it to
+     * {@link FetchMetadataConfiguration#DISABLED} are exempt.
+     */
+    public abstract Optional<FetchMetadataConfiguration> fetchMetadata();
+
+    /**
+     * Configuration for receiving the violation reports of the {@link #contentSecurityPolicy()}.
+     */
+    public abstract Optional<CspReportConfiguration> cspReports();
+
+    /**
+     * Configuration for hashing the scripts and styles of the application's assets when it starts, for their
+     * Subresource Integrity and the {@link #cspScriptHashes()} and {@link #cspStyleHashes()} of their inline blocks.
+     */
+    public abstract Optional<AssetIntegrityConfiguration> assetIntegrity();
+
+    /**
+     * If set to true, the filters report request counts, sampled latencies and cache hit ratios to the application's
+     * metric registry. Defaults to false.
+     */
+    public abstract Optional<Boolean> metricsEnabled();
+
+    /**
+     * If set, the {@code reload-web-security} admin task re-reads the {@code webSecurity} section of this YAML file,
+     * usually the application's configuration file, and replaces the policy of the filters without a restart.
+     */
+    public abstract Optional<String> reloadFile();
+
+    /**
+     * If set to true, the {@link #reloadFile()} is also reloaded whenever it changes. Defaults to false.
+     */
+    public abstract Optional<Boolean> watchReloadFile();
+
+    /**
+     * Overrides for requests whose path within the application, e.g. {@code /docs/index.html}, starts with the key,
+     * e.g. {@code /docs}. Each override is applied on top of this configuration the same way the YAML configuration is
+     * applied on top of the application defaults, and the longest matching prefix wins. Overrides can't set
+     * {@link #cspReports()}, {@link #assetIntegrity()}, {@link #metricsEnabled()}, {@link #headerInjection()},
+     * {@link #dispatcherTypes()}, {@link #reloadFile()}, {@link #watchReloadFile()}, {@link #paths()} or
+     * {@link #hosts()}.
+     */
+    public abstract Map<String, WebSecurityConfiguration> paths();
+
+    /**
+     * Overrides for requests to the host in the key, e.g. {@code tenant.example.com}, from the {@code Host} header or
+     * the HTTP/2 {@code :authority}, ignoring the port and case. Each override is applied on top of this configuration
+     * like the {@link #paths()}, and may have paths of its own, which are applied on top of the paths of this
+     * configuration. Overrides can't set the settings paths can't set, other than {@link #paths()}. Requests to other
+     * hosts get this configuration. Hosts don't apply to the {@code @WebSecurityHeaders} annotation of Jersey
+     * resources.
+     */
+    public abstract Map<String, WebSecurityConfiguration> hosts();
+
+    @ValidationMethod(message = "paths must start with '/' and can't override cspReports, assetIntegrity, "
+            + "metricsEnabled, headerInjection, dispatcherTypes, reloadFile, watchReloadFile, paths or hosts")
+    private boolean isPathsValid() {
+        return arePathsValid(paths());
+    }
+
+    @ValidationMethod(message = "hosts must be distinct host names or IP addresses without a port, can't override "
+            + "cspReports, assetIntegrity, metricsEnabled, headerInjection, dispatcherTypes, reloadFile, "
+            + "watchReloadFile or hosts, and their paths must be valid")
+    private boolean isHostsValid() {
+        Set<String> normalized = new HashSet<>();
+        for (Map.Entry<String, WebSecurityConfiguration> host : hosts().entrySet()) {
+            WebSecurityConfiguration override = host.getValue();
+
+            try {
+                if (!normalized.add(HostTable.normalize(host.getKey()))) {
+                    return false;
+                }
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            if (setsApplicationSettings(override) || !arePathsValid(override.paths())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean arePathsValid(Map<String, WebSecurityConfiguration> paths) {
+        for (Map.Entry<String, WebSecurityConfiguration> path : paths.entrySet()) {
+            String prefix = path.getKey();
+            WebSecurityConfiguration override = path.getValue();
+
+            if (!prefix.startsWith("/") || PathPrefixTrie.normalize(prefix).isEmpty()) {
+                return false;
+            }
+            if (setsApplicationSettings(override) || !override.paths().isEmpty()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean setsApplicationSettings(WebSecurityConfiguration override) {
+        return override.cspReports().isPresent() || override.assetIntegrity().isPresent()
+                || override.metricsEnabled().isPresent() || override.headerInjection().isPresent()
+                || override.dispatcherTypes().isPresent() || override.reloadFile().isPresent()
+                || override.watchReloadFile().isPresent()
+                || !override.hosts().isEmpty();
+    }
+
+    @ValidationMethod(message = "dispatcherTypes must be a comma-separated list of dispatcher types that includes "
+            + "REQUEST")
+    private boolean isDispatcherTypesValid() {
+        if (!dispatcherTypes().isPresent()) {
+            return true;
+        }
+
+        try {
+            return PathPolicies.parseDispatcherTypes(dispatcherTypes().get()).contains(DispatcherType.REQUEST);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @ValidationMethod(message = "htmlNonces can't be used with the connector headerInjection")
+    private boolean isHtmlNoncesSupported() {
+        if (headerInjection().or(HeaderInjectionMode.FILTER) != HeaderInjectionMode.CONNECTOR) {
+            return true;
+        }
+
+        boolean htmlNonces = false;
+        for (WebSecurityConfiguration config : withOverrides()) {
+            htmlNonces |= config.htmlNonces().or(false);
+        }
+        return !htmlNonces;
+    }
+
+    @ValidationMethod(message = "htmlNonces can only be set for paths, since it also adds the nonce to tags injected "
+            + "into the HTML")
+    private boolean isHtmlNoncesLimitedToPaths() {
+        boolean htmlNonces = htmlNonces().or(false);
+        for (WebSecurityConfiguration host : hosts().values()) {
+            htmlNonces |= host.htmlNonces().or(false);
+        }
+        return !htmlNonces;
+    }
+
+    @ValidationMethod(message = "documentHeadersOnly can't be used with the connector headerInjection")
+    private boolean isDocumentHeadersOnlySupported() {
+        if (headerInjection().or(HeaderInjectionMode.FILTER) != HeaderInjectionMode.CONNECTOR) {
+            return true;
+        }
+
+        boolean documentHeadersOnly = false;
+        for (WebSecurityConfiguration config : withOverrides()) {
+            documentHeadersOnly |= config.documentHeadersOnly().or(false);
+        }
+        return !documentHeadersOnly;
+    }
+
+    @ValidationMethod(message = "headerBudget must be positive")
+    private boolean isHeaderBudgetValid() {
+        for (WebSecurityConfiguration config : withOverrides()) {
+            if (config.headerBudget().or(1) <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns this configuration, its paths, its hosts and their paths.
+     */
+    private List<WebSecurityConfiguration> withOverrides() {
+        List<WebSecurityConfiguration> configs = new ArrayList<>();
+        configs.add(this);
+        configs.addAll(paths().values());
+        for (WebSecurityConfiguration host : hosts().values()) {
+            configs.add(host);
+            configs.addAll(host.paths().values());
+        }
+        return configs;
+    }
+
     /**
      * Provides a configuration with default values.
      */
@@ -58,14 +348,58 @@ public abstract class WebSecurityConfiguration {
 
         Builder contentSecurityPolicy(String contentSecurityPolicy);
 
+        Builder putCspDirectives(String directive, String values);
+
+        Builder cspDirectives(Map<String, ? extends String> cspDirectives);
+
+        Builder addCspScriptHashes(String... hashes);
+
+        Builder addAllCspScriptHashes(Iterable<String> hashes);
+
+        Builder addCspStyleHashes(String... hashes);
+
+        Builder addAllCspStyleHashes(Iterable<String> hashes);
+
         Builder contentTypeOptions(String contentTypeOptions);
 
         Builder frameOptions(String frameOptions);
 
         Builder xssProtection(String xssProtection);
 
+        Builder htmlNonces(boolean htmlNonces);
+
+        Builder documentHeadersOnly(boolean documentHeadersOnly);
+
+        Builder http2Headers(boolean http2Headers);
+
+        Builder headerBudget(int headerBudget);
+
+        Builder headerInjection(HeaderInjectionMode headerInjection);
+
+        Builder dispatcherTypes(String dispatcherTypes);
+
         Builder cors(CorsConfiguration corsConfiguration);
 
+        Builder fetchMetadata(FetchMetadataConfiguration fetchMetadataConfiguration);
+
+        Builder cspReports(CspReportConfiguration cspReportConfiguration);
+
+        Builder assetIntegrity(AssetIntegrityConfiguration assetIntegrityConfiguration);
+
+        Builder metricsEnabled(boolean metricsEnabled);
+
+        Builder reloadFile(String reloadFile);
+
+        Builder watchReloadFile(boolean watchReloadFile);
+
+        Builder putPaths(String prefix, WebSecurityConfiguration override);
+
+        Builder paths(Map<String, ? extends WebSecurityConfiguration> paths);
+
+        Builder putHosts(String host, WebSecurityConfiguration override);
+
+        Builder hosts(Map<String, ? extends WebSecurityConfiguration> hosts);
+
         Builder from(WebSecurityConfiguration otherConfig);
 
         WebSecurityConfiguration build();
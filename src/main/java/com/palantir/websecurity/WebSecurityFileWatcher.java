@@ -0,0 +1,101 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.dropwizard.lifecycle.Managed;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reloads the web security configuration whenever the {@link WebSecurityConfiguration#reloadFile()} changes. The
+ * directory of the file is watched rather than the file, so files that are replaced rather than written to, e.g. by
+ * editors or through symbolic links, are also picked up. The file is only reloaded if its contents changed. A file that
+ * fails to reload is logged and the filters keep their current policy.
+ */
+final class WebSecurityFileWatcher implements Managed {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSecurityFileWatcher.class);
+
+    private final WebSecurityReloader reloader;
+    private final Path file;
+
+    private WatchService watchService;
+    private Thread thread;
+    private byte[] lastContents;
+
+    WebSecurityFileWatcher(WebSecurityReloader reloader, Path file) {
+        this.reloader = checkNotNull(reloader);
+        this.file = checkNotNull(file).toAbsolutePath();
+    }
+
+    @Override
+    public void start() throws IOException {
+        this.lastContents = read();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        this.thread = new Thread(this::watch, "web-security-file-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void stop() throws IOException, InterruptedException {
+        this.watchService.close();
+        this.thread.join();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                // a single write is often reported as several events, so handle them all with one reload
+                key.pollEvents();
+                key.reset();
+
+                reloadIfChanged();
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Stopped watching {}", this.file);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reloadIfChanged() {
+        try {
+            if (!Files.exists(this.file)) {
+                // the file is being replaced
+                return;
+            }
+
+            byte[] contents = read();
+            if (Arrays.equals(contents, this.lastContents)) {
+                return;
+            }
+
+            this.lastContents = contents;
+            this.reloader.reload(this.file);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to reload the web security configuration from {}", this.file, e);
+        }
+    }
+
+    private byte[] read() throws IOException {
+        return Files.exists(this.file) ? Files.readAllBytes(this.file) : new byte[0];
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Adds the App Security headers to the responses of a Jersey resource method, or of every method of a resource class.
+ * The headers are those of the application's {@link WebSecurityConfiguration}, with the elements that are set here
+ * overriding it. Set an element to {@link WebSecurityConfiguration#TURN_OFF} to leave out a header. A method annotation
+ * replaces the annotation of its class. See {@link com.palantir.websecurity.filters.WebSecurityHeadersFeature}.
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface WebSecurityHeaders {
+
+    /**
+     * The value of elements that don't override the configuration.
+     */
+    String INHERIT = "\u0000";
+
+    /**
+     * Overrides {@link WebSecurityConfiguration#contentSecurityPolicy()}.
+     */
+    String contentSecurityPolicy() default INHERIT;
+
+    /**
+     * Overrides {@link WebSecurityConfiguration#contentTypeOptions()}.
+     */
+    String contentTypeOptions() default INHERIT;
+
+    /**
+     * Overrides {@link WebSecurityConfiguration#frameOptions()}.
+     */
+    String frameOptions() default INHERIT;
+
+    /**
+     * Overrides {@link WebSecurityConfiguration#xssProtection()}.
+     */
+    String xssProtection() default INHERIT;
+}
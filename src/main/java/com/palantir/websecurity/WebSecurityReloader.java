@@ -0,0 +1,216 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.base.Objects;
+import com.palantir.websecurity.filters.AssetDigests;
+import com.palantir.websecurity.filters.BrowserClassifier;
+import com.palantir.websecurity.filters.DropwizardWebSecurityMetrics;
+import com.palantir.websecurity.filters.PolicyReference;
+import com.palantir.websecurity.filters.PolicySnapshot;
+import com.palantir.websecurity.filters.WebSecurityMetrics;
+import io.dropwizard.jackson.Jackson;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replaces the policy of the filters registered by the {@link WebSecurityBundle} without a restart. A new
+ * configuration is derived from the application defaults, validated and compiled into a new {@link PolicySnapshot} of
+ * the header injectors, CORS and Fetch Metadata policies and the configuration of the Jersey feature, which is
+ * published to all of them with a single write to their shared {@link PolicyReference}. Requests never take a lock,
+ * and since each request pins one snapshot when the first filter reads it, every filter and the Jersey feature use
+ * the policies of the same configuration for the whole request.
+ * <p>
+ * Settings that decide which filters and metrics are registered can't be changed, since they are only applied when
+ * the application starts. The hashes of the inline scripts and styles of the assets, which are scanned when the
+ * application starts, are added to every reloaded policy.
+ */
+final class WebSecurityReloader {
+
+    static final String SECTION = "webSecurity";
+
+    private static final Logger log = LoggerFactory.getLogger(WebSecurityReloader.class);
+    private static final ObjectMapper YAML_MAPPER = Jackson.newObjectMapper(new YAMLFactory());
+
+    private final WebSecurityConfiguration applicationDefaults;
+    private final Validator validator;
+    private final BrowserClassifier classifier;
+    private final WebSecurityMetrics metrics;
+    private final PolicyReference policies;
+    private final Optional<String> cspReportUri;
+    private final AssetDigests assetDigests;
+
+    private volatile WebSecurityConfiguration configuration;
+
+    WebSecurityReloader(WebSecurityConfiguration applicationDefaults, WebSecurityConfiguration configuration,
+            Validator validator, BrowserClassifier classifier, WebSecurityMetrics metrics, PolicyReference policies,
+            Optional<String> cspReportUri) {
+        this(applicationDefaults, configuration, validator, classifier, metrics, policies, cspReportUri,
+                AssetDigests.EMPTY);
+    }
+
+    WebSecurityReloader(WebSecurityConfiguration applicationDefaults, WebSecurityConfiguration configuration,
+            Validator validator, BrowserClassifier classifier, WebSecurityMetrics metrics, PolicyReference policies,
+            Optional<String> cspReportUri, AssetDigests assetDigests) {
+        this.applicationDefaults = checkNotNull(applicationDefaults);
+        this.configuration = checkNotNull(configuration);
+        this.validator = checkNotNull(validator);
+        this.classifier = checkNotNull(classifier);
+        this.metrics = checkNotNull(metrics);
+        this.policies = checkNotNull(policies);
+        this.cspReportUri = checkNotNull(cspReportUri);
+        this.assetDigests = checkNotNull(assetDigests);
+    }
+
+    /**
+     * Returns the derived configuration the filters currently use.
+     */
+    WebSecurityConfiguration getConfiguration() {
+        return this.configuration;
+    }
+
+    /**
+     * Reloads the {@code webSecurity} section of the YAML {@code file}. An absent section reverts to the application
+     * defaults.
+     */
+    WebSecurityConfiguration reload(Path file) throws IOException {
+        checkNotNull(file);
+
+        JsonNode root = YAML_MAPPER.readTree(Files.readAllBytes(file));
+        WebSecurityConfiguration override = WebSecurityConfiguration.DEFAULT;
+        JsonNode section = root == null ? null : root.get(SECTION);
+        if (section != null && !section.isNull()) {
+            override = YAML_MAPPER.treeToValue(section, WebSecurityConfiguration.class);
+        }
+
+        return reload(override);
+    }
+
+    /**
+     * Derives a configuration from the application defaults and the {@code override}, the same way as when the
+     * application starts, and replaces the policy of the filters with it. Throws an {@link IllegalArgumentException}
+     * and leaves the filters unchanged if the configuration is invalid or changes a setting that needs a restart.
+     */
+    synchronized WebSecurityConfiguration reload(WebSecurityConfiguration override) {
+        checkNotNull(override);
+
+        WebSecurityConfiguration derived = PathPolicies.withAssetHashes(
+                withReportUri(PathPolicies.derive(this.applicationDefaults, override)), this.assetDigests);
+
+        validate(derived);
+
+        // compile everything before publishing anything, so a failure leaves the old policy in place
+        PolicySnapshot snapshot = PathPolicies.compile(derived, this.classifier, this.metrics);
+
+        this.policies.set(snapshot);
+        this.configuration = derived;
+
+        if (this.metrics instanceof DropwizardWebSecurityMetrics) {
+            ((DropwizardWebSecurityMetrics) this.metrics).registerHeaders(PathPolicies.values(snapshot.injectors()));
+        }
+
+        log.info("Reloaded web security configuration");
+        return derived;
+    }
+
+    private WebSecurityConfiguration withReportUri(WebSecurityConfiguration derived) {
+        return this.cspReportUri.isPresent() ? PathPolicies.withReportUri(derived, this.cspReportUri.get()) : derived;
+    }
+
+    private void validate(WebSecurityConfiguration derived) {
+        List<String> violations = new ArrayList<>();
+        for (ConstraintViolation<?> violation : this.validator.validate(derived)) {
+            violations.add(violation.getPropertyPath() + " " + violation.getMessage());
+        }
+        validateSections("", derived, violations);
+        validatePathsSections("", derived, violations);
+        for (Map.Entry<String, WebSecurityConfiguration> host : derived.hosts().entrySet()) {
+            String property = "hosts[" + host.getKey() + "].";
+            validateSections(property, host.getValue(), violations);
+            validatePathsSections(property, host.getValue(), violations);
+        }
+        validateCspReports(derived, violations);
+        checkArgument(violations.isEmpty(), "Invalid web security configuration: %s", violations);
+
+        WebSecurityConfiguration current = this.configuration;
+        checkArgument(
+                derived.metricsEnabled().or(WebSecurityBundle.DEFAULT_METRICS_ENABLED)
+                        == current.metricsEnabled().or(WebSecurityBundle.DEFAULT_METRICS_ENABLED),
+                "metricsEnabled can't be changed without a restart");
+        checkArgument(
+                derived.headerInjection().or(WebSecurityBundle.DEFAULT_HEADER_INJECTION)
+                        == current.headerInjection().or(WebSecurityBundle.DEFAULT_HEADER_INJECTION),
+                "headerInjection can't be changed without a restart");
+        checkArgument(PathPolicies.dispatcherTypes(derived).equals(PathPolicies.dispatcherTypes(current)),
+                "dispatcherTypes can't be changed without a restart");
+        checkArgument(Objects.equal(derived.cspReports(), current.cspReports()),
+                "cspReports can't be changed without a restart");
+        checkArgument(Objects.equal(derived.assetIntegrity(), current.assetIntegrity()),
+                "assetIntegrity can't be changed without a restart");
+        checkArgument(Objects.equal(derived.reloadFile(), current.reloadFile()),
+                "reloadFile can't be changed without a restart");
+        checkArgument(
+                derived.watchReloadFile().or(WebSecurityBundle.DEFAULT_WATCH_RELOAD_FILE)
+                        == current.watchReloadFile().or(WebSecurityBundle.DEFAULT_WATCH_RELOAD_FILE),
+                "watchReloadFile can't be changed without a restart");
+        // the filters are only registered if they are enabled when the application starts
+        checkArgument(PathPolicies.isCorsEnabled(derived) == PathPolicies.isCorsEnabled(current),
+                "CORS can't be turned on or off for the whole application without a restart");
+        checkArgument(PathPolicies.isFetchMetadataEnabled(derived) == PathPolicies.isFetchMetadataEnabled(current),
+                "fetchMetadata can't be turned on or off for the whole application without a restart");
+    }
+
+    private void validateCspReports(WebSecurityConfiguration config, List<String> violations) {
+        if (!config.cspReports().isPresent()) {
+            return;
+        }
+
+        for (ConstraintViolation<?> violation : this.validator.validate(config.cspReports().get())) {
+            violations.add("cspReports." + violation.getPropertyPath() + " " + violation.getMessage());
+        }
+        if (config.cspReports().get().store().isPresent()) {
+            for (ConstraintViolation<?> violation : this.validator.validate(config.cspReports().get().store().get())) {
+                violations.add("cspReports.store." + violation.getPropertyPath() + " " + violation.getMessage());
+            }
+        }
+    }
+
+    private void validatePathsSections(String property, WebSecurityConfiguration config, List<String> violations) {
+        for (Map.Entry<String, WebSecurityConfiguration> path : config.paths().entrySet()) {
+            validateSections(property + "paths[" + path.getKey() + "].", path.getValue(), violations);
+        }
+    }
+
+    /**
+     * Validates the {@code cors} and {@code fetchMetadata} sections, which the validator doesn't cascade into.
+     */
+    private void validateSections(String property, WebSecurityConfiguration config, List<String> violations) {
+        validateSection(property + "cors.", config.cors().orNull(), violations);
+        validateSection(property + "fetchMetadata.", config.fetchMetadata().orNull(), violations);
+    }
+
+    private void validateSection(String property, Object section, List<String> violations) {
+        if (section != null) {
+            for (ConstraintViolation<?> violation : this.validator.validate(section)) {
+                violations.add(property + violation.getPropertyPath() + " " + violation.getMessage());
+            }
+        }
+    }
+}
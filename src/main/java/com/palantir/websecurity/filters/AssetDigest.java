@@ -0,0 +1,106 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/**
+ * The digests of one asset, as kept in the index of the {@link AssetIntegrityScanner}: the digest of a script or
+ * style, e.g. {@code sha384-...}, or the digests of the inline scripts and styles of an HTML page, along with the size
+ * and modification time of the asset they were computed from.
+ * <p>
+ * An index line holds the fields separated by tabs, with the key last and the digests of inline blocks separated by
+ * spaces, so that it can be parsed without unescaping anything. Keys with tabs or line breaks are not indexed.
+ */
+final class AssetDigest {
+
+    private static final char SEPARATOR = '\t';
+    private static final Splitter FIELDS = Splitter.on(SEPARATOR).limit(6);
+    private static final Splitter DIGESTS = Splitter.on(' ').omitEmptyStrings();
+    private static final Joiner FIELD_JOINER = Joiner.on(SEPARATOR);
+    private static final Joiner DIGEST_JOINER = Joiner.on(' ');
+
+    private final String key;
+    private final long size;
+    private final long modified;
+    private final String integrity;
+    private final ImmutableList<String> scripts;
+    private final ImmutableList<String> styles;
+
+    AssetDigest(String key, long size, long modified, String integrity, List<String> scripts, List<String> styles) {
+        this.key = checkNotNull(key);
+        this.size = size;
+        this.modified = modified;
+        this.integrity = checkNotNull(integrity);
+        this.scripts = ImmutableList.copyOf(scripts);
+        this.styles = ImmutableList.copyOf(styles);
+    }
+
+    /**
+     * Parses a line of the index, or returns null if it is not a valid line.
+     */
+    static AssetDigest parse(String line) {
+        List<String> fields = FIELDS.splitToList(line);
+        if (fields.size() != 6 || fields.get(5).isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new AssetDigest(fields.get(5), Long.parseLong(fields.get(0)), Long.parseLong(fields.get(1)),
+                    fields.get(2), DIGESTS.splitToList(fields.get(3)), DIGESTS.splitToList(fields.get(4)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Determines if the digests were computed from an asset of the {@code size} and modification time.
+     */
+    boolean isCurrent(long currentSize, long currentModified) {
+        return this.size == currentSize && this.modified == currentModified;
+    }
+
+    /**
+     * Determines if this digest can be written to the index.
+     */
+    boolean isIndexable() {
+        return this.key.indexOf(SEPARATOR) < 0 && this.key.indexOf('\n') < 0 && this.key.indexOf('\r') < 0;
+    }
+
+    String toLine() {
+        return FIELD_JOINER.join(this.size, this.modified, this.integrity, DIGEST_JOINER.join(this.scripts),
+                DIGEST_JOINER.join(this.styles), this.key);
+    }
+
+    String key() {
+        return this.key;
+    }
+
+    /**
+     * Returns the digest of the asset, or an empty string for an HTML page.
+     */
+    String integrity() {
+        return this.integrity;
+    }
+
+    /**
+     * Returns the digests of the inline scripts of an HTML page.
+     */
+    ImmutableList<String> scripts() {
+        return this.scripts;
+    }
+
+    /**
+     * Returns the digests of the inline styles of an HTML page.
+     */
+    ImmutableList<String> styles() {
+        return this.styles;
+    }
+}
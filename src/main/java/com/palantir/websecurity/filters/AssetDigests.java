@@ -0,0 +1,114 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of an {@link AssetIntegrityScanner}: the Subresource Integrity of every script and style, and the hash
+ * sources of the inline scripts and styles of every HTML page, for the Content Security Policy. Everything is sorted,
+ * so that the same assets give the same policy and manifest however they were scanned.
+ */
+public final class AssetDigests {
+
+    /**
+     * The digests of no assets.
+     */
+    public static final AssetDigests EMPTY = new AssetDigests(ImmutableSortedMap.of(), ImmutableSortedSet.of(),
+            ImmutableSortedSet.of(), 0, 0);
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final ImmutableSortedMap<String, String> integrity;
+    private final ImmutableSortedSet<String> scriptHashes;
+    private final ImmutableSortedSet<String> styleHashes;
+    private final int assets;
+    private final int hashedAssets;
+
+    AssetDigests(Map<String, String> integrity, Set<String> scriptHashes, Set<String> styleHashes, int assets,
+            int hashedAssets) {
+        this.integrity = ImmutableSortedMap.copyOf(integrity);
+        this.scriptHashes = ImmutableSortedSet.copyOf(scriptHashes);
+        this.styleHashes = ImmutableSortedSet.copyOf(styleHashes);
+        this.assets = assets;
+        this.hashedAssets = hashedAssets;
+    }
+
+    /**
+     * Returns the value of the {@code integrity} attribute of each script and style, e.g. {@code sha384-...}, keyed
+     * by its path within the directory or class path root it was found in, e.g. {@code js/app.js}.
+     */
+    public ImmutableSortedMap<String, String> integrity() {
+        return this.integrity;
+    }
+
+    /**
+     * Returns the value of the {@code integrity} attribute of the script or style at the {@code path}, or null if it
+     * is not an asset.
+     */
+    public String integrity(String path) {
+        return this.integrity.get(path);
+    }
+
+    /**
+     * Returns the hash sources of the inline scripts of the HTML pages, e.g. {@code 'sha384-...'}.
+     */
+    public ImmutableSortedSet<String> scriptHashes() {
+        return this.scriptHashes;
+    }
+
+    /**
+     * Returns the hash sources of the inline styles of the HTML pages.
+     */
+    public ImmutableSortedSet<String> styleHashes() {
+        return this.styleHashes;
+    }
+
+    /**
+     * Returns the number of scripts, styles and HTML pages that were scanned.
+     */
+    int assets() {
+        return this.assets;
+    }
+
+    /**
+     * Returns the number of assets that were hashed rather than taken from the index.
+     */
+    int hashedAssets() {
+        return this.hashedAssets;
+    }
+
+    /**
+     * Writes the {@link #integrity()} of every script and style to the {@code file} as a JSON object, replacing the
+     * file at once so that readers never see half of it.
+     */
+    public void writeManifest(Path file) throws IOException {
+        checkNotNull(file);
+
+        Path temporary = AssetIntegrityScanner.temporaryFile(file);
+        try (OutputStream out = Files.newOutputStream(temporary);
+                JsonGenerator json = JSON.createGenerator(out)) {
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+            for (Map.Entry<String, String> asset : this.integrity.entrySet()) {
+                json.writeStringField(asset.getKey(), asset.getValue());
+            }
+            json.writeEndObject();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the SHA-384 digests of the scripts ({@code .js}, {@code .mjs}) and styles ({@code .css}) in directories on
+ * disk and on the class path, for their Subresource Integrity, and of the inline scripts and styles of the HTML pages
+ * ({@code .html}, {@code .htm}), for hash sources in the Content Security Policy, see {@link AssetDigests}.
+ * <p>
+ * Files on disk are memory-mapped rather than read into the heap, and assets in jars are read from the jar. The assets
+ * are hashed in parallel by a pool of {@code threads}. If an {@code index} file is set, the digests are kept in it with
+ * the size and modification time of each asset, and a later scan only hashes the assets that are new or changed, so a
+ * restart only costs a directory walk. HTML pages are assumed to be UTF-8 encoded, and line breaks in inline blocks are
+ * normalized the way browsers parse them before they are hashed.
+ */
+public final class AssetIntegrityScanner {
+
+    static final String ALGORITHM = "SHA-384";
+    static final String PREFIX = "sha384-";
+
+    private static final String INDEX_HEADER = "# asset-integrity 1";
+
+    private static final Logger log = LoggerFactory.getLogger(AssetIntegrityScanner.class);
+
+    private final ImmutableList<Path> directories;
+    private final ImmutableList<String> classpathRoots;
+    private final ClassLoader classLoader;
+    private final Path index;
+    private final int threads;
+
+    private AssetIntegrityScanner(Builder builder) {
+        this.directories = builder.directories.build();
+        this.classpathRoots = builder.classpathRoots.build();
+        this.classLoader = builder.classLoader;
+        this.index = builder.index;
+        this.threads = builder.threads;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Scans the assets and updates the index, if there is one. Directories and class path roots that don't exist are
+     * skipped, and an index that can't be read is ignored.
+     */
+    public AssetDigests scan() throws IOException {
+        long start = System.nanoTime();
+        Map<String, AssetDigest> indexed = this.index == null ? new HashMap<>() : readIndex(this.index);
+
+        List<JarFile> jars = new ArrayList<>();
+        try {
+            List<Asset> assets = new ArrayList<>();
+            for (Path directory : this.directories) {
+                findAssets(directory, assets);
+            }
+            for (String root : this.classpathRoots) {
+                findClasspathAssets(root, assets, jars);
+            }
+
+            List<AssetDigest> digests = new ArrayList<>(assets.size());
+            List<Asset> changed = new ArrayList<>();
+            for (Asset asset : assets) {
+                AssetDigest digest = indexed.get(asset.key);
+                digests.add(digest != null && digest.isCurrent(asset.size, asset.modified) ? digest : null);
+                if (digests.get(digests.size() - 1) == null) {
+                    changed.add(asset);
+                }
+            }
+            fill(digests, hash(changed));
+
+            if (this.index != null) {
+                writeIndex(this.index, digests);
+            }
+            AssetDigests result = collect(assets, digests, changed.size());
+            log.info("Scanned {} assets and hashed {} of them in {} ms", assets.size(), changed.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
+        } finally {
+            for (JarFile jar : jars) {
+                jar.close();
+            }
+        }
+    }
+
+    /**
+     * Hashes the {@code assets} on the pool, in order.
+     */
+    private List<AssetDigest> hash(List<Asset> assets) throws IOException {
+        if (assets.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        List<Callable<AssetDigest>> tasks = new ArrayList<>(assets.size());
+        for (Asset asset : assets) {
+            tasks.add(() -> digest(asset));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(this.threads, assets.size()),
+                new ThreadFactoryBuilder().setNameFormat("asset-integrity-%d").setDaemon(true).build());
+        try {
+            List<AssetDigest> digests = new ArrayList<>(assets.size());
+            for (Future<AssetDigest> digest : pool.invokeAll(tasks)) {
+                digests.add(digest.get());
+            }
+            return digests;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing assets", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void fill(List<AssetDigest> digests, List<AssetDigest> hashed) {
+        int next = 0;
+        for (int i = 0; i < digests.size(); i++) {
+            if (digests.get(i) == null) {
+                digests.set(i, hashed.get(next++));
+            }
+        }
+    }
+
+    private static AssetDigests collect(List<Asset> assets, List<AssetDigest> digests, int hashed) {
+        Map<String, String> integrity = new LinkedHashMap<>();
+        Set<String> scripts = new TreeSet<>();
+        Set<String> styles = new TreeSet<>();
+        for (int i = 0; i < assets.size(); i++) {
+            AssetDigest digest = digests.get(i);
+            if (!digest.integrity().isEmpty()) {
+                // the first of several assets with the same path wins, like it does on the class path
+                integrity.putIfAbsent(assets.get(i).name, digest.integrity());
+            }
+            for (String script : digest.scripts()) {
+                scripts.add(hashSource(script));
+            }
+            for (String style : digest.styles()) {
+                styles.add(hashSource(style));
+            }
+        }
+        return new AssetDigests(integrity, scripts, styles, assets.size(), hashed);
+    }
+
+    /**
+     * Computes the digests of the {@code asset}.
+     */
+    static AssetDigest digest(Asset asset) throws IOException {
+        ByteBuffer contents = asset.contents();
+        if (asset.kind != Kind.HTML) {
+            MessageDigest digest = messageDigest();
+            digest.update(contents);
+            return new AssetDigest(asset.key, asset.size, asset.modified, encode(digest), ImmutableList.of(),
+                    ImmutableList.of());
+        }
+
+        List<String> scripts = new ArrayList<>();
+        List<String> styles = new ArrayList<>();
+        HtmlNonceScanner scanner = new HtmlNonceScanner();
+        int blockStart = 0;
+        for (int i = 0; i < contents.limit(); i++) {
+            int before = scanner.rawTextElement();
+            scanner.insertsBefore(contents.get(i) & 0xff);
+            int after = scanner.rawTextElement();
+
+            if (before < 0 && after >= 0) {
+                blockStart = i + 1;
+            } else if (before >= 0 && after < 0) {
+                int blockEnd = i - HtmlNonceScanner.endTagLength(before);
+                if (blockEnd > blockStart) {
+                    String digest = digestBlock(contents, blockStart, blockEnd);
+                    (before == HtmlNonceScanner.SCRIPT ? scripts : styles).add(digest);
+                }
+            }
+        }
+        return new AssetDigest(asset.key, asset.size, asset.modified, "", scripts, styles);
+    }
+
+    /**
+     * Returns the digest of the inline block between {@code start} and {@code end}, with its line breaks normalized
+     * to line feeds the way browsers do before they hash it.
+     */
+    private static String digestBlock(ByteBuffer contents, int start, int end) {
+        MessageDigest digest = messageDigest();
+        for (int i = start; i < end; i++) {
+            byte character = contents.get(i);
+            if (character == '\r') {
+                digest.update((byte) '\n');
+            } else if (character != '\n' || i == start || contents.get(i - 1) != '\r') {
+                digest.update(character);
+            }
+        }
+        return encode(digest);
+    }
+
+    private static MessageDigest messageDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-384
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(MessageDigest digest) {
+        return PREFIX + Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    private static String hashSource(String digest) {
+        return "'" + digest + "'";
+    }
+
+    private static void findAssets(Path directory, List<Asset> assets) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            log.warn("Skipping assets in {}, which is not a directory", directory);
+            return;
+        }
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                Kind kind = Kind.of(file.getFileName().toString());
+                if (kind != null && attributes.isRegularFile()) {
+                    String separator = file.getFileSystem().getSeparator();
+                    String name = directory.relativize(file).toString().replace(separator, "/");
+                    assets.add(new Asset(name, file.toAbsolutePath().toString(), kind, attributes.size(),
+                            attributes.lastModifiedTime().toMillis(), file, null, null));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Finds the assets under the {@code root} in every directory and jar of the class path, opening the jars.
+     */
+    private void findClasspathAssets(String root, List<Asset> assets, List<JarFile> jars) throws IOException {
+        String resource = trimSlashes(root);
+        Enumeration<URL> urls = this.classLoader.getResources(resource);
+        if (!urls.hasMoreElements()) {
+            log.warn("Skipping assets in {}, which is not on the class path", root);
+        }
+
+        while (urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            URLConnection connection = url.openConnection();
+            if (connection instanceof JarURLConnection) {
+                JarFile jar = new JarFile(toPath(((JarURLConnection) connection).getJarFileURL()).toFile());
+                jars.add(jar);
+                findJarAssets(jar, ((JarURLConnection) connection).getEntryName() + "/", assets);
+            } else if ("file".equals(url.getProtocol())) {
+                findAssets(toPath(url), assets);
+            } else {
+                log.warn("Skipping assets in {}, which is neither a directory nor a jar", url);
+            }
+        }
+    }
+
+    private static void findJarAssets(JarFile jar, String prefix, List<Asset> assets) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            Kind kind = Kind.of(entry.getName());
+            if (kind != null && !entry.isDirectory() && entry.getName().startsWith(prefix)) {
+                assets.add(new Asset(entry.getName().substring(prefix.length()), jar.getName() + "!/" + entry.getName(),
+                        kind, entry.getSize(), entry.getTime(), null, jar, entry));
+            }
+        }
+    }
+
+    private static Path toPath(URL url) throws IOException {
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Not a file: " + url, e);
+        }
+    }
+
+    private static String trimSlashes(String root) {
+        int start = 0;
+        int end = root.length();
+        while (start < end && root.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && root.charAt(end - 1) == '/') {
+            end--;
+        }
+        return root.substring(start, end);
+    }
+
+    /**
+     * Reads the digests of the {@code file}, keyed by asset. Returns no digests if the file doesn't exist or was
+     * written by a different version.
+     */
+    static Map<String, AssetDigest> readIndex(Path file) {
+        Map<String, AssetDigest> digests = new HashMap<>();
+        if (!Files.isRegularFile(file)) {
+            return digests;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!INDEX_HEADER.equals(reader.readLine())) {
+                return digests;
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                AssetDigest digest = AssetDigest.parse(line);
+                if (digest != null) {
+                    digests.put(digest.key(), digest);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Ignoring the asset index {}, which can't be read", file, e);
+            digests.clear();
+        }
+        return digests;
+    }
+
+    /**
+     * Replaces the {@code file} with the {@code digests}, at once so that a crash never leaves half an index.
+     */
+    static void writeIndex(Path file, List<AssetDigest> digests) throws IOException {
+        Path temporary = temporaryFile(file);
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(INDEX_HEADER);
+            writer.newLine();
+            for (AssetDigest digest : digests) {
+                if (digest.isIndexable()) {
+                    writer.write(digest.toLine());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns a file next to the {@code file} to write it to before it replaces the file, creating the directory.
+     */
+    static Path temporaryFile(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        return absolute.resolveSibling(absolute.getFileName() + ".tmp");
+    }
+
+    /**
+     * The kinds of assets that are hashed.
+     */
+    enum Kind {
+        SCRIPT, STYLE, HTML;
+
+        /**
+         * Returns the kind of the asset with the file {@code name}, or null if it is not hashed.
+         */
+        static Kind of(String name) {
+            String lowerCase = name.toLowerCase(Locale.ROOT);
+            if (lowerCase.endsWith(".js") || lowerCase.endsWith(".mjs")) {
+                return SCRIPT;
+            } else if (lowerCase.endsWith(".css")) {
+                return STYLE;
+            } else if (lowerCase.endsWith(".html") || lowerCase.endsWith(".htm")) {
+                return HTML;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A file on disk or an entry of a jar.
+     */
+    static final class Asset {
+        private final String name;
+        private final String key;
+        private final Kind kind;
+        private final long size;
+        private final long modified;
+        private final Path file;
+        private final JarFile jar;
+        private final JarEntry entry;
+
+        Asset(String name, String key, Kind kind, long size, long modified, Path file, JarFile jar, JarEntry entry) {
+            this.name = name;
+            this.key = key;
+            this.kind = kind;
+            this.size = size;
+            this.modified = modified;
+            this.file = file;
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+        /**
+         * Returns the contents of the asset, memory-mapped if it is a file.
+         */
+        ByteBuffer contents() throws IOException {
+            if (this.file != null) {
+                try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+
+            try (InputStream in = this.jar.getInputStream(this.entry)) {
+                return ByteBuffer.wrap(ByteStreams.toByteArray(in));
+            }
+        }
+    }
+
+    /**
+     * Builds an {@link AssetIntegrityScanner}.
+     */
+    public static final class Builder {
+        private final ImmutableList.Builder<Path> directories = ImmutableList.builder();
+        private final ImmutableList.Builder<String> classpathRoots = ImmutableList.builder();
+        private ClassLoader classLoader = AssetIntegrityScanner.class.getClassLoader();
+        private Path index = null;
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        private Builder() {}
+
+        /**
+         * Adds a directory of assets on disk.
+         */
+        public Builder directory(Path value) {
+            this.directories.add(checkNotNull(value));
+            return this;
+        }
+
+        /**
+         * Adds a directory of assets on the class path, e.g. {@code /assets}.
+         */
+        public Builder classpathRoot(String value) {
+            this.classpathRoots.add(checkNotNull(value));
+            return this;
+        }
+
+        /**
+         * Sets the class loader the {@link #classpathRoot(String) class path roots} are looked up in, by default the
+         * class loader of this class.
+         */
+        public Builder classLoader(ClassLoader value) {
+            this.classLoader = checkNotNull(value);
+            return this;
+        }
+
+        /**
+         * Sets the file the digests are cached in. Not cached by default.
+         */
+        public Builder index(Path value) {
+            this.index = checkNotNull(value);
+            return this;
+        }
+
+        /**
+         * Sets the number of threads hashing assets, by default the number of processors.
+         */
+        public Builder threads(int value) {
+            checkArgument(value > 0, "threads must be positive");
+            this.threads = value;
+            return this;
+        }
+
+        public AssetIntegrityScanner build() {
+            return new AssetIntegrityScanner(this);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.CacheStats;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, concurrent cache for values that are cheap to recompute but looked up on every request.
+ * <p>
+ * Lookups are lock-free and do not allocate. When the cache grows beyond its maximum size, the least recently used
+ * entries are approximately evicted using the CLOCK (second chance) algorithm: a lookup marks an entry as referenced,
+ * and eviction removes entries that were not referenced since the previous eviction. This avoids the per-lookup
+ * bookkeeping of an exact LRU, which would allocate or contend on every request.
+ */
+public final class BoundedCache<K, V> {
+
+    private final long maximumSize;
+    private final ConcurrentHashMap<K, Node<V>> map;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(long maximumSize) {
+        checkArgument(maximumSize > 0, "maximumSize must be positive");
+
+        this.maximumSize = maximumSize;
+        this.map = new ConcurrentHashMap<>((int) Math.min(maximumSize, 1024));
+    }
+
+    /**
+     * Returns the value cached for the {@code key}, or null if there is none.
+     */
+    public V getIfPresent(K key) {
+        Node<V> node = this.map.get(key);
+
+        if (node == null) {
+            this.misses.increment();
+            return null;
+        }
+
+        this.hits.increment();
+        // avoid writing to the shared entry if it is already marked
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns the value cached for the {@code key}, computing and caching it using the {@code loader} if there is
+     * none. Concurrent lookups of a missing key may each compute the value.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = getIfPresent(key);
+
+        if (value == null) {
+            value = loader.apply(key);
+            put(key, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Caches the {@code value} for the {@code key}, evicting entries if the cache is over its maximum size.
+     */
+    public void put(K key, V value) {
+        checkNotNull(key);
+        checkNotNull(value);
+
+        this.map.put(key, new Node<>(value));
+
+        if (this.map.size() > this.maximumSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void invalidateAll() {
+        this.map.clear();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     */
+    public long size() {
+        return this.map.size();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the cache.
+     */
+    public CacheStats stats() {
+        return new CacheStats(this.hits.sum(), this.misses.sum(), 0, 0, 0, this.evictions.sum());
+    }
+
+    private void evict() {
+        // only one thread sweeps at a time, the others carry on and leave the cache briefly over its maximum size
+        if (!this.evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            // the first sweep clears the referenced marks, so the second sweep always makes enough room
+            for (int sweep = 0; sweep < 2 && this.map.size() > this.maximumSize; sweep++) {
+                Iterator<Map.Entry<K, Node<V>>> entries = this.map.entrySet().iterator();
+
+                while (entries.hasNext() && this.map.size() > this.maximumSize) {
+                    Node<V> node = entries.next().getValue();
+
+                    if (node.referenced) {
+                        node.referenced = false;
+                    } else {
+                        entries.remove();
+                        this.evictions.increment();
+                    }
+                }
+            }
+        } finally {
+            this.evicting.set(false);
+        }
+    }
+
+    private static final class Node<V> {
+
+        private final V value;
+
+        // racy updates are fine, a lost mark only makes the entry a little more likely to be evicted
+        private boolean referenced;
+
+        private Node(V value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * The classes of clients that may need different security headers.
+ */
+public enum BrowserClass {
+
+    /**
+     * Internet Explorer 10 and 11, which only recognise the {@code X-Content-Security-Policy} header.
+     */
+    LEGACY_IE,
+
+    /**
+     * Any other browser.
+     */
+    MODERN,
+
+    /**
+     * Clients that are not browsers, or that do not send a {@code User-Agent}.
+     */
+    NON_BROWSER
+}
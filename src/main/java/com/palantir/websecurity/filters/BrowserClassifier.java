@@ -0,0 +1,16 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * Determines the {@link BrowserClass} of a client from its {@code User-Agent} header.
+ */
+public interface BrowserClassifier {
+
+    /**
+     * Classifies the {@code userAgent}, which is null if the request did not have a {@code User-Agent} header.
+     */
+    BrowserClass classify(String userAgent);
+}
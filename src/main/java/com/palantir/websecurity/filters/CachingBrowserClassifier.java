@@ -0,0 +1,59 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.CacheStats;
+import java.util.function.Function;
+
+/**
+ * A {@link BrowserClassifier} that remembers the classification of recently seen {@code User-Agent}s. The number of
+ * distinct user agents in real traffic is small, so almost every request is classified by a single hash lookup instead
+ * of scanning the header. The cache is a {@link BoundedCache}, so a client sending random user agents cannot grow it.
+ */
+public final class CachingBrowserClassifier implements BrowserClassifier {
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 1024;
+
+    private final BrowserClassifier delegate;
+    private final Function<String, BrowserClass> loader;
+    private final BoundedCache<String, BrowserClass> cache;
+
+    public CachingBrowserClassifier(BrowserClassifier delegate) {
+        this(delegate, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public CachingBrowserClassifier(BrowserClassifier delegate, long maximumSize) {
+        checkNotNull(delegate);
+
+        this.delegate = delegate;
+        this.loader = delegate::classify;
+        this.cache = new BoundedCache<>(maximumSize);
+    }
+
+    @Override
+    public BrowserClass classify(String userAgent) {
+        if (userAgent == null) {
+            return this.delegate.classify(null);
+        }
+
+        return this.cache.get(userAgent, this.loader);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the cache.
+     */
+    public CacheStats stats() {
+        return this.cache.stats();
+    }
+
+    /**
+     * Returns the number of cached user agents.
+     */
+    public long size() {
+        return this.cache.size();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import java.util.Collection;
+
+/**
+ * An immutable set of tokens, such as header names, that can be probed case-insensitively with a region of a larger
+ * string. Requests are checked against the set without splitting or lower-casing header values.
+ */
+final class CaseInsensitiveTokenSet {
+
+    private final String[] table;
+    private final int mask;
+    private final int size;
+
+    private CaseInsensitiveTokenSet(Collection<String> tokens) {
+        int capacity = Integer.highestOneBit(Math.max(tokens.size(), 1) * 4 - 1) << 1;
+        this.table = new String[capacity];
+        this.mask = capacity - 1;
+
+        int count = 0;
+        for (String token : tokens) {
+            if (!contains(token, 0, token.length())) {
+                int index = hash(token, 0, token.length()) & this.mask;
+                while (this.table[index] != null) {
+                    index = (index + 1) & this.mask;
+                }
+                this.table[index] = token;
+                count++;
+            }
+        }
+        this.size = count;
+    }
+
+    static CaseInsensitiveTokenSet of(Collection<String> tokens) {
+        return new CaseInsensitiveTokenSet(tokens);
+    }
+
+    /**
+     * Returns true if the characters of {@code value} from {@code start} (inclusive) to {@code end} (exclusive) are
+     * one of the tokens, ignoring case.
+     */
+    boolean contains(String value, int start, int end) {
+        int length = end - start;
+
+        for (int index = hash(value, start, end) & this.mask; this.table[index] != null;
+                index = (index + 1) & this.mask) {
+            String token = this.table[index];
+            if (token.length() == length && token.regionMatches(true, 0, value, start, length)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if every non-empty token of the comma separated {@code values} is one of the tokens, ignoring case
+     * and surrounding whitespace.
+     */
+    boolean containsAll(String values) {
+        int length = values.length();
+        int start = 0;
+
+        while (start < length) {
+            int comma = values.indexOf(',', start);
+            int end = comma < 0 ? length : comma;
+            int next = end + 1;
+
+            while (start < end && Character.isWhitespace(values.charAt(start))) {
+                start++;
+            }
+            while (end > start && Character.isWhitespace(values.charAt(end - 1))) {
+                end--;
+            }
+
+            if (start < end && !contains(values, start, end)) {
+                return false;
+            }
+
+            start = next;
+        }
+
+        return true;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private static int hash(String value, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(value.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
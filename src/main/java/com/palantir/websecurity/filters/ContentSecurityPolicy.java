@@ -0,0 +1,374 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed Content Security Policy: an ordered map of directive names to their distinct values, such as the sources of
+ * a fetch directive. Directive names are lower-cased, while values are kept as written, since paths, nonces and hashes
+ * are case-sensitive. As in browsers, only the first of several directives with the same name counts.
+ * <p>
+ * {@link #toString()} serializes the policy in its shortest form, without optional whitespace or a trailing semicolon.
+ * {@link #minify()} also leaves out what a browser would infer anyway, so that the policy sent with every document is
+ * as short as possible without changing its meaning.
+ */
+public final class ContentSecurityPolicy {
+
+    /**
+     * A policy without directives, which is not sent.
+     */
+    public static final ContentSecurityPolicy EMPTY = builder().build();
+
+    static final String DEFAULT_SRC = "default-src";
+    static final String SCRIPT_SRC = "script-src";
+    static final String STYLE_SRC = "style-src";
+
+    private static final String NONE = "'none'";
+    private static final String UNSAFE_INLINE = "'unsafe-inline'";
+    private static final Pattern HASH_SOURCE = Pattern.compile("'sha(256|384|512)-[A-Za-z0-9+/]+={0,2}'");
+
+    /**
+     * The directives each fetch directive falls back to when it is absent, nearest first, as of CSP Level 3.
+     */
+    private static final ImmutableMap<String, ImmutableList<String>> FALLBACKS =
+            ImmutableMap.<String, ImmutableList<String>>builder()
+                    .put("script-src-elem", ImmutableList.of(SCRIPT_SRC, DEFAULT_SRC))
+                    .put("script-src-attr", ImmutableList.of(SCRIPT_SRC, DEFAULT_SRC))
+                    .put("style-src-elem", ImmutableList.of(STYLE_SRC, DEFAULT_SRC))
+                    .put("style-src-attr", ImmutableList.of(STYLE_SRC, DEFAULT_SRC))
+                    .put("worker-src", ImmutableList.of("child-src", SCRIPT_SRC, DEFAULT_SRC))
+                    .put("frame-src", ImmutableList.of("child-src", DEFAULT_SRC))
+                    .putAll(directFallbacks("child-src", "connect-src", "font-src", "img-src", "manifest-src",
+                            "media-src", "object-src", "prefetch-src", SCRIPT_SRC, STYLE_SRC))
+                    .build();
+
+    private static final CharMatcher DIRECTIVE_NAME_CHARACTERS = CharMatcher.inRange('a', 'z')
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.is('-'))
+            .precomputed();
+    private static final CharMatcher SCHEME_CHARACTERS = CharMatcher.inRange('a', 'z')
+            .or(CharMatcher.inRange('A', 'Z'))
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.anyOf("+-."))
+            .precomputed();
+    private static final CharMatcher SEPARATORS = CharMatcher.anyOf(";,").or(CharMatcher.whitespace()).precomputed();
+    private static final Splitter DIRECTIVES = Splitter.on(';').trimResults().omitEmptyStrings();
+    private static final Splitter VALUES = Splitter.on(CharMatcher.whitespace()).omitEmptyStrings();
+    private static final Joiner VALUE_JOINER = Joiner.on(' ');
+
+    private final ImmutableMap<String, ImmutableSet<String>> directives;
+
+    private ContentSecurityPolicy(Map<String, Set<String>> directives) {
+        ImmutableMap.Builder<String, ImmutableSet<String>> copy = ImmutableMap.builder();
+        for (Map.Entry<String, Set<String>> directive : directives.entrySet()) {
+            copy.put(directive.getKey(), ImmutableSet.copyOf(directive.getValue()));
+        }
+        this.directives = copy.build();
+    }
+
+    /**
+     * Parses a serialized policy, such as the value of a {@code Content-Security-Policy} header. Directives are
+     * separated by semicolons and their values by whitespace. Anything that isn't a directive name is left out, the
+     * same as a browser ignores it. Throws an {@link IllegalArgumentException} if the value holds several
+     * comma-separated policies, see {@link #isSinglePolicy(String)}.
+     */
+    public static ContentSecurityPolicy parse(String policy) {
+        checkArgument(isSinglePolicy(policy), "not a single policy: %s", policy);
+
+        Builder builder = builder();
+        for (String directive : DIRECTIVES.split(policy)) {
+            int nameEnd = CharMatcher.whitespace().indexIn(directive);
+            String name = (nameEnd < 0 ? directive : directive.substring(0, nameEnd)).toLowerCase(Locale.ROOT);
+            if (isDirectiveName(name) && !builder.directives.containsKey(name)) {
+                builder.directive(name, VALUES.split(nameEnd < 0 ? "" : directive.substring(nameEnd)));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Determines if the {@code name} is a valid directive name, ignoring case.
+     */
+    public static boolean isDirectiveName(String name) {
+        return !name.isEmpty() && DIRECTIVE_NAME_CHARACTERS.matchesAllOf(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Determines if the {@code values} can be the whitespace-separated values of a directive, that is, don't contain a
+     * semicolon or comma.
+     */
+    public static boolean isDirectiveValues(String values) {
+        return CharMatcher.anyOf(";,").matchesNoneOf(values);
+    }
+
+    /**
+     * Determines if the {@code policy} is a single policy rather than several policies separated by commas, which
+     * browsers enforce one after the other and can't be merged.
+     */
+    public static boolean isSinglePolicy(String policy) {
+        return policy.indexOf(',') < 0;
+    }
+
+    /**
+     * Determines if the {@code source} is a hash source, such as {@code 'sha384-...'}, with a base64 encoded digest.
+     */
+    public static boolean isHashSource(String source) {
+        return HASH_SOURCE.matcher(source).matches();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the directives of this policy in order.
+     */
+    public ImmutableMap<String, ImmutableSet<String>> directives() {
+        return this.directives;
+    }
+
+    /**
+     * Returns the values of the {@code directive}, or null if this policy doesn't have it.
+     */
+    public ImmutableSet<String> get(String directive) {
+        return this.directives.get(directive.toLowerCase(Locale.ROOT));
+    }
+
+    public boolean isEmpty() {
+        return this.directives.isEmpty();
+    }
+
+    /**
+     * Returns this policy with each directive of the {@code overrides} replacing the directive of the same name, and
+     * the others added at the end.
+     */
+    public ContentSecurityPolicy merge(ContentSecurityPolicy overrides) {
+        checkNotNull(overrides);
+
+        return builder().from(this).from(overrides).build();
+    }
+
+    /**
+     * Returns this policy with the {@code hashes} allowed by the {@code directive}, such as the hash sources of inline
+     * scripts in {@code script-src}. A directive the policy doesn't have starts from the values of the directive it
+     * falls back to, so that it allows everything it did before. {@code 'unsafe-inline'} is left out of a directive
+     * that gets hashes, since browsers that support hashes ignore it next to them. The policy is returned unchanged if
+     * there are no hashes, or if the directive doesn't restrict anything or only allows {@code 'none'}.
+     */
+    public ContentSecurityPolicy withHashes(String directive, Collection<String> hashes) {
+        checkNotNull(directive);
+        checkNotNull(hashes);
+
+        ImmutableSet<String> values = effectiveValues(directive.toLowerCase(Locale.ROOT));
+        if (hashes.isEmpty() || values == null || values.equals(ImmutableSet.of(NONE))) {
+            return this;
+        }
+
+        Set<String> allowed = new LinkedHashSet<>(values);
+        allowed.remove(UNSAFE_INLINE);
+        allowed.remove(NONE);
+        allowed.addAll(hashes);
+        return builder().from(this).directive(directive, allowed).build();
+    }
+
+    /**
+     * Returns the values of the {@code directive}, or of the nearest directive it falls back to, or null if neither is
+     * in this policy.
+     */
+    private ImmutableSet<String> effectiveValues(String directive) {
+        return effectiveValues(this.directives, directive);
+    }
+
+    private static ImmutableSet<String> effectiveValues(Map<String, ImmutableSet<String>> directives,
+            String directive) {
+        ImmutableSet<String> values = directives.get(directive);
+        if (values != null) {
+            return values;
+        }
+
+        for (String fallback : FALLBACKS.getOrDefault(directive, ImmutableList.of())) {
+            if (directives.containsKey(fallback)) {
+                return directives.get(fallback);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an equivalent policy that leaves out:
+     * <ul>
+     * <li>fetch directives with the same values as the directive they fall back to, such as a {@code script-src}
+     * equal to the {@code default-src}, as long as no directive that falls back through them then gets other values,
+     * and</li>
+     * <li>sources with a scheme, such as {@code https://cdn.example.com}, that a scheme source of the same directive,
+     * such as {@code https:}, already allows.</li>
+     * </ul>
+     */
+    public ContentSecurityPolicy minify() {
+        // a directive is judged against what is left after the earlier removals, since a directive it falls back to
+        // may have been left out already
+        Map<String, ImmutableSet<String>> remaining = new LinkedHashMap<>(this.directives);
+        for (String name : this.directives.keySet()) {
+            if (FALLBACKS.containsKey(name)) {
+                ImmutableSet<String> values = remaining.remove(name);
+                if (!hasSameEffectiveValues(remaining)) {
+                    remaining.put(name, values);
+                }
+            }
+        }
+
+        Builder minified = builder();
+        for (Map.Entry<String, ImmutableSet<String>> directive : this.directives.entrySet()) {
+            if (remaining.containsKey(directive.getKey())) {
+                minified.directive(directive.getKey(), withoutCoveredSources(directive.getValue()));
+            }
+        }
+        return minified.build();
+    }
+
+    /**
+     * Returns whether every fetch directive has the same effective values with only the {@code remaining} directives
+     * as in this policy.
+     */
+    private boolean hasSameEffectiveValues(Map<String, ImmutableSet<String>> remaining) {
+        for (String directive : FALLBACKS.keySet()) {
+            if (!Objects.equals(effectiveValues(directive), effectiveValues(remaining, directive))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<String> withoutCoveredSources(ImmutableSet<String> values) {
+        Set<String> schemes = new LinkedHashSet<>();
+        for (String value : values) {
+            if (isSchemeSource(value)) {
+                schemes.add(value.toLowerCase(Locale.ROOT));
+            }
+        }
+        if (schemes.isEmpty()) {
+            return values;
+        }
+
+        Set<String> sources = new LinkedHashSet<>();
+        for (String value : values) {
+            int schemeEnd = value.indexOf("://");
+            if (schemeEnd < 0 || !schemes.contains(value.substring(0, schemeEnd + 1).toLowerCase(Locale.ROOT))) {
+                sources.add(value);
+            }
+        }
+        return sources;
+    }
+
+    private static boolean isSchemeSource(String value) {
+        int colon = value.length() - 1;
+        return colon > 0 && value.charAt(colon) == ':' && SCHEME_CHARACTERS.matchesAllOf(value.substring(0, colon));
+    }
+
+    /**
+     * Returns the shortest serialization of this policy.
+     */
+    @Override
+    public String toString() {
+        StringBuilder policy = new StringBuilder();
+        for (Map.Entry<String, ImmutableSet<String>> directive : this.directives.entrySet()) {
+            if (policy.length() > 0) {
+                policy.append(';');
+            }
+            policy.append(directive.getKey());
+            if (!directive.getValue().isEmpty()) {
+                VALUE_JOINER.appendTo(policy.append(' '), directive.getValue());
+            }
+        }
+        return policy.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other
+                || other instanceof ContentSecurityPolicy
+                        && this.directives.equals(((ContentSecurityPolicy) other).directives);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.directives.hashCode();
+    }
+
+    private static Map<String, ImmutableList<String>> directFallbacks(String... directives) {
+        Map<String, ImmutableList<String>> fallbacks = new LinkedHashMap<>();
+        for (String directive : Arrays.asList(directives)) {
+            fallbacks.put(directive, ImmutableList.of(DEFAULT_SRC));
+        }
+        return fallbacks;
+    }
+
+    /**
+     * Builds a {@link ContentSecurityPolicy}.
+     */
+    public static final class Builder {
+        private final Map<String, Set<String>> directives = new LinkedHashMap<>();
+
+        private Builder() {}
+
+        /**
+         * Sets the {@code values} of the {@code directive}, replacing any values it has, and leaving out duplicates.
+         */
+        public Builder directive(String directive, Iterable<String> values) {
+            checkNotNull(directive);
+            checkNotNull(values);
+            checkArgument(isDirectiveName(directive), "not a directive name: %s", directive);
+
+            Set<String> distinct = new LinkedHashSet<>();
+            for (String value : values) {
+                checkArgument(!value.isEmpty() && SEPARATORS.matchesNoneOf(value), "not a directive value: %s", value);
+                distinct.add(value);
+            }
+            this.directives.put(directive.toLowerCase(Locale.ROOT), distinct);
+            return this;
+        }
+
+        /**
+         * Sets the {@code values} of the {@code directive}, see {@link #directive(String, Iterable)}.
+         */
+        public Builder directive(String directive, String... values) {
+            return directive(directive, Arrays.asList(values));
+        }
+
+        /**
+         * Sets every directive of the {@code policy}, replacing the directives of the same name.
+         */
+        public Builder from(ContentSecurityPolicy policy) {
+            checkNotNull(policy);
+
+            for (Map.Entry<String, ImmutableSet<String>> directive : policy.directives.entrySet()) {
+                directive(directive.getKey(), directive.getValue());
+            }
+            return this;
+        }
+
+        public ContentSecurityPolicy build() {
+            return new ContentSecurityPolicy(this.directives);
+        }
+    }
+}
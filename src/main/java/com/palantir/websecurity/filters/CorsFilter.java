@@ -0,0 +1,297 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.CorsConfiguration;
+import java.io.IOException;
+import java.util.Enumeration;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A filter that implements Cross-Origin Resource Sharing using a {@link CorsPolicy} compiled from a
+ * {@link CorsConfiguration}. It behaves the same as Jetty's {@link org.eclipse.jetty.servlets.CrossOriginFilter} with
+ * the same configuration, but matches origins, methods and headers against precomputed sets instead of scanning lists
+ * and compiling regular expressions on every request. The verdict and headers for each origin are cached, so after
+ * warm-up a request that is not a preflight request costs one lookup and a copy of the cached headers. Paths can have
+ * their own policy, picked by the longest matching prefix. The policies are read from a {@link PolicyReference}, which
+ * may be shared with the other filters so that a request uses the policies of one configuration in all of them.
+ * <p>
+ * The policy is applied once per request. Later forward, include, error and async dispatches of a request that has the
+ * {@link #APPLIED_ATTRIBUTE} request attribute pass straight through.
+ */
+public final class CorsFilter implements Filter {
+
+    /**
+     * The request attribute set once the policy was applied to the request.
+     */
+    public static final String APPLIED_ATTRIBUTE = "com.palantir.websecurity.corsApplied";
+
+    private static final Logger log = LoggerFactory.getLogger(CorsFilter.class);
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final WebSecurityMetrics metrics;
+    private final PolicyReference policies;
+
+    public CorsFilter(CorsConfiguration config) {
+        this(config, WebSecurityMetrics.NOOP);
+    }
+
+    /**
+     * Creates a filter that reports allowed and rejected requests to the {@code metrics}.
+     */
+    public CorsFilter(CorsConfiguration config, WebSecurityMetrics metrics) {
+        this(PathPrefixTrie.of(CorsPolicy.of(checkNotNull(config))), metrics);
+    }
+
+    /**
+     * Creates a filter that applies the policy of the longest matching path prefix of each request, and reports allowed
+     * and rejected requests to the {@code metrics}. Requests are left alone where the policy is
+     * {@link CorsPolicy#DISABLED}.
+     */
+    public CorsFilter(PathPrefixTrie<CorsPolicy> policies, WebSecurityMetrics metrics) {
+        this(HostTable.of(checkNotNull(policies)), metrics);
+    }
+
+    /**
+     * Creates a filter that applies the policy of the host and the longest matching path prefix of each request, see
+     * {@link #CorsFilter(PathPrefixTrie, WebSecurityMetrics)}.
+     */
+    public CorsFilter(HostTable<PathPrefixTrie<CorsPolicy>> policies, WebSecurityMetrics metrics) {
+        this(new PolicyReference(PolicySnapshot.DEFAULT.withCorsPolicies(checkNotNull(policies))), metrics);
+    }
+
+    /**
+     * Creates a filter that applies the {@link PolicySnapshot#corsPolicies() CORS policies} of the snapshot pinned to
+     * each request, see {@link #CorsFilter(PathPrefixTrie, WebSecurityMetrics)}.
+     */
+    public CorsFilter(PolicyReference policies, WebSecurityMetrics metrics) {
+        checkNotNull(policies);
+        checkNotNull(metrics);
+
+        this.metrics = metrics;
+        this.policies = policies;
+    }
+
+    /**
+     * Replaces the policy with one compiled from the {@code config}. Requests see either the old or the new policy,
+     * each with its own origin cache, so verdicts of the old configuration are never used once the change is visible.
+     */
+    public void setConfiguration(CorsConfiguration config) {
+        checkNotNull(config);
+
+        setPolicy(CorsPolicy.of(config));
+    }
+
+    /**
+     * Replaces the policies with a single, already compiled one, see {@link #setConfiguration(CorsConfiguration)}.
+     */
+    public void setPolicy(CorsPolicy policy) {
+        checkNotNull(policy);
+
+        setPolicies(PathPrefixTrie.of(policy));
+    }
+
+    /**
+     * Replaces the policies of every path at once, see {@link #setConfiguration(CorsConfiguration)}.
+     */
+    public void setPolicies(PathPrefixTrie<CorsPolicy> policies) {
+        checkNotNull(policies);
+
+        setHostPolicies(HostTable.of(policies));
+    }
+
+    /**
+     * Replaces the policies of every host and path at once, see {@link #setConfiguration(CorsConfiguration)}.
+     */
+    public void setHostPolicies(HostTable<PathPrefixTrie<CorsPolicy>> hostPolicies) {
+        checkNotNull(hostPolicies);
+
+        this.policies.update(snapshot -> snapshot.withCorsPolicies(hostPolicies));
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        // intentionally left blank
+    }
+
+    @Override
+    public void destroy() {
+        // intentionally left blank
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        checkNotNull(request);
+        checkNotNull(response);
+        checkNotNull(chain);
+
+        if (request instanceof HttpServletRequest && response instanceof HttpServletResponse && !isApplied(request)) {
+            long start = this.metrics.startTiming();
+            request.setAttribute(APPLIED_ATTRIBUTE, Boolean.TRUE);
+            boolean chainRequest = applyCors((HttpServletRequest) request, (HttpServletResponse) response);
+            this.metrics.corsTimed(start);
+
+            if (!chainRequest) {
+                return;
+            }
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Determines if the policy was applied by an earlier dispatch of the {@code request}.
+     */
+    private static boolean isApplied(ServletRequest request) {
+        return request.getDispatcherType() != DispatcherType.REQUEST && request.getAttribute(APPLIED_ATTRIBUTE) != null;
+    }
+
+    /**
+     * Returns the policy for hosts and paths without a policy of their own.
+     */
+    public CorsPolicy getPolicy() {
+        return getHostPolicies().defaultValue().rootValue();
+    }
+
+    /**
+     * Returns the policies of this filter by path prefix, for hosts without policies of their own.
+     */
+    public PathPrefixTrie<CorsPolicy> getPolicies() {
+        return getHostPolicies().defaultValue();
+    }
+
+    /**
+     * Returns the policies of this filter by host and path prefix.
+     */
+    public HostTable<PathPrefixTrie<CorsPolicy>> getHostPolicies() {
+        return this.policies.get().corsPolicies();
+    }
+
+    /**
+     * Adds the CORS headers for the {@code request}, and returns true if the request should be passed down the chain.
+     */
+    private boolean applyCors(HttpServletRequest request, HttpServletResponse response) {
+        String origin = request.getHeader(HttpHeaders.ORIGIN);
+
+        if (origin == null || isWebSocketUpgrade(request)) {
+            return true;
+        }
+
+        // use the same policy for the whole request, even if the configuration changes
+        CorsPolicy current = this.policies.forRequest(request).corsPolicies().get(request.getServerName())
+                .get(request.getServletPath(), request.getPathInfo());
+        if (!current.isEnabled()) {
+            return true;
+        }
+
+        OriginVerdict verdict = current.verdict(origin);
+        String requestedMethod = request.getHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD);
+
+        if (requestedMethod != null && "OPTIONS".equalsIgnoreCase(request.getMethod())) {
+            return handlePreflight(current, verdict, request, response, origin, requestedMethod);
+        }
+
+        if (verdict.isAllowed()) {
+            verdict.actualHeaders().apply(response);
+            addVary(current, response);
+            this.metrics.corsAllowed();
+        } else {
+            this.metrics.corsRejected();
+            log.debug("Cross-origin request to {} with origin {} is not allowed", request.getRequestURI(), origin);
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds the headers of an allowed preflight request from the cache, and returns true if the request should be
+     * passed down the chain. A preflight request from an origin over its rate limit is answered with
+     * {@code 429 Too Many Requests} before anything else.
+     */
+    private boolean handlePreflight(CorsPolicy current, OriginVerdict verdict, HttpServletRequest request,
+            HttpServletResponse response, String origin, String requestedMethod) {
+
+        if (!current.tryAcquirePreflight(origin, verdict)) {
+            this.metrics.preflightLimited();
+            response.setStatus(SC_TOO_MANY_REQUESTS);
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            return false;
+        }
+
+        if (!verdict.isAllowed()) {
+            this.metrics.preflightRejected();
+            log.debug("Preflight request to {} with origin {} is not allowed", request.getRequestURI(), origin);
+            return true;
+        }
+
+        HeaderPlan preflight = current.preflightResponse(origin, requestedMethod,
+                request.getHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS));
+
+        if (preflight.isEmpty()) {
+            this.metrics.preflightRejected();
+        } else {
+            preflight.apply(response);
+            addVary(current, response);
+
+            if (current.answerPreflight()) {
+                this.metrics.preflightAnswered();
+                response.setStatus(HttpServletResponse.SC_OK);
+                return false;
+            }
+
+            this.metrics.preflightAllowed();
+        }
+
+        return current.chainPreflight();
+    }
+
+    private static void addVary(CorsPolicy policy, HttpServletResponse response) {
+        // the response depends on the origin unless every origin is allowed, added rather than set to keep other values
+        if (!policy.anyOriginAllowed()) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ORIGIN);
+        }
+    }
+
+    /**
+     * Determines if the request is a WebSocket handshake, which some clients reject if it has additional headers. The
+     * check is the same as the {@code CrossOriginFilter}'s, but skips enumerating headers for requests that do not
+     * upgrade.
+     */
+    private static boolean isWebSocketUpgrade(HttpServletRequest request) {
+        if (request.getHeader(HttpHeaders.UPGRADE) == null) {
+            return false;
+        }
+
+        for (Enumeration<String> connections = request.getHeaders(HttpHeaders.CONNECTION);
+                connections.hasMoreElements();) {
+            if ("Upgrade".equalsIgnoreCase(connections.nextElement())) {
+                for (Enumeration<String> upgrades = request.getHeaders(HttpHeaders.UPGRADE);
+                        upgrades.hasMoreElements();) {
+                    if ("WebSocket".equalsIgnoreCase(upgrades.nextElement())) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+}
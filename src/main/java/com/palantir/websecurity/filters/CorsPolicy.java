@@ -0,0 +1,391 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Joiner;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.CorsConfiguration;
+import com.palantir.websecurity.WebSecurityBundle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import org.eclipse.jetty.util.StringUtil;
+
+/**
+ * A {@link CorsConfiguration} compiled for answering requests. Values that are not configured use the defaults of the
+ * {@link WebSecurityBundle} or, where the bundle has none, of Jetty's
+ * {@link org.eclipse.jetty.servlets.CrossOriginFilter}. Lists are parsed the same way as the {@code CrossOriginFilter}
+ * parses its initial parameters, so a configuration has the same meaning for both.
+ */
+public final class CorsPolicy {
+
+    public static final String ANY_ORIGIN = "*";
+    public static final String ANY_HEADERS = "*";
+    public static final boolean DEFAULT_CHAIN_PREFLIGHT = true;
+    public static final long DEFAULT_PREFLIGHT_MAX_AGE = 1800;
+    public static final boolean DEFAULT_ANSWER_PREFLIGHT = false;
+    public static final long DEFAULT_CACHE_SIZE = 1024;
+
+    private static final Joiner COMMA_JOINER = Joiner.on(',');
+
+    /**
+     * A policy that the {@link CorsFilter} does not apply, used for paths where CORS is disabled.
+     */
+    public static final CorsPolicy DISABLED = new CorsPolicy(CorsConfiguration.DISABLED, 1, false);
+
+    private final boolean enabled;
+    private final boolean anyOriginAllowed;
+    private final OriginMatcher origins;
+    private final ImmutableList<String> allowedMethods;
+    private final ImmutableSet<String> allowedMethodSet;
+    private final boolean anyHeadersAllowed;
+    private final ImmutableList<String> allowedHeaders;
+    private final CaseInsensitiveTokenSet allowedHeaderSet;
+    private final boolean allowCredentials;
+    private final ImmutableList<String> exposedHeaders;
+    private final long preflightMaxAge;
+    private final boolean chainPreflight;
+    private final boolean answerPreflight;
+    private final int preflightRateLimit;
+    private final int rejectedPreflightRateLimit;
+    private final PreflightRateLimiter rateLimiter;
+
+    private final HeaderPlan simpleHeaders;
+    private final HeaderPlan preflightHeaders;
+
+    private final BoundedCache<String, OriginVerdict> verdicts;
+    private final Function<String, OriginVerdict> verdictLoader = this::computeVerdict;
+    private final BoundedCache<PreflightKey, HeaderPlan> preflights;
+    private final Function<PreflightKey, HeaderPlan> preflightLoader = this::computePreflightResponse;
+
+    private CorsPolicy(CorsConfiguration config, long cacheSize, boolean enabled) {
+        this.enabled = enabled;
+
+        List<String> allowedOrigins = new ArrayList<>();
+        boolean anyOrigin = false;
+        for (String origin : csvSplit(config.allowedOrigins().or(ANY_ORIGIN))) {
+            if (ANY_ORIGIN.equals(origin)) {
+                anyOrigin = true;
+            } else if (!origin.isEmpty()) {
+                allowedOrigins.add(origin);
+            }
+        }
+        this.anyOriginAllowed = anyOrigin;
+        // listed origins are kept even if any origin is allowed, since they have a preflight rate limit of their own
+        this.origins = OriginMatcher.of(allowedOrigins);
+
+        this.allowedMethods = csvSplit(config.allowedMethods().or(WebSecurityBundle.DEFAULT_ALLOWED_METHODS));
+        this.allowedMethodSet = ImmutableSet.copyOf(this.allowedMethods);
+
+        String allowedHeadersValue = config.allowedHeaders().or(WebSecurityBundle.DEFAULT_ALLOWED_HEADERS);
+        this.anyHeadersAllowed = ANY_HEADERS.equals(allowedHeadersValue);
+        this.allowedHeaders = this.anyHeadersAllowed ? ImmutableList.<String>of() : csvSplit(allowedHeadersValue);
+        this.allowedHeaderSet = CaseInsensitiveTokenSet.of(this.allowedHeaders);
+
+        this.allowCredentials = config.allowCredentials().or(WebSecurityBundle.DEFAULT_ALLOW_CREDENTIALS);
+        this.exposedHeaders = csvSplit(config.exposedHeaders().or(""));
+        this.preflightMaxAge = config.preflightMaxAge().or(DEFAULT_PREFLIGHT_MAX_AGE);
+        this.chainPreflight = config.chainPreflight().or(DEFAULT_CHAIN_PREFLIGHT);
+        this.answerPreflight = config.answerPreflight().or(DEFAULT_ANSWER_PREFLIGHT);
+        this.preflightRateLimit = config.preflightRateLimit().or(0);
+        this.rejectedPreflightRateLimit = config.rejectedPreflightRateLimit().or(0);
+        this.rateLimiter = rateLimiter(this.preflightRateLimit, this.rejectedPreflightRateLimit, cacheSize);
+
+        HeaderPlan.Builder simple = HeaderPlan.builder();
+        HeaderPlan.Builder preflight = HeaderPlan.builder();
+
+        if (this.allowCredentials) {
+            simple.header(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+            preflight.header(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+        }
+        if (!this.exposedHeaders.isEmpty()) {
+            simple.header(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, COMMA_JOINER.join(this.exposedHeaders));
+        }
+        if (this.preflightMaxAge > 0) {
+            preflight.header(HttpHeaders.ACCESS_CONTROL_MAX_AGE, Long.toString(this.preflightMaxAge));
+        }
+        preflight.header(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, COMMA_JOINER.join(this.allowedMethods));
+        if (!this.anyHeadersAllowed) {
+            preflight.header(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, COMMA_JOINER.join(this.allowedHeaders));
+        }
+
+        this.simpleHeaders = simple.build();
+        this.preflightHeaders = preflight.build();
+
+        this.verdicts = new BoundedCache<>(cacheSize);
+        this.preflights = new BoundedCache<>(cacheSize);
+    }
+
+    public static CorsPolicy of(CorsConfiguration config) {
+        return of(config, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Compiles the {@code config}, remembering the verdicts for up to {@code cacheSize} distinct {@code Origin} header
+     * values and the responses for up to {@code cacheSize} distinct preflight requests.
+     */
+    public static CorsPolicy of(CorsConfiguration config, long cacheSize) {
+        checkNotNull(config);
+        return new CorsPolicy(config, cacheSize, true);
+    }
+
+    /**
+     * Returns the verdict for the {@code Origin} header value, which includes the headers for requests from the
+     * origin. Browsers send few distinct origins, so verdicts are cached by the raw header value. The cache belongs to
+     * this policy, so compiling a changed configuration into a new policy never reuses a stale verdict.
+     */
+    public OriginVerdict verdict(String originHeader) {
+        checkNotNull(originHeader);
+        return this.verdicts.get(originHeader, this.verdictLoader);
+    }
+
+    /**
+     * Returns all headers of the response to a preflight request, or {@link HeaderPlan#EMPTY} if the preflight is not
+     * allowed, in which case no headers are added. Responses are cached by the origin, requested method and requested
+     * headers, so a repeated preflight is answered without parsing its headers again. The {@code Vary} header is not
+     * included, since it is added to rather than set.
+     */
+    public HeaderPlan preflightResponse(String originHeader, String requestedMethod, String requestedHeaders) {
+        checkNotNull(originHeader);
+        checkNotNull(requestedMethod);
+        return this.preflights.get(new PreflightKey(originHeader, requestedMethod, requestedHeaders),
+                this.preflightLoader);
+    }
+
+    /**
+     * Takes a token from the rate limit of preflight requests from the {@code Origin} header value, and returns false
+     * if the origin is over its limit. Each allowed origin that is listed has a limit of its own, and all other
+     * origins, including those only allowed by {@code *}, share one, so made-up origins can't each get a fresh limit.
+     * The limits belong to this policy, so compiling a changed configuration starts them afresh.
+     */
+    public boolean tryAcquirePreflight(String originHeader, OriginVerdict verdict) {
+        checkNotNull(originHeader);
+        boolean listed = verdict.isAllowed() && (!this.anyOriginAllowed || matchesListedOrigin(originHeader));
+        return this.rateLimiter.tryAcquire(originHeader, listed);
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the origin verdict cache.
+     */
+    public CacheStats originCacheStats() {
+        return this.verdicts.stats();
+    }
+
+    /**
+     * Returns the number of cached origin verdicts.
+     */
+    public long originCacheSize() {
+        return this.verdicts.size();
+    }
+
+    /**
+     * Returns the hit, miss and eviction counts of the preflight response cache.
+     */
+    public CacheStats preflightCacheStats() {
+        return this.preflights.stats();
+    }
+
+    /**
+     * Returns the number of cached preflight responses.
+     */
+    public long preflightCacheSize() {
+        return this.preflights.size();
+    }
+
+    /**
+     * Removes all cached origin verdicts and preflight responses.
+     */
+    public void invalidateCaches() {
+        this.verdicts.invalidateAll();
+        this.preflights.invalidateAll();
+    }
+
+    /**
+     * Returns true if the {@code Origin} header value is allowed. As with {@code CrossOriginFilter}, the value may be a
+     * space separated list of origins, in which case it is allowed if any of the origins is allowed.
+     */
+    public boolean isOriginAllowed(String originHeader) {
+        return this.anyOriginAllowed || matchesListedOrigin(originHeader);
+    }
+
+    private boolean matchesListedOrigin(String originHeader) {
+        // trim only allocates if there is whitespace to remove
+        if (originHeader.trim().isEmpty()) {
+            return false;
+        }
+
+        // the header almost always holds a single origin, which can be matched without splitting it
+        if (originHeader.indexOf(' ') < 0) {
+            return this.origins.matches(originHeader);
+        }
+
+        for (String origin : originHeader.split(" ")) {
+            if (!origin.trim().isEmpty() && this.origins.matches(origin)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if the method requested by a preflight request, which is case-sensitive, is allowed.
+     */
+    public boolean isMethodAllowed(String requestedMethod) {
+        return requestedMethod != null && this.allowedMethodSet.contains(requestedMethod);
+    }
+
+    /**
+     * Returns true if all headers in the comma separated {@code Access-Control-Request-Headers} value, which may be
+     * null, are allowed. Header names are compared ignoring case.
+     */
+    public boolean areHeadersAllowed(String requestedHeaders) {
+        return this.anyHeadersAllowed
+                || requestedHeaders == null
+                || this.allowedHeaderSet.containsAll(requestedHeaders);
+    }
+
+    /**
+     * Returns the {@code Access-Control-Allow-Headers} value for a preflight request if any header is allowed, which
+     * echoes the requested headers. Returns null otherwise, since the value is part of {@link #preflightHeaders()}.
+     */
+    public String allowHeadersFor(String requestedHeaders) {
+        if (!this.anyHeadersAllowed) {
+            return null;
+        }
+
+        if (requestedHeaders == null) {
+            return "";
+        }
+
+        List<String> headers = new ArrayList<>();
+        for (String header : StringUtil.csvSplit(requestedHeaders)) {
+            String trimmed = header.trim();
+            if (!trimmed.isEmpty()) {
+                headers.add(trimmed);
+            }
+        }
+        return COMMA_JOINER.join(headers);
+    }
+
+    /**
+     * Headers added to allowed requests that are not preflight requests, except for the
+     * {@code Access-Control-Allow-Origin} and {@code Vary} headers, which depend on the origin.
+     */
+    public HeaderPlan simpleHeaders() {
+        return this.simpleHeaders;
+    }
+
+    /**
+     * Headers added to allowed preflight requests, except for the {@code Access-Control-Allow-Origin} and {@code Vary}
+     * headers, which depend on the origin, and the {@code Access-Control-Allow-Headers} header if
+     * {@link #allowHeadersFor(String)} returns a value.
+     */
+    public HeaderPlan preflightHeaders() {
+        return this.preflightHeaders;
+    }
+
+    /**
+     * Returns false for {@link #DISABLED}, true for every compiled policy.
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public boolean anyOriginAllowed() {
+        return this.anyOriginAllowed;
+    }
+
+    public ImmutableList<String> allowedMethods() {
+        return this.allowedMethods;
+    }
+
+    public boolean anyHeadersAllowed() {
+        return this.anyHeadersAllowed;
+    }
+
+    public ImmutableList<String> allowedHeaders() {
+        return this.allowedHeaders;
+    }
+
+    public boolean allowCredentials() {
+        return this.allowCredentials;
+    }
+
+    public ImmutableList<String> exposedHeaders() {
+        return this.exposedHeaders;
+    }
+
+    public long preflightMaxAge() {
+        return this.preflightMaxAge;
+    }
+
+    public boolean chainPreflight() {
+        return this.chainPreflight;
+    }
+
+    public boolean answerPreflight() {
+        return this.answerPreflight;
+    }
+
+    public int preflightRateLimit() {
+        return this.preflightRateLimit;
+    }
+
+    public int rejectedPreflightRateLimit() {
+        return this.rejectedPreflightRateLimit;
+    }
+
+    private OriginVerdict computeVerdict(String originHeader) {
+        if (!isOriginAllowed(originHeader)) {
+            return OriginVerdict.DENIED;
+        }
+
+        return OriginVerdict.allowed(HeaderPlan.builder()
+                .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, originHeader)
+                .from(this.simpleHeaders)
+                .build());
+    }
+
+    private HeaderPlan computePreflightResponse(PreflightKey key) {
+        String requestedHeaders = key.headers();
+
+        if (!verdict(key.origin()).isAllowed()
+                || !isMethodAllowed(key.method())
+                || !areHeadersAllowed(requestedHeaders)) {
+            return HeaderPlan.EMPTY;
+        }
+
+        HeaderPlan.Builder response = HeaderPlan.builder()
+                .header(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, key.origin())
+                .from(this.preflightHeaders);
+
+        String allowHeaders = allowHeadersFor(requestedHeaders);
+        if (allowHeaders != null) {
+            response.header(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, allowHeaders);
+        }
+
+        return response.build();
+    }
+
+    private static PreflightRateLimiter rateLimiter(int originRate, int rejectedRate, long maxOrigins) {
+        if (originRate == 0 && rejectedRate == 0) {
+            return PreflightRateLimiter.UNLIMITED;
+        }
+
+        return new PreflightRateLimiter(originRate, rejectedRate, (int) Math.min(maxOrigins, Integer.MAX_VALUE),
+                System::nanoTime);
+    }
+
+    private static ImmutableList<String> csvSplit(String value) {
+        return ImmutableList.copyOf(Arrays.asList(StringUtil.csvSplit(value)));
+    }
+}
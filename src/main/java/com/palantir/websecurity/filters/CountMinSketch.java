@@ -0,0 +1,79 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+/**
+ * Counts how often hashes occur in a fixed amount of memory. Each of {@code depth} rows of {@code width} counters is
+ * incremented at a position derived from the hash, and the estimate is the smallest of the counters, so estimates are
+ * never too low and too high by at most {@code e / width} of the total with a probability of {@code 1 - e^-depth}.
+ * Not thread-safe.
+ */
+final class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final int[] counters;
+    private long total = 0;
+
+    CountMinSketch(int depth, int width) {
+        checkArgument(depth > 0, "depth must be positive");
+        checkArgument(width > 0, "width must be positive");
+
+        this.depth = depth;
+        this.width = width;
+        this.counters = new int[depth * width];
+    }
+
+    /**
+     * Counts one more occurrence of the {@code hash} and returns its new estimate.
+     */
+    int add(long hash) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < this.depth; row++) {
+            int index = index(row, hash);
+            if (this.counters[index] < Integer.MAX_VALUE) {
+                this.counters[index]++;
+            }
+            estimate = Math.min(estimate, this.counters[index]);
+        }
+        this.total++;
+        return estimate;
+    }
+
+    /**
+     * Returns an estimate of the occurrences of the {@code hash}, which is never too low.
+     */
+    int estimate(long hash) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < this.depth; row++) {
+            estimate = Math.min(estimate, this.counters[index(row, hash)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the number of occurrences counted.
+     */
+    long total() {
+        return this.total;
+    }
+
+    void clear() {
+        Arrays.fill(this.counters, 0);
+        this.total = 0;
+    }
+
+    /**
+     * Derives the position in a row from the hash, with a different mix of the hash for every row.
+     */
+    private int index(int row, long hash) {
+        long mixed = Hashes.mix(hash + (row + 1) * Hashes.SEED_MULTIPLIER);
+        return row * this.width + (int) ((mixed >>> 1) % this.width);
+    }
+}
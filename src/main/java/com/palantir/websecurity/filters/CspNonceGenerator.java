@@ -0,0 +1,105 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Generates Content Security Policy nonces: 144 random bits, encoded as 24 base64 characters without padding.
+ * <p>
+ * A single {@link SecureRandom} shared by every request thread is a point of contention, so each thread has its own
+ * {@code SHA1PRNG} generator, seeded from a shared {@link SecureRandom} when the thread first asks for a nonce and
+ * reseeded every {@value #RESEED_INTERVAL} nonces. Random bytes are generated and base64 encoded in batches of
+ * {@value #BATCH_SIZE} nonces, so most nonces only copy 24 characters out of a buffer.
+ */
+public final class CspNonceGenerator {
+
+    /**
+     * The generator shared by the injectors. Its buffers are per thread, so sharing it does not cause contention.
+     */
+    public static final CspNonceGenerator DEFAULT = new CspNonceGenerator();
+
+    public static final int NONCE_LENGTH = 24;
+
+    static final int BATCH_SIZE = 64;
+    static final int RESEED_INTERVAL = 1 << 16;
+
+    private static final int NONCE_BYTES = NONCE_LENGTH / 4 * 3;
+    private static final int SEED_BYTES = 32;
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final SecureRandom seeder = new SecureRandom();
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(() -> new Buffer(newRandom()));
+
+    /**
+     * Returns a new nonce.
+     */
+    public String next() {
+        return this.buffers.get().next();
+    }
+
+    private SecureRandom newRandom() {
+        try {
+            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+            // seeding before the first use replaces the generator's own seeding, which may block
+            random.setSeed(seed());
+            return random;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA1PRNG is not available", e);
+        }
+    }
+
+    private byte[] seed() {
+        byte[] seed = new byte[SEED_BYTES];
+        this.seeder.nextBytes(seed);
+        return seed;
+    }
+
+    /**
+     * The generator and encoded nonces of one thread.
+     */
+    private final class Buffer {
+        private final SecureRandom random;
+        private final byte[] bytes = new byte[NONCE_BYTES * BATCH_SIZE];
+        private final char[] characters = new char[NONCE_LENGTH * BATCH_SIZE];
+        private int position = this.characters.length;
+        private int sinceReseed;
+
+        Buffer(SecureRandom random) {
+            this.random = random;
+        }
+
+        String next() {
+            if (this.position == this.characters.length) {
+                refill();
+            }
+
+            String nonce = new String(this.characters, this.position, NONCE_LENGTH);
+            this.position += NONCE_LENGTH;
+            return nonce;
+        }
+
+        private void refill() {
+            this.sinceReseed += BATCH_SIZE;
+            if (this.sinceReseed >= RESEED_INTERVAL) {
+                // adds to the state of the generator rather than replacing it
+                this.random.setSeed(seed());
+                this.sinceReseed = 0;
+            }
+
+            this.random.nextBytes(this.bytes);
+            for (int in = 0, out = 0; in < this.bytes.length; in += 3, out += 4) {
+                int bits = (this.bytes[in] & 0xff) << 16 | (this.bytes[in + 1] & 0xff) << 8 | this.bytes[in + 2] & 0xff;
+                this.characters[out] = BASE64[bits >>> 18];
+                this.characters[out + 1] = BASE64[bits >>> 12 & 0x3f];
+                this.characters[out + 2] = BASE64[bits >>> 6 & 0x3f];
+                this.characters[out + 3] = BASE64[bits & 0x3f];
+            }
+            this.position = 0;
+        }
+    }
+}
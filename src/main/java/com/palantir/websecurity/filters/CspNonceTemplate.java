@@ -0,0 +1,81 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Content Security Policy with {@value #PLACEHOLDER} placeholders, split once into the text around them so that
+ * rendering a policy only copies that text and the nonce into a buffer of the exact length.
+ */
+final class CspNonceTemplate {
+
+    static final String PLACEHOLDER = "{nonce}";
+
+    private final char[][] segments;
+    private final int segmentsLength;
+
+    private CspNonceTemplate(List<String> segments) {
+        this.segments = new char[segments.size()][];
+        int length = 0;
+        for (int index = 0; index < this.segments.length; index++) {
+            this.segments[index] = segments.get(index).toCharArray();
+            length += this.segments[index].length;
+        }
+        this.segmentsLength = length;
+    }
+
+    /**
+     * Determines if the {@code policy} contains a nonce placeholder.
+     */
+    static boolean hasPlaceholder(String policy) {
+        return policy.contains(PLACEHOLDER);
+    }
+
+    static CspNonceTemplate compile(String policy) {
+        checkNotNull(policy);
+
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        for (int end = policy.indexOf(PLACEHOLDER); end >= 0; end = policy.indexOf(PLACEHOLDER, start)) {
+            segments.add(policy.substring(start, end));
+            start = end + PLACEHOLDER.length();
+        }
+        segments.add(policy.substring(start));
+
+        return new CspNonceTemplate(segments);
+    }
+
+    /**
+     * Returns the length of the policy rendered with a nonce of {@code nonceLength} characters.
+     */
+    int length(int nonceLength) {
+        return this.segmentsLength + (this.segments.length - 1) * nonceLength;
+    }
+
+    /**
+     * Returns the policy with every placeholder replaced by the {@code nonce}.
+     */
+    String render(String nonce) {
+        int nonceLength = nonce.length();
+        char[] rendered = new char[length(nonceLength)];
+
+        int position = 0;
+        for (int index = 0; index < this.segments.length; index++) {
+            if (index > 0) {
+                nonce.getChars(0, nonceLength, rendered, position);
+                position += nonceLength;
+            }
+            char[] segment = this.segments[index];
+            System.arraycopy(segment, 0, rendered, position, segment.length);
+            position += segment.length;
+        }
+
+        return new String(rendered);
+    }
+}
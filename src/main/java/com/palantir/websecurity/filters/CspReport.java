@@ -0,0 +1,189 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A violation of the Content Security Policy reported by a browser, see {@link CspReportServlet}. Values the report
+ * did not include are empty strings, or -1 for numbers.
+ */
+public final class CspReport {
+
+    private final long timestamp;
+    private final String documentUri;
+    private final String referrer;
+    private final String blockedUri;
+    private final String effectiveDirective;
+    private final String disposition;
+    private final String sourceFile;
+    private final int lineNumber;
+    private final int columnNumber;
+    private final int statusCode;
+
+    private CspReport(Builder builder) {
+        this.timestamp = builder.timestamp;
+        this.documentUri = builder.documentUri;
+        this.referrer = builder.referrer;
+        this.blockedUri = builder.blockedUri;
+        this.effectiveDirective = builder.effectiveDirective;
+        this.disposition = builder.disposition;
+        this.sourceFile = builder.sourceFile;
+        this.lineNumber = builder.lineNumber;
+        this.columnNumber = builder.columnNumber;
+        this.statusCode = builder.statusCode;
+    }
+
+    /**
+     * When the report was received, in milliseconds since the epoch.
+     */
+    public long timestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * The URI of the document in which the violation occurred.
+     */
+    public String documentUri() {
+        return this.documentUri;
+    }
+
+    public String referrer() {
+        return this.referrer;
+    }
+
+    /**
+     * The URI of the resource that was blocked, or a keyword such as {@code inline} or {@code eval}.
+     */
+    public String blockedUri() {
+        return this.blockedUri;
+    }
+
+    /**
+     * The name of the directive that was violated, e.g. {@code script-src-elem}.
+     */
+    public String effectiveDirective() {
+        return this.effectiveDirective;
+    }
+
+    /**
+     * Either {@code enforce} or {@code report}.
+     */
+    public String disposition() {
+        return this.disposition;
+    }
+
+    public String sourceFile() {
+        return this.sourceFile;
+    }
+
+    public int lineNumber() {
+        return this.lineNumber;
+    }
+
+    public int columnNumber() {
+        return this.columnNumber;
+    }
+
+    /**
+     * The HTTP status code of the document in which the violation occurred.
+     */
+    public int statusCode() {
+        return this.statusCode;
+    }
+
+    @Override
+    public String toString() {
+        return "CspReport{timestamp=" + this.timestamp
+                + ", documentUri=" + this.documentUri
+                + ", referrer=" + this.referrer
+                + ", blockedUri=" + this.blockedUri
+                + ", effectiveDirective=" + this.effectiveDirective
+                + ", disposition=" + this.disposition
+                + ", sourceFile=" + this.sourceFile
+                + ", lineNumber=" + this.lineNumber
+                + ", columnNumber=" + this.columnNumber
+                + ", statusCode=" + this.statusCode
+                + "}";
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds {@link CspReport}s. Values that are not set are empty strings, or -1 for numbers.
+     */
+    public static final class Builder {
+        private long timestamp;
+        private String documentUri = "";
+        private String referrer = "";
+        private String blockedUri = "";
+        private String effectiveDirective = "";
+        private String disposition = "";
+        private String sourceFile = "";
+        private int lineNumber = -1;
+        private int columnNumber = -1;
+        private int statusCode = -1;
+
+        private Builder() {
+            // use CspReport.builder()
+        }
+
+        public Builder timestamp(long value) {
+            this.timestamp = value;
+            return this;
+        }
+
+        public Builder documentUri(String value) {
+            this.documentUri = checkNotNull(value);
+            return this;
+        }
+
+        public Builder referrer(String value) {
+            this.referrer = checkNotNull(value);
+            return this;
+        }
+
+        public Builder blockedUri(String value) {
+            this.blockedUri = checkNotNull(value);
+            return this;
+        }
+
+        public Builder effectiveDirective(String value) {
+            this.effectiveDirective = checkNotNull(value);
+            return this;
+        }
+
+        public Builder disposition(String value) {
+            this.disposition = checkNotNull(value);
+            return this;
+        }
+
+        public Builder sourceFile(String value) {
+            this.sourceFile = checkNotNull(value);
+            return this;
+        }
+
+        public Builder lineNumber(int value) {
+            this.lineNumber = value;
+            return this;
+        }
+
+        public Builder columnNumber(int value) {
+            this.columnNumber = value;
+            return this;
+        }
+
+        public Builder statusCode(int value) {
+            this.statusCode = value;
+            return this;
+        }
+
+        public CspReport build() {
+            return new CspReport(this);
+        }
+    }
+}
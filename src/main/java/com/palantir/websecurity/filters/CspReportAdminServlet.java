@@ -0,0 +1,81 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.primitives.Ints;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Shows the most frequent CSP violations counted by a {@link CspReportAggregator} as JSON, for the admin connector.
+ * The {@code window} parameter sets the number of minutes to look back, 5 by default, and {@code limit} the number of
+ * violations to show, 20 by default.
+ */
+public final class CspReportAdminServlet extends HttpServlet {
+
+    public static final int DEFAULT_WINDOW_MINUTES = 5;
+    public static final int DEFAULT_LIMIT = 20;
+
+    private static final long serialVersionUID = 1L;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final transient CspReportAggregator aggregator;
+
+    public CspReportAdminServlet(CspReportAggregator aggregator) {
+        this.aggregator = checkNotNull(aggregator);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Integer window = parameter(req, "window", DEFAULT_WINDOW_MINUTES);
+        Integer limit = parameter(req, "limit", DEFAULT_LIMIT);
+        if (window == null || window < 1 || window > CspReportAggregator.MAX_WINDOW_MINUTES
+                || limit == null || limit < 0) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        long total = this.aggregator.total(window);
+        List<Map.Entry<CspViolation, Long>> top = this.aggregator.top(window, limit);
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("application/json");
+        resp.setHeader("Cache-Control", "must-revalidate,no-cache,no-store");
+
+        try (JsonGenerator json = JSON.createGenerator(resp.getOutputStream())) {
+            json.writeStartObject();
+            json.writeNumberField("windowMinutes", window);
+            json.writeNumberField("total", total);
+            json.writeArrayFieldStart("violations");
+            for (Map.Entry<CspViolation, Long> entry : top) {
+                json.writeStartObject();
+                json.writeStringField("directive", entry.getKey().directive());
+                json.writeStringField("blockedOrigin", entry.getKey().blockedOrigin());
+                json.writeStringField("documentPath", entry.getKey().documentPath());
+                json.writeNumberField("count", entry.getValue());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * Returns the integer value of the parameter, the {@code defaultValue} if it isn't set, or null if it isn't an
+     * integer.
+     */
+    private static Integer parameter(HttpServletRequest req, String name, int defaultValue) {
+        String value = req.getParameter(name);
+        return value == null ? Integer.valueOf(defaultValue) : Ints.tryParse(value);
+    }
+}
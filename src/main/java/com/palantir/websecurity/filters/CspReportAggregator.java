@@ -0,0 +1,186 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Clock;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts CSP violation reports by {@link CspViolation} in a fixed amount of memory, to show which violations are the
+ * most frequent over the last minutes. Reports are counted in one bucket per minute, for the last
+ * {@link #MAX_WINDOW_MINUTES} minutes. Each bucket counts the violations in a {@link CountMinSketch} and keeps the
+ * {@link #TOP_VIOLATIONS} violations with the highest estimates, so a storm of distinct violations takes no more memory
+ * than a few of them, at the cost of rough counts. Thread-safe.
+ */
+public final class CspReportAggregator implements CspReportListener {
+
+    public static final int MAX_WINDOW_MINUTES = 60;
+    public static final int TOP_VIOLATIONS = 64;
+
+    private static final long BUCKET_MILLIS = 60_000L;
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 1024;
+
+    private static final Comparator<Map.Entry<CspViolation, Long>> BY_COUNT =
+            Comparator.<Map.Entry<CspViolation, Long>>comparingLong(Map.Entry::getValue).reversed()
+                    .thenComparing(entry -> entry.getKey().toString());
+
+    private final Clock clock;
+    private final Bucket[] buckets = new Bucket[MAX_WINDOW_MINUTES];
+
+    public CspReportAggregator() {
+        this(Clock.systemUTC());
+    }
+
+    CspReportAggregator(Clock clock) {
+        this.clock = checkNotNull(clock);
+
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new Bucket();
+        }
+    }
+
+    @Override
+    public synchronized void onReport(CspReport report) {
+        long minute = report.timestamp() / BUCKET_MILLIS;
+        Bucket bucket = this.buckets[(int) (minute % MAX_WINDOW_MINUTES)];
+
+        if (bucket.minute < minute) {
+            bucket.reset(minute);
+        } else if (bucket.minute > minute) {
+            // older than the buckets kept
+            return;
+        }
+
+        bucket.add(CspViolation.of(report));
+    }
+
+    /**
+     * Returns up to {@code limit} of the most frequent violations over the last {@code windowMinutes} minutes, with
+     * their estimated counts, most frequent first. Counts are never too low, and too high by a small fraction of
+     * {@link #total(int)}.
+     */
+    public synchronized List<Map.Entry<CspViolation, Long>> top(int windowMinutes, int limit) {
+        checkWindow(windowMinutes);
+        checkArgument(limit >= 0, "limit must not be negative");
+
+        List<Bucket> window = window(windowMinutes);
+        Set<CspViolation> candidates = new HashSet<>();
+        for (Bucket bucket : window) {
+            bucket.collectTop(candidates);
+        }
+
+        List<Map.Entry<CspViolation, Long>> counts = new ArrayList<>(candidates.size());
+        for (CspViolation violation : candidates) {
+            long count = 0;
+            for (Bucket bucket : window) {
+                count += bucket.sketch.estimate(violation.longHash());
+            }
+            counts.add(new AbstractMap.SimpleImmutableEntry<>(violation, count));
+        }
+
+        counts.sort(BY_COUNT);
+        return counts.size() > limit ? new ArrayList<>(counts.subList(0, limit)) : counts;
+    }
+
+    /**
+     * Returns the number of reports counted over the last {@code windowMinutes} minutes.
+     */
+    public synchronized long total(int windowMinutes) {
+        checkWindow(windowMinutes);
+
+        long total = 0;
+        for (Bucket bucket : window(windowMinutes)) {
+            total += bucket.sketch.total();
+        }
+        return total;
+    }
+
+    private List<Bucket> window(int windowMinutes) {
+        long now = this.clock.millis() / BUCKET_MILLIS;
+        List<Bucket> window = new ArrayList<>(windowMinutes);
+        for (Bucket bucket : this.buckets) {
+            if (bucket.minute <= now && bucket.minute > now - windowMinutes) {
+                window.add(bucket);
+            }
+        }
+        return window;
+    }
+
+    private static void checkWindow(int windowMinutes) {
+        checkArgument(windowMinutes > 0 && windowMinutes <= MAX_WINDOW_MINUTES,
+                "windowMinutes must be between 1 and %s", MAX_WINDOW_MINUTES);
+    }
+
+    /**
+     * The counts of one minute, with the violations of the highest estimates in a fixed number of slots. A violation
+     * that isn't in a slot takes the slot with the lowest estimate once its own estimate is higher.
+     */
+    private static final class Bucket {
+
+        private final CountMinSketch sketch = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        private final CspViolation[] violations = new CspViolation[TOP_VIOLATIONS];
+        private final int[] estimates = new int[TOP_VIOLATIONS];
+        private final Map<CspViolation, Integer> slots = new HashMap<>(TOP_VIOLATIONS * 2);
+        private int size = 0;
+        private long minute = Long.MIN_VALUE;
+
+        private void reset(long newMinute) {
+            this.sketch.clear();
+            this.slots.clear();
+            this.size = 0;
+            this.minute = newMinute;
+        }
+
+        private void add(CspViolation violation) {
+            int estimate = this.sketch.add(violation.longHash());
+
+            Integer slot = this.slots.get(violation);
+            if (slot != null) {
+                this.estimates[slot] = estimate;
+            } else if (this.size < TOP_VIOLATIONS) {
+                put(this.size++, violation, estimate);
+            } else {
+                int lowest = lowestSlot();
+                if (estimate > this.estimates[lowest]) {
+                    this.slots.remove(this.violations[lowest]);
+                    put(lowest, violation, estimate);
+                }
+            }
+        }
+
+        private void collectTop(Set<CspViolation> candidates) {
+            for (int i = 0; i < this.size; i++) {
+                candidates.add(this.violations[i]);
+            }
+        }
+
+        private void put(int slot, CspViolation violation, int estimate) {
+            this.violations[slot] = violation;
+            this.estimates[slot] = estimate;
+            this.slots.put(violation, slot);
+        }
+
+        private int lowestSlot() {
+            int lowest = 0;
+            for (int i = 1; i < this.size; i++) {
+                if (this.estimates[i] < this.estimates[lowest]) {
+                    lowest = i;
+                }
+            }
+            return lowest;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * Receives the CSP violation reports accepted by the {@link CspReportServlet}. Reports are passed on by the worker
+ * threads of a {@link CspReportQueue}, never on the request path, so implementations may block, but a slow listener
+ * makes the queue fill up and drop reports. Implementations must be thread-safe if there is more than one worker.
+ */
+public interface CspReportListener {
+
+    /**
+     * Logs every report.
+     */
+    CspReportListener LOG = LoggingCspReportListener.INSTANCE;
+
+    void onReport(CspReport report);
+}
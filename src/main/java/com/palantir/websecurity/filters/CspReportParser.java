@@ -0,0 +1,167 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Parses the bodies of CSP violation reports with Jackson's streaming parser, without building a tree or binding the
+ * whole body. Both the {@code report-uri} format, an object with a {@code csp-report} member, and the Reporting API
+ * format of {@code report-to}, an array of reports of which only the {@code csp-violation} reports are kept, are
+ * understood. Unknown members are skipped.
+ */
+final class CspReportParser {
+
+    static final String VIOLATION_TYPE = "csp-violation";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final ImmutableSet<String> EFFECTIVE_DIRECTIVE =
+            ImmutableSet.of("effective-directive", "effectiveDirective");
+    private static final String VIOLATED_DIRECTIVE = "violated-directive";
+
+    /**
+     * Sets the other members of a report, by their names in either format.
+     */
+    private static final ImmutableMap<String, BiConsumer<CspReport.Builder, String>> MEMBERS =
+            ImmutableMap.<String, BiConsumer<CspReport.Builder, String>>builder()
+                    .put("document-uri", CspReport.Builder::documentUri)
+                    .put("documentURL", CspReport.Builder::documentUri)
+                    .put("referrer", CspReport.Builder::referrer)
+                    .put("blocked-uri", CspReport.Builder::blockedUri)
+                    .put("blockedURL", CspReport.Builder::blockedUri)
+                    .put("disposition", CspReport.Builder::disposition)
+                    .put("source-file", CspReport.Builder::sourceFile)
+                    .put("sourceFile", CspReport.Builder::sourceFile)
+                    .put("line-number", (report, value) -> report.lineNumber(toInt(value)))
+                    .put("lineNumber", (report, value) -> report.lineNumber(toInt(value)))
+                    .put("column-number", (report, value) -> report.columnNumber(toInt(value)))
+                    .put("columnNumber", (report, value) -> report.columnNumber(toInt(value)))
+                    .put("status-code", (report, value) -> report.statusCode(toInt(value)))
+                    .put("statusCode", (report, value) -> report.statusCode(toInt(value)))
+                    .build();
+
+    private CspReportParser() {
+        // utility class
+    }
+
+    /**
+     * Parses the reports in the {@code body} and passes each to {@code reports} as soon as it is parsed. Returns the
+     * number of reports parsed. Throws an {@link IOException} if the body is not a report, in which case the reports
+     * before the error have already been passed on.
+     */
+    static int parse(InputStream body, long timestamp, Consumer<CspReport> reports) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                return parseReportUri(parser, timestamp, reports);
+            }
+            if (token == JsonToken.START_ARRAY) {
+                return parseReportTo(parser, timestamp, reports);
+            }
+            throw new JsonParseException(parser, "Expected a CSP violation report");
+        }
+    }
+
+    private static int parseReportUri(JsonParser parser, long timestamp, Consumer<CspReport> reports)
+            throws IOException {
+        int count = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("csp-report".equals(name) && value == JsonToken.START_OBJECT) {
+                reports.accept(parseBody(parser, timestamp));
+                count++;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return count;
+    }
+
+    private static int parseReportTo(JsonParser parser, long timestamp, Consumer<CspReport> reports)
+            throws IOException {
+        int count = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            String type = null;
+            CspReport report = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(name) && value == JsonToken.VALUE_STRING) {
+                    type = parser.getText();
+                } else if ("body".equals(name) && value == JsonToken.START_OBJECT) {
+                    report = parseBody(parser, timestamp);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (VIOLATION_TYPE.equals(type) && report != null) {
+                reports.accept(report);
+                count++;
+            }
+        }
+
+        if (token != JsonToken.END_ARRAY) {
+            throw new JsonParseException(parser, "Expected a report object");
+        }
+        return count;
+    }
+
+    /**
+     * Parses the members of a report, named as in either format, up to the end of its object.
+     */
+    private static CspReport parseBody(JsonParser parser, long timestamp) throws IOException {
+        CspReport.Builder report = CspReport.builder().timestamp(timestamp);
+        String effectiveDirective = "";
+        String violatedDirective = "";
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken().isStructStart()) {
+                parser.skipChildren();
+                continue;
+            }
+
+            String value = parser.getValueAsString("");
+            if (EFFECTIVE_DIRECTIVE.contains(name)) {
+                effectiveDirective = value;
+            } else if (VIOLATED_DIRECTIVE.equals(name)) {
+                violatedDirective = value;
+            } else {
+                // e.g. original-policy, which is the same for every report, is skipped
+                BiConsumer<CspReport.Builder, String> member = MEMBERS.get(name);
+                if (member != null) {
+                    member.accept(report, value);
+                }
+            }
+        }
+
+        // older browsers only send the violated directive, with its value
+        if (effectiveDirective.isEmpty()) {
+            int end = violatedDirective.indexOf(' ');
+            effectiveDirective = end < 0 ? violatedDirective : violatedDirective.substring(0, end);
+        }
+
+        return report.effectiveDirective(effectiveDirective).build();
+    }
+
+    private static int toInt(String value) {
+        Integer number = Ints.tryParse(value);
+        return number == null ? -1 : number;
+    }
+}
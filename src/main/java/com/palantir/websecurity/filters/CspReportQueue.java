@@ -0,0 +1,197 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import io.dropwizard.lifecycle.Managed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands CSP violation reports from request threads to a small pool of worker threads, which pass them to a
+ * {@link CspReportListener}. The queue is a fixed array with a sequence number per slot, so {@link #offer(CspReport)}
+ * is a compare-and-set on the tail and never takes a lock, allocates or waits for a worker: a report that finds the
+ * queue full is dropped and counted.
+ * <p>
+ * Idle workers park, and a request thread only unparks a worker that announced it is parking. Workers also wake up
+ * periodically, so a missed wake-up delays a report but never strands it. Reports left in the queue when the queue is
+ * stopped are still passed on before the workers exit.
+ */
+public final class CspReportQueue implements Managed {
+
+    private static final Logger log = LoggerFactory.getLogger(CspReportQueue.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final int capacity;
+    private final AtomicReferenceArray<CspReport> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    private final CspReportListener listener;
+    private final WebSecurityMetrics metrics;
+    private final Worker[] workers;
+
+    private volatile boolean running = false;
+
+    public CspReportQueue(int capacity, int workers, CspReportListener listener, WebSecurityMetrics metrics) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        checkArgument(workers > 0, "workers must be positive");
+        checkNotNull(listener);
+        checkNotNull(metrics);
+
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.sequences.set(i, i);
+        }
+
+        this.listener = listener;
+        this.metrics = metrics;
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker("csp-reports-" + i);
+        }
+    }
+
+    /**
+     * Queues the {@code report} and returns true, or drops it and returns false if the queue is full. Never blocks.
+     */
+    public boolean offer(CspReport report) {
+        checkNotNull(report);
+
+        long position = this.tail.get();
+        while (true) {
+            int slot = (int) (position % this.capacity);
+            long available = this.sequences.get(slot) - position;
+            if (available == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.slots.lazySet(slot, report);
+                    this.sequences.set(slot, position + 1);
+                    break;
+                }
+                position = this.tail.get();
+            } else if (available < 0) {
+                // the slot still holds the report from one lap ago
+                this.metrics.cspReportDropped();
+                return false;
+            } else {
+                position = this.tail.get();
+            }
+        }
+
+        this.metrics.cspReportQueued();
+        wakeWorker();
+        return true;
+    }
+
+    /**
+     * Returns the number of reports waiting to be processed.
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(this.capacity, this.tail.get() - this.head.get()));
+    }
+
+    @Override
+    public synchronized void start() {
+        checkState(!this.running, "already started");
+
+        this.running = true;
+        for (Worker worker : this.workers) {
+            worker.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop() throws InterruptedException {
+        this.running = false;
+        for (Worker worker : this.workers) {
+            LockSupport.unpark(worker);
+        }
+        for (Worker worker : this.workers) {
+            worker.join(STOP_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Removes the oldest report, or returns null if the queue is empty.
+     */
+    CspReport poll() {
+        long position = this.head.get();
+        while (true) {
+            int slot = (int) (position % this.capacity);
+            long available = this.sequences.get(slot) - (position + 1);
+            if (available == 0) {
+                if (this.head.compareAndSet(position, position + 1)) {
+                    CspReport report = this.slots.get(slot);
+                    this.slots.lazySet(slot, null);
+                    this.sequences.set(slot, position + this.capacity);
+                    return report;
+                }
+                position = this.head.get();
+            } else if (available < 0) {
+                return null;
+            } else {
+                position = this.head.get();
+            }
+        }
+    }
+
+    private void wakeWorker() {
+        for (Worker worker : this.workers) {
+            if (worker.parking) {
+                worker.parking = false;
+                LockSupport.unpark(worker);
+                return;
+            }
+        }
+    }
+
+    private final class Worker extends Thread {
+        private volatile boolean parking = false;
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                CspReport report = poll();
+                if (report != null) {
+                    process(report);
+                } else if (!CspReportQueue.this.running) {
+                    return;
+                } else {
+                    this.parking = true;
+                    // a report queued before the flag was set did not wake anyone
+                    if (size() == 0) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    this.parking = false;
+                }
+            }
+        }
+
+        private void process(CspReport report) {
+            try {
+                CspReportQueue.this.listener.onReport(report);
+            } catch (RuntimeException e) {
+                log.warn("CSP report listener failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Receives CSP violation reports posted by browsers to the {@code report-uri} or {@code report-to} endpoint of the
+ * policy. The body is parsed as it is read, up to {@code maxReportSize} bytes, and the reports are handed to a
+ * {@link CspReportQueue}; the request thread never waits for them to be processed. Every request with a report content
+ * type is answered with {@code 204 No Content}, even if its reports were dropped or malformed, since browsers don't act
+ * on the response.
+ */
+public final class CspReportServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient CspReportQueue queue;
+    private final transient WebSecurityMetrics metrics;
+    private final transient Consumer<CspReport> offer;
+    private final int maxReportSize;
+
+    public CspReportServlet(CspReportQueue queue, int maxReportSize, WebSecurityMetrics metrics) {
+        checkNotNull(queue);
+        checkArgument(maxReportSize > 0, "maxReportSize must be positive");
+        checkNotNull(metrics);
+
+        this.queue = queue;
+        this.metrics = metrics;
+        this.offer = queue::offer;
+        this.maxReportSize = maxReportSize;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (!isReportContentType(req.getContentType())) {
+            resp.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+            return;
+        }
+
+        if (req.getContentLength() > this.maxReportSize) {
+            this.metrics.cspReportMalformed();
+            resp.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+
+        try (InputStream body = ByteStreams.limit(req.getInputStream(), this.maxReportSize)) {
+            CspReportParser.parse(body, System.currentTimeMillis(), this.offer);
+        } catch (IOException e) {
+            // malformed, truncated or cut off by the client
+            this.metrics.cspReportMalformed();
+        }
+
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * Returns the queue the reports are handed to.
+     */
+    public CspReportQueue getQueue() {
+        return this.queue;
+    }
+
+    /**
+     * Determines if the content type is {@code application/csp-report}, sent for {@code report-uri},
+     * {@code application/reports+json}, sent for {@code report-to}, or {@code application/json}, sent by older
+     * browsers.
+     */
+    private static boolean isReportContentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        int end = contentType.indexOf(';');
+        String mediaType = (end < 0 ? contentType : contentType.substring(0, end)).trim();
+        return mediaType.equalsIgnoreCase("application/csp-report")
+                || mediaType.equalsIgnoreCase("application/reports+json")
+                || mediaType.equalsIgnoreCase("application/json");
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps CSP violation reports in a directory of segment files, one JSON object per line, so report storms can be
+ * looked into after the fact with {@link #read(Path, long, Consumer)}.
+ * <p>
+ * Reports are encoded into a buffer in memory, and the buffer is written to the current segment with one write and one
+ * sync every second, or as soon as it holds 64 KiB. A segment is closed and a new one started once it reaches
+ * {@code segmentSize} bytes or {@code segmentMillis} of age, and the oldest segments are deleted whenever the segments
+ * take more than {@code maxSize} bytes. Reports arrive from the workers of a {@link CspReportQueue}, so request threads
+ * never touch the disk. Reports received before the store is started or after it is stopped are dropped.
+ */
+public final class CspReportStore implements CspReportListener, Managed {
+
+    private static final Logger log = LoggerFactory.getLogger(CspReportStore.class);
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final String SEGMENT_PREFIX = "csp-reports-";
+    private static final String SEGMENT_SUFFIX = ".ndjson";
+    private static final int FLUSH_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000L;
+    private static final long STOP_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long segmentMillis;
+    private final long maxSize;
+    private final Clock clock;
+
+    private final PendingBuffer pending = new PendingBuffer();
+    private final JsonGenerator json;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long totalSize = 0;
+    private FileChannel channel = null;
+    private boolean running = false;
+    private ScheduledExecutorService flusher = null;
+
+    public CspReportStore(Path directory, long segmentSize, long segmentMillis, long maxSize) {
+        this(directory, segmentSize, segmentMillis, maxSize, Clock.systemUTC());
+    }
+
+    CspReportStore(Path directory, long segmentSize, long segmentMillis, long maxSize, Clock clock) {
+        checkNotNull(directory);
+        checkArgument(segmentSize > 0, "segmentSize must be positive");
+        checkArgument(segmentMillis > 0, "segmentMillis must be positive");
+        checkArgument(maxSize >= segmentSize, "maxSize must be at least segmentSize");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segmentMillis = segmentMillis;
+        this.maxSize = maxSize;
+        this.clock = checkNotNull(clock);
+
+        try {
+            this.json = JSON.createGenerator(this.pending);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.json.setRootValueSeparator(null);
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        Files.createDirectories(this.directory);
+
+        for (Path path : segments(this.directory)) {
+            long size = Files.size(path);
+            this.segments.addLast(new Segment(path, startOf(path), size));
+            this.totalSize += size;
+        }
+        openNext();
+        deleteOldSegments();
+        this.running = true;
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("csp-report-store").setDaemon(true).build());
+        this.flusher.scheduleWithFixedDelay(
+                this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws InterruptedException, IOException {
+        if (this.flusher != null) {
+            this.flusher.shutdown();
+            this.flusher.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized (this) {
+            flush();
+            this.running = false;
+            if (this.channel != null) {
+                this.channel.close();
+                this.channel = null;
+
+                // don't leave an empty segment behind for every restart
+                Segment current = this.segments.getLast();
+                if (current.size == 0) {
+                    Files.deleteIfExists(current.path);
+                    this.segments.removeLast();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onReport(CspReport report) {
+        if (!this.running) {
+            return;
+        }
+
+        try {
+            write(report);
+        } catch (IOException e) {
+            // the buffer is in memory, so this doesn't happen
+            throw new IllegalStateException(e);
+        }
+
+        if (this.pending.size() >= FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered reports to the current segment, and starts a new segment if the current one is full or old.
+     * If a new segment couldn't be started, starting one is tried again on the next flush.
+     */
+    synchronized void flush() {
+        if (!this.running) {
+            return;
+        }
+
+        try {
+            if (this.channel == null) {
+                openNext();
+            }
+
+            Segment current = this.segments.getLast();
+            if (this.pending.size() > 0) {
+                ByteBuffer buffer = this.pending.toByteBuffer();
+                int length = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    this.channel.write(buffer);
+                }
+                this.channel.force(false);
+                current.size += length;
+                this.totalSize += length;
+            }
+
+            if (current.size >= this.segmentSize
+                    || (current.size > 0 && this.clock.millis() - current.start >= this.segmentMillis)) {
+                this.channel.close();
+                this.channel = null;
+                openNext();
+            }
+            deleteOldSegments();
+        } catch (IOException e) {
+            log.warn("Failed to write CSP violation reports to {}", this.directory, e);
+        } finally {
+            this.pending.reset();
+        }
+    }
+
+    /**
+     * Returns the total size of the segments, in bytes.
+     */
+    synchronized long size() {
+        return this.totalSize;
+    }
+
+    /**
+     * Passes the lines of the segments in the {@code directory} that hold reports received at or after {@code since},
+     * in milliseconds since the epoch, to {@code records}, oldest first. Lines that are still being written are
+     * skipped.
+     */
+    public static void read(Path directory, long since, Consumer<String> records) throws IOException {
+        List<Path> paths = segments(directory);
+
+        // a report can end up in the segment after the one that was current when it was received
+        int first = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            if (startOf(paths.get(i)) <= since) {
+                first = Math.max(0, i - 1);
+            }
+        }
+
+        for (Path path : paths.subList(first, paths.size())) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (timestamp(line) >= since) {
+                        records.accept(line);
+                    }
+                }
+            }
+        }
+    }
+
+    private void write(CspReport report) throws IOException {
+        this.json.writeStartObject();
+        this.json.writeNumberField("timestamp", report.timestamp());
+        this.json.writeStringField("documentUri", report.documentUri());
+        this.json.writeStringField("referrer", report.referrer());
+        this.json.writeStringField("blockedUri", report.blockedUri());
+        this.json.writeStringField("effectiveDirective", report.effectiveDirective());
+        this.json.writeStringField("disposition", report.disposition());
+        this.json.writeStringField("sourceFile", report.sourceFile());
+        this.json.writeNumberField("lineNumber", report.lineNumber());
+        this.json.writeNumberField("columnNumber", report.columnNumber());
+        this.json.writeNumberField("statusCode", report.statusCode());
+        this.json.writeEndObject();
+        this.json.flush();
+        this.pending.write('\n');
+    }
+
+    /**
+     * Starts a new segment, named after the current time, and after the last segment even if the clock went back.
+     */
+    private void openNext() throws IOException {
+        long now = this.clock.millis();
+        open(this.segments.isEmpty() ? now : Math.max(now, this.segments.getLast().start + 1));
+    }
+
+    private void open(long start) throws IOException {
+        Path path = this.directory.resolve(String.format("%s%013d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.segments.addLast(new Segment(path, start, 0));
+    }
+
+    private void deleteOldSegments() throws IOException {
+        while (this.totalSize > this.maxSize && this.segments.size() > 1) {
+            Segment oldest = this.segments.removeFirst();
+            Files.deleteIfExists(oldest.path);
+            this.totalSize -= oldest.size;
+        }
+    }
+
+    /**
+     * Returns the segment files in the {@code directory}, oldest first.
+     */
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return paths;
+        }
+
+        String glob = SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : stream) {
+                if (startOf(path) >= 0) {
+                    paths.add(path);
+                }
+            }
+        }
+        // the start times are padded, so the names sort by age
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /**
+     * Returns the time the segment was started from its name, or -1 if it isn't a segment name.
+     */
+    private static long startOf(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the timestamp of the report on the {@code line}, or -1 if the line isn't a complete report.
+     */
+    private static long timestamp(String line) {
+        try (JsonParser parser = JSON.createParser(line)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT
+                    && parser.nextToken() == JsonToken.FIELD_NAME && parser.getCurrentName().equals("timestamp")
+                    && parser.nextToken() == JsonToken.VALUE_NUMBER_INT && line.endsWith("}")) {
+                return parser.getLongValue();
+            }
+            return -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final long start;
+        private long size;
+
+        private Segment(Path path, long start, long size) {
+            this.path = path;
+            this.start = start;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} whose contents can be written without copying them.
+     */
+    private static final class PendingBuffer extends ByteArrayOutputStream {
+
+        private PendingBuffer() {
+            super(FLUSH_SIZE + 1024);
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(this.buf, 0, this.count);
+        }
+    }
+}
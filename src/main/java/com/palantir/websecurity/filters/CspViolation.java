@@ -0,0 +1,136 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The kind of violation a {@link CspReport} is counted as by the {@link CspReportAggregator}: the directive that was
+ * violated, the origin of the blocked resource and the path of the document. Dropping the rest of the blocked URI and
+ * the query of the document makes reports of the same problem share a key, and every part is cut off at
+ * {@link #MAX_LENGTH} characters so a key takes a bounded amount of memory.
+ */
+public final class CspViolation {
+
+    public static final int MAX_LENGTH = 256;
+
+    private final String directive;
+    private final String blockedOrigin;
+    private final String documentPath;
+    private final long hash;
+
+    public CspViolation(String directive, String blockedOrigin, String documentPath) {
+        this.directive = truncate(checkNotNull(directive));
+        this.blockedOrigin = truncate(checkNotNull(blockedOrigin));
+        this.documentPath = truncate(checkNotNull(documentPath));
+        this.hash = ((long) this.directive.hashCode() << 32)
+                ^ (31L * this.blockedOrigin.hashCode())
+                ^ ((long) this.documentPath.hashCode() << 16);
+    }
+
+    /**
+     * Returns the violation the {@code report} is counted as.
+     */
+    public static CspViolation of(CspReport report) {
+        return new CspViolation(report.effectiveDirective(), origin(report.blockedUri()),
+                path(report.documentUri()));
+    }
+
+    public String directive() {
+        return this.directive;
+    }
+
+    /**
+     * The scheme, host and port of the blocked URI, e.g. {@code https://cdn.example.com}, the scheme of URIs without a
+     * host, e.g. {@code data:}, or the keyword browsers send instead of a URI, e.g. {@code inline}.
+     */
+    public String blockedOrigin() {
+        return this.blockedOrigin;
+    }
+
+    /**
+     * The path of the document URI, without its query or fragment.
+     */
+    public String documentPath() {
+        return this.documentPath;
+    }
+
+    /**
+     * A 64 bit hash for sketches, which is consistent with {@link #equals(Object)}.
+     */
+    long longHash() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CspViolation)) {
+            return false;
+        }
+
+        CspViolation that = (CspViolation) other;
+        return this.hash == that.hash
+                && this.directive.equals(that.directive)
+                && this.blockedOrigin.equals(that.blockedOrigin)
+                && this.documentPath.equals(that.documentPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (this.hash ^ (this.hash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "CspViolation{directive=" + this.directive + ", blockedOrigin=" + this.blockedOrigin
+                + ", documentPath=" + this.documentPath + "}";
+    }
+
+    static String origin(String uri) {
+        int schemeEnd = uri.indexOf(':');
+        if (schemeEnd < 0) {
+            return uri;
+        }
+        if (!uri.startsWith("//", schemeEnd + 1)) {
+            return uri.substring(0, schemeEnd + 1);
+        }
+
+        int authorityEnd = endOfAuthority(uri, schemeEnd + 3);
+        return uri.substring(0, authorityEnd);
+    }
+
+    static String path(String uri) {
+        if (uri.isEmpty()) {
+            return uri;
+        }
+
+        int start = 0;
+        int schemeEnd = uri.indexOf(':');
+        if (schemeEnd >= 0 && uri.startsWith("//", schemeEnd + 1)) {
+            start = endOfAuthority(uri, schemeEnd + 3);
+        }
+
+        int end = start;
+        while (end < uri.length() && uri.charAt(end) != '?' && uri.charAt(end) != '#') {
+            end++;
+        }
+        return start == end ? "/" : uri.substring(start, end);
+    }
+
+    private static int endOfAuthority(String uri, int start) {
+        int end = start;
+        while (end < uri.length() && uri.charAt(end) != '/' && uri.charAt(end) != '?' && uri.charAt(end) != '#') {
+            end++;
+        }
+        return end;
+    }
+
+    private static String truncate(String value) {
+        return value.length() > MAX_LENGTH ? value.substring(0, MAX_LENGTH) : value;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.net.HttpHeaders;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Injects the headers that only matter to documents, such as the Content Security Policy and the Frame Options, once
+ * the response turns out to be a {@link WebSecurityHeaderInjector#isDocument(String) document}, so that scripts,
+ * styles, images and other assets don't carry them. The Content Type Options, which matter to every response, are
+ * injected when the wrapper is created.
+ * <p>
+ * The content type is checked every time it is set, with {@link #setContentType(String)} or a {@code Content-Type}
+ * header. A response whose body is started without a content type, and every error page, is treated as a document.
+ * Once injected, the headers are kept even if the content type changes again. {@link #finish()} must be called once
+ * the chain has returned.
+ */
+public final class DocumentHeadersResponseWrapper extends HttpServletResponseWrapper {
+
+    private final HttpServletRequest request;
+    private final WebSecurityHeaderInjector injector;
+    private boolean injected = false;
+
+    /**
+     * Creates a wrapper that injects the headers of the {@code injector} into the {@code response}.
+     */
+    public DocumentHeadersResponseWrapper(HttpServletRequest request, HttpServletResponse response,
+            WebSecurityHeaderInjector injector) {
+        super(response);
+        this.request = checkNotNull(request);
+        this.injector = checkNotNull(injector);
+
+        injector.injectContentHeaders(request, response);
+    }
+
+    @Override
+    public void setContentType(String type) {
+        super.setContentType(type);
+        contentTypeSet();
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        super.setHeader(name, value);
+        if (isContentType(name)) {
+            contentTypeSet();
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        super.addHeader(name, value);
+        if (isContentType(name)) {
+            contentTypeSet();
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        bodyStarted();
+        return super.getOutputStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        bodyStarted();
+        return super.getWriter();
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        bodyStarted();
+        super.flushBuffer();
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        inject();
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        inject();
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        this.injected = false;
+        this.injector.injectContentHeaders(this.request, (HttpServletResponse) getResponse());
+    }
+
+    /**
+     * Injects the headers if the response was never committed and has no content type, since it may still become a
+     * document, e.g. when the container sends an error page.
+     */
+    public void finish() {
+        if (!isCommitted()) {
+            bodyStarted();
+        }
+    }
+
+    /**
+     * Returns true if the headers that only matter to documents were injected.
+     */
+    public boolean isInjected() {
+        return this.injected;
+    }
+
+    private void contentTypeSet() {
+        if (!this.injected && WebSecurityHeaderInjector.isDocument(getContentType())) {
+            inject();
+        }
+    }
+
+    private void bodyStarted() {
+        if (!this.injected && getContentType() == null) {
+            inject();
+        }
+    }
+
+    private void inject() {
+        if (!this.injected) {
+            this.injected = true;
+            this.injector.injectHeaders(this.request, (HttpServletResponse) getResponse());
+        }
+    }
+
+    private static boolean isContentType(String name) {
+        return HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name);
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * {@link WebSecurityMetrics} registered in a Dropwizard {@link MetricRegistry}. Counts are kept in {@link Counter}s,
+ * which are a single striped adder, rather than in meters, which also read the clock and update three moving averages
+ * on every mark; rates can be derived from the counts by the reporter. Latencies are kept in {@link Timer}s that only
+ * record one in {@code sampleRate} calls, so the reservoirs are not updated on every request.
+ * <p>
+ * The following metrics are registered under the prefix:
+ * <ul>
+ * <li>{@code headers.injected}, {@code headers.jerseySkipped} - a gauge and a counter of requests that did and did not
+ * get security headers</li>
+ * <li>{@code headers.documentSkipped} - a counter of responses that only got the headers every response gets, because
+ * they are not documents</li>
+ * <li>{@code headers.overBudget} - a counter of responses whose security headers were over the header budget</li>
+ * <li>{@code headers.injected.<header name>} - gauges of the number of responses that got the header</li>
+ * <li>{@code headers.latency}, {@code cors.latency} - sampled timers of the time spent in the filters</li>
+ * <li>{@code cors.allowed}, {@code cors.rejected} - counters of cross-origin requests that are not preflights</li>
+ * <li>{@code cors.preflight.allowed}, {@code cors.preflight.answered}, {@code cors.preflight.rejected},
+ * {@code cors.preflight.limited} - counters of preflight requests</li>
+ * <li>{@code fetchMetadata.rejected} - a counter of cross-site requests rejected by their Fetch Metadata headers</li>
+ * <li>{@code cspReports.queued}, {@code cspReports.dropped}, {@code cspReports.malformed} - counters of CSP violation
+ * reports</li>
+ * <li>{@code <cache name>.hitRatio}, {@code <cache name>.evictions} - gauges of caches registered with
+ * {@link #registerCache(String, Supplier)}</li>
+ * </ul>
+ */
+public final class DropwizardWebSecurityMetrics implements WebSecurityMetrics {
+
+    public static final String DEFAULT_PREFIX = "webSecurity";
+    public static final int DEFAULT_SAMPLE_RATE = 16;
+
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final int sampleRate;
+
+    private final Counter jerseySkipped;
+    private final Counter documentSkipped;
+    private final Counter overBudget;
+    private final Timer headersLatency;
+    private final LongAdder[] headersInjectedByBrowserClass;
+
+    private final Counter corsAllowed;
+    private final Counter corsRejected;
+    private final Counter preflightAllowed;
+    private final Counter preflightAnswered;
+    private final Counter preflightRejected;
+    private final Counter preflightLimited;
+    private final Timer corsLatency;
+
+    private final Counter fetchMetadataRejected;
+
+    private final Counter cspReportsQueued;
+    private final Counter cspReportsDropped;
+    private final Counter cspReportsMalformed;
+
+    public DropwizardWebSecurityMetrics(MetricRegistry registry) {
+        this(registry, DEFAULT_PREFIX, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Creates metrics registered under {@code prefix} that time one in {@code sampleRate} calls.
+     */
+    public DropwizardWebSecurityMetrics(MetricRegistry registry, String prefix, int sampleRate) {
+        checkNotNull(registry);
+        checkNotNull(prefix);
+        checkArgument(sampleRate > 0, "sampleRate must be positive");
+
+        this.registry = registry;
+        this.prefix = prefix;
+        this.sampleRate = sampleRate;
+
+        this.headersInjectedByBrowserClass = new LongAdder[BrowserClass.values().length];
+        for (int i = 0; i < this.headersInjectedByBrowserClass.length; i++) {
+            this.headersInjectedByBrowserClass[i] = new LongAdder();
+        }
+        registry.register(name("headers.injected"), sumGauge(Arrays.asList(this.headersInjectedByBrowserClass)));
+        this.jerseySkipped = registry.counter(name("headers.jerseySkipped"));
+        this.documentSkipped = registry.counter(name("headers.documentSkipped"));
+        this.overBudget = registry.counter(name("headers.overBudget"));
+        this.headersLatency = registry.timer(name("headers.latency"));
+
+        this.corsAllowed = registry.counter(name("cors.allowed"));
+        this.corsRejected = registry.counter(name("cors.rejected"));
+        this.preflightAllowed = registry.counter(name("cors.preflight.allowed"));
+        this.preflightAnswered = registry.counter(name("cors.preflight.answered"));
+        this.preflightRejected = registry.counter(name("cors.preflight.rejected"));
+        this.preflightLimited = registry.counter(name("cors.preflight.limited"));
+        this.corsLatency = registry.timer(name("cors.latency"));
+
+        this.fetchMetadataRejected = registry.counter(name("fetchMetadata.rejected"));
+
+        this.cspReportsQueued = registry.counter(name("cspReports.queued"));
+        this.cspReportsDropped = registry.counter(name("cspReports.dropped"));
+        this.cspReportsMalformed = registry.counter(name("cspReports.malformed"));
+    }
+
+    /**
+     * Registers a gauge for every header the {@code injector} injects, counting the responses that got the header.
+     * The counts are derived from the number of responses per {@link BrowserClass}, so injecting headers costs a
+     * single increment however many headers there are.
+     * <p>
+     * Calling this again, e.g. after the injector is replaced, replaces the gauges registered by the last call.
+     */
+    public void registerHeaders(WebSecurityHeaderInjector injector) {
+        checkNotNull(injector);
+
+        registerHeaders(ImmutableList.of(injector));
+    }
+
+    /**
+     * Registers a gauge for every header injected by the {@code injectors}, e.g. of different paths, like
+     * {@link #registerHeaders(WebSecurityHeaderInjector)}. Since responses are only counted per {@link BrowserClass},
+     * a header is left out if some injectors inject it for a browser class and others don't.
+     */
+    public void registerHeaders(Collection<WebSecurityHeaderInjector> injectors) {
+        checkNotNull(injectors);
+
+        String headerPrefix = name("headers.injected") + ".";
+        this.registry.removeMatching((metricName, metric) -> metricName.startsWith(headerPrefix));
+
+        Set<String> names = new LinkedHashSet<>();
+        for (WebSecurityHeaderInjector injector : injectors) {
+            for (BrowserClass browserClass : BrowserClass.values()) {
+                names.addAll(injector.getHeaders(browserClass).headers().keySet());
+            }
+        }
+
+        for (String header : names) {
+            List<LongAdder> counts = new ArrayList<>();
+            boolean consistent = true;
+            for (BrowserClass browserClass : BrowserClass.values()) {
+                int injecting = countInjecting(injectors, browserClass, header);
+                if (injecting == injectors.size()) {
+                    counts.add(this.headersInjectedByBrowserClass[browserClass.ordinal()]);
+                } else if (injecting > 0) {
+                    consistent = false;
+                }
+            }
+
+            if (consistent) {
+                this.registry.register(name("headers.injected." + header), sumGauge(counts));
+            }
+        }
+    }
+
+    /**
+     * Registers the hit ratio and eviction count of a cache, read from {@code stats} whenever the gauges are read.
+     */
+    public void registerCache(String cacheName, Supplier<CacheStats> stats) {
+        checkNotNull(cacheName);
+        checkNotNull(stats);
+
+        this.registry.register(name(cacheName + ".hitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                CacheStats current = stats.get();
+                return Ratio.of(current.hitCount(), current.requestCount());
+            }
+        });
+        this.registry.register(name(cacheName + ".evictions"), (Gauge<Long>) () -> stats.get().evictionCount());
+    }
+
+    @Override
+    public long startTiming() {
+        if (ThreadLocalRandom.current().nextInt(this.sampleRate) != 0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    @Override
+    public void headersInjected(BrowserClass browserClass) {
+        this.headersInjectedByBrowserClass[browserClass.ordinal()].increment();
+    }
+
+    @Override
+    public void jerseyRequestSkipped() {
+        this.jerseySkipped.inc();
+    }
+
+    @Override
+    public void documentHeadersSkipped() {
+        this.documentSkipped.inc();
+    }
+
+    @Override
+    public void headersOverBudget() {
+        this.overBudget.inc();
+    }
+
+    @Override
+    public void headersTimed(long start) {
+        update(this.headersLatency, start);
+    }
+
+    @Override
+    public void corsAllowed() {
+        this.corsAllowed.inc();
+    }
+
+    @Override
+    public void corsRejected() {
+        this.corsRejected.inc();
+    }
+
+    @Override
+    public void preflightAllowed() {
+        this.preflightAllowed.inc();
+    }
+
+    @Override
+    public void preflightAnswered() {
+        this.preflightAnswered.inc();
+    }
+
+    @Override
+    public void preflightRejected() {
+        this.preflightRejected.inc();
+    }
+
+    @Override
+    public void preflightLimited() {
+        this.preflightLimited.inc();
+    }
+
+    @Override
+    public void corsTimed(long start) {
+        update(this.corsLatency, start);
+    }
+
+    @Override
+    public void fetchMetadataRejected() {
+        this.fetchMetadataRejected.inc();
+    }
+
+    @Override
+    public void cspReportQueued() {
+        this.cspReportsQueued.inc();
+    }
+
+    @Override
+    public void cspReportDropped() {
+        this.cspReportsDropped.inc();
+    }
+
+    @Override
+    public void cspReportMalformed() {
+        this.cspReportsMalformed.inc();
+    }
+
+    private static int countInjecting(Collection<WebSecurityHeaderInjector> injectors, BrowserClass browserClass,
+            String header) {
+        int injecting = 0;
+        for (WebSecurityHeaderInjector injector : injectors) {
+            if (injector.getHeaders(browserClass).headers().containsKey(header)) {
+                injecting++;
+            }
+        }
+        return injecting;
+    }
+
+    private static Gauge<Long> sumGauge(List<LongAdder> counts) {
+        return () -> {
+            long sum = 0;
+            for (LongAdder count : counts) {
+                sum += count.sum();
+            }
+            return sum;
+        };
+    }
+
+    private String name(String name) {
+        return MetricRegistry.name(this.prefix, name);
+    }
+
+    private static void update(Timer timer, long start) {
+        if (start != NOT_SAMPLED) {
+            timer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
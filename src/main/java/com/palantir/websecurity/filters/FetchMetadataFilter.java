@@ -0,0 +1,152 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.net.MediaType;
+import com.palantir.websecurity.FetchMetadataConfiguration;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A filter that rejects cross-site requests by their Fetch Metadata headers, using a {@link FetchMetadataPolicy}
+ * compiled from a {@link FetchMetadataConfiguration}, before they reach the application. Rejected requests are answered
+ * with a {@code 403 Forbidden} whose body is written from a constant, so they cost neither the application nor an error
+ * page. Paths can have their own policy, picked by the longest matching prefix, which exempts them if it is
+ * {@link FetchMetadataPolicy#DISABLED}. The policies are read from a {@link PolicyReference}, which may be shared with
+ * the other filters.
+ * <p>
+ * Only the initial dispatch of a request is checked, since a request that was rejected is never dispatched again.
+ */
+public final class FetchMetadataFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(FetchMetadataFilter.class);
+    private static final String REJECTED_CONTENT_TYPE = MediaType.PLAIN_TEXT_UTF_8.toString();
+    private static final byte[] REJECTED_BODY = "Cross-site request rejected\n".getBytes(StandardCharsets.UTF_8);
+
+    private final WebSecurityMetrics metrics;
+    private final PolicyReference policies;
+
+    public FetchMetadataFilter(FetchMetadataConfiguration config) {
+        this(PathPrefixTrie.of(FetchMetadataPolicy.of(checkNotNull(config), false)), WebSecurityMetrics.NOOP);
+    }
+
+    /**
+     * Creates a filter that applies the policy of the longest matching path prefix of each request, and reports
+     * rejected requests to the {@code metrics}.
+     */
+    public FetchMetadataFilter(PathPrefixTrie<FetchMetadataPolicy> policies, WebSecurityMetrics metrics) {
+        this(HostTable.of(checkNotNull(policies)), metrics);
+    }
+
+    /**
+     * Creates a filter that applies the policy of the host and the longest matching path prefix of each request, see
+     * {@link #FetchMetadataFilter(PathPrefixTrie, WebSecurityMetrics)}.
+     */
+    public FetchMetadataFilter(HostTable<PathPrefixTrie<FetchMetadataPolicy>> policies, WebSecurityMetrics metrics) {
+        this(new PolicyReference(PolicySnapshot.DEFAULT.withFetchMetadataPolicies(checkNotNull(policies))), metrics);
+    }
+
+    /**
+     * Creates a filter that applies the {@link PolicySnapshot#fetchMetadataPolicies() Fetch Metadata policies} of the
+     * snapshot pinned to each request, see {@link #FetchMetadataFilter(PathPrefixTrie, WebSecurityMetrics)}.
+     */
+    public FetchMetadataFilter(PolicyReference policies, WebSecurityMetrics metrics) {
+        checkNotNull(policies);
+        checkNotNull(metrics);
+
+        this.metrics = metrics;
+        this.policies = policies;
+    }
+
+    /**
+     * Replaces the policies of every host and path at once.
+     */
+    public void setHostPolicies(HostTable<PathPrefixTrie<FetchMetadataPolicy>> hostPolicies) {
+        checkNotNull(hostPolicies);
+
+        this.policies.update(snapshot -> snapshot.withFetchMetadataPolicies(hostPolicies));
+    }
+
+    /**
+     * Returns the policy for hosts and paths without a policy of their own.
+     */
+    public FetchMetadataPolicy getPolicy() {
+        return getHostPolicies().defaultValue().rootValue();
+    }
+
+    /**
+     * Returns the policies of this filter by host and path prefix.
+     */
+    public HostTable<PathPrefixTrie<FetchMetadataPolicy>> getHostPolicies() {
+        return this.policies.get().fetchMetadataPolicies();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        // intentionally left blank
+    }
+
+    @Override
+    public void destroy() {
+        // intentionally left blank
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        checkNotNull(request);
+        checkNotNull(response);
+        checkNotNull(chain);
+
+        if (request instanceof HttpServletRequest && response instanceof HttpServletResponse
+                && request.getDispatcherType() == DispatcherType.REQUEST
+                && !isAllowed((HttpServletRequest) request)) {
+            reject((HttpServletRequest) request, (HttpServletResponse) response);
+            return;
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    private boolean isAllowed(HttpServletRequest request) {
+        String site = request.getHeader(FetchMetadataPolicy.SEC_FETCH_SITE);
+        if (site == null) {
+            // not sent by older browsers and other clients, skip the policy lookup
+            return true;
+        }
+
+        FetchMetadataPolicy current = this.policies.forRequest(request).fetchMetadataPolicies()
+                .get(request.getServerName())
+                .get(request.getServletPath(), request.getPathInfo());
+        return current.isAllowed(site, request.getHeader(FetchMetadataPolicy.SEC_FETCH_MODE),
+                request.getHeader(FetchMetadataPolicy.SEC_FETCH_DEST), request.getMethod());
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        this.metrics.fetchMetadataRejected();
+        log.debug("Cross-site request to {} with Sec-Fetch-Mode {} and Sec-Fetch-Dest {} is not allowed",
+                request.getRequestURI(), request.getHeader(FetchMetadataPolicy.SEC_FETCH_MODE),
+                request.getHeader(FetchMetadataPolicy.SEC_FETCH_DEST));
+
+        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+        response.setContentType(REJECTED_CONTENT_TYPE);
+        response.setContentLength(REJECTED_BODY.length);
+        response.getOutputStream().write(REJECTED_BODY);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.websecurity.FetchMetadataConfiguration;
+
+/**
+ * A {@link FetchMetadataConfiguration} compiled into a resource isolation policy: a table of whether a request is
+ * allowed for every combination of {@code Sec-Fetch-Site}, {@code Sec-Fetch-Mode} and {@code Sec-Fetch-Dest} value and
+ * of whether its method is {@code GET} or {@code HEAD}. A request costs a lookup of each header value, which maps
+ * it to its index, and one read of the table. Values that are not in the Fetch Metadata specification are treated
+ * like {@code cross-site} sites, and like modes and destinations that no configuration allows.
+ * <p>
+ * Requests without a {@code Sec-Fetch-Site} header, from browsers that don't send Fetch Metadata, are always
+ * allowed. Requests from the same origin, from the same site unless {@code allowSameSite} is false, and requests the
+ * user made directly, e.g. by typing the address, are allowed. Cross-site requests are only allowed if they are
+ * navigations, if their destination is allowed, or if they are CORS requests where CORS is enabled, since the
+ * {@link CorsFilter} decides on those.
+ */
+public final class FetchMetadataPolicy {
+
+    public static final String SEC_FETCH_SITE = "Sec-Fetch-Site";
+    public static final String SEC_FETCH_MODE = "Sec-Fetch-Mode";
+    public static final String SEC_FETCH_DEST = "Sec-Fetch-Dest";
+
+    public static final boolean DEFAULT_ENABLED = true;
+    public static final boolean DEFAULT_ALLOW_SAME_SITE = true;
+    public static final boolean DEFAULT_ALLOW_NAVIGATIONS = true;
+
+    /**
+     * The values of the {@code Sec-Fetch-Dest} header.
+     */
+    public static final ImmutableSet<String> DESTINATIONS = ImmutableSet.of("audio", "audioworklet", "document",
+            "embed", "empty", "fencedframe", "font", "frame", "iframe", "image", "json", "manifest", "object",
+            "paintworklet", "report", "script", "serviceworker", "sharedworker", "style", "track", "video",
+            "webidentity", "websocket", "worker", "xslt");
+
+    private static final int SAME_ORIGIN = 0;
+    private static final int SAME_SITE = 1;
+    private static final int USER = 2;
+    private static final int CROSS_SITE = 3;
+    private static final ImmutableMap<String, Integer> SITES = ImmutableMap.of(
+            "same-origin", SAME_ORIGIN, "same-site", SAME_SITE, "none", USER, "cross-site", CROSS_SITE);
+
+    private static final int NAVIGATE = 0;
+    private static final int CORS = 1;
+    private static final int OTHER_MODE = 2;
+    private static final ImmutableMap<String, Integer> MODES = ImmutableMap.of(
+            "navigate", NAVIGATE, "nested-navigate", NAVIGATE, "cors", CORS);
+
+    private static final ImmutableMap<String, Integer> DESTINATION_INDEXES = indexes(DESTINATIONS.asList());
+    private static final int OTHER_DESTINATION = DESTINATIONS.size();
+    private static final ImmutableSet<String> EMBEDDED_DESTINATIONS = ImmutableSet.of("object", "embed");
+
+    private static final int DESTINATION_COUNT = OTHER_DESTINATION + 1;
+    private static final int MODE_COUNT = OTHER_MODE + 1;
+    private static final int SITE_COUNT = CROSS_SITE + 1;
+
+    /**
+     * A policy that the {@link FetchMetadataFilter} does not apply, used for paths that are exempt.
+     */
+    public static final FetchMetadataPolicy DISABLED = new FetchMetadataPolicy(FetchMetadataConfiguration.DISABLED,
+            false);
+
+    private final boolean enabled;
+    private final boolean[] allowed;
+
+    private FetchMetadataPolicy(FetchMetadataConfiguration config, boolean corsEnabled) {
+        checkArgument(DESTINATIONS.containsAll(config.allowedDestinations()),
+                "allowedDestinations must be Sec-Fetch-Dest values, e.g. image");
+
+        this.enabled = config.enabled().or(DEFAULT_ENABLED);
+        this.allowed = new boolean[SITE_COUNT * MODE_COUNT * DESTINATION_COUNT * 2];
+
+        for (int site = 0; site < SITE_COUNT; site++) {
+            for (int mode = 0; mode < MODE_COUNT; mode++) {
+                for (int destination = 0; destination < DESTINATION_COUNT; destination++) {
+                    String name = destination == OTHER_DESTINATION ? "" : DESTINATIONS.asList().get(destination);
+                    this.allowed[index(site, mode, destination, true)] =
+                            computeAllowed(config, corsEnabled, site, mode, name, true);
+                    this.allowed[index(site, mode, destination, false)] =
+                            computeAllowed(config, corsEnabled, site, mode, name, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles the {@code config}. Cross-site CORS requests are allowed if {@code corsEnabled}.
+     */
+    public static FetchMetadataPolicy of(FetchMetadataConfiguration config, boolean corsEnabled) {
+        checkNotNull(config);
+
+        return new FetchMetadataPolicy(config, corsEnabled);
+    }
+
+    private static boolean computeAllowed(FetchMetadataConfiguration config, boolean corsEnabled, int site, int mode,
+            String destination, boolean safeMethod) {
+        if (site == SAME_ORIGIN || site == USER) {
+            return true;
+        }
+        if (site == SAME_SITE && config.allowSameSite().or(DEFAULT_ALLOW_SAME_SITE)) {
+            return true;
+        }
+        return isCrossSiteAllowed(config, corsEnabled, mode, destination, safeMethod);
+    }
+
+    private static boolean isCrossSiteAllowed(FetchMetadataConfiguration config, boolean corsEnabled, int mode,
+            String destination, boolean safeMethod) {
+        if (config.allowedDestinations().contains(destination) || (mode == CORS && corsEnabled)) {
+            return true;
+        }
+
+        boolean navigation = mode == NAVIGATE && safeMethod && !EMBEDDED_DESTINATIONS.contains(destination);
+        return navigation && config.allowNavigations().or(DEFAULT_ALLOW_NAVIGATIONS);
+    }
+
+    /**
+     * Determines if the {@link FetchMetadataFilter} applies this policy.
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Determines if a request with the Fetch Metadata header values and the {@code method} is allowed. Any value can
+     * be null if the header is missing.
+     */
+    public boolean isAllowed(String site, String mode, String destination, String method) {
+        if (!this.enabled || site == null) {
+            return true;
+        }
+
+        return this.allowed[index(SITES.getOrDefault(site, CROSS_SITE),
+                mode == null ? OTHER_MODE : MODES.getOrDefault(mode, OTHER_MODE),
+                destination == null ? OTHER_DESTINATION : DESTINATION_INDEXES.getOrDefault(destination,
+                        OTHER_DESTINATION),
+                "GET".equals(method) || "HEAD".equals(method))];
+    }
+
+    private static int index(int site, int mode, int destination, boolean safeMethod) {
+        return ((site * MODE_COUNT + mode) * DESTINATION_COUNT + destination) * 2 + (safeMethod ? 0 : 1);
+    }
+
+    private static ImmutableMap<String, Integer> indexes(ImmutableList<String> values) {
+        ImmutableMap.Builder<String, Integer> indexes = ImmutableMap.builder();
+        for (int i = 0; i < values.size(); i++) {
+            indexes.put(values.get(i), i);
+        }
+        return indexes.build();
+    }
+}
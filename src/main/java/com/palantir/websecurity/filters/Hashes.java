@@ -0,0 +1,30 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * Helpers for the hash tables and sketches of the filters.
+ */
+final class Hashes {
+
+    /**
+     * An odd constant derived from the golden ratio, added in multiples to a hash to derive independent hashes from it.
+     */
+    static final long SEED_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private Hashes() {
+        // utility class
+    }
+
+    /**
+     * The 64-bit finalizer of MurmurHash3, which spreads every bit of the {@code value} over the result. Both
+     * multipliers are odd, so no two values give the same result.
+     */
+    static long mix(long value) {
+        long mixed = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        mixed = (mixed ^ (mixed >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return mixed ^ (mixed >>> 33);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * Injects the App Security headers into responses using a {@link WebSecurityHeaderInjector} per host and path prefix.
+ * The injectors can be replaced while requests are served.
+ */
+public interface HeaderInjection {
+
+    /**
+     * Replaces the injectors of every host and path at once. Requests see either the old or the new injectors, never a
+     * mix.
+     */
+    void setHostInjectors(HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> injectors);
+
+    /**
+     * Returns the injectors currently used by host and path prefix.
+     */
+    HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> getHostInjectors();
+
+    /**
+     * Replaces the injectors of every path at once, for every host, see
+     * {@link #setHostInjectors(HostTable)}.
+     */
+    default void setInjectors(PathPrefixTrie<WebSecurityHeaderInjector> injectors) {
+        setHostInjectors(HostTable.of(injectors));
+    }
+
+    /**
+     * Returns the injectors currently used by path prefix for hosts without injectors of their own.
+     */
+    default PathPrefixTrie<WebSecurityHeaderInjector> getInjectors() {
+        return getHostInjectors().defaultValue();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.MultivaluedMap;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.PreEncodedHttpField;
+import org.eclipse.jetty.server.Response;
+
+/**
+ * An immutable, ordered set of response headers that is prepared once and then written to every response it applies
+ * to. Applying a plan replaces any existing values of its headers, the same as
+ * {@link HttpServletResponse#setHeader(String, String)}.
+ * <p>
+ * When the response is a Jetty {@link Response} the prepared {@link HttpField}s are put directly into the response's
+ * fields, so Jetty does not have to look up the header names or create new fields for every request. Headers known to
+ * Jetty are pre-encoded using {@link PreEncodedHttpField}. Other headers are not, since Jetty's pre-encoding of
+ * non-standard header names is broken in the version shipped with Dropwizard. Any other response, including wrapped
+ * Jetty responses, falls back to {@link HttpServletResponse#setHeader(String, String)}.
+ */
+public final class HeaderPlan {
+
+    /**
+     * A plan that does not write any headers.
+     */
+    public static final HeaderPlan EMPTY = builder().build();
+
+    /**
+     * The bytes HTTP/1.1 adds to every header besides its name and value: {@code ": "} and the line break.
+     */
+    static final int HEADER_OVERHEAD = 4;
+
+    /**
+     * The bytes an entry of an HPACK dynamic table takes besides its name and value, see RFC 7541, section 4.1.
+     */
+    static final int TABLE_ENTRY_OVERHEAD = 32;
+
+    private final String[] names;
+    private final String[] values;
+    private final HttpField[] fields;
+
+    private HeaderPlan(List<String> names, List<String> values) {
+        this.names = names.toArray(new String[names.size()]);
+        this.values = values.toArray(new String[values.size()]);
+        this.fields = new HttpField[this.names.length];
+
+        for (int i = 0; i < this.names.length; i++) {
+            this.fields[i] = createField(this.names[i], this.values[i]);
+        }
+    }
+
+    /**
+     * Writes the headers of this plan to the {@code response}.
+     */
+    public void apply(HttpServletResponse response) {
+        if (response instanceof Response) {
+            Response jettyResponse = (Response) response;
+
+            // headers are not set during an include, the same as Response#setHeader
+            if (jettyResponse.isIncluding()) {
+                return;
+            }
+
+            HttpFields httpFields = jettyResponse.getHttpFields();
+            for (HttpField field : this.fields) {
+                httpFields.put(field);
+            }
+        } else {
+            for (int i = 0; i < this.names.length; i++) {
+                response.setHeader(this.names[i], this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes the headers of this plan that are not in the JAX-RS {@code headers} yet.
+     */
+    void applyIfAbsent(MultivaluedMap<String, Object> headers) {
+        for (int i = 0; i < this.names.length; i++) {
+            if (!headers.containsKey(this.names[i])) {
+                headers.putSingle(this.names[i], this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns true if this plan does not write any headers.
+     */
+    public boolean isEmpty() {
+        return this.names.length == 0;
+    }
+
+    /**
+     * Returns the headers of this plan, in the order they are written.
+     */
+    public ImmutableMap<String, String> headers() {
+        ImmutableMap.Builder<String, String> headers = ImmutableMap.builder();
+        for (int i = 0; i < this.names.length; i++) {
+            headers.put(this.names[i], this.values[i]);
+        }
+        return headers.build();
+    }
+
+    /**
+     * Returns the number of bytes the headers of this plan add to an HTTP/1.1 response, which is also the size of
+     * their literal encoding in HTTP/2 before compression.
+     */
+    public int headerBytes() {
+        return bytes(HEADER_OVERHEAD);
+    }
+
+    /**
+     * Returns the number of bytes the headers of this plan take in the HPACK dynamic table of an HTTP/2 connection
+     * once they are indexed.
+     */
+    public int tableBytes() {
+        return bytes(TABLE_ENTRY_OVERHEAD);
+    }
+
+    private int bytes(int overhead) {
+        int bytes = 0;
+        for (int i = 0; i < this.names.length; i++) {
+            bytes += this.names[i].length() + this.values[i].length() + overhead;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "HeaderPlan" + headers();
+    }
+
+    private static HttpField createField(String name, String value) {
+        HttpHeader header = HttpHeader.CACHE.get(name);
+
+        if (header != null) {
+            return new PreEncodedHttpField(header, name, value);
+        }
+
+        return new HttpField(name, value);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builds a {@link HeaderPlan}. Headers are written in the order they are added.
+     */
+    public static final class Builder {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * Adds the header {@code name} with the {@code value}, replacing the value if the header was already added.
+         */
+        public Builder header(String name, String value) {
+            checkNotNull(name);
+            checkNotNull(value);
+
+            for (int i = 0; i < this.names.size(); i++) {
+                if (this.names.get(i).equalsIgnoreCase(name)) {
+                    this.values.set(i, value);
+                    return this;
+                }
+            }
+
+            this.names.add(name);
+            this.values.add(value);
+            return this;
+        }
+
+        /**
+         * Adds the header {@code name} with the {@code value}, unless the value is empty. An empty value turns off a
+         * header in the {@link com.palantir.websecurity.WebSecurityConfiguration}.
+         */
+        public Builder headerIfNotEmpty(String name, String value) {
+            checkNotNull(value);
+
+            if (!value.isEmpty()) {
+                header(name, value);
+            }
+            return this;
+        }
+
+        /**
+         * Adds all headers of the {@code plan}.
+         */
+        public Builder from(HeaderPlan plan) {
+            checkNotNull(plan);
+
+            for (int i = 0; i < plan.names.length; i++) {
+                header(plan.names[i], plan.values[i]);
+            }
+            return this;
+        }
+
+        public HeaderPlan build() {
+            return new HeaderPlan(this.names, this.values);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the host of a request, from its {@code Host} header or HTTP/2 {@code :authority}, to a value, falling back to a
+ * default value for unknown hosts. Hosts are compared without their port and trailing dot, ignoring case.
+ * <p>
+ * The hosts are compiled into a minimal perfect hash table: every host has its own slot in an array of exactly as many
+ * slots as there are hosts, found through one small per-bucket seed, so a lookup hashes the host once, reads two array
+ * elements and compares one key, without allocating. Besides the keys and values themselves, the table holds two
+ * references per host and one seed per four hosts, and is built in about linear time, so it suits tens of thousands of
+ * hosts.
+ */
+public final class HostTable<V> {
+
+    private static final CharMatcher HOST_CHARACTERS = CharMatcher.inRange('a', 'z')
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.anyOf(".-_"))
+            .precomputed();
+    private static final CharMatcher IP_LITERAL_CHARACTERS = CharMatcher.inRange('a', 'f')
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.anyOf(":."))
+            .precomputed();
+
+    /**
+     * The average number of hosts per bucket. Larger buckets take less memory but longer to build.
+     */
+    private static final int BUCKET_SIZE = 4;
+    private static final int CASE_BIT = 0x20;
+    /**
+     * Buckets usually find a seed within a few hundred tries. Hosts whose hashes are equal never do.
+     */
+    private static final int MAX_SEED = 1 << 24;
+
+    private final V defaultValue;
+    private final ImmutableList<V> values;
+
+    /**
+     * The seed of each bucket. A negative seed {@code -(slot + 1)} places the single host of its bucket directly.
+     */
+    private final int[] seeds;
+    private final String[] keys;
+    private final Object[] slotValues;
+
+    private HostTable(V defaultValue, ImmutableMap<String, V> hosts) {
+        this.defaultValue = defaultValue;
+
+        Set<V> distinctValues = new LinkedHashSet<>();
+        distinctValues.add(defaultValue);
+        distinctValues.addAll(hosts.values());
+        this.values = ImmutableList.copyOf(distinctValues);
+
+        int size = hosts.size();
+        this.seeds = new int[Math.max(1, (size + BUCKET_SIZE - 1) / BUCKET_SIZE)];
+        this.keys = new String[size];
+        this.slotValues = new Object[size];
+        if (size > 0) {
+            place(hosts);
+        }
+    }
+
+    /**
+     * Returns a table that maps every host to the {@code defaultValue}.
+     */
+    public static <V> HostTable<V> of(V defaultValue) {
+        return new Builder<>(defaultValue).build();
+    }
+
+    /**
+     * Returns a builder of a table that maps unknown hosts to the {@code defaultValue}.
+     */
+    public static <V> Builder<V> builder(V defaultValue) {
+        return new Builder<>(defaultValue);
+    }
+
+    /**
+     * Normalizes a host by lower-casing it and removing a trailing dot. Throws an {@link IllegalArgumentException} if
+     * it isn't a host name or an IP address without a port.
+     */
+    public static String normalize(String host) {
+        String normalized = host.toLowerCase(Locale.ROOT);
+        if (normalized.endsWith(".")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+
+        boolean ipv6 = normalized.length() > 2 && normalized.startsWith("[") && normalized.endsWith("]")
+                && IP_LITERAL_CHARACTERS.matchesAllOf(normalized.substring(1, normalized.length() - 1));
+        checkArgument(ipv6 || !normalized.isEmpty() && HOST_CHARACTERS.matchesAllOf(normalized),
+                "not a host name or IP address without a port: %s", host);
+        return normalized;
+    }
+
+    /**
+     * Returns the value for the {@code host}, which may have a port, e.g. from the {@code Host} header, or the
+     * default value if the host is null or unknown.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(String host) {
+        if (host == null || this.keys.length == 0) {
+            return this.defaultValue;
+        }
+
+        int end = hostEnd(host);
+        long hash = hash(host, end);
+        int seed = this.seeds[bucket(hash, this.seeds.length)];
+        int slot = seed < 0 ? -seed - 1 : slot(hash, seed, this.keys.length);
+
+        return matches(host, end, this.keys[slot]) ? (V) this.slotValues[slot] : this.defaultValue;
+    }
+
+    /**
+     * Returns the value for unknown hosts.
+     */
+    public V defaultValue() {
+        return this.defaultValue;
+    }
+
+    /**
+     * Returns the normalized hosts and their values, in no particular order. The map is built on every call.
+     */
+    @SuppressWarnings("unchecked")
+    public ImmutableMap<String, V> hosts() {
+        ImmutableMap.Builder<String, V> hosts = ImmutableMap.builder();
+        for (int i = 0; i < this.keys.length; i++) {
+            hosts.put(this.keys[i], (V) this.slotValues[i]);
+        }
+        return hosts.build();
+    }
+
+    /**
+     * Returns the distinct values, starting with the {@link #defaultValue()}.
+     */
+    public ImmutableList<V> values() {
+        return this.values;
+    }
+
+    /**
+     * Finds a seed for every bucket that sends its hosts to free slots, placing the largest buckets first while most
+     * slots are free. Buckets of a single host take any free slot directly.
+     */
+    private void place(Map<String, V> entries) {
+        int size = entries.size();
+        long[] hashes = new long[size];
+        String[] hostKeys = new String[size];
+        List<List<Integer>> buckets = new ArrayList<>(this.seeds.length);
+        for (int i = 0; i < this.seeds.length; i++) {
+            buckets.add(new ArrayList<>(BUCKET_SIZE));
+        }
+
+        int index = 0;
+        for (String host : entries.keySet()) {
+            hostKeys[index] = host;
+            hashes[index] = hash(host, host.length());
+            buckets.get(bucket(hashes[index], this.seeds.length)).add(index);
+            index++;
+        }
+
+        Integer[] order = new Integer[buckets.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (first, second) -> buckets.get(second).size() - buckets.get(first).size());
+
+        boolean[] taken = new boolean[size];
+        int[] slots = new int[buckets.get(order[0]).size()];
+        int nextFree = 0;
+        for (int bucket : order) {
+            List<Integer> members = buckets.get(bucket);
+            if (members.size() > 1) {
+                this.seeds[bucket] = findSeed(members, hashes, taken, slots);
+            } else if (members.size() == 1) {
+                while (taken[nextFree]) {
+                    nextFree++;
+                }
+                slots[0] = nextFree;
+                this.seeds[bucket] = -nextFree - 1;
+            } else {
+                continue;
+            }
+
+            for (int i = 0; i < members.size(); i++) {
+                int member = members.get(i);
+                taken[slots[i]] = true;
+                this.keys[slots[i]] = hostKeys[member];
+                this.slotValues[slots[i]] = entries.get(hostKeys[member]);
+            }
+        }
+    }
+
+    /**
+     * Returns a seed that sends the hosts of the bucket to distinct free slots, and writes the slots to {@code slots}.
+     */
+    private static int findSeed(List<Integer> members, long[] hashes, boolean[] taken, int[] slots) {
+        int size = taken.length;
+        for (int seed = 0; seed < MAX_SEED; seed++) {
+            if (fits(members, hashes, taken, slots, seed, size)) {
+                return seed;
+            }
+        }
+        throw new IllegalStateException("no seed found for " + members.size() + " hosts");
+    }
+
+    private static boolean fits(List<Integer> members, long[] hashes, boolean[] taken, int[] slots, int seed,
+            int size) {
+        for (int i = 0; i < members.size(); i++) {
+            int slot = slot(hashes[members.get(i)], seed, size);
+            if (taken[slot]) {
+                return false;
+            }
+            for (int j = 0; j < i; j++) {
+                if (slots[j] == slot) {
+                    return false;
+                }
+            }
+            slots[i] = slot;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the end of the host name in the {@code host}, without a port or trailing dot.
+     */
+    private static int hostEnd(String host) {
+        int end;
+        if (host.startsWith("[")) {
+            int close = host.indexOf(']');
+            end = close < 0 ? host.length() : close + 1;
+        } else {
+            int colon = host.indexOf(':');
+            end = colon < 0 ? host.length() : colon;
+        }
+        return end > 0 && host.charAt(end - 1) == '.' ? end - 1 : end;
+    }
+
+    /**
+     * Determines if the first {@code end} characters of the {@code host} are the normalized {@code key}, ignoring the
+     * case of ASCII letters.
+     */
+    private static boolean matches(String host, int end, String key) {
+        if (key.length() != end) {
+            return false;
+        }
+
+        for (int i = 0; i < end; i++) {
+            char character = host.charAt(i);
+            char expected = key.charAt(i);
+            if (character != expected && (expected < 'a' || expected > 'z' || character != expected - CASE_BIT)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes the first {@code end} characters of the {@code host}. Setting the case bit of every character makes
+     * upper- and lower-case letters hash the same without a branch; other characters may collide, which only costs a
+     * key comparison.
+     */
+    private static long hash(String host, int end) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < end; i++) {
+            hash = (hash ^ (host.charAt(i) | CASE_BIT)) * 0x100000001B3L;
+        }
+        return Hashes.mix(hash);
+    }
+
+    private static int bucket(long hash, int buckets) {
+        return reduce(hash, buckets);
+    }
+
+    private static int slot(long hash, int seed, int size) {
+        return reduce(Hashes.mix(hash + (seed + 1) * Hashes.SEED_MULTIPLIER), size);
+    }
+
+    /**
+     * Maps the high 32 bits of the {@code hash} to {@code [0, range)} with a multiplication rather than a division.
+     */
+    private static int reduce(long hash, int range) {
+        return (int) (((hash >>> 32) * range) >>> 32);
+    }
+
+    /**
+     * Builds a {@link HostTable}.
+     */
+    public static final class Builder<V> {
+        private final V defaultValue;
+        private final Map<String, V> hosts = new LinkedHashMap<>();
+
+        private Builder(V defaultValue) {
+            this.defaultValue = checkNotNull(defaultValue);
+        }
+
+        /**
+         * Maps requests to the {@code host}, a host name or IP address without a port, to the {@code value}.
+         */
+        public Builder<V> put(String host, V value) {
+            checkNotNull(host);
+            checkNotNull(value);
+
+            String normalized = normalize(host);
+            checkArgument(!this.hosts.containsKey(normalized), "duplicate host: %s", host);
+
+            this.hosts.put(normalized, value);
+            return this;
+        }
+
+        public HostTable<V> build() {
+            return new HostTable<>(this.defaultValue, ImmutableMap.copyOf(this.hosts));
+        }
+    }
+}
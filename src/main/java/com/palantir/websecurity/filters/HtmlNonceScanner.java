@@ -0,0 +1,316 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * Scans HTML one character at a time and finds where a nonce attribute goes in each {@code script} and {@code style}
+ * start tag: right before the end of the tag, once all its attributes are known. Tags that already have a
+ * {@code nonce} attribute are skipped rather than given a second one, as are tags in comments and in the contents of
+ * script and style elements.
+ * <p>
+ * The scanner only keeps its state between characters, not the characters themselves, so HTML can be scanned as it is
+ * written, in chunks of any size. Bytes of ASCII compatible encodings such as UTF-8 can be scanned as characters,
+ * since the scanner only looks for ASCII characters.
+ * <p>
+ * The {@link AssetIntegrityScanner} also uses it to find the contents of inline scripts and styles, see
+ * {@link #rawTextElement()}.
+ */
+final class HtmlNonceScanner {
+
+    static final int SCRIPT = 0;
+    static final int STYLE = 1;
+
+    private static final char[][] NAMES = {"script".toCharArray(), "style".toCharArray()};
+    private static final char[] NONCE = "nonce".toCharArray();
+
+    private static final int TEXT = 0;
+    private static final int TAG_OPEN = 1;
+    private static final int TAG_NAME = 2;
+    private static final int TAG = 3;
+    private static final int MARKUP_DECLARATION = 4;
+    private static final int COMMENT = 5;
+    private static final int RAW_TEXT = 6;
+
+    // where in a tag the scanner is, outside of quotes
+    private static final int BEFORE_ATTRIBUTE_NAME = 0;
+    private static final int ATTRIBUTE_NAME = 1;
+    private static final int AFTER_ATTRIBUTE_NAME = 2;
+    private static final int BEFORE_ATTRIBUTE_VALUE = 3;
+    private static final int ATTRIBUTE_VALUE = 4;
+
+    private int state = TEXT;
+
+    /**
+     * Characters of the current tag name, comment delimiter or end tag matched so far.
+     */
+    private int matched;
+
+    /**
+     * While in a tag name, a bit for each of the {@link #NAMES} it can still be. Otherwise the index of the name whose
+     * element is being scanned, or -1.
+     */
+    private int names;
+    private int element = -1;
+
+    private char quote;
+    private int attribute;
+
+    /**
+     * Characters of {@link #NONCE} the current attribute name matched so far, or -1 if it is another name.
+     */
+    private int nonceMatched;
+    private boolean hasNonce;
+
+    /**
+     * Scans the {@code character} and returns true if the nonce attribute goes right before it.
+     */
+    boolean insertsBefore(int character) {
+        switch (this.state) {
+            case TAG_OPEN:
+                tagOpen(character);
+                return false;
+            case TAG_NAME:
+                return tagName(character);
+            case TAG:
+                return tag(character);
+            case MARKUP_DECLARATION:
+                markupDeclaration(character);
+                return false;
+            case COMMENT:
+                comment(character);
+                return false;
+            case RAW_TEXT:
+                rawText(character);
+                return false;
+            default:
+                if (character == '<') {
+                    this.state = TAG_OPEN;
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Determines if only a {@code '<'} can change the state of the scanner, so callers can skip other characters
+     * without scanning them.
+     */
+    boolean waitsForLessThan() {
+        return this.state == TEXT || this.state == RAW_TEXT && this.matched == 0;
+    }
+
+    /**
+     * Returns {@link #SCRIPT} or {@link #STYLE} while the contents of a script or style element are scanned, including
+     * its end tag up to the end of the tag name, or -1 otherwise.
+     */
+    int rawTextElement() {
+        return this.state == RAW_TEXT ? this.element : -1;
+    }
+
+    /**
+     * Returns the length of the end tag of the {@code element} up to the end of its name, e.g. 8 for
+     * {@code &lt;/style}.
+     */
+    static int endTagLength(int element) {
+        return NAMES[element].length + 2;
+    }
+
+    /**
+     * Forgets everything scanned so far.
+     */
+    void reset() {
+        this.state = TEXT;
+        this.matched = 0;
+        this.names = 0;
+        this.element = -1;
+        this.quote = 0;
+        this.attribute = BEFORE_ATTRIBUTE_NAME;
+        this.hasNonce = false;
+    }
+
+    private void tagOpen(int character) {
+        if (character == '!') {
+            this.state = MARKUP_DECLARATION;
+            this.matched = 0;
+        } else if (isLetter(character)) {
+            this.state = TAG_NAME;
+            this.names = (1 << NAMES.length) - 1;
+            this.matched = 0;
+            tagName(character);
+        } else if (character == '/') {
+            startTag(-1);
+        } else if (character != '<') {
+            this.state = TEXT;
+        }
+    }
+
+    private boolean tagName(int character) {
+        if (isTagNameEnd(character)) {
+            startTag(fullyMatchedName());
+            return tag(character);
+        }
+
+        int lowerCase = character | 0x20;
+        for (int name = 0; name < NAMES.length; name++) {
+            char[] candidate = NAMES[name];
+            if (this.matched >= candidate.length || candidate[this.matched] != lowerCase) {
+                this.names &= ~(1 << name);
+            }
+        }
+        this.matched++;
+        return false;
+    }
+
+    private int fullyMatchedName() {
+        for (int name = 0; name < NAMES.length; name++) {
+            if ((this.names & 1 << name) != 0 && NAMES[name].length == this.matched) {
+                return name;
+            }
+        }
+        return -1;
+    }
+
+    private void startTag(int name) {
+        this.state = TAG;
+        this.element = name;
+        this.attribute = BEFORE_ATTRIBUTE_NAME;
+        this.hasNonce = false;
+    }
+
+    /**
+     * Scans a character of a tag after its name, and returns true at the end of a script or style start tag without a
+     * nonce.
+     */
+    private boolean tag(int character) {
+        if (this.quote != 0) {
+            if (character == this.quote) {
+                this.quote = 0;
+                this.attribute = BEFORE_ATTRIBUTE_NAME;
+            }
+        } else if (character == '"' || character == '\'') {
+            this.quote = (char) character;
+        } else if (character == '>') {
+            endAttributeName();
+            this.state = this.element >= 0 ? RAW_TEXT : TEXT;
+            this.matched = 0;
+            return this.element >= 0 && !this.hasNonce;
+        } else {
+            attribute(character);
+        }
+        return false;
+    }
+
+    /**
+     * Follows the attribute names and unquoted values of a tag closely enough to tell if it has a nonce attribute.
+     */
+    private void attribute(int character) {
+        switch (this.attribute) {
+            case ATTRIBUTE_NAME:
+                attributeName(character);
+                break;
+            case BEFORE_ATTRIBUTE_VALUE:
+                this.attribute = isWhitespace(character) ? BEFORE_ATTRIBUTE_VALUE : ATTRIBUTE_VALUE;
+                break;
+            case ATTRIBUTE_VALUE:
+                this.attribute = isWhitespace(character) ? BEFORE_ATTRIBUTE_NAME : ATTRIBUTE_VALUE;
+                break;
+            default:
+                beforeAttributeName(character);
+        }
+    }
+
+    private void attributeName(int character) {
+        if (isWhitespace(character) || character == '/' || character == '=') {
+            endAttributeName();
+            this.attribute = character == '=' ? BEFORE_ATTRIBUTE_VALUE
+                    : character == '/' ? BEFORE_ATTRIBUTE_NAME : AFTER_ATTRIBUTE_NAME;
+        } else {
+            matchNonce(character);
+        }
+    }
+
+    private void beforeAttributeName(int character) {
+        if (character == '=' && this.attribute == AFTER_ATTRIBUTE_NAME) {
+            this.attribute = BEFORE_ATTRIBUTE_VALUE;
+        } else if (!isWhitespace(character) && character != '/') {
+            this.attribute = ATTRIBUTE_NAME;
+            this.nonceMatched = 0;
+            matchNonce(character);
+        }
+    }
+
+    private void matchNonce(int character) {
+        if (this.nonceMatched >= 0 && this.nonceMatched < NONCE.length
+                && (character | 0x20) == NONCE[this.nonceMatched]) {
+            this.nonceMatched++;
+        } else {
+            this.nonceMatched = -1;
+        }
+    }
+
+    private void endAttributeName() {
+        if (this.attribute == ATTRIBUTE_NAME && this.nonceMatched == NONCE.length) {
+            this.hasNonce = true;
+        }
+    }
+
+    private void markupDeclaration(int character) {
+        if (character == '-' && this.matched == 0) {
+            this.matched = 1;
+        } else if (character == '-' && this.matched == 1) {
+            this.state = COMMENT;
+            this.matched = 0;
+        } else {
+            // a doctype or similar, scanned like a tag that is not a script or style tag
+            startTag(-1);
+            tag(character);
+        }
+    }
+
+    private void comment(int character) {
+        if (character == '-') {
+            this.matched++;
+        } else if (character == '>' && this.matched >= 2) {
+            this.state = TEXT;
+        } else {
+            this.matched = 0;
+        }
+    }
+
+    /**
+     * Looks for the end tag of the current element: a less-than sign, a slash, the name and the end of the name.
+     */
+    private void rawText(int character) {
+        char[] name = NAMES[this.element];
+        if (this.matched == 0) {
+            this.matched = character == '<' ? 1 : 0;
+        } else if (this.matched == 1) {
+            this.matched = character == '/' ? 2 : rawTextRestart(character);
+        } else if (this.matched - 2 < name.length) {
+            this.matched = (character | 0x20) == name[this.matched - 2] ? this.matched + 1 : rawTextRestart(character);
+        } else if (isTagNameEnd(character)) {
+            startTag(-1);
+            tag(character);
+        } else {
+            this.matched = rawTextRestart(character);
+        }
+    }
+
+    private static int rawTextRestart(int character) {
+        return character == '<' ? 1 : 0;
+    }
+
+    private static boolean isLetter(int character) {
+        int lowerCase = character | 0x20;
+        return lowerCase >= 'a' && lowerCase <= 'z';
+    }
+
+    private static boolean isTagNameEnd(int character) {
+        return isWhitespace(character) || character == '/' || character == '>';
+    }
+
+    private static boolean isWhitespace(int character) {
+        return character == ' ' || character == '\t' || character == '\n' || character == '\r' || character == '\f';
+    }
+}
@@ -8,30 +8,117 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.palantir.websecurity.WebSecurityConfiguration;
 import java.io.IOException;
+import java.util.Locale;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
  * A filter that injects the App Security headers using a {@link WebSecurityHeaderInjector} to all requests except for
- * those on the {@link #jerseyRoot} path.
+ * those on the {@link #jerseyRoot} path. Paths can have their own injector, picked by the longest matching prefix.
+ * If the injector {@link WebSecurityHeaderInjector#rewritesHtml() rewrites HTML}, the response is wrapped in a
+ * {@link NonceHtmlResponseWrapper}. If the injector only injects {@link WebSecurityHeaderInjector#documentHeadersOnly()
+ * document headers} into documents, the response is wrapped in a {@link DocumentHeadersResponseWrapper}, which injects
+ * the headers instead. The injectors are read from a {@link PolicyReference}, which may be shared with the other
+ * filters.
+ * <p>
+ * The headers are injected once per request. The injector is kept in the {@link #APPLIED_ATTRIBUTE} request
+ * attribute, and later forward, include, error and async dispatches of the request only wrap the response again when
+ * the injector needs a wrapper and the response they get is not already wrapped. Jersey requests are checked again on
+ * every dispatch, so that Jersey can forward to other servlets.
  */
-public final class JerseyAwareWebSecurityFilter implements Filter {
+public final class JerseyAwareWebSecurityFilter implements Filter, HeaderInjection {
 
-    private final WebSecurityHeaderInjector injector;
+    /**
+     * The request attribute holding the injector that injected the headers of the request.
+     */
+    public static final String APPLIED_ATTRIBUTE = "com.palantir.websecurity.headersApplied";
+
+    private final WebSecurityMetrics metrics;
+    private final PolicyReference policies;
+
+    /**
+     * The cleaned, lower-cased Jersey root without its leading slash, e.g. {@code api} for {@code /API/*}.
+     */
     private final String jerseyRoot;
 
     public JerseyAwareWebSecurityFilter(WebSecurityConfiguration config, String jerseyRoot) {
-        checkNotNull(config);
+        this(new WebSecurityHeaderInjector(checkNotNull(config)), jerseyRoot, WebSecurityMetrics.NOOP);
+    }
+
+    /**
+     * Creates a filter that injects headers using the {@code injector} and reports requests to the {@code metrics}.
+     */
+    public JerseyAwareWebSecurityFilter(WebSecurityHeaderInjector injector, String jerseyRoot,
+            WebSecurityMetrics metrics) {
+        this(PathPrefixTrie.of(checkNotNull(injector)), jerseyRoot, metrics);
+    }
+
+    /**
+     * Creates a filter that injects headers using the injector of the longest matching path prefix of each request,
+     * and reports requests to the {@code metrics}.
+     */
+    public JerseyAwareWebSecurityFilter(PathPrefixTrie<WebSecurityHeaderInjector> injectors, String jerseyRoot,
+            WebSecurityMetrics metrics) {
+        this(HostTable.of(checkNotNull(injectors)), jerseyRoot, metrics);
+    }
+
+    /**
+     * Creates a filter that injects headers using the injector of the host and the longest matching path prefix of
+     * each request, and reports requests to the {@code metrics}.
+     */
+    public JerseyAwareWebSecurityFilter(HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> injectors,
+            String jerseyRoot, WebSecurityMetrics metrics) {
+        this(new PolicyReference(PolicySnapshot.DEFAULT.withInjectors(checkNotNull(injectors))), jerseyRoot, metrics);
+    }
+
+    /**
+     * Creates a filter that injects headers using the {@link PolicySnapshot#injectors() injectors} of the snapshot
+     * pinned to each request, and reports requests to the {@code metrics}.
+     */
+    public JerseyAwareWebSecurityFilter(PolicyReference policies, String jerseyRoot, WebSecurityMetrics metrics) {
+        checkNotNull(policies);
         checkNotNull(jerseyRoot);
+        checkNotNull(metrics);
 
-        this.injector = new WebSecurityHeaderInjector(config);
-        this.jerseyRoot = cleanJerseyRoot(jerseyRoot);
+        this.policies = policies;
+        this.metrics = metrics;
+        this.jerseyRoot = cleanJerseyRoot(jerseyRoot).substring(1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Replaces the injector. Requests see either the old or the new injector, never a mix of their headers.
+     */
+    public void setInjector(WebSecurityHeaderInjector injector) {
+        checkNotNull(injector);
+
+        setInjectors(PathPrefixTrie.of(injector));
+    }
+
+    @Override
+    public void setHostInjectors(HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> hostInjectors) {
+        checkNotNull(hostInjectors);
+
+        this.policies.update(snapshot -> snapshot.withInjectors(hostInjectors));
+    }
+
+    /**
+     * Returns the injector currently used for hosts and paths without an injector of their own.
+     */
+    public WebSecurityHeaderInjector getInjector() {
+        return getHostInjectors().defaultValue().rootValue();
+    }
+
+    @Override
+    public HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> getHostInjectors() {
+        return this.policies.get().injectors();
     }
 
     @Override
@@ -52,20 +139,113 @@ public final class JerseyAwareWebSecurityFilter implements Filter {
         checkNotNull(response);
         checkNotNull(chain);
 
+        HttpServletResponse wrappedResponse = null;
         if (request instanceof HttpServletRequest && response instanceof HttpServletResponse) {
             HttpServletRequest httpRequest = (HttpServletRequest) request;
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            // only later dispatches can find the headers already applied
+            Object applied = request.getDispatcherType() == DispatcherType.REQUEST
+                    ? null
+                    : request.getAttribute(APPLIED_ATTRIBUTE);
+
+            if (applied instanceof WebSecurityHeaderInjector) {
+                wrappedResponse = wrap((WebSecurityHeaderInjector) applied, httpRequest, httpResponse);
+            } else {
+                long start = this.metrics.startTiming();
 
-            if (!isJerseyRequest(httpRequest)) {
-                this.injector.injectHeaders(httpRequest, (HttpServletResponse) response);
+                if (isJerseyRequest(httpRequest)) {
+                    this.metrics.jerseyRequestSkipped();
+                } else {
+                    wrappedResponse = injectHeaders(httpRequest, httpResponse);
+                }
+
+                this.metrics.headersTimed(start);
             }
         }
 
-        chain.doFilter(request, response);
+        if (wrappedResponse == null) {
+            chain.doFilter(request, response);
+        } else {
+            chain.doFilter(request, wrappedResponse);
+            finish(wrappedResponse);
+        }
     }
 
+    /**
+     * Injects the headers of the request's path, and returns a wrapped response if its HTML gets nonces or its
+     * headers depend on its content type, otherwise null.
+     */
+    private HttpServletResponse injectHeaders(HttpServletRequest request, HttpServletResponse response) {
+        WebSecurityHeaderInjector injector = this.policies.forRequest(request).injectors()
+                .get(request.getServerName())
+                .get(request.getServletPath(), request.getPathInfo());
+        if (!injector.documentHeadersOnly()) {
+            injector.injectHeaders(request, response);
+        }
+        request.setAttribute(APPLIED_ATTRIBUTE, injector);
+
+        return wrap(injector, request, response);
+    }
+
+    /**
+     * Returns a wrapped response if its HTML gets nonces or its headers depend on its content type, and the response
+     * isn't wrapped for that yet, as with error and async dispatches of a request whose headers were already
+     * injected. Otherwise returns null.
+     */
+    private static HttpServletResponse wrap(WebSecurityHeaderInjector injector, HttpServletRequest request,
+            HttpServletResponse response) {
+        HttpServletResponse wrapped = response;
+        if (injector.documentHeadersOnly() && !isWrapped(response, DocumentHeadersResponseWrapper.class)) {
+            // the wrapper stores the nonce, so it comes first
+            wrapped = new DocumentHeadersResponseWrapper(request, wrapped, injector);
+        }
+        if (injector.rewritesHtml() && !isWrapped(response, NonceHtmlResponseWrapper.class)) {
+            String nonce = (String) request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+            wrapped = new NonceHtmlResponseWrapper(wrapped, nonce);
+        }
+        return wrapped == response ? null : wrapped;
+    }
+
+    private void finish(HttpServletResponse wrappedResponse) {
+        HttpServletResponse current = wrappedResponse;
+        if (current instanceof NonceHtmlResponseWrapper) {
+            ((NonceHtmlResponseWrapper) current).finish();
+            current = (HttpServletResponse) ((NonceHtmlResponseWrapper) current).getResponse();
+        }
+        if (current instanceof DocumentHeadersResponseWrapper) {
+            DocumentHeadersResponseWrapper documentResponse = (DocumentHeadersResponseWrapper) current;
+            documentResponse.finish();
+            if (!documentResponse.isInjected()) {
+                this.metrics.documentHeadersSkipped();
+            }
+        }
+    }
+
+    private static boolean isWrapped(ServletResponse response, Class<? extends ServletResponse> wrapperType) {
+        return wrapperType.isInstance(response)
+                || response instanceof ServletResponseWrapper
+                && ((ServletResponseWrapper) response).isWrapperFor(wrapperType);
+    }
+
+    /**
+     * Determines if the servlet path, cleaned the same way as the Jersey root, matches the Jersey root. The comparison
+     * is done in place so no strings are allocated, since this runs for every request.
+     */
     private boolean isJerseyRequest(HttpServletRequest request) {
-        String cleanedServletPath = cleanJerseyRoot(request.getServletPath().toLowerCase());
-        return this.jerseyRoot.equals(cleanedServletPath);
+        String servletPath = request.getServletPath();
+
+        int end = servletPath.length();
+        if (end > 0 && servletPath.charAt(end - 1) == '*') {
+            end--;
+        }
+        if (end > 0 && servletPath.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        int start = end > 0 && servletPath.charAt(0) == '/' ? 1 : 0;
+
+        return end - start == this.jerseyRoot.length()
+                && servletPath.regionMatches(true, start, this.jerseyRoot, 0, this.jerseyRoot.length());
     }
 
     /**
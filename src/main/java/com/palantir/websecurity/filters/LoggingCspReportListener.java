@@ -0,0 +1,22 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link CspReportListener#LOG} listener, used unless the application provides one.
+ */
+enum LoggingCspReportListener implements CspReportListener {
+    INSTANCE;
+
+    private static final Logger log = LoggerFactory.getLogger(LoggingCspReportListener.class);
+
+    @Override
+    public void onReport(CspReport report) {
+        log.info("Content Security Policy violation: {}", report);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * The {@link WebSecurityMetrics#NOOP} metrics, used unless metrics are enabled.
+ */
+enum NoOpWebSecurityMetrics implements WebSecurityMetrics {
+    INSTANCE;
+
+    @Override
+    public long startTiming() {
+        return NOT_SAMPLED;
+    }
+
+    @Override
+    public void headersInjected(BrowserClass browserClass) {
+        // do nothing
+    }
+
+    @Override
+    public void jerseyRequestSkipped() {
+        // do nothing
+    }
+
+    @Override
+    public void documentHeadersSkipped() {
+        // do nothing
+    }
+
+    @Override
+    public void headersOverBudget() {
+        // do nothing
+    }
+
+    @Override
+    public void headersTimed(long start) {
+        // do nothing
+    }
+
+    @Override
+    public void corsAllowed() {
+        // do nothing
+    }
+
+    @Override
+    public void corsRejected() {
+        // do nothing
+    }
+
+    @Override
+    public void preflightAllowed() {
+        // do nothing
+    }
+
+    @Override
+    public void preflightAnswered() {
+        // do nothing
+    }
+
+    @Override
+    public void preflightRejected() {
+        // do nothing
+    }
+
+    @Override
+    public void preflightLimited() {
+        // do nothing
+    }
+
+    @Override
+    public void corsTimed(long start) {
+        // do nothing
+    }
+
+    @Override
+    public void fetchMetadataRejected() {
+        // do nothing
+    }
+
+    @Override
+    public void cspReportQueued() {
+        // do nothing
+    }
+
+    @Override
+    public void cspReportDropped() {
+        // do nothing
+    }
+
+    @Override
+    public void cspReportMalformed() {
+        // do nothing
+    }
+}
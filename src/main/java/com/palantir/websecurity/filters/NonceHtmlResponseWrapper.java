@@ -0,0 +1,333 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.net.HttpHeaders;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Adds a {@code nonce} attribute to the {@code script} and {@code style} start tags of a {@code text/html}
+ * response as it is written, see {@link HtmlNonceScanner}. The response is never buffered: the bytes or characters
+ * between two tags are written straight from the caller's buffer, and the only state kept between writes is the
+ * scanner's position in the HTML.
+ * <p>
+ * Whether the response is rewritten is decided when the output stream or writer is first obtained. Other content types,
+ * partial content and encoded content are passed through untouched. The {@code Content-Length} of rewritten responses
+ * is dropped since the attributes make them longer. {@link #finish()} must be called once the chain has returned.
+ */
+public final class NonceHtmlResponseWrapper extends HttpServletResponseWrapper {
+
+    private final byte[] attributeBytes;
+    private final char[] attributeCharacters;
+    private final HtmlNonceScanner scanner = new HtmlNonceScanner();
+
+    /**
+     * Null until the body is started, then whether it is rewritten.
+     */
+    private Boolean rewriting;
+    private long heldContentLength = -1;
+
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    /**
+     * Creates a wrapper that adds the {@code nonce}, which must only contain base64 characters, to HTML tags.
+     */
+    public NonceHtmlResponseWrapper(HttpServletResponse response, String nonce) {
+        super(response);
+        checkNotNull(nonce);
+
+        String attribute = " nonce=\"" + nonce + "\"";
+        this.attributeBytes = attribute.getBytes(StandardCharsets.US_ASCII);
+        this.attributeCharacters = attribute.toCharArray();
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (this.outputStream == null) {
+            ServletOutputStream delegate = super.getOutputStream();
+            this.outputStream = startBody() ? new ScanningOutputStream(delegate) : delegate;
+        }
+        return this.outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (this.writer == null) {
+            PrintWriter delegate = super.getWriter();
+            this.writer = startBody() ? new PrintWriter(new ScanningWriter(delegate)) : delegate;
+        }
+        return this.writer;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        setContentLengthLong(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        if (this.rewriting == null) {
+            this.heldContentLength = len;
+        } else if (!this.rewriting) {
+            super.setContentLengthLong(len);
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (isContentLength(name) && value != null) {
+            setContentLengthLong(Long.parseLong(value.trim()));
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (isContentLength(name) && value != null) {
+            setContentLengthLong(Long.parseLong(value.trim()));
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(value);
+        } else {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (isContentLength(name)) {
+            setContentLengthLong(value);
+        } else {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        this.rewriting = null;
+        this.heldContentLength = -1;
+        this.scanner.reset();
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        this.scanner.reset();
+    }
+
+    /**
+     * Writes a {@code Content-Length} held back from a response whose body was never started.
+     */
+    public void finish() {
+        if (this.rewriting == null && this.heldContentLength >= 0) {
+            super.setContentLengthLong(this.heldContentLength);
+        }
+    }
+
+    /**
+     * Returns true if the response is rewritten.
+     */
+    public boolean isRewriting() {
+        return this.rewriting != null && this.rewriting;
+    }
+
+    private boolean startBody() {
+        if (this.rewriting == null) {
+            this.rewriting = isHtml();
+            if (!this.rewriting && this.heldContentLength >= 0) {
+                super.setContentLengthLong(this.heldContentLength);
+            }
+        }
+        return this.rewriting;
+    }
+
+    private boolean isHtml() {
+        String contentType = getContentType();
+        return contentType != null
+                && contentType.regionMatches(true, 0, "text/html", 0, "text/html".length())
+                && getStatus() != HttpServletResponse.SC_PARTIAL_CONTENT
+                && !containsHeader(HttpHeaders.CONTENT_ENCODING);
+    }
+
+    private static int indexOfLessThan(byte[] bytes, int from, int to) {
+        int index = from;
+        while (index < to && bytes[index] != '<') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int indexOfLessThan(char[] characters, int from, int to) {
+        int index = from;
+        while (index < to && characters[index] != '<') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int indexOfLessThan(String string, int from, int to) {
+        int index = string.indexOf('<', from);
+        return index < 0 || index > to ? to : index;
+    }
+
+    private static boolean isContentLength(String name) {
+        return HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+    }
+
+    /**
+     * Scans bytes on their way to the response's output stream.
+     */
+    private final class ScanningOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+
+        ScanningOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            if (NonceHtmlResponseWrapper.this.scanner.insertsBefore(value & 0xff)) {
+                this.delegate.write(NonceHtmlResponseWrapper.this.attributeBytes);
+            }
+            this.delegate.write(value);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            HtmlNonceScanner htmlScanner = NonceHtmlResponseWrapper.this.scanner;
+            int start = off;
+            int end = off + len;
+            int index = off;
+            while (index < end) {
+                if (htmlScanner.waitsForLessThan()) {
+                    index = indexOfLessThan(bytes, index, end);
+                    if (index == end) {
+                        break;
+                    }
+                }
+                if (htmlScanner.insertsBefore(bytes[index] & 0xff)) {
+                    this.delegate.write(bytes, start, index - start);
+                    this.delegate.write(NonceHtmlResponseWrapper.this.attributeBytes);
+                    start = index;
+                }
+                index++;
+            }
+            this.delegate.write(bytes, start, end - start);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return this.delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.delegate.setWriteListener(writeListener);
+        }
+    }
+
+    /**
+     * Scans characters on their way to the response's writer.
+     */
+    private final class ScanningWriter extends Writer {
+        private final PrintWriter delegate;
+
+        ScanningWriter(PrintWriter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int value) {
+            if (NonceHtmlResponseWrapper.this.scanner.insertsBefore(value)) {
+                this.delegate.write(NonceHtmlResponseWrapper.this.attributeCharacters);
+            }
+            this.delegate.write(value);
+        }
+
+        @Override
+        public void write(char[] characters, int off, int len) {
+            HtmlNonceScanner htmlScanner = NonceHtmlResponseWrapper.this.scanner;
+            int start = off;
+            int end = off + len;
+            int index = off;
+            while (index < end) {
+                if (htmlScanner.waitsForLessThan()) {
+                    index = indexOfLessThan(characters, index, end);
+                    if (index == end) {
+                        break;
+                    }
+                }
+                if (htmlScanner.insertsBefore(characters[index])) {
+                    this.delegate.write(characters, start, index - start);
+                    this.delegate.write(NonceHtmlResponseWrapper.this.attributeCharacters);
+                    start = index;
+                }
+                index++;
+            }
+            this.delegate.write(characters, start, end - start);
+        }
+
+        @Override
+        public void write(String string, int off, int len) {
+            HtmlNonceScanner htmlScanner = NonceHtmlResponseWrapper.this.scanner;
+            int start = off;
+            int end = off + len;
+            int index = off;
+            while (index < end) {
+                if (htmlScanner.waitsForLessThan()) {
+                    index = indexOfLessThan(string, index, end);
+                    if (index == end) {
+                        break;
+                    }
+                }
+                if (htmlScanner.insertsBefore(string.charAt(index))) {
+                    this.delegate.write(string, start, index - start);
+                    this.delegate.write(NonceHtmlResponseWrapper.this.attributeCharacters);
+                    start = index;
+                }
+                index++;
+            }
+            this.delegate.write(string, start, end - start);
+        }
+
+        @Override
+        public void flush() {
+            this.delegate.flush();
+        }
+
+        @Override
+        public void close() {
+            this.delegate.close();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches the {@code Origin} of a request against a list of allowed origins, with the same semantics as Jetty's
+ * {@link org.eclipse.jetty.servlets.CrossOriginFilter}: an allowed origin without a {@code *} must equal the origin,
+ * and an allowed origin with a {@code *} is a regular expression where {@code .} is literal and {@code *} matches
+ * anything.
+ * <p>
+ * Rather than trying every allowed origin in turn, exact origins are kept in a hash set and wildcard origins with a
+ * single {@code *}, such as {@code https://*.example.com}, are kept in a trie of their reversed suffixes. Both are
+ * matched in time proportional to the length of the origin. Wildcard origins that use other regular expression syntax
+ * fall back to a regular expression.
+ */
+final class OriginMatcher {
+
+    private static final String REGEX_SYNTAX = "\\^$|?+()[]{}";
+
+    private final ImmutableSet<String> exactOrigins;
+    private final SuffixNode wildcardOrigins;
+    private final ImmutableList<Pattern> patterns;
+
+    private OriginMatcher(List<String> allowedOrigins) {
+        ImmutableSet.Builder<String> exact = ImmutableSet.builder();
+        MutableSuffixNode wildcards = new MutableSuffixNode();
+        ImmutableList.Builder<Pattern> regexes = ImmutableList.builder();
+
+        for (String allowedOrigin : allowedOrigins) {
+            int star = allowedOrigin.indexOf('*');
+
+            if (star < 0) {
+                exact.add(allowedOrigin);
+            } else if (star == allowedOrigin.lastIndexOf('*') && !containsRegexSyntax(allowedOrigin)) {
+                wildcards.add(allowedOrigin.substring(0, star), allowedOrigin.substring(star + 1));
+            } else {
+                // the same conversion as CrossOriginFilter
+                regexes.add(Pattern.compile(allowedOrigin.replace(".", "\\.").replace("*", ".*")));
+            }
+        }
+
+        this.exactOrigins = exact.build();
+        this.wildcardOrigins = wildcards.freeze();
+        this.patterns = regexes.build();
+    }
+
+    /**
+     * Creates a matcher for the {@code allowedOrigins}, which must not contain the any origin value {@code *}.
+     */
+    static OriginMatcher of(List<String> allowedOrigins) {
+        return new OriginMatcher(allowedOrigins);
+    }
+
+    /**
+     * Returns true if the {@code origin} is allowed. The {@code origin} is a single origin, not a space separated list.
+     */
+    boolean matches(String origin) {
+        if (this.exactOrigins.contains(origin) || this.wildcardOrigins.matches(origin)) {
+            return true;
+        }
+
+        for (int i = 0; i < this.patterns.size(); i++) {
+            if (this.patterns.get(i).matcher(origin).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean containsRegexSyntax(String allowedOrigin) {
+        for (int i = 0; i < allowedOrigin.length(); i++) {
+            if (REGEX_SYNTAX.indexOf(allowedOrigin.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A node of the reversed suffix trie. The path from the root to a node spells a suffix backwards, and the node
+     * holds the prefixes of the wildcard origins with that suffix.
+     */
+    private static final class SuffixNode {
+
+        private final char[] labels;
+        private final SuffixNode[] children;
+        private final String[] prefixes;
+
+        private SuffixNode(char[] labels, SuffixNode[] children, String[] prefixes) {
+            this.labels = labels;
+            this.children = children;
+            this.prefixes = prefixes;
+        }
+
+        private boolean matches(String origin) {
+            int length = origin.length();
+            SuffixNode node = this;
+
+            for (int matched = 0; node != null; matched++) {
+                // the * matches everything between the prefix and the suffix matched so far
+                for (String prefix : node.prefixes) {
+                    if (prefix.length() <= length - matched && origin.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+
+                if (matched == length) {
+                    return false;
+                }
+
+                int child = Arrays.binarySearch(node.labels, origin.charAt(length - 1 - matched));
+                node = child >= 0 ? node.children[child] : null;
+            }
+
+            return false;
+        }
+    }
+
+    private static final class MutableSuffixNode {
+
+        private final SortedMap<Character, MutableSuffixNode> children = new TreeMap<>();
+        private final List<String> prefixes = new ArrayList<>();
+
+        private void add(String prefix, String suffix) {
+            MutableSuffixNode node = this;
+            for (int i = suffix.length() - 1; i >= 0; i--) {
+                node = node.children.computeIfAbsent(suffix.charAt(i), c -> new MutableSuffixNode());
+            }
+            node.prefixes.add(prefix);
+        }
+
+        private SuffixNode freeze() {
+            char[] labels = new char[this.children.size()];
+            SuffixNode[] frozen = new SuffixNode[this.children.size()];
+
+            int index = 0;
+            for (SortedMap.Entry<Character, MutableSuffixNode> child : this.children.entrySet()) {
+                labels[index] = child.getKey();
+                frozen[index] = child.getValue().freeze();
+                index++;
+            }
+
+            return new SuffixNode(labels, frozen, this.prefixes.toArray(new String[this.prefixes.size()]));
+        }
+    }
+}
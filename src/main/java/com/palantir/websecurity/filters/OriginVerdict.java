@@ -0,0 +1,50 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Whether a {@link CorsPolicy} allows an {@code Origin} header value, and if so, the headers added to requests from
+ * that origin that are not preflight requests.
+ */
+public final class OriginVerdict {
+
+    public static final OriginVerdict DENIED = new OriginVerdict(false, HeaderPlan.EMPTY);
+
+    private final boolean allowed;
+    private final HeaderPlan actualHeaders;
+
+    private OriginVerdict(boolean allowed, HeaderPlan actualHeaders) {
+        this.allowed = allowed;
+        this.actualHeaders = actualHeaders;
+    }
+
+    /**
+     * Creates the verdict for an allowed origin, with the {@code actualHeaders} to add for it.
+     */
+    public static OriginVerdict allowed(HeaderPlan actualHeaders) {
+        checkNotNull(actualHeaders);
+        return new OriginVerdict(true, actualHeaders);
+    }
+
+    public boolean isAllowed() {
+        return this.allowed;
+    }
+
+    /**
+     * The {@code Access-Control-Allow-Origin}, {@code Access-Control-Allow-Credentials} and
+     * {@code Access-Control-Expose-Headers} headers for requests that are not preflight requests. Empty if the origin
+     * is not allowed.
+     */
+    public HeaderPlan actualHeaders() {
+        return this.actualHeaders;
+    }
+
+    @Override
+    public String toString() {
+        return "OriginVerdict{allowed=" + this.allowed + ", actualHeaders=" + this.actualHeaders + "}";
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Maps request paths to values by their longest matching path prefix, falling back to a root value. A prefix matches
+ * a path that equals it or continues it with a {@code /}, so {@code /docs} matches {@code /docs} and
+ * {@code /docs/index.html} but not {@code /docsearch}.
+ * <p>
+ * The prefixes are compiled into a radix trie, so a lookup compares each character of the path at most once, without
+ * regular expressions or allocations.
+ */
+public final class PathPrefixTrie<V> {
+
+    private final Node<V> root;
+    private final ImmutableMap<String, V> prefixes;
+    private final ImmutableList<V> values;
+
+    private PathPrefixTrie(V rootValue, ImmutableMap<String, V> prefixes) {
+        MutableNode<V> mutableRoot = new MutableNode<>();
+        mutableRoot.value = rootValue;
+        for (Map.Entry<String, V> prefix : prefixes.entrySet()) {
+            mutableRoot.insert(prefix.getKey(), prefix.getValue());
+        }
+
+        List<V> distinctValues = new ArrayList<>();
+        distinctValues.add(rootValue);
+        for (V value : prefixes.values()) {
+            if (!distinctValues.contains(value)) {
+                distinctValues.add(value);
+            }
+        }
+
+        this.root = mutableRoot.compile("");
+        this.prefixes = prefixes;
+        this.values = ImmutableList.copyOf(distinctValues);
+    }
+
+    /**
+     * Returns a trie that maps every path to the {@code rootValue}.
+     */
+    public static <V> PathPrefixTrie<V> of(V rootValue) {
+        return new Builder<>(rootValue).build();
+    }
+
+    /**
+     * Returns a builder of a trie that maps paths without a matching prefix to the {@code rootValue}.
+     */
+    public static <V> Builder<V> builder(V rootValue) {
+        return new Builder<>(rootValue);
+    }
+
+    /**
+     * Normalizes a prefix by removing a trailing {@code /*} or {@code /}, so {@code /docs/*}, {@code /docs/} and
+     * {@code /docs} are the same prefix. Returns an empty string for prefixes that match every path.
+     */
+    public static String normalize(String prefix) {
+        String normalized = prefix;
+        if (normalized.endsWith("/*")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    /**
+     * Returns the value for the request path made of the {@code servletPath} and the {@code pathInfo}, which may be
+     * null, as returned by {@link javax.servlet.http.HttpServletRequest}. The path is not concatenated.
+     */
+    public V get(String servletPath, String pathInfo) {
+        checkNotNull(servletPath);
+
+        return find(servletPath, pathInfo == null ? "" : pathInfo);
+    }
+
+    /**
+     * Returns the value for the {@code path}.
+     */
+    public V get(String path) {
+        checkNotNull(path);
+
+        return find(path, "");
+    }
+
+    /**
+     * Returns the value for paths without a matching prefix.
+     */
+    public V rootValue() {
+        return this.root.value;
+    }
+
+    /**
+     * Returns the normalized prefixes and their values.
+     */
+    public ImmutableMap<String, V> prefixes() {
+        return this.prefixes;
+    }
+
+    /**
+     * Returns the distinct values, starting with the {@link #rootValue()}.
+     */
+    public ImmutableList<V> values() {
+        return this.values;
+    }
+
+    private V find(String first, String second) {
+        int length = first.length() + second.length();
+        V match = this.root.value;
+        Node<V> node = this.root;
+        int position = 0;
+
+        while (position < length) {
+            node = node.child(charAt(first, second, position));
+            if (node == null || !labelMatches(node.label, first, second, position)) {
+                break;
+            }
+
+            position += node.label.length();
+            if (node.value != null && (position == length || charAt(first, second, position) == '/')) {
+                match = node.value;
+            }
+        }
+
+        return match;
+    }
+
+    private static boolean labelMatches(String label, String first, String second, int position) {
+        if (first.length() + second.length() - position < label.length()) {
+            return false;
+        }
+
+        // the first character was matched when the child was picked
+        for (int offset = 1; offset < label.length(); offset++) {
+            if (charAt(first, second, position + offset) != label.charAt(offset)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char charAt(String first, String second, int index) {
+        return index < first.length() ? first.charAt(index) : second.charAt(index - first.length());
+    }
+
+    /**
+     * A node of the compiled trie, reached by its {@link #label}. Children are found by the first character of their
+     * label.
+     */
+    private static final class Node<V> {
+        private final String label;
+        private final V value;
+        private final char[] firstCharacters;
+        private final ImmutableList<Node<V>> children;
+
+        Node(String label, V value, char[] firstCharacters, ImmutableList<Node<V>> children) {
+            this.label = label;
+            this.value = value;
+            this.firstCharacters = firstCharacters;
+            this.children = children;
+        }
+
+        Node<V> child(char character) {
+            for (int index = 0; index < this.firstCharacters.length; index++) {
+                if (this.firstCharacters[index] == character) {
+                    return this.children.get(index);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A node of the uncompressed trie, with one character per node, used while building.
+     */
+    private static final class MutableNode<V> {
+        private final SortedMap<Character, MutableNode<V>> children = new TreeMap<>();
+        private V value;
+
+        void insert(String prefix, V prefixValue) {
+            MutableNode<V> node = this;
+            for (int index = 0; index < prefix.length(); index++) {
+                node = node.children.computeIfAbsent(prefix.charAt(index), character -> new MutableNode<>());
+            }
+            node.value = prefixValue;
+        }
+
+        /**
+         * Compiles this node, reached by {@code label}, merging chains of nodes without values or branches into one.
+         */
+        Node<V> compile(String label) {
+            StringBuilder mergedLabel = new StringBuilder(label);
+            MutableNode<V> node = this;
+            while (!label.isEmpty() && node.value == null && node.children.size() == 1) {
+                Map.Entry<Character, MutableNode<V>> only = node.children.entrySet().iterator().next();
+                mergedLabel.append(only.getKey());
+                node = only.getValue();
+            }
+
+            char[] firstCharacters = new char[node.children.size()];
+            ImmutableList.Builder<Node<V>> compiledChildren = ImmutableList.builder();
+            int index = 0;
+            for (Map.Entry<Character, MutableNode<V>> child : node.children.entrySet()) {
+                firstCharacters[index++] = child.getKey();
+                compiledChildren.add(child.getValue().compile(String.valueOf(child.getKey())));
+            }
+
+            return new Node<>(mergedLabel.toString(), node.value, firstCharacters, compiledChildren.build());
+        }
+    }
+
+    /**
+     * Builds a {@link PathPrefixTrie}.
+     */
+    public static final class Builder<V> {
+        private final V rootValue;
+        private final Map<String, V> prefixes = new LinkedHashMap<>();
+
+        private Builder(V rootValue) {
+            this.rootValue = checkNotNull(rootValue);
+        }
+
+        /**
+         * Maps paths starting with the {@code prefix}, which must start with {@code /}, to the {@code value}.
+         */
+        public Builder<V> put(String prefix, V value) {
+            checkNotNull(prefix);
+            checkNotNull(value);
+            checkArgument(prefix.startsWith("/"), "path prefix must start with '/': %s", prefix);
+
+            String normalized = normalize(prefix);
+            checkArgument(!normalized.isEmpty(), "path prefix matches every path: %s", prefix);
+            checkArgument(!this.prefixes.containsKey(normalized), "duplicate path prefix: %s", prefix);
+
+            this.prefixes.put(normalized, value);
+            return this;
+        }
+
+        public PathPrefixTrie<V> build() {
+            return new PathPrefixTrie<>(this.rootValue, ImmutableMap.copyOf(this.prefixes));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import javax.servlet.ServletRequest;
+import javax.ws.rs.container.ContainerRequestContext;
+
+/**
+ * Holds the current {@link PolicySnapshot} of the filters that share it. A new snapshot is published with a single
+ * write, and the first filter that sees a request pins the current snapshot to it in a request attribute, which the
+ * later filters, later dispatches and the {@link WebSecurityHeadersFeature} use instead of the current one. A request
+ * therefore uses one snapshot from start to end, however many filters run and however often the policies are
+ * replaced while it is served.
+ * <p>
+ * Each reference pins its snapshots under an attribute of its own, so filters that don't share a reference never use
+ * each other's snapshot.
+ */
+public final class PolicyReference {
+
+    /**
+     * The prefix of the request attribute that holds the snapshot pinned to the request.
+     */
+    public static final String ATTRIBUTE_PREFIX = "com.palantir.websecurity.policySnapshot.";
+
+    private static final AtomicInteger REFERENCES = new AtomicInteger();
+
+    private final AtomicReference<PolicySnapshot> current;
+    private final String attribute = ATTRIBUTE_PREFIX + REFERENCES.incrementAndGet();
+
+    public PolicyReference(PolicySnapshot snapshot) {
+        this.current = new AtomicReference<>(checkNotNull(snapshot));
+    }
+
+    /**
+     * Returns the current snapshot.
+     */
+    public PolicySnapshot get() {
+        return this.current.get();
+    }
+
+    /**
+     * Replaces the current snapshot. Requests that already pinned a snapshot keep it.
+     */
+    public void set(PolicySnapshot snapshot) {
+        checkNotNull(snapshot);
+
+        this.current.set(snapshot);
+    }
+
+    /**
+     * Atomically replaces the current snapshot with the result of the {@code update}, e.g. to replace the policies
+     * of one filter.
+     */
+    public void update(UnaryOperator<PolicySnapshot> update) {
+        checkNotNull(update);
+
+        this.current.updateAndGet(snapshot -> checkNotNull(update.apply(snapshot)));
+    }
+
+    /**
+     * Returns the snapshot pinned to the {@code request}, pinning the current snapshot if there is none yet.
+     */
+    public PolicySnapshot forRequest(ServletRequest request) {
+        Object pinned = request.getAttribute(this.attribute);
+        if (pinned instanceof PolicySnapshot) {
+            return (PolicySnapshot) pinned;
+        }
+
+        PolicySnapshot snapshot = this.current.get();
+        request.setAttribute(this.attribute, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Returns the snapshot pinned to the Jersey {@code request}, whose properties are the attributes of the servlet
+     * request, pinning the current snapshot if there is none yet.
+     */
+    public PolicySnapshot forRequest(ContainerRequestContext request) {
+        Object pinned = request.getProperty(this.attribute);
+        if (pinned instanceof PolicySnapshot) {
+            return (PolicySnapshot) pinned;
+        }
+
+        PolicySnapshot snapshot = this.current.get();
+        request.setProperty(this.attribute, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Returns the name of the request attribute that holds the snapshot pinned to a request.
+     */
+    public String attribute() {
+        return this.attribute;
+    }
+}
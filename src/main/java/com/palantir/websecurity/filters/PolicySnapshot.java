@@ -0,0 +1,97 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.palantir.websecurity.WebSecurityConfiguration;
+
+/**
+ * One generation of the compiled policies of every filter: the {@link WebSecurityHeaderInjector header injectors},
+ * {@link CorsPolicy CORS policies} and {@link FetchMetadataPolicy Fetch Metadata policies} by host and path prefix,
+ * and the derived configuration the {@link WebSecurityHeadersFeature} applies its annotations on top of. Snapshots are
+ * immutable and published through a {@link PolicyReference}, so a request that uses one snapshot in every filter never
+ * mixes the policies of two configurations.
+ */
+public final class PolicySnapshot {
+
+    /**
+     * A snapshot that injects the default headers and leaves CORS and Fetch Metadata disabled.
+     */
+    public static final PolicySnapshot DEFAULT = new PolicySnapshot(
+            HostTable.of(PathPrefixTrie.of(new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT))),
+            HostTable.of(PathPrefixTrie.of(CorsPolicy.DISABLED)),
+            HostTable.of(PathPrefixTrie.of(FetchMetadataPolicy.DISABLED)),
+            WebSecurityConfiguration.DEFAULT);
+
+    private final HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> injectors;
+    private final HostTable<PathPrefixTrie<CorsPolicy>> corsPolicies;
+    private final HostTable<PathPrefixTrie<FetchMetadataPolicy>> fetchMetadataPolicies;
+    private final WebSecurityConfiguration configuration;
+
+    private PolicySnapshot(HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> injectors,
+            HostTable<PathPrefixTrie<CorsPolicy>> corsPolicies,
+            HostTable<PathPrefixTrie<FetchMetadataPolicy>> fetchMetadataPolicies,
+            WebSecurityConfiguration configuration) {
+        this.injectors = checkNotNull(injectors);
+        this.corsPolicies = checkNotNull(corsPolicies);
+        this.fetchMetadataPolicies = checkNotNull(fetchMetadataPolicies);
+        this.configuration = checkNotNull(configuration);
+    }
+
+    /**
+     * Creates a snapshot of policies compiled from the derived {@code configuration}.
+     */
+    public static PolicySnapshot of(HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> injectors,
+            HostTable<PathPrefixTrie<CorsPolicy>> corsPolicies,
+            HostTable<PathPrefixTrie<FetchMetadataPolicy>> fetchMetadataPolicies,
+            WebSecurityConfiguration configuration) {
+        return new PolicySnapshot(injectors, corsPolicies, fetchMetadataPolicies, configuration);
+    }
+
+    public HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> injectors() {
+        return this.injectors;
+    }
+
+    public HostTable<PathPrefixTrie<CorsPolicy>> corsPolicies() {
+        return this.corsPolicies;
+    }
+
+    public HostTable<PathPrefixTrie<FetchMetadataPolicy>> fetchMetadataPolicies() {
+        return this.fetchMetadataPolicies;
+    }
+
+    public WebSecurityConfiguration configuration() {
+        return this.configuration;
+    }
+
+    /**
+     * Returns a copy of this snapshot with the {@code value} injectors.
+     */
+    public PolicySnapshot withInjectors(HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> value) {
+        return new PolicySnapshot(value, this.corsPolicies, this.fetchMetadataPolicies, this.configuration);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the {@code value} CORS policies.
+     */
+    public PolicySnapshot withCorsPolicies(HostTable<PathPrefixTrie<CorsPolicy>> value) {
+        return new PolicySnapshot(this.injectors, value, this.fetchMetadataPolicies, this.configuration);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the {@code value} Fetch Metadata policies.
+     */
+    public PolicySnapshot withFetchMetadataPolicies(HostTable<PathPrefixTrie<FetchMetadataPolicy>> value) {
+        return new PolicySnapshot(this.injectors, this.corsPolicies, value, this.configuration);
+    }
+
+    /**
+     * Returns a copy of this snapshot with the {@code value} configuration.
+     */
+    public PolicySnapshot withConfiguration(WebSecurityConfiguration value) {
+        return new PolicySnapshot(this.injectors, this.corsPolicies, this.fetchMetadataPolicies, value);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * Identifies a preflight request by its {@code Origin}, {@code Access-Control-Request-Method} and
+ * {@code Access-Control-Request-Headers} values. The requested headers are compared ignoring case and the whitespace
+ * around list elements, so {@code "Authorization, Content-Type"} and {@code "authorization,content-type"} share a key,
+ * without normalizing the value into a new string on every request. Whitespace within an element is kept, so a
+ * malformed {@code "authoriz ation"} never shares the key, and the cached rejection, of {@code "authorization"}.
+ */
+final class PreflightKey {
+
+    private final String origin;
+    private final String method;
+    private final String headers;
+    private final int hash;
+
+    PreflightKey(String origin, String method, String headers) {
+        this.origin = origin;
+        this.method = method;
+        this.headers = headers == null ? "" : headers;
+        this.hash = 31 * (31 * origin.hashCode() + method.hashCode()) + headersHash(this.headers);
+    }
+
+    String origin() {
+        return this.origin;
+    }
+
+    String method() {
+        return this.method;
+    }
+
+    /**
+     * The requested headers, or an empty string if none were requested.
+     */
+    String headers() {
+        return this.headers;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PreflightKey)) {
+            return false;
+        }
+
+        PreflightKey that = (PreflightKey) other;
+        return this.hash == that.hash
+                && this.origin.equals(that.origin)
+                && this.method.equals(that.method)
+                && headersEqual(this.headers, that.headers);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        return "PreflightKey{origin=" + this.origin + ", method=" + this.method + ", headers=" + this.headers + "}";
+    }
+
+    private static int headersHash(String headers) {
+        int hash = 0;
+        for (int i = skipListWhitespace(headers, 0); i < headers.length(); i = skipListWhitespace(headers, i + 1)) {
+            hash = 31 * hash + toLowerCase(headers.charAt(i));
+        }
+        return hash;
+    }
+
+    private static boolean headersEqual(String first, String second) {
+        // a client usually repeats the exact same value
+        if (first.equals(second)) {
+            return true;
+        }
+
+        int firstIndex = 0;
+        int secondIndex = 0;
+
+        while (true) {
+            firstIndex = skipListWhitespace(first, firstIndex);
+            secondIndex = skipListWhitespace(second, secondIndex);
+
+            if (firstIndex == first.length() || secondIndex == second.length()) {
+                return firstIndex == first.length() && secondIndex == second.length();
+            }
+
+            if (toLowerCase(first.charAt(firstIndex)) != toLowerCase(second.charAt(secondIndex))) {
+                return false;
+            }
+
+            firstIndex++;
+            secondIndex++;
+        }
+    }
+
+    /**
+     * Skips the whitespace at {@code start} if it is at either end of the {@code value} or next to a comma, that is
+     * around a list element rather than within one.
+     */
+    private static int skipListWhitespace(String value, int start) {
+        if (start == value.length() || !isWhitespace(value.charAt(start))) {
+            return start;
+        }
+
+        int end = start;
+        while (end < value.length() && isWhitespace(value.charAt(end))) {
+            end++;
+        }
+        boolean aroundElement = start == 0 || end == value.length()
+                || value.charAt(start - 1) == ',' || value.charAt(end) == ',';
+        return aroundElement ? end : start;
+    }
+
+    // header names are ASCII tokens, and HTTP only allows spaces and tabs around list elements
+    private static boolean isWhitespace(char ch) {
+        return ch == ' ' || ch == '\t';
+    }
+
+    private static char toLowerCase(char ch) {
+        return ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of preflight requests with {@link TokenBucket}s: one per listed {@code Origin} header value, and
+ * one shared by all other origins, so a flood of made-up origins can't exhaust the buckets of real ones or each get a
+ * fresh bucket of their own.
+ * Each bucket allows bursts of one second's worth of requests.
+ * <p>
+ * The buckets of listed origins are kept in a map of at most {@code maxOrigins} entries. When it grows beyond that,
+ * one thread drops the idle buckets, which are full and so lose nothing, and then arbitrary ones if every bucket is in
+ * use, which only makes the limit more lenient for their origins. The shared bucket is split into stripes by the hash
+ * of the origin, so concurrent requests from different origins rarely update the same value.
+ */
+final class PreflightRateLimiter {
+
+    /**
+     * A limiter that allows every request.
+     */
+    static final PreflightRateLimiter UNLIMITED = new PreflightRateLimiter(0, 0, 1, System::nanoTime);
+
+    private static final int MAX_STRIPES = 16;
+
+    private final int originRate;
+    private final int maxOrigins;
+    private final LongSupplier ticker;
+    private final ConcurrentHashMap<String, TokenBucket> origins;
+    private final Function<String, TokenBucket> newBucket;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final TokenBucket[] rejected;
+
+    /**
+     * Creates a limiter for {@code originRate} preflight requests per second from each listed origin and
+     * {@code rejectedRate} per second from all other origins together, where 0 turns the limit off.
+     */
+    PreflightRateLimiter(int originRate, int rejectedRate, int maxOrigins, LongSupplier ticker) {
+        checkArgument(originRate >= 0, "originRate can't be negative");
+        checkArgument(rejectedRate >= 0, "rejectedRate can't be negative");
+        checkArgument(maxOrigins > 0, "maxOrigins must be positive");
+
+        this.originRate = originRate;
+        this.maxOrigins = maxOrigins;
+        this.ticker = checkNotNull(ticker);
+        this.origins = new ConcurrentHashMap<>(originRate > 0 ? Math.min(maxOrigins, 1024) : 1);
+        this.newBucket = origin -> new TokenBucket(this.originRate, this.originRate, this.ticker.getAsLong());
+        this.rejected = rejectedRate > 0 ? stripes(rejectedRate, ticker.getAsLong()) : null;
+    }
+
+    /**
+     * Takes a token for a preflight request with the {@code Origin} header value, and returns false if the origin is
+     * over its limit. Only an origin that is {@code originListed} in the configuration, rather than allowed by a
+     * wildcard or not at all, gets a bucket of its own.
+     */
+    boolean tryAcquire(String originHeader, boolean originListed) {
+        if (originListed) {
+            return this.originRate == 0 || originBucket(originHeader).tryAcquire(this.ticker.getAsLong());
+        }
+
+        return this.rejected == null
+                || this.rejected[spread(originHeader.hashCode()) & (this.rejected.length - 1)]
+                        .tryAcquire(this.ticker.getAsLong());
+    }
+
+    /**
+     * Returns the number of origins with a bucket.
+     */
+    long size() {
+        return this.origins.size();
+    }
+
+    private TokenBucket originBucket(String originHeader) {
+        TokenBucket bucket = this.origins.get(originHeader);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        bucket = this.origins.computeIfAbsent(originHeader, this.newBucket);
+        if (this.origins.size() > this.maxOrigins) {
+            evict();
+        }
+        return bucket;
+    }
+
+    private void evict() {
+        // only one thread sweeps at a time, the others carry on and leave the map briefly over its maximum size
+        if (!this.evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long now = this.ticker.getAsLong();
+            // the first sweep only drops idle buckets, the second makes room even if no bucket is idle
+            for (int sweep = 0; sweep < 2 && this.origins.size() > this.maxOrigins; sweep++) {
+                boolean idleOnly = sweep == 0;
+                Iterator<TokenBucket> buckets = this.origins.values().iterator();
+                while (buckets.hasNext() && this.origins.size() > this.maxOrigins) {
+                    TokenBucket bucket = buckets.next();
+                    if (!idleOnly || bucket.isIdle(now)) {
+                        buckets.remove();
+                    }
+                }
+            }
+        } finally {
+            this.evicting.set(false);
+        }
+    }
+
+    /**
+     * Splits {@code rate} requests per second, with a burst of one second's worth, over up to {@link #MAX_STRIPES}
+     * buckets, leaving at least one request per second for each.
+     */
+    private static TokenBucket[] stripes(int rate, long now) {
+        int count = Math.min(MAX_STRIPES, Integer.highestOneBit(rate));
+        TokenBucket[] stripes = new TokenBucket[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new TokenBucket((double) rate / count, rate / count, now);
+        }
+        return stripes;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, which allows {@code ratePerSecond} requests per second on average and bursts of up to
+ * {@code burst} requests. Rather than a token count and a refill time, the bucket keeps a single value: the time at
+ * which it will be full again. Taking a token is one compare-and-set, and a request over the limit only reads the
+ * value, so a flood of rejected requests doesn't contend on it.
+ */
+final class TokenBucket {
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong fullAt;
+
+    /**
+     * Creates a full bucket at the {@code now} of {@link System#nanoTime()}.
+     */
+    TokenBucket(double ratePerSecond, int burst, long now) {
+        checkArgument(ratePerSecond > 0, "ratePerSecond must be positive");
+        checkArgument(burst > 0, "burst must be positive");
+
+        this.interval = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.tolerance = (burst - 1) * this.interval;
+        this.fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * Takes a token and returns true, or returns false if the bucket is empty at the {@code now} of
+     * {@link System#nanoTime()}.
+     */
+    boolean tryAcquire(long now) {
+        while (true) {
+            long current = this.fullAt.get();
+            long start = current - now > 0 ? current : now;
+            if (start - now > this.tolerance) {
+                return false;
+            }
+            if (this.fullAt.compareAndSet(current, start + this.interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Determines if the bucket is full at the {@code now} of {@link System#nanoTime()}, so dropping it loses nothing.
+     */
+    boolean isIdle(long now) {
+        return this.fullAt.get() - now <= 0;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * The default {@link BrowserClassifier}, which scans the {@code User-Agent} for the IE10 and IE11 tokens and for the
+ * {@code Mozilla/} product token sent by all mainstream browsers.
+ */
+public final class UserAgentBrowserClassifier implements BrowserClassifier {
+
+    public static final String USER_AGENT_BROWSER = "Mozilla/";
+
+    @Override
+    public BrowserClass classify(String userAgent) {
+        if (userAgent == null) {
+            return BrowserClass.NON_BROWSER;
+        }
+
+        if (userAgent.contains(WebSecurityHeaderInjector.USER_AGENT_IE_10)
+                || userAgent.contains(WebSecurityHeaderInjector.USER_AGENT_IE_11)) {
+            return BrowserClass.LEGACY_IE;
+        }
+
+        if (userAgent.contains(USER_AGENT_BROWSER)) {
+            return BrowserClass.MODERN;
+        }
+
+        return BrowserClass.NON_BROWSER;
+    }
+}
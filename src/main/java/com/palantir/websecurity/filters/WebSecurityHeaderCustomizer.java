@@ -0,0 +1,212 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.eclipse.jetty.http.pathmap.MappedResource;
+import org.eclipse.jetty.http.pathmap.PathMappings;
+import org.eclipse.jetty.http.pathmap.ServletPathSpec;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletMapping;
+
+/**
+ * Injects the App Security headers at the connector level, once per exchange, before Jetty hands the request to any
+ * handler. Unlike {@link JerseyAwareWebSecurityFilter} it does not run again on every dispatch, and its headers are
+ * also sent with responses Jetty produces outside of the servlet filter chain, such as requests that match no context.
+ * Responses to requests Jetty can't parse are sent before any customizer runs and still get no headers.
+ * <p>
+ * Paths are resolved relative to the application {@code context}. Requests that the context maps to the Jersey
+ * servlet are skipped, the same as with {@link JerseyAwareWebSecurityFilter}. The servlet mappings are read when the
+ * server starts, so servlets added while it runs are not recognized. Requests outside the context get the
+ * headers of the root path. Headers are written before the application runs, so an application that resets the
+ * response also removes them. The injectors are read from a {@link PolicyReference}, which may be shared with the
+ * filters, and the customizer pins the snapshot to the request before any of them runs.
+ * {@link WebSecurityHeaderInjector#rewritesHtml() HTML rewriting} and
+ * {@link WebSecurityHeaderInjector#documentHeadersOnly() document-only headers} need a filter and are not supported.
+ */
+public final class WebSecurityHeaderCustomizer implements HttpConfiguration.Customizer, HeaderInjection {
+
+    /**
+     * The name of the Dropwizard admin connectors, which are left alone.
+     */
+    public static final String ADMIN_CONNECTOR_NAME = "admin";
+
+    private final ServletContextHandler context;
+    private final WebSecurityMetrics metrics;
+    private final PolicyReference policies;
+
+    /**
+     * The Jersey root as a path spec without its trailing star and slash, e.g. {@code /api} for {@code /api/*}.
+     */
+    private final String jerseyRoot;
+
+    /**
+     * The path of the context, or an empty string for the root context. Read once the server starts, since Dropwizard
+     * only sets it when the server is built.
+     */
+    private volatile String contextPath = "";
+
+    /**
+     * Whether each servlet path spec of the context is the Jersey root. Read once the server starts, like the path of
+     * the context.
+     */
+    private volatile PathMappings<Boolean> servletMappings = new PathMappings<>();
+
+    public WebSecurityHeaderCustomizer(PathPrefixTrie<WebSecurityHeaderInjector> injectors,
+            ServletContextHandler context, String jerseyRoot, WebSecurityMetrics metrics) {
+        this(HostTable.of(checkNotNull(injectors)), context, jerseyRoot, metrics);
+    }
+
+    /**
+     * Creates a customizer that injects headers using the injector of the host and the longest matching path prefix of
+     * each request.
+     */
+    public WebSecurityHeaderCustomizer(HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> injectors,
+            ServletContextHandler context, String jerseyRoot, WebSecurityMetrics metrics) {
+        this(new PolicyReference(PolicySnapshot.DEFAULT.withInjectors(checkNotNull(injectors))), context, jerseyRoot,
+                metrics);
+    }
+
+    /**
+     * Creates a customizer that injects headers using the {@link PolicySnapshot#injectors() injectors} of the snapshot
+     * pinned to each request.
+     */
+    public WebSecurityHeaderCustomizer(PolicyReference policies, ServletContextHandler context, String jerseyRoot,
+            WebSecurityMetrics metrics) {
+        checkNotNull(policies);
+        checkNotNull(context);
+        checkNotNull(jerseyRoot);
+        checkNotNull(metrics);
+
+        this.policies = policies;
+        this.context = context;
+        this.metrics = metrics;
+        this.jerseyRoot = jerseyRoot.substring(0, specEnd(jerseyRoot));
+    }
+
+    /**
+     * Adds this customizer to the HTTP configuration of every connector of the {@code server} except for the
+     * {@link #ADMIN_CONNECTOR_NAME admin} connectors. Must be called before the connectors are started.
+     */
+    public void install(Server server) {
+        checkNotNull(server);
+
+        String path = this.context.getContextPath();
+        this.contextPath = path == null || path.equals("/") ? "" : path;
+        this.servletMappings = servletMappings(this.context.getServletHandler().getServletMappings());
+
+        for (Connector connector : server.getConnectors()) {
+            if (ADMIN_CONNECTOR_NAME.equals(connector.getName())) {
+                continue;
+            }
+
+            for (ConnectionFactory factory : connector.getConnectionFactories()) {
+                if (factory instanceof HttpConfiguration.ConnectionFactory) {
+                    HttpConfiguration config = ((HttpConfiguration.ConnectionFactory) factory).getHttpConfiguration();
+                    // connectors may share their configuration
+                    if (!config.getCustomizers().contains(this)) {
+                        config.addCustomizer(this);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setHostInjectors(HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> hostInjectors) {
+        checkNotNull(hostInjectors);
+
+        this.policies.update(snapshot -> snapshot.withInjectors(hostInjectors));
+    }
+
+    @Override
+    public HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> getHostInjectors() {
+        return this.policies.get().injectors();
+    }
+
+    @Override
+    public void customize(Connector connector, HttpConfiguration channelConfig, Request request) {
+        long start = this.metrics.startTiming();
+
+        String path = request.getHttpURI().getDecodedPath();
+        if (path == null) {
+            path = "";
+        }
+
+        // pinned before the filters run, so they and the Jersey feature use the same snapshot as the headers here
+        PolicySnapshot snapshot = this.policies.forRequest(request);
+        String pathInContext = pathInContext(path);
+        if (pathInContext != null && isJerseyRequest(pathInContext)) {
+            this.metrics.jerseyRequestSkipped();
+        } else {
+            snapshot.injectors().get(request.getServerName()).get(pathInContext == null ? "" : pathInContext)
+                    .injectHeaders(request, request.getResponse());
+        }
+
+        this.metrics.headersTimed(start);
+    }
+
+    /**
+     * Returns the part of the {@code path} within the context, or null if the path is outside the context.
+     */
+    private String pathInContext(String path) {
+        String prefix = this.contextPath;
+        if (prefix.isEmpty()) {
+            return path;
+        }
+        if (!path.startsWith(prefix)) {
+            return null;
+        }
+        if (path.length() == prefix.length()) {
+            return "";
+        }
+        return path.charAt(prefix.length()) == '/' ? path.substring(prefix.length()) : null;
+    }
+
+    /**
+     * Determines if the context maps the path to the servlet mapped to the Jersey root.
+     */
+    private boolean isJerseyRequest(String pathInContext) {
+        MappedResource<Boolean> mapping =
+                this.servletMappings.getMatch(pathInContext.isEmpty() ? "/" : pathInContext);
+        return mapping != null && mapping.getResource();
+    }
+
+    private PathMappings<Boolean> servletMappings(ServletMapping[] mappings) {
+        PathMappings<Boolean> compiled = new PathMappings<>();
+        if (mappings == null) {
+            return compiled;
+        }
+
+        for (ServletMapping mapping : mappings) {
+            for (String spec : mapping.getPathSpecs()) {
+                int end = specEnd(spec);
+                compiled.put(new ServletPathSpec(spec),
+                        end == this.jerseyRoot.length() && spec.regionMatches(0, this.jerseyRoot, 0, end));
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the length of the path {@code spec} without a trailing star and slash.
+     */
+    private static int specEnd(String spec) {
+        int end = spec.length();
+        if (end > 0 && spec.charAt(end - 1) == '*') {
+            end--;
+        }
+        if (end > 0 && spec.charAt(end - 1) == '/') {
+            end--;
+        }
+        return end;
+    }
+}
@@ -6,10 +6,19 @@ package com.palantir.websecurity.filters;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
 import com.google.common.net.HttpHeaders;
 import com.palantir.websecurity.WebSecurityConfiguration;
+import java.util.Locale;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Injects different security headers based on a {@link WebSecurityConfiguration}. These headers include:
@@ -19,59 +28,450 @@ import javax.servlet.http.HttpServletResponse;
  * <li>Frame Options</li>
  * <li>XSS Protection</li>
  * </ul>
+ * The headers are compiled into a {@link HeaderPlan} for every {@link BrowserClass} once, when the injector is created.
+ * By default clients are classified by a {@link CachingBrowserClassifier}.
+ * <p>
+ * If the Content Security Policy contains {@value #CSP_NONCE_PLACEHOLDER}, every request gets a nonce from the
+ * {@link CspNonceGenerator}, which replaces the placeholder in the policy and is stored in the request attribute
+ * {@value #CSP_NONCE_ATTRIBUTE} for templates to add to their scripts and styles. A nonce already stored in the
+ * attribute, e.g. by an earlier dispatch of the same request, is kept if it only contains base64 characters.
+ * <p>
+ * The Content Security Policy is parsed into a {@link ContentSecurityPolicy}, merged with the
+ * {@link WebSecurityConfiguration#cspDirectives() directives} and sent minified, see
+ * {@link #contentSecurityPolicy(WebSecurityConfiguration)}.
+ * <p>
+ * If {@link #documentHeadersOnly()} is set, only the Content Type Options are injected into every response, and the
+ * headers that only matter to documents are left out of responses whose content type is not a document type, see
+ * {@link #isDocument(String)}.
+ * <p>
+ * If {@link WebSecurityConfiguration#http2Headers()} is set, the header names are written in lower case, the way
+ * HTTP/2 sends them. If {@link WebSecurityConfiguration#headerBudget()} is set, the headers of each browser class are
+ * measured against it when the injector is created, and responses that get headers over the budget are counted by
+ * {@link WebSecurityMetrics#headersOverBudget()}.
  */
 public final class WebSecurityHeaderInjector {
 
     public static final String DEFAULT_CONTENT_SECURITY_POLICY =
-            "default-src 'self'; style-src 'self' 'unsafe-inline'; frame-ancestors 'self';";
+            "default-src 'self';style-src 'self' 'unsafe-inline';frame-ancestors 'self'";
     public static final String DEFAULT_CONTENT_TYPE_OPTIONS = "nosniff";
     public static final String DEFAULT_FRAME_OPTIONS = "sameorigin";
     public static final String DEFAULT_XSS_PROTECTION = "1; mode=block";
 
+    public static final String CSP_NONCE_PLACEHOLDER = CspNonceTemplate.PLACEHOLDER;
+    public static final String CSP_NONCE_ATTRIBUTE = "com.palantir.websecurity.cspNonce";
+
     public static final String HEADER_IE_X_CONTENT_SECURITY_POLICY = "X-Content-Security-Policy";
     public static final String USER_AGENT_IE_10 = "MSIE 10";
     public static final String USER_AGENT_IE_11 = "rv:11.0";
 
-    private final String contentSecurityPolicy;
-    private final String contentTypeOptions;
-    private final String frameOptions;
-    private final String xssProtection;
+    /**
+     * The default size of the HPACK dynamic table of an HTTP/2 connection, see RFC 7540, section 6.5.2.
+     */
+    static final int HPACK_TABLE_SIZE = 4096;
+
+    private static final Logger log = LoggerFactory.getLogger(WebSecurityHeaderInjector.class);
+
+    private static final CharMatcher NONCE_CHARACTERS = CharMatcher.inRange('a', 'z')
+            .or(CharMatcher.inRange('A', 'Z'))
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.anyOf("+/=-_"))
+            .precomputed();
+
+    private static final Joiner.MapJoiner DIRECTIVE_JOINER = Joiner.on(';').withKeyValueSeparator(" ");
+
+    private static final String[] DOCUMENT_TYPES = {"text/html", "text/xml", "application/xml", "application/pdf"};
+    private static final String XML_SUFFIX = "+xml";
+
+    private final BrowserClassifier classifier;
+    private final WebSecurityMetrics metrics;
+    private final HeaderPlan[] plans;
+    private final boolean samePlanForAllBrowsers;
+
+    /**
+     * The policy with a nonce placeholder and the headers it is written to for each {@link BrowserClass}, or null if
+     * the policy has no placeholder. The {@link #plans} are then written without these headers.
+     */
+    private final CspNonceTemplate nonceTemplate;
+    private final String[][] nonceHeaders;
+    private final HeaderPlan[] staticPlans;
+    private final boolean rewritesHtml;
+
+    /**
+     * The headers injected into every response if only documents get the other headers.
+     */
+    private final HeaderPlan contentPlan;
+    private final boolean documentHeadersOnly;
+
+    /**
+     * Whether the headers for each {@link BrowserClass} are over the header budget.
+     */
+    private final boolean[] overBudget;
 
     public WebSecurityHeaderInjector(WebSecurityConfiguration config) {
+        this(config, new CachingBrowserClassifier(new UserAgentBrowserClassifier()));
+    }
+
+    /**
+     * Creates an injector that uses the {@code classifier} to pick the headers for each client.
+     */
+    public WebSecurityHeaderInjector(WebSecurityConfiguration config, BrowserClassifier classifier) {
+        this(config, classifier, WebSecurityMetrics.NOOP);
+    }
+
+    /**
+     * Creates an injector that uses the {@code classifier} to pick the headers for each client, and reports the
+     * injected headers to the {@code metrics}.
+     */
+    public WebSecurityHeaderInjector(WebSecurityConfiguration config, BrowserClassifier classifier,
+            WebSecurityMetrics metrics) {
         checkNotNull(config);
+        checkNotNull(classifier);
+        checkNotNull(metrics);
+
+        String contentSecurityPolicy = contentSecurityPolicy(config);
+        String contentTypeOptions = config.contentTypeOptions().or(DEFAULT_CONTENT_TYPE_OPTIONS);
+        String frameOptions = config.frameOptions().or(DEFAULT_FRAME_OPTIONS);
+        String xssProtection = config.xssProtection().or(DEFAULT_XSS_PROTECTION);
+
+        boolean http2Headers = config.http2Headers().or(false);
+        String cspHeader = headerName(HttpHeaders.CONTENT_SECURITY_POLICY, http2Headers);
+        String ieCspHeader = headerName(HEADER_IE_X_CONTENT_SECURITY_POLICY, http2Headers);
+        String contentTypeOptionsHeader = headerName(HttpHeaders.X_CONTENT_TYPE_OPTIONS, http2Headers);
+        String frameOptionsHeader = headerName(HttpHeaders.X_FRAME_OPTIONS, http2Headers);
+        String xssProtectionHeader = headerName(HttpHeaders.X_XSS_PROTECTION, http2Headers);
+
+        HeaderPlan headers = HeaderPlan.builder()
+                .headerIfNotEmpty(cspHeader, contentSecurityPolicy)
+                .headerIfNotEmpty(contentTypeOptionsHeader, contentTypeOptions)
+                .headerIfNotEmpty(frameOptionsHeader, frameOptions)
+                .headerIfNotEmpty(xssProtectionHeader, xssProtection)
+                .build();
+
+        HeaderPlan ieHeaders = headers;
+        if (!contentSecurityPolicy.isEmpty()) {
+            // send the CSP header so that IE10 and IE11 recognise it
+            ieHeaders = HeaderPlan.builder()
+                    .header(cspHeader, contentSecurityPolicy)
+                    .header(ieCspHeader, contentSecurityPolicy)
+                    .from(headers)
+                    .build();
+        }
 
-        this.contentSecurityPolicy = config.contentSecurityPolicy().or(DEFAULT_CONTENT_SECURITY_POLICY);
-        this.contentTypeOptions = config.contentTypeOptions().or(DEFAULT_CONTENT_TYPE_OPTIONS);
-        this.frameOptions = config.frameOptions().or(DEFAULT_FRAME_OPTIONS);
-        this.xssProtection = config.xssProtection().or(DEFAULT_XSS_PROTECTION);
+        this.classifier = classifier;
+        this.metrics = metrics;
+        this.plans = plans(ieHeaders, headers);
+        this.samePlanForAllBrowsers = ieHeaders == headers;
+
+        if (CspNonceTemplate.hasPlaceholder(contentSecurityPolicy)) {
+            this.nonceTemplate = CspNonceTemplate.compile(contentSecurityPolicy);
+            this.nonceHeaders = new String[BrowserClass.values().length][];
+            this.nonceHeaders[BrowserClass.LEGACY_IE.ordinal()] = new String[] {cspHeader, ieCspHeader};
+            this.nonceHeaders[BrowserClass.MODERN.ordinal()] = new String[] {cspHeader};
+            this.nonceHeaders[BrowserClass.NON_BROWSER.ordinal()] = new String[] {cspHeader};
+
+            HeaderPlan staticHeaders = HeaderPlan.builder()
+                    .headerIfNotEmpty(contentTypeOptionsHeader, contentTypeOptions)
+                    .headerIfNotEmpty(frameOptionsHeader, frameOptions)
+                    .headerIfNotEmpty(xssProtectionHeader, xssProtection)
+                    .build();
+            this.staticPlans = plans(staticHeaders, staticHeaders);
+            this.rewritesHtml = config.htmlNonces().or(false);
+        } else {
+            this.nonceTemplate = null;
+            this.nonceHeaders = null;
+            this.staticPlans = this.plans;
+            this.rewritesHtml = false;
+        }
+
+        this.contentPlan = HeaderPlan.builder()
+                .headerIfNotEmpty(contentTypeOptionsHeader, contentTypeOptions)
+                .build();
+        this.documentHeadersOnly = config.documentHeadersOnly().or(false);
+
+        this.overBudget = overBudget(config.headerBudget().or(Integer.MAX_VALUE));
+        if (http2Headers) {
+            warnUnindexedHeaders();
+        }
     }
 
     public void injectHeaders(HttpServletRequest request, HttpServletResponse response) {
         checkNotNull(request);
         checkNotNull(response);
 
-        if (!this.contentSecurityPolicy.isEmpty()) {
-            response.setHeader(HttpHeaders.CONTENT_SECURITY_POLICY, this.contentSecurityPolicy);
+        BrowserClass browserClass = classify(request.getHeader(HttpHeaders.USER_AGENT));
+        if (this.nonceTemplate != null) {
+            String policy = this.nonceTemplate.render(nonce(request));
+            for (String name : this.nonceHeaders[browserClass.ordinal()]) {
+                response.setHeader(name, policy);
+            }
+        }
+        this.staticPlans[browserClass.ordinal()].apply(response);
+        this.metrics.headersInjected(browserClass);
+        if (this.overBudget[browserClass.ordinal()]) {
+            this.metrics.headersOverBudget();
+        }
+    }
+
+    /**
+     * Injects the headers into the response of a Jersey resource, keeping the headers the resource set itself. The
+     * nonce is kept in the request property {@value #CSP_NONCE_ATTRIBUTE}, which Jersey stores in the servlet request
+     * attributes. If {@link #documentHeadersOnly()} is set, the media type of the response picks the headers.
+     */
+    void injectHeaders(ContainerRequestContext request, ContainerResponseContext response) {
+        MultivaluedMap<String, Object> headers = response.getHeaders();
+        if (this.documentHeadersOnly && !isDocument(response.getMediaType())) {
+            if (this.nonceTemplate != null) {
+                nonce(request);
+            }
+            this.contentPlan.applyIfAbsent(headers);
+            this.metrics.documentHeadersSkipped();
+            return;
+        }
 
-            String userAgent = request.getHeader(HttpHeaders.USER_AGENT);
-            if (userAgent != null) {
-                // send the CSP header so that IE10 and IE11 recognise it
-                if (userAgent.contains(USER_AGENT_IE_10) || userAgent.contains(USER_AGENT_IE_11)) {
-                    response.setHeader(HEADER_IE_X_CONTENT_SECURITY_POLICY, this.contentSecurityPolicy);
+        BrowserClass browserClass = classify(request.getHeaderString(HttpHeaders.USER_AGENT));
+        if (this.nonceTemplate != null) {
+            String policy = this.nonceTemplate.render(nonce(request));
+            for (String name : this.nonceHeaders[browserClass.ordinal()]) {
+                if (!headers.containsKey(name)) {
+                    headers.putSingle(name, policy);
                 }
             }
         }
+        this.staticPlans[browserClass.ordinal()].applyIfAbsent(headers);
+        this.metrics.headersInjected(browserClass);
+        if (this.overBudget[browserClass.ordinal()]) {
+            this.metrics.headersOverBudget();
+        }
+    }
+
+    /**
+     * Injects the headers that every response gets if {@link #documentHeadersOnly()} is set, and stores the nonce of
+     * the request so that templates can use it before the content type is known.
+     */
+    void injectContentHeaders(HttpServletRequest request, HttpServletResponse response) {
+        if (this.nonceTemplate != null) {
+            nonce(request);
+        }
+        this.contentPlan.apply(response);
+    }
+
+    /**
+     * Returns the headers that are injected into the response of the {@code request}. A Content Security Policy with
+     * a nonce placeholder is returned as configured.
+     */
+    public HeaderPlan getHeaders(HttpServletRequest request) {
+        return this.plans[classify(request.getHeader(HttpHeaders.USER_AGENT)).ordinal()];
+    }
+
+    /**
+     * Returns the headers that are injected into responses for the {@code browserClass}, see
+     * {@link #getHeaders(HttpServletRequest)}.
+     */
+    public HeaderPlan getHeaders(BrowserClass browserClass) {
+        checkNotNull(browserClass);
+        return this.plans[browserClass.ordinal()];
+    }
+
+    /**
+     * Determines if the Content Security Policy contains a nonce placeholder.
+     */
+    public boolean usesNonce() {
+        return this.nonceTemplate != null;
+    }
+
+    /**
+     * Determines if the nonce is added to the script and style tags of HTML responses, see
+     * {@link NonceHtmlResponseWrapper}.
+     */
+    public boolean rewritesHtml() {
+        return this.rewritesHtml;
+    }
+
+    /**
+     * Determines if the headers other than the Content Type Options are only injected into documents, see
+     * {@link DocumentHeadersResponseWrapper}.
+     */
+    public boolean documentHeadersOnly() {
+        return this.documentHeadersOnly;
+    }
+
+    /**
+     * Returns the number of bytes the headers for the {@code browserClass} add to an HTTP/1.1 response, with a nonce
+     * of {@link CspNonceGenerator#NONCE_LENGTH} characters in the Content Security Policy, see
+     * {@link HeaderPlan#headerBytes()}.
+     */
+    public int headerBytes(BrowserClass browserClass) {
+        checkNotNull(browserClass);
+
+        int bytes = this.staticPlans[browserClass.ordinal()].headerBytes();
+        if (this.nonceTemplate != null) {
+            int policyLength = this.nonceTemplate.length(CspNonceGenerator.NONCE_LENGTH);
+            for (String name : this.nonceHeaders[browserClass.ordinal()]) {
+                bytes += name.length() + policyLength + HeaderPlan.HEADER_OVERHEAD;
+            }
+        }
+        return bytes;
+    }
+
+    private boolean[] overBudget(int headerBudget) {
+        boolean[] exceeded = new boolean[BrowserClass.values().length];
+        for (BrowserClass browserClass : BrowserClass.values()) {
+            int bytes = headerBytes(browserClass);
+            exceeded[browserClass.ordinal()] = bytes > headerBudget;
+            if (exceeded[browserClass.ordinal()] && hasOwnHeaders(browserClass)) {
+                log.warn("The security headers for {} take {} bytes, which is over the header budget of {} bytes",
+                        browserClass, bytes, headerBudget);
+            }
+        }
+        return exceeded;
+    }
+
+    /**
+     * Logs the headers that HPACK can't keep in the dynamic table of a connection, and so sends in full with every
+     * response: a policy with a nonce, which is different for every response, and headers that don't fit the table.
+     */
+    private void warnUnindexedHeaders() {
+        if (this.nonceTemplate != null) {
+            log.warn("The Content Security Policy has a nonce, so HTTP/2 can't index it and sends its {} bytes with "
+                    + "every response", this.nonceTemplate.length(CspNonceGenerator.NONCE_LENGTH));
+        }
+
+        for (BrowserClass browserClass : BrowserClass.values()) {
+            int tableBytes = this.staticPlans[browserClass.ordinal()].tableBytes();
+            if (tableBytes > HPACK_TABLE_SIZE && hasOwnHeaders(browserClass)) {
+                log.warn("The security headers for {} take {} bytes of the {} byte HPACK table of a connection, so "
+                        + "HTTP/2 can't keep all of them indexed", browserClass, tableBytes, HPACK_TABLE_SIZE);
+            }
+        }
+    }
+
+    /**
+     * Returns the Content Security Policy sent for the {@code config}: its policy, or the default policy, with its
+     * {@link WebSecurityConfiguration#cspDirectives() directives} merged in and its
+     * {@link WebSecurityConfiguration#cspScriptHashes() script} and
+     * {@link WebSecurityConfiguration#cspStyleHashes() style} hashes allowed, in the shortest form that a browser
+     * enforces the same, see {@link ContentSecurityPolicy#minify()}. Several comma-separated policies are sent as
+     * configured, since they can't be merged. Throws an {@link IllegalArgumentException} if they have directives.
+     */
+    static String contentSecurityPolicy(WebSecurityConfiguration config) {
+        checkNotNull(config);
 
-        if (!this.contentTypeOptions.isEmpty()) {
-            response.setHeader(HttpHeaders.X_CONTENT_TYPE_OPTIONS, this.contentTypeOptions);
+        String policy = config.contentSecurityPolicy().or(DEFAULT_CONTENT_SECURITY_POLICY);
+        if (config.cspDirectives().isEmpty() && !ContentSecurityPolicy.isSinglePolicy(policy)) {
+            return policy;
         }
 
-        if (!this.frameOptions.isEmpty()) {
-            response.setHeader(HttpHeaders.X_FRAME_OPTIONS, this.frameOptions);
+        ContentSecurityPolicy directives = ContentSecurityPolicy.parse(DIRECTIVE_JOINER.join(config.cspDirectives()));
+        return ContentSecurityPolicy.parse(policy)
+                .merge(directives)
+                .withHashes(ContentSecurityPolicy.SCRIPT_SRC, config.cspScriptHashes())
+                .withHashes(ContentSecurityPolicy.STYLE_SRC, config.cspStyleHashes())
+                .minify()
+                .toString();
+    }
+
+    /**
+     * Determines if a response with the {@code contentType} may be rendered as a document, and so needs the headers
+     * that protect documents: HTML, XML including XHTML and SVG, PDF, and responses without a content type, which
+     * browsers may sniff as HTML.
+     */
+    public static boolean isDocument(String contentType) {
+        if (contentType == null) {
+            return true;
         }
 
-        if (!this.xssProtection.isEmpty()) {
-            response.setHeader(HttpHeaders.X_XSS_PROTECTION, this.xssProtection);
+        // the media type without parameters and surrounding spaces
+        int end = contentType.indexOf(';');
+        if (end < 0) {
+            end = contentType.length();
         }
+        while (end > 0 && contentType.charAt(end - 1) == ' ') {
+            end--;
+        }
+        int start = 0;
+        while (start < end && contentType.charAt(start) == ' ') {
+            start++;
+        }
+        return start == end || isDocumentType(contentType, start, end);
+    }
+
+    private static boolean isDocument(MediaType mediaType) {
+        return mediaType == null || isDocument(mediaType.getType() + "/" + mediaType.getSubtype());
+    }
+
+    private static boolean isDocumentType(String contentType, int start, int end) {
+        for (String documentType : DOCUMENT_TYPES) {
+            if (end - start == documentType.length()
+                    && contentType.regionMatches(true, start, documentType, 0, documentType.length())) {
+                return true;
+            }
+        }
+        return end - start > XML_SUFFIX.length()
+                && contentType.regionMatches(true, end - XML_SUFFIX.length(), XML_SUFFIX, 0, XML_SUFFIX.length());
+    }
+
+    /**
+     * Returns the nonce of the {@code request}, generating and storing one if it does not have one yet or if the one
+     * it has can't be safely written into headers and HTML.
+     */
+    private static String nonce(HttpServletRequest request) {
+        Object existing = request.getAttribute(CSP_NONCE_ATTRIBUTE);
+        if (isSafeNonce(existing)) {
+            return (String) existing;
+        }
+
+        String nonce = CspNonceGenerator.DEFAULT.next();
+        request.setAttribute(CSP_NONCE_ATTRIBUTE, nonce);
+        return nonce;
+    }
+
+    private static String nonce(ContainerRequestContext request) {
+        Object existing = request.getProperty(CSP_NONCE_ATTRIBUTE);
+        if (isSafeNonce(existing)) {
+            return (String) existing;
+        }
+
+        String nonce = CspNonceGenerator.DEFAULT.next();
+        request.setProperty(CSP_NONCE_ATTRIBUTE, nonce);
+        return nonce;
+    }
+
+    private static boolean isSafeNonce(Object nonce) {
+        return nonce instanceof String && NONCE_CHARACTERS.matchesAllOf((String) nonce);
+    }
+
+    /**
+     * Determines if the headers of the {@code browserClass} are logged for it, rather than for another browser class
+     * that gets the same headers, so that each set of headers is only logged once.
+     */
+    private boolean hasOwnHeaders(BrowserClass browserClass) {
+        if (browserClass == BrowserClass.LEGACY_IE) {
+            return !this.samePlanForAllBrowsers;
+        }
+        return browserClass == BrowserClass.MODERN;
+    }
+
+    private static String headerName(String name, boolean lowerCase) {
+        return lowerCase ? name.toLowerCase(Locale.ROOT) : name;
+    }
+
+    private static HeaderPlan[] plans(HeaderPlan ieHeaders, HeaderPlan headers) {
+        HeaderPlan[] plans = new HeaderPlan[BrowserClass.values().length];
+        plans[BrowserClass.LEGACY_IE.ordinal()] = ieHeaders;
+        plans[BrowserClass.MODERN.ordinal()] = headers;
+        plans[BrowserClass.NON_BROWSER.ordinal()] = headers;
+        return plans;
+    }
+
+    /**
+     * Classifies the client with the {@code userAgent}. The {@code User-Agent} is not looked at if every client gets
+     * the same headers, in which case every client is treated as {@link BrowserClass#MODERN}.
+     */
+    private BrowserClass classify(String userAgent) {
+        if (this.samePlanForAllBrowsers) {
+            return BrowserClass.MODERN;
+        }
+
+        return this.classifier.classify(userAgent);
     }
 }
@@ -0,0 +1,193 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableMap;
+import com.palantir.websecurity.NoWebSecurityHeaders;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import com.palantir.websecurity.WebSecurityHeaders;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+
+/**
+ * Adds the App Security headers to the responses of Jersey resource methods annotated with {@link WebSecurityHeaders},
+ * which the {@link JerseyAwareWebSecurityFilter} leaves alone. The annotations of each method are resolved once, when
+ * Jersey deploys the resources, into a {@link WebSecurityHeaderInjector} for the method. Only the annotated methods
+ * get a response filter, so the other methods don't pay anything.
+ * <p>
+ * The annotation of a method overrides the configuration of the application, not the configuration of a path. Headers
+ * the resource set itself are kept.
+ * <p>
+ * The configuration is read from the {@link PolicySnapshot} pinned to the request by a {@link PolicyReference} that
+ * may be shared with the filters. Each method keeps the injector compiled for the current snapshot, and compiles a new
+ * one on its first response after the configuration changes.
+ */
+public final class WebSecurityHeadersFeature implements DynamicFeature {
+
+    private final BrowserClassifier classifier;
+    private final WebSecurityMetrics metrics;
+    private final PolicyReference policies;
+
+    /**
+     * Creates a feature that applies the annotations on top of the derived {@code configuration}, uses the
+     * {@code classifier} to pick the headers for each client, and reports the injected headers to the {@code metrics}.
+     */
+    public WebSecurityHeadersFeature(WebSecurityConfiguration configuration, BrowserClassifier classifier,
+            WebSecurityMetrics metrics) {
+        this(new PolicyReference(PolicySnapshot.DEFAULT.withConfiguration(checkNotNull(configuration))), classifier,
+                metrics);
+    }
+
+    /**
+     * Creates a feature that applies the annotations on top of the {@link PolicySnapshot#configuration() configuration}
+     * of the snapshot pinned to each request, see
+     * {@link #WebSecurityHeadersFeature(WebSecurityConfiguration, BrowserClassifier, WebSecurityMetrics)}.
+     */
+    public WebSecurityHeadersFeature(PolicyReference policies, BrowserClassifier classifier,
+            WebSecurityMetrics metrics) {
+        checkNotNull(policies);
+        checkNotNull(classifier);
+        checkNotNull(metrics);
+
+        this.policies = policies;
+        this.classifier = classifier;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        Method method = resourceInfo.getResourceMethod();
+        WebSecurityHeaders annotation = method == null ? null : resolve(resourceInfo.getResourceClass(), method);
+        if (annotation == null) {
+            return;
+        }
+
+        context.register(new ResponseFilter(annotation, this.policies.get().configuration()),
+                Priorities.HEADER_DECORATOR);
+    }
+
+    /**
+     * Replaces the derived {@code configuration} the annotations are applied on top of. Each response sees either the
+     * old or the new configuration.
+     */
+    public void setConfiguration(WebSecurityConfiguration configuration) {
+        checkNotNull(configuration);
+
+        this.policies.update(snapshot -> snapshot.withConfiguration(configuration));
+    }
+
+    /**
+     * Returns the configuration the annotations are applied on top of.
+     */
+    public WebSecurityConfiguration getConfiguration() {
+        return this.policies.get().configuration();
+    }
+
+    /**
+     * Returns the annotation that applies to the {@code method}, or null if it doesn't get the headers.
+     */
+    private static WebSecurityHeaders resolve(Class<?> resourceClass, Method method) {
+        if (isAnnotated(method)) {
+            return method.getAnnotation(WebSecurityHeaders.class);
+        }
+        if (resourceClass != null && isAnnotated(resourceClass)) {
+            return resourceClass.getAnnotation(WebSecurityHeaders.class);
+        }
+        return null;
+    }
+
+    /**
+     * Determines if the {@code element} has either annotation, and checks that it doesn't have both.
+     */
+    private static boolean isAnnotated(AnnotatedElement element) {
+        boolean headers = element.isAnnotationPresent(WebSecurityHeaders.class);
+        boolean noHeaders = element.isAnnotationPresent(NoWebSecurityHeaders.class);
+        checkState(!(headers && noHeaders), "%s can't have both @WebSecurityHeaders and @NoWebSecurityHeaders",
+                element);
+        return headers || noHeaders;
+    }
+
+    private WebSecurityHeaderInjector compile(WebSecurityHeaders annotation, WebSecurityConfiguration root) {
+        WebSecurityConfiguration.Builder config = WebSecurityConfiguration.builder()
+                .from(root)
+                .paths(ImmutableMap.of())
+                .hosts(ImmutableMap.of());
+
+        if (!annotation.contentSecurityPolicy().equals(WebSecurityHeaders.INHERIT)) {
+            config.contentSecurityPolicy(annotation.contentSecurityPolicy())
+                    .cspDirectives(ImmutableMap.of());
+        }
+        if (!annotation.contentTypeOptions().equals(WebSecurityHeaders.INHERIT)) {
+            config.contentTypeOptions(annotation.contentTypeOptions());
+        }
+        if (!annotation.frameOptions().equals(WebSecurityHeaders.INHERIT)) {
+            config.frameOptions(annotation.frameOptions());
+        }
+        if (!annotation.xssProtection().equals(WebSecurityHeaders.INHERIT)) {
+            config.xssProtection(annotation.xssProtection());
+        }
+
+        return new WebSecurityHeaderInjector(config.build(), this.classifier, this.metrics);
+    }
+
+    /**
+     * Injects the headers of one resource method.
+     */
+    private final class ResponseFilter implements ContainerResponseFilter {
+        private final WebSecurityHeaders annotation;
+        private volatile Compiled compiled;
+
+        ResponseFilter(WebSecurityHeaders annotation, WebSecurityConfiguration configuration) {
+            this.annotation = annotation;
+            this.compiled = new Compiled(configuration, compile(annotation, configuration));
+        }
+
+        @Override
+        public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+            injector(policies.forRequest(requestContext).configuration())
+                    .injectHeaders(requestContext, responseContext);
+        }
+
+        /**
+         * Returns the injector for the {@code configuration}. Only the injector of the current configuration is kept,
+         * so requests still on an older configuration don't replace it.
+         */
+        private WebSecurityHeaderInjector injector(WebSecurityConfiguration configuration) {
+            Compiled current = this.compiled;
+            if (current.configuration == configuration) {
+                return current.injector;
+            }
+
+            WebSecurityHeaderInjector injector = compile(this.annotation, configuration);
+            if (configuration == policies.get().configuration()) {
+                this.compiled = new Compiled(configuration, injector);
+            }
+            return injector;
+        }
+    }
+
+    /**
+     * An injector and the configuration it was compiled on top of.
+     */
+    private static final class Compiled {
+        private final WebSecurityConfiguration configuration;
+        private final WebSecurityHeaderInjector injector;
+
+        Compiled(WebSecurityConfiguration configuration, WebSecurityHeaderInjector injector) {
+            this.configuration = configuration;
+            this.injector = injector;
+        }
+    }
+}
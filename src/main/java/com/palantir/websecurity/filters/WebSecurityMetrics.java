@@ -0,0 +1,110 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+/**
+ * Receives the events of the web security filters. Every method is called on the request path, so implementations
+ * must be cheap and must not block.
+ * <p>
+ * Latency is sampled: a filter calls {@link #startTiming()} and passes the result to the matching {@code ...Timed}
+ * method, which ignores it if it is {@link #NOT_SAMPLED}.
+ */
+public interface WebSecurityMetrics {
+
+    /**
+     * Returned by {@link #startTiming()} when the current call is not timed.
+     */
+    long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /**
+     * Metrics that record nothing.
+     */
+    WebSecurityMetrics NOOP = NoOpWebSecurityMetrics.INSTANCE;
+
+    /**
+     * Returns the current {@link System#nanoTime()} if this call should be timed, {@link #NOT_SAMPLED} otherwise.
+     */
+    long startTiming();
+
+    /**
+     * The security headers for the {@code browserClass} were injected into a response.
+     */
+    void headersInjected(BrowserClass browserClass);
+
+    /**
+     * A request was left to Jersey and no security headers were injected.
+     */
+    void jerseyRequestSkipped();
+
+    /**
+     * A response that isn't a document only got the headers that every response gets.
+     */
+    void documentHeadersSkipped();
+
+    /**
+     * The security headers injected into a response were over the configured header budget.
+     */
+    void headersOverBudget();
+
+    /**
+     * Security header handling that started at {@code start} has finished.
+     */
+    void headersTimed(long start);
+
+    /**
+     * A cross-origin request that is not a preflight request was allowed.
+     */
+    void corsAllowed();
+
+    /**
+     * A cross-origin request that is not a preflight request came from an origin that is not allowed.
+     */
+    void corsRejected();
+
+    /**
+     * A preflight request was allowed and passed down the chain.
+     */
+    void preflightAllowed();
+
+    /**
+     * A preflight request was allowed and answered by the filter.
+     */
+    void preflightAnswered();
+
+    /**
+     * A preflight request was not allowed.
+     */
+    void preflightRejected();
+
+    /**
+     * A preflight request was answered with {@code 429 Too Many Requests} because its origin was over its rate limit.
+     */
+    void preflightLimited();
+
+    /**
+     * CORS handling that started at {@code start} has finished.
+     */
+    void corsTimed(long start);
+
+    /**
+     * A cross-site request was rejected by its Fetch Metadata headers.
+     */
+    void fetchMetadataRejected();
+
+    /**
+     * A CSP violation report was queued for processing.
+     */
+    void cspReportQueued();
+
+    /**
+     * A CSP violation report was dropped because the queue was full.
+     */
+    void cspReportDropped();
+
+    /**
+     * A request to the CSP report endpoint did not contain a valid report.
+     */
+    void cspReportMalformed();
+}
@@ -85,6 +85,17 @@ public final class CorsConfigurationTests {
         assertTrue(violation.getConstraintDescriptor().getAnnotation() instanceof ValidationMethod);
     }
 
+    @Test
+    public void testPreflightRateLimits_cannotBeNegative() {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .rejectedPreflightRateLimit(-1)
+                .build();
+
+        ConstraintViolation<CorsConfiguration> violation = getFirstViolation(VALIDATOR.validate(config));
+        assertTrue(violation.getConstraintDescriptor().getAnnotation() instanceof ValidationMethod);
+        assertTrue(VALIDATOR.validate(CorsConfiguration.builder().preflightRateLimit(0).build()).isEmpty());
+    }
+
     private static <T> ConstraintViolation<T> getFirstViolation(Set<ConstraintViolation<T>> violations) {
         if (violations.isEmpty()) {
             throw new RuntimeException("No violations found when one was expected.");
@@ -0,0 +1,44 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.dropwizard.validation.BaseValidator;
+import javax.validation.Validator;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CspReportStoreConfiguration}.
+ */
+public final class CspReportStoreConfigurationTests {
+
+    private static final Validator VALIDATOR = BaseValidator.newValidator();
+    private static final long MIB = 1024 * 1024;
+
+    @Test
+    public void testSizes() {
+        assertTrue(VALIDATOR.validate(CspReportStoreConfiguration.DEFAULT).isEmpty());
+        assertTrue(VALIDATOR.validate(CspReportStoreConfiguration.builder()
+                .segmentSize(MIB)
+                .maxSize(MIB)
+                .build()).isEmpty());
+        assertEquals(1, VALIDATOR.validate(CspReportStoreConfiguration.builder()
+                .segmentSize(2 * MIB)
+                .maxSize(MIB)
+                .build()).size());
+    }
+
+    @Test
+    public void testSizesComparedWithDefaults() {
+        // larger than the default maxSize
+        assertEquals(1, VALIDATOR.validate(CspReportStoreConfiguration.builder()
+                .segmentSize(512 * MIB)
+                .build()).size());
+        // smaller than the default segmentSize
+        assertEquals(1, VALIDATOR.validate(CspReportStoreConfiguration.builder().maxSize(MIB).build()).size());
+    }
+}
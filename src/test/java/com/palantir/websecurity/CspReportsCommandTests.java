@@ -0,0 +1,58 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableMap;
+import com.palantir.websecurity.filters.CspReport;
+import com.palantir.websecurity.filters.CspReportStore;
+import io.dropwizard.setup.Bootstrap;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link CspReportsCommand}.
+ */
+public final class CspReportsCommandTests {
+
+    private static final long NOW = TimeUnit.DAYS.toMillis(1000);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPrintsRecentReports() throws Exception {
+        Path directory = this.folder.getRoot().toPath();
+        CspReportStore store = new CspReportStore(directory, 1024 * 1024, TimeUnit.HOURS.toMillis(1), 1024 * 1024);
+        store.start();
+        store.onReport(CspReport.builder().timestamp(NOW - TimeUnit.MINUTES.toMillis(30)).blockedUri("old").build());
+        store.onReport(CspReport.builder().timestamp(NOW - TimeUnit.MINUTES.toMillis(5)).blockedUri("new").build());
+        store.stop();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CspReportsCommand command = new CspReportsCommand(
+                Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC),
+                new PrintStream(output, true, StandardCharsets.UTF_8.name()));
+        command.run(mock(Bootstrap.class),
+                new Namespace(ImmutableMap.of("directory", directory.toString(), "minutes", 10)));
+
+        String printed = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(1, printed.split("\n").length);
+        assertTrue(printed.contains("\"blockedUri\":\"new\""));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.palantir.websecurity.filters.PolicyReference;
+import com.palantir.websecurity.filters.PolicySnapshot;
+import com.palantir.websecurity.filters.UserAgentBrowserClassifier;
+import com.palantir.websecurity.filters.WebSecurityMetrics;
+import io.dropwizard.validation.BaseValidator;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link ReloadWebSecurityTask}.
+ */
+public final class ReloadWebSecurityTaskTests {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReloadsFile() throws Exception {
+        Path file = this.folder.newFile("config.yml").toPath();
+        Files.write(file, "webSecurity:\n  frameOptions: deny\n".getBytes(StandardCharsets.UTF_8));
+
+        WebSecurityReloader reloader = new WebSecurityReloader(WebSecurityConfiguration.DEFAULT,
+                WebSecurityConfiguration.DEFAULT, BaseValidator.newValidator(), new UserAgentBrowserClassifier(),
+                WebSecurityMetrics.NOOP,
+                new PolicyReference(PolicySnapshot.DEFAULT), Optional.empty());
+        StringWriter output = new StringWriter();
+
+        new ReloadWebSecurityTask(reloader, file).execute(ImmutableMultimap.of(), new PrintWriter(output));
+
+        assertEquals("deny", reloader.getConfiguration().frameOptions().get());
+        assertTrue(output.toString().startsWith("Reloaded web security configuration from " + file));
+    }
+}
@@ -5,31 +5,65 @@
 package com.palantir.websecurity;
 
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.filters.BrowserClass;
+import com.palantir.websecurity.filters.CorsFilter;
+import com.palantir.websecurity.filters.CorsPolicy;
+import com.palantir.websecurity.filters.CspReportAdminServlet;
+import com.palantir.websecurity.filters.CspReportQueue;
+import com.palantir.websecurity.filters.CspReportServlet;
+import com.palantir.websecurity.filters.CspReportStore;
+import com.palantir.websecurity.filters.FetchMetadataFilter;
+import com.palantir.websecurity.filters.FetchMetadataPolicy;
+import com.palantir.websecurity.filters.HostTable;
+import com.palantir.websecurity.filters.JerseyAwareWebSecurityFilter;
+import com.palantir.websecurity.filters.PathPrefixTrie;
+import com.palantir.websecurity.filters.WebSecurityHeaderInjector;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.servlets.tasks.Task;
+import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
-import java.util.Map;
+import io.dropwizard.validation.BaseValidator;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
-import javax.servlet.FilterRegistration;
-import org.eclipse.jetty.servlets.CrossOriginFilter;
+import javax.servlet.Servlet;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 /**
  * Tests for {@link WebSecurityBundle}.
  */
 public final class WebSecurityBundleTests {
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private final WebSecurityConfigurable appConfig = mock(WebSecurityConfigurable.class);
-    private final FilterRegistration.Dynamic dynamic = mock(FilterRegistration.Dynamic.class);
     private final Environment environment = mock(Environment.class, RETURNS_DEEP_STUBS);
 
     @Test
@@ -41,7 +75,8 @@ public final class WebSecurityBundleTests {
 
         bundle.run(this.appConfig, this.environment);
 
-        verify(this.environment.servlets(), never()).addFilter(anyString(), isA(CrossOriginFilter.class));
+        verify(this.environment.servlets(), never()).addFilter(anyString(), isA(CorsFilter.class));
+        verify(this.environment.servlets(), never()).addFilter(anyString(), isA(FetchMetadataFilter.class));
     }
 
     @Test
@@ -55,7 +90,45 @@ public final class WebSecurityBundleTests {
 
         bundle.run(this.appConfig, this.environment);
 
-        verify(this.environment.servlets()).addFilter(anyString(), isA(CrossOriginFilter.class));
+        verify(this.environment.servlets()).addFilter(anyString(), isA(CorsFilter.class));
+    }
+
+    @Test
+    public void testFetchMetadataFilterApplied() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(WebSecurityConfiguration.builder()
+                .fetchMetadata(FetchMetadataConfiguration.DEFAULT)
+                .putPaths("/api", WebSecurityConfiguration.builder()
+                        .cors(CorsConfiguration.builder().allowedOrigins("http://origin").build())
+                        .build())
+                .putPaths("/embed", WebSecurityConfiguration.builder()
+                        .fetchMetadata(FetchMetadataConfiguration.DISABLED)
+                        .build())
+                .build());
+
+        bundle.run(this.appConfig, this.environment);
+
+        ArgumentCaptor<Filter> filterCaptor = ArgumentCaptor.forClass(Filter.class);
+        verify(this.environment.servlets()).addFilter(eq("FetchMetadataFilter"), filterCaptor.capture());
+        PathPrefixTrie<FetchMetadataPolicy> policies =
+                ((FetchMetadataFilter) filterCaptor.getValue()).getHostPolicies().defaultValue();
+        assertFalse(policies.rootValue().isAllowed("cross-site", "cors", "empty", "POST"));
+        // CORS requests are left to the CorsFilter where CORS is enabled
+        assertTrue(policies.get("/api", null).isAllowed("cross-site", "cors", "empty", "POST"));
+        assertFalse(policies.get("/api", null).isAllowed("cross-site", "no-cors", "script", "GET"));
+        assertFalse(policies.get("/embed", null).isEnabled());
+    }
+
+    @Test
+    public void testFetchMetadataFilterNotAppliedWhenDisabled() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(WebSecurityConfiguration.builder()
+                .fetchMetadata(FetchMetadataConfiguration.DISABLED)
+                .build());
+
+        bundle.run(this.appConfig, this.environment);
+
+        verify(this.environment.servlets(), never()).addFilter(anyString(), isA(FetchMetadataFilter.class));
     }
 
     @Test
@@ -69,7 +142,7 @@ public final class WebSecurityBundleTests {
 
         bundle.run(this.appConfig, this.environment);
 
-        verify(this.environment.servlets(), never()).addFilter(anyString(), isA(CrossOriginFilter.class));
+        verify(this.environment.servlets(), never()).addFilter(anyString(), isA(CorsFilter.class));
     }
 
     @Test
@@ -86,12 +159,34 @@ public final class WebSecurityBundleTests {
 
         bundle.run(this.appConfig, this.environment);
 
-        verify(this.environment.servlets(), never()).addFilter(anyString(), isA(CrossOriginFilter.class));
+        verify(this.environment.servlets(), never()).addFilter(anyString(), isA(CorsFilter.class));
     }
 
     @Test
-    @SuppressWarnings("unchecked")
-    public void testDefaultPropertyMap() throws Exception {
+    public void testAssetHashesAddedToPolicy() throws Exception {
+        Path assets = this.folder.newFolder("assets").toPath();
+        Files.write(assets.resolve("index.html"), "<script>start();</script>".getBytes(StandardCharsets.UTF_8));
+        Files.write(assets.resolve("app.js"), "start();".getBytes(StandardCharsets.UTF_8));
+        Path manifest = this.folder.getRoot().toPath().resolve("manifest.json");
+        WebSecurityBundle bundle = new WebSecurityBundle();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(WebSecurityConfiguration.builder()
+                .assetIntegrity(AssetIntegrityConfiguration.builder()
+                        .addDirectories(assets.toString())
+                        .manifest(manifest.toString())
+                        .build())
+                .build());
+
+        bundle.run(this.appConfig, this.environment);
+
+        assertEquals(bundle.getAssetDigests().scriptHashes(), bundle.getDerivedConfiguration().cspScriptHashes());
+        assertEquals(1, bundle.getAssetDigests().scriptHashes().size());
+        assertTrue(bundle.getAssetDigests().integrity("app.js").startsWith("sha384-"));
+        assertTrue(Files.isRegularFile(manifest));
+    }
+
+    @Test
+    public void testDefaultPolicy() throws Exception {
         WebSecurityConfiguration appDefaultConfig = WebSecurityConfiguration.builder()
                 .cors(CorsConfiguration.builder()
                         .allowedOrigins("http://origin")
@@ -99,28 +194,26 @@ public final class WebSecurityBundleTests {
                 .build();
         WebSecurityBundle bundle = new WebSecurityBundle(appDefaultConfig);
 
-        when(environment.servlets().addFilter(anyString(), any(Filter.class))).thenReturn(dynamic);
         when(this.appConfig.getWebSecurityConfiguration()).thenReturn(appDefaultConfig);
 
         bundle.run(appConfig, environment);
 
-        ArgumentCaptor<Map> paramCaptor = ArgumentCaptor.forClass(Map.class);
-        verify(dynamic).setInitParameters(paramCaptor.capture());
-
-        Map<String, String> captured = paramCaptor.getValue();
+        CorsPolicy policy = capturePolicy();
+        assertEquals(WebSecurityBundle.DEFAULT_ALLOW_CREDENTIALS, policy.allowCredentials());
         assertEquals(
-                Boolean.toString(WebSecurityBundle.DEFAULT_ALLOW_CREDENTIALS),
-                captured.get(CrossOriginFilter.ALLOW_CREDENTIALS_PARAM));
-        assertEquals(WebSecurityBundle.DEFAULT_ALLOWED_HEADERS, captured.get(CrossOriginFilter.ALLOWED_HEADERS_PARAM));
-        assertEquals(WebSecurityBundle.DEFAULT_ALLOWED_METHODS, captured.get(CrossOriginFilter.ALLOWED_METHODS_PARAM));
+                Splitter.on(',').splitToList(WebSecurityBundle.DEFAULT_ALLOWED_HEADERS),
+                policy.allowedHeaders());
+        assertEquals(
+                Splitter.on(',').splitToList(WebSecurityBundle.DEFAULT_ALLOWED_METHODS),
+                policy.allowedMethods());
 
-        assertNull(captured.get(CrossOriginFilter.PREFLIGHT_MAX_AGE_PARAM));
-        assertNull(captured.get(CrossOriginFilter.EXPOSED_HEADERS_PARAM));
+        assertEquals(CorsPolicy.DEFAULT_PREFLIGHT_MAX_AGE, policy.preflightMaxAge());
+        assertEquals(CorsPolicy.DEFAULT_CHAIN_PREFLIGHT, policy.chainPreflight());
+        assertTrue(policy.exposedHeaders().isEmpty());
     }
 
     @Test
-    @SuppressWarnings("unchecked")
-    public void testPropertyMapAddsAll() throws Exception {
+    public void testPolicyUsesAll() throws Exception {
         CorsConfiguration config = CorsConfiguration.builder()
                 .allowedOrigins("origins")
                 .allowedMethods("methods")
@@ -135,21 +228,342 @@ public final class WebSecurityBundleTests {
                 .build();
         WebSecurityBundle bundle = new WebSecurityBundle(appDefaultConfig);
 
-        when(environment.servlets().addFilter(anyString(), any(Filter.class))).thenReturn(dynamic);
         when(this.appConfig.getWebSecurityConfiguration()).thenReturn(appDefaultConfig);
 
         bundle.run(appConfig, environment);
 
-        ArgumentCaptor<Map> paramCaptor = ArgumentCaptor.forClass(Map.class);
-        verify(dynamic).setInitParameters(paramCaptor.capture());
-
-        Map<String, String> props = paramCaptor.getValue();
-        assertEquals(config.allowedOrigins().get(), props.get(CrossOriginFilter.ALLOWED_ORIGINS_PARAM));
-        assertEquals(config.allowedMethods().get(), props.get(CrossOriginFilter.ALLOWED_METHODS_PARAM));
-        assertEquals(config.allowedHeaders().get(), props.get(CrossOriginFilter.ALLOWED_HEADERS_PARAM));
-        assertEquals(config.chainPreflight().get().toString(), props.get(CrossOriginFilter.CHAIN_PREFLIGHT_PARAM));
-        assertEquals(config.preflightMaxAge().get().toString(), props.get(CrossOriginFilter.PREFLIGHT_MAX_AGE_PARAM));
-        assertEquals(config.allowCredentials().get().toString(), props.get(CrossOriginFilter.ALLOW_CREDENTIALS_PARAM));
-        assertEquals(config.exposedHeaders().get(), props.get(CrossOriginFilter.EXPOSED_HEADERS_PARAM));
+        CorsPolicy policy = capturePolicy();
+        assertTrue(policy.isOriginAllowed("origins"));
+        assertFalse(policy.anyOriginAllowed());
+        assertEquals(ImmutableList.of("methods"), policy.allowedMethods());
+        assertEquals(ImmutableList.of("headers"), policy.allowedHeaders());
+        assertFalse(policy.chainPreflight());
+        assertEquals(123L, policy.preflightMaxAge());
+        assertTrue(policy.allowCredentials());
+        assertEquals(ImmutableList.of("exposed"), policy.exposedHeaders());
+    }
+
+    @Test
+    public void testMetricsNotRegisteredByDefault() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        WebSecurityBundle bundle = new WebSecurityBundle();
+
+        when(this.environment.metrics()).thenReturn(registry);
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(WebSecurityConfiguration.DEFAULT);
+
+        bundle.run(this.appConfig, this.environment);
+
+        assertTrue(registry.getNames().isEmpty());
+    }
+
+    @Test
+    public void testMetricsRegisteredWhenEnabled() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        WebSecurityBundle bundle = new WebSecurityBundle();
+        WebSecurityConfiguration webSecurityConfig = WebSecurityConfiguration.builder()
+                .cors(CorsConfiguration.builder().allowedOrigins("http://origin").build())
+                .metricsEnabled(true)
+                .build();
+
+        when(this.environment.metrics()).thenReturn(registry);
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(webSecurityConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        assertTrue(registry.getGauges().containsKey("webSecurity.headers.injected"));
+        assertTrue(registry.getCounters().containsKey("webSecurity.cors.rejected"));
+        assertTrue(registry.getGauges().containsKey("webSecurity.headers.userAgents.hitRatio"));
+        assertTrue(registry.getGauges().containsKey("webSecurity.cors.origins.hitRatio"));
+        assertTrue(registry.getGauges().containsKey("webSecurity.cors.preflights.hitRatio"));
+    }
+
+    @Test
+    public void testReloadTaskNotRegisteredByDefault() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(WebSecurityConfiguration.DEFAULT);
+
+        bundle.run(this.appConfig, this.environment);
+
+        verify(this.environment.admin(), never()).addTask(any(Task.class));
+        verify(this.environment.lifecycle(), never()).manage(any(Managed.class));
+    }
+
+    @Test
+    public void testReloadTaskRegisteredWithReloadFile() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+        WebSecurityConfiguration webSecurityConfig = WebSecurityConfiguration.builder()
+                .reloadFile("config.yml")
+                .watchReloadFile(true)
+                .build();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(webSecurityConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        verify(this.environment.admin()).addTask(isA(ReloadWebSecurityTask.class));
+        verify(this.environment.lifecycle()).manage(isA(WebSecurityFileWatcher.class));
+    }
+
+    @Test
+    public void testReloadReplacesDerivedConfiguration() throws Exception {
+        WebSecurityConfiguration appDefaultConfig = WebSecurityConfiguration.builder()
+                .cors(CorsConfiguration.builder().allowedOrigins("http://origin").build())
+                .build();
+        WebSecurityBundle bundle = new WebSecurityBundle(appDefaultConfig);
+
+        when(this.environment.getValidator()).thenReturn(BaseValidator.newValidator());
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(WebSecurityConfiguration.DEFAULT);
+
+        bundle.run(this.appConfig, this.environment);
+        CorsPolicy before = capturePolicy();
+
+        bundle.reload(WebSecurityConfiguration.builder()
+                .cors(CorsConfiguration.builder().allowedOrigins("http://other").build())
+                .build());
+
+        assertEquals("http://other", bundle.getDerivedConfiguration().cors().get().allowedOrigins().get());
+        assertTrue(before.isOriginAllowed("http://origin"));
+        assertFalse(capturePolicy().isOriginAllowed("http://origin"));
+        assertTrue(capturePolicy().isOriginAllowed("http://other"));
+    }
+
+    @Test
+    public void testPathOverrides() throws Exception {
+        WebSecurityConfiguration appDefaultConfig = WebSecurityConfiguration.builder()
+                .frameOptions("deny")
+                .putPaths("/widget", WebSecurityConfiguration.builder().frameOptions("sameorigin").build())
+                .putPaths("/docs", WebSecurityConfiguration.builder().contentTypeOptions("app").build())
+                .build();
+        WebSecurityConfiguration yamlConfig = WebSecurityConfiguration.builder()
+                .putPaths("/docs", WebSecurityConfiguration.builder().frameOptions("yaml").build())
+                .putPaths("/api/public", WebSecurityConfiguration.builder()
+                        .cors(CorsConfiguration.builder().allowedOrigins("*").build())
+                        .build())
+                .build();
+        WebSecurityBundle bundle = new WebSecurityBundle(appDefaultConfig);
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(yamlConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        ArgumentCaptor<Filter> filterCaptor = ArgumentCaptor.forClass(Filter.class);
+        verify(this.environment.servlets()).addFilter(eq("JerseyAwareWebSecurityFilter"), filterCaptor.capture());
+        PathPrefixTrie<WebSecurityHeaderInjector> injectors =
+                ((JerseyAwareWebSecurityFilter) filterCaptor.getValue()).getInjectors();
+
+        assertEquals("deny", frameOptions(injectors.get("/index.html")));
+        assertEquals("sameorigin", frameOptions(injectors.get("/widget/frame.html")));
+        assertEquals("yaml", frameOptions(injectors.get("/docs")));
+        assertEquals("app", injectors.get("/docs").getHeaders(BrowserClass.MODERN).headers()
+                .get(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+
+        // CORS is only enabled for one path, which still needs the filter
+        PathPrefixTrie<CorsPolicy> policies = captureFilter().getPolicies();
+        assertFalse(policies.get("/api/hello").isEnabled());
+        assertTrue(policies.get("/api/public/hello").anyOriginAllowed());
+    }
+
+    @Test
+    public void testHostOverrides() throws Exception {
+        WebSecurityConfiguration tenant = WebSecurityConfiguration.builder()
+                .frameOptions("tenant")
+                .putPaths("/docs", WebSecurityConfiguration.builder().contentTypeOptions("tenant-docs").build())
+                .cors(CorsConfiguration.builder().allowedOrigins("http://tenant").build())
+                .build();
+        WebSecurityConfiguration yamlConfig = WebSecurityConfiguration.builder()
+                .frameOptions("deny")
+                .putPaths("/widget", WebSecurityConfiguration.builder().frameOptions("sameorigin").build())
+                .putHosts("a.example.com", tenant)
+                .putHosts("b.example.com", tenant)
+                .build();
+        WebSecurityBundle bundle = new WebSecurityBundle();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(yamlConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        ArgumentCaptor<Filter> filterCaptor = ArgumentCaptor.forClass(Filter.class);
+        verify(this.environment.servlets()).addFilter(eq("JerseyAwareWebSecurityFilter"), filterCaptor.capture());
+        HostTable<PathPrefixTrie<WebSecurityHeaderInjector>> injectors =
+                ((JerseyAwareWebSecurityFilter) filterCaptor.getValue()).getHostInjectors();
+
+        assertEquals("deny", frameOptions(injectors.get("other.example.com").get("/index.html")));
+        assertEquals("tenant", frameOptions(injectors.get("a.example.com").get("/index.html")));
+        // the paths of the root still apply to the host, under the host's own settings
+        assertEquals("sameorigin", frameOptions(injectors.get("a.example.com").get("/widget")));
+        assertEquals("tenant-docs", injectors.get("a.example.com:8080").get("/docs").getHeaders(BrowserClass.MODERN)
+                .headers().get(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+        // hosts with the same configuration share their injectors
+        assertSame(injectors.get("a.example.com"), injectors.get("b.example.com"));
+        assertEquals(2, injectors.values().size());
+
+        // CORS is only enabled for the hosts, which still needs the filter
+        HostTable<PathPrefixTrie<CorsPolicy>> policies = captureFilter().getHostPolicies();
+        assertFalse(policies.get("other.example.com").get("/api").isEnabled());
+        assertTrue(policies.get("b.example.com").get("/api").isOriginAllowed("http://tenant"));
+    }
+
+    @Test
+    public void testCspDirectivesMerged() throws Exception {
+        WebSecurityConfiguration appDefaultConfig = WebSecurityConfiguration.builder()
+                .putCspDirectives("script-src", "'self' https://cdn.example.com")
+                .putCspDirectives("img-src", "'self' data:")
+                .build();
+        WebSecurityConfiguration yamlConfig = WebSecurityConfiguration.builder()
+                .putCspDirectives("img-src", "'self' https:")
+                .putPaths("/docs", WebSecurityConfiguration.builder()
+                        .putCspDirectives("script-src", "'self'")
+                        .build())
+                .putPaths("/widget", WebSecurityConfiguration.builder()
+                        .contentSecurityPolicy("default-src 'none'")
+                        .build())
+                .build();
+        WebSecurityBundle bundle = new WebSecurityBundle(appDefaultConfig);
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(yamlConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        ArgumentCaptor<Filter> filterCaptor = ArgumentCaptor.forClass(Filter.class);
+        verify(this.environment.servlets()).addFilter(eq("JerseyAwareWebSecurityFilter"), filterCaptor.capture());
+        PathPrefixTrie<WebSecurityHeaderInjector> injectors =
+                ((JerseyAwareWebSecurityFilter) filterCaptor.getValue()).getInjectors();
+
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY
+                + ";script-src 'self' https://cdn.example.com;img-src 'self' https:",
+                contentSecurityPolicy(injectors.get("/index.html")));
+        // a script-src equal to the default-src is left out
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY + ";img-src 'self' https:",
+                contentSecurityPolicy(injectors.get("/docs")));
+        // a policy replaces the directives it is applied on top of
+        assertEquals("default-src 'none'", contentSecurityPolicy(injectors.get("/widget")));
+    }
+
+    @Test
+    public void testConnectorHeaderInjection() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+        WebSecurityConfiguration webSecurityConfig = WebSecurityConfiguration.builder()
+                .headerInjection(HeaderInjectionMode.CONNECTOR)
+                .build();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(webSecurityConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        verify(this.environment.servlets(), never())
+                .addFilter(anyString(), isA(JerseyAwareWebSecurityFilter.class));
+        verify(this.environment.lifecycle()).addLifeCycleListener(any(LifeCycle.Listener.class));
+    }
+
+    @Test
+    public void testDispatcherTypes() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+        WebSecurityConfiguration webSecurityConfig = WebSecurityConfiguration.builder()
+                .dispatcherTypes("request, error")
+                .build();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(webSecurityConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        ArgumentCaptor<Filter> filterCaptor = ArgumentCaptor.forClass(Filter.class);
+        verify(this.environment.servlets()).addFilter(eq("JerseyAwareWebSecurityFilter"), filterCaptor.capture());
+        // deep stubs return the same registration for the same arguments
+        verify(this.environment.servlets().addFilter("JerseyAwareWebSecurityFilter", filterCaptor.getValue()))
+                .addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.ERROR), true, "/*");
+    }
+
+    @Test
+    public void testCspReports() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+        WebSecurityConfiguration webSecurityConfig = WebSecurityConfiguration.builder()
+                .cspReports(CspReportConfiguration.builder().path("/csp-reports").build())
+                .putPaths("/docs", WebSecurityConfiguration.builder().contentSecurityPolicy("default-src *").build())
+                .putPaths("/widget", WebSecurityConfiguration.builder().contentSecurityPolicy("").build())
+                .build();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(webSecurityConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        ArgumentCaptor<Servlet> servletCaptor = ArgumentCaptor.forClass(Servlet.class);
+        verify(this.environment.servlets()).addServlet(eq("CspReportServlet"), servletCaptor.capture());
+        verify(this.environment.servlets().addServlet("CspReportServlet", servletCaptor.getValue()))
+                .addMapping("/csp-reports");
+        verify(this.environment.lifecycle())
+                .manage(((CspReportServlet) servletCaptor.getValue()).getQueue());
+
+        ArgumentCaptor<Servlet> adminCaptor = ArgumentCaptor.forClass(Servlet.class);
+        verify(this.environment.admin()).addServlet(eq("csp-reports"), adminCaptor.capture());
+        assertTrue(adminCaptor.getValue() instanceof CspReportAdminServlet);
+        verify(this.environment.admin().addServlet("csp-reports", adminCaptor.getValue())).addMapping("/csp-reports");
+
+        WebSecurityConfiguration derived = bundle.getDerivedConfiguration();
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY + "; report-uri /csp-reports",
+                derived.contentSecurityPolicy().get());
+        assertEquals("default-src *; report-uri /csp-reports",
+                derived.paths().get("/docs").contentSecurityPolicy().get());
+        assertEquals("", derived.paths().get("/widget").contentSecurityPolicy().get());
+    }
+
+    @Test
+    public void testCspReportStore() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+        WebSecurityConfiguration webSecurityConfig = WebSecurityConfiguration.builder()
+                .cspReports(CspReportConfiguration.builder()
+                        .path("/csp-reports")
+                        .store(CspReportStoreConfiguration.builder().directory("/var/log/csp-reports").build())
+                        .build())
+                .build();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(webSecurityConfig);
+
+        bundle.run(this.appConfig, this.environment);
+
+        InOrder inOrder = inOrder(this.environment.lifecycle());
+        inOrder.verify(this.environment.lifecycle()).manage(isA(CspReportStore.class));
+        inOrder.verify(this.environment.lifecycle()).manage(isA(CspReportQueue.class));
+    }
+
+    @Test
+    public void testCspReportsCommandAdded() {
+        Bootstrap<?> bootstrap = mock(Bootstrap.class);
+
+        new WebSecurityBundle().initialize(bootstrap);
+
+        verify(bootstrap).addCommand(isA(CspReportsCommand.class));
+    }
+
+    @Test
+    public void testCspReportsNotRegisteredByDefault() throws Exception {
+        WebSecurityBundle bundle = new WebSecurityBundle();
+
+        when(this.appConfig.getWebSecurityConfiguration()).thenReturn(WebSecurityConfiguration.DEFAULT);
+
+        bundle.run(this.appConfig, this.environment);
+
+        verify(this.environment.servlets(), never()).addServlet(anyString(), any(Servlet.class));
+        verify(this.environment.admin(), never()).addServlet(anyString(), any(Servlet.class));
+        assertFalse(bundle.getDerivedConfiguration().contentSecurityPolicy().isPresent());
+    }
+
+    private static String frameOptions(WebSecurityHeaderInjector injector) {
+        return injector.getHeaders(BrowserClass.MODERN).headers().get(HttpHeaders.X_FRAME_OPTIONS);
+    }
+
+    private static String contentSecurityPolicy(WebSecurityHeaderInjector injector) {
+        return injector.getHeaders(BrowserClass.MODERN).headers().get(HttpHeaders.CONTENT_SECURITY_POLICY);
+    }
+
+    private CorsFilter captureFilter() {
+        ArgumentCaptor<Filter> filterCaptor = ArgumentCaptor.forClass(Filter.class);
+        verify(this.environment.servlets()).addFilter(eq("CorsFilter"), filterCaptor.capture());
+
+        return (CorsFilter) filterCaptor.getValue();
+    }
+
+    private CorsPolicy capturePolicy() {
+        return captureFilter().getPolicy();
     }
 }
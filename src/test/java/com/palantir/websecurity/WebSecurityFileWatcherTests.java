@@ -0,0 +1,99 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static org.junit.Assert.assertEquals;
+
+import com.palantir.websecurity.filters.PolicyReference;
+import com.palantir.websecurity.filters.PolicySnapshot;
+import com.palantir.websecurity.filters.UserAgentBrowserClassifier;
+import com.palantir.websecurity.filters.WebSecurityMetrics;
+import io.dropwizard.validation.BaseValidator;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link WebSecurityFileWatcher}.
+ */
+public final class WebSecurityFileWatcherTests {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final WebSecurityReloader reloader = new WebSecurityReloader(WebSecurityConfiguration.DEFAULT,
+            WebSecurityConfiguration.DEFAULT, BaseValidator.newValidator(), new UserAgentBrowserClassifier(),
+            WebSecurityMetrics.NOOP,
+            new PolicyReference(PolicySnapshot.DEFAULT), Optional.empty());
+
+    private Path file;
+    private WebSecurityFileWatcher watcher;
+
+    @Before
+    public void before() throws Exception {
+        this.file = this.folder.getRoot().toPath().resolve("config.yml");
+        write(this.file, "webSecurity:\n  frameOptions: first\n");
+
+        this.watcher = new WebSecurityFileWatcher(this.reloader, this.file);
+        this.watcher.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        this.watcher.stop();
+    }
+
+    @Test
+    public void testReloadsWhenWritten() throws Exception {
+        write(this.file, "webSecurity:\n  frameOptions: second\n");
+
+        awaitFrameOptions("second");
+    }
+
+    @Test
+    public void testReloadsWhenReplaced() throws Exception {
+        Path replacement = this.folder.newFile("replacement.yml").toPath();
+        write(replacement, "webSecurity:\n  frameOptions: replaced\n");
+        Files.move(replacement, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        awaitFrameOptions("replaced");
+    }
+
+    @Test
+    public void testKeepsWatchingAfterInvalidFiles() throws Exception {
+        write(this.file, "webSecurity:\n  cors:\n    allowedOrigins: http://origin\n");
+        write(this.file, "webSecurity:\n  frameOptions: [not, a, string]\n");
+        write(this.file, "webSecurity:\n  frameOptions: valid\n");
+
+        awaitFrameOptions("valid");
+    }
+
+    private void awaitFrameOptions(String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!Optional.of(expected).equals(frameOptions()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(Optional.of(expected), frameOptions());
+    }
+
+    private Optional<String> frameOptions() {
+        return Optional.ofNullable(this.reloader.getConfiguration().frameOptions().orNull());
+    }
+
+    private static void write(Path path, String contents) throws IOException {
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.filters.AssetDigests;
+import com.palantir.websecurity.filters.AssetIntegrityScanner;
+import com.palantir.websecurity.filters.BrowserClassifier;
+import com.palantir.websecurity.filters.CachingBrowserClassifier;
+import com.palantir.websecurity.filters.CorsFilter;
+import com.palantir.websecurity.filters.CorsPolicy;
+import com.palantir.websecurity.filters.FetchMetadataFilter;
+import com.palantir.websecurity.filters.FetchMetadataPolicy;
+import com.palantir.websecurity.filters.JerseyAwareWebSecurityFilter;
+import com.palantir.websecurity.filters.PathPrefixTrie;
+import com.palantir.websecurity.filters.PolicyReference;
+import com.palantir.websecurity.filters.UserAgentBrowserClassifier;
+import com.palantir.websecurity.filters.WebSecurityHeaderInjector;
+import com.palantir.websecurity.filters.WebSecurityHeadersFeature;
+import com.palantir.websecurity.filters.WebSecurityMetrics;
+import io.dropwizard.validation.BaseValidator;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link WebSecurityReloader}.
+ */
+public final class WebSecurityReloaderTests {
+
+    private static final FilterChain NO_OP_CHAIN = (request, response) -> { };
+    private static final String ORIGIN = "http://origin";
+
+    /**
+     * Two configurations where every value identifies the configuration, so a response with values from both is torn.
+     */
+    private static final WebSecurityConfiguration FIRST = generation("a", true);
+    private static final WebSecurityConfiguration SECOND = generation("b", false);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final BrowserClassifier classifier = new CachingBrowserClassifier(new UserAgentBrowserClassifier());
+    private final PolicyReference policies =
+            new PolicyReference(PathPolicies.compile(FIRST, this.classifier, WebSecurityMetrics.NOOP));
+    private final JerseyAwareWebSecurityFilter headerFilter =
+            new JerseyAwareWebSecurityFilter(this.policies, "/api/*", WebSecurityMetrics.NOOP);
+    private final CorsFilter corsFilter = new CorsFilter(this.policies, WebSecurityMetrics.NOOP);
+    private final WebSecurityHeadersFeature headersFeature =
+            new WebSecurityHeadersFeature(this.policies, this.classifier, WebSecurityMetrics.NOOP);
+    private final WebSecurityReloader reloader = new WebSecurityReloader(WebSecurityConfiguration.DEFAULT, FIRST,
+            BaseValidator.newValidator(), this.classifier, WebSecurityMetrics.NOOP, this.policies, Optional.empty());
+
+    @Test
+    public void testReloadReplacesPolicies() throws IOException, ServletException {
+        WebSecurityConfiguration derived = this.reloader.reload(SECOND);
+
+        assertEquals(SECOND, derived);
+        assertEquals(SECOND, this.reloader.getConfiguration());
+        assertEquals(SECOND, this.headersFeature.getConfiguration());
+
+        MockHttpServletResponse response = filter();
+        assertEquals("b", response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals("X-b", response.getHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS));
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+    }
+
+    @Test
+    public void testReloadUsesApplicationDefaults() {
+        WebSecurityConfiguration applicationDefaults = WebSecurityConfiguration.builder()
+                .contentTypeOptions("app")
+                .cors(CorsConfiguration.builder().allowedOrigins(ORIGIN).build())
+                .build();
+        WebSecurityReloader withDefaults = new WebSecurityReloader(applicationDefaults, applicationDefaults,
+                BaseValidator.newValidator(), new UserAgentBrowserClassifier(), WebSecurityMetrics.NOOP,
+                this.policies, Optional.empty());
+
+        WebSecurityConfiguration derived = withDefaults.reload(WebSecurityConfiguration.builder()
+                .frameOptions("yaml")
+                .build());
+
+        assertEquals("app", derived.contentTypeOptions().get());
+        assertEquals("yaml", derived.frameOptions().get());
+        assertTrue(this.corsFilter.getPolicy().isOriginAllowed(ORIGIN));
+    }
+
+    @Test
+    public void testReloadReplacesPathPolicies() throws IOException, ServletException {
+        this.reloader.reload(WebSecurityConfiguration.builder()
+                .from(FIRST)
+                .putPaths("/widget", WebSecurityConfiguration.builder()
+                        .frameOptions("b")
+                        .cors(CorsConfiguration.DISABLED)
+                        .build())
+                .build());
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/widget");
+        request.setServletPath("/widget");
+        request.addHeader(HttpHeaders.ORIGIN, ORIGIN);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.corsFilter.doFilter(request, response, NO_OP_CHAIN);
+        this.headerFilter.doFilter(request, response, NO_OP_CHAIN);
+
+        assertEquals("b", response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals("a", filter().getHeader(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testReloadReplacesHostPolicies() throws IOException, ServletException {
+        this.reloader.reload(WebSecurityConfiguration.builder()
+                .from(FIRST)
+                .putHosts("tenant.example.com", WebSecurityConfiguration.builder()
+                        .frameOptions("tenant")
+                        .putPaths("/widget", WebSecurityConfiguration.builder()
+                                .cors(CorsConfiguration.DISABLED)
+                                .build())
+                        .build())
+                .build());
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/widget");
+        request.setServletPath("/widget");
+        request.setServerName("Tenant.Example.com");
+        request.addHeader(HttpHeaders.ORIGIN, ORIGIN);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.corsFilter.doFilter(request, response, NO_OP_CHAIN);
+        this.headerFilter.doFilter(request, response, NO_OP_CHAIN);
+
+        assertEquals("tenant", response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals("a", filter().getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(ORIGIN, filter().getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void testRequestKeepsPoliciesAcrossReload() throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index.html");
+        request.addHeader(HttpHeaders.ORIGIN, ORIGIN);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        this.corsFilter.doFilter(request, response, NO_OP_CHAIN);
+        this.reloader.reload(SECOND);
+        this.headerFilter.doFilter(request, response, NO_OP_CHAIN);
+
+        assertEquals("X-a", response.getHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS));
+        assertEquals("a", response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals("b", filter().getHeader(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testInvalidConfigurationIsRejected() throws IOException, ServletException {
+        CorsPolicy policy = this.corsFilter.getPolicy();
+        WebSecurityHeaderInjector injector = this.headerFilter.getInjector();
+
+        assertRejected(WebSecurityConfiguration.builder()
+                .cors(CorsConfiguration.builder().allowedOrigins(ORIGIN).preflightMaxAge(-1).build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST)
+                .headerInjection(HeaderInjectionMode.FILTER)
+                .putPaths("/docs", WebSecurityConfiguration.builder()
+                        .headerInjection(HeaderInjectionMode.FILTER)
+                        .build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST).dispatcherTypes("FORWARD,ERROR").build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST).dispatcherTypes("REQUEST,REDIRECT").build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST).putCspDirectives("script src", "'self'").build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST)
+                .putPaths("/docs", WebSecurityConfiguration.builder()
+                        .putCspDirectives("script-src", "'self'; img-src *")
+                        .build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST)
+                .contentSecurityPolicy("default-src 'self', script-src 'self'")
+                .putCspDirectives("img-src", "*")
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST)
+                .putPaths("/docs", WebSecurityConfiguration.builder().headerBudget(0).build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST)
+                .putPaths("/docs", WebSecurityConfiguration.builder().addCspScriptHashes("sha384-abc").build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST)
+                .fetchMetadata(FetchMetadataConfiguration.builder().addAllowedDestinations("picture").build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST)
+                .assetIntegrity(AssetIntegrityConfiguration.builder().addDirectories("assets").threads(0).build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST).htmlNonces(true).build());
+        assertRejected(WebSecurityConfiguration.builder().from(FIRST)
+                .putHosts("tenant.example.com", WebSecurityConfiguration.builder().htmlNonces(true).build())
+                .build());
+
+        assertSame(policy, this.corsFilter.getPolicy());
+        assertSame(injector, this.headerFilter.getInjector());
+        assertSame(FIRST, this.reloader.getConfiguration());
+        assertSame(FIRST, this.headersFeature.getConfiguration());
+        assertEquals("a", filter().getHeader(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testHtmlNoncesAllowedForPaths() {
+        WebSecurityConfiguration derived = this.reloader.reload(WebSecurityConfiguration.builder().from(FIRST)
+                .putPaths("/assets", WebSecurityConfiguration.builder().htmlNonces(true).build())
+                .build());
+
+        assertTrue(derived.paths().get("/assets").htmlNonces().get());
+    }
+
+    @Test
+    public void testSettingsThatNeedARestartAreRejected() {
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND).metricsEnabled(true).build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND).reloadFile("other.yml").build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND).watchReloadFile(true).build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND).cors(CorsConfiguration.DISABLED).build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .headerInjection(HeaderInjectionMode.CONNECTOR)
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND).dispatcherTypes("REQUEST").build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .assetIntegrity(AssetIntegrityConfiguration.builder().addDirectories("assets").build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .cspReports(CspReportConfiguration.builder().path("/csp-reports").build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .putPaths("/docs", WebSecurityConfiguration.builder()
+                        .cspReports(CspReportConfiguration.DEFAULT)
+                        .build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .putPaths("/docs", WebSecurityConfiguration.builder().metricsEnabled(false).build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .putPaths("docs", WebSecurityConfiguration.DEFAULT)
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .putHosts("tenant.example.com", WebSecurityConfiguration.builder().metricsEnabled(false).build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .putHosts("tenant.example.com", WebSecurityConfiguration.builder()
+                        .putPaths("/docs", WebSecurityConfiguration.builder().reloadFile("other.yml").build())
+                        .build())
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .putHosts("tenant.example.com:8080", WebSecurityConfiguration.DEFAULT)
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .putHosts("tenant.example.com", WebSecurityConfiguration.DEFAULT)
+                .putHosts("Tenant.Example.com", WebSecurityConfiguration.DEFAULT)
+                .build());
+        assertRejected(WebSecurityConfiguration.builder().from(SECOND)
+                .putPaths("/docs", WebSecurityConfiguration.builder()
+                        .putHosts("tenant.example.com", WebSecurityConfiguration.DEFAULT)
+                        .build())
+                .build());
+
+        assertSame(FIRST, this.reloader.getConfiguration());
+    }
+
+    @Test
+    public void testReloadKeepsReportUri() {
+        CspReportConfiguration cspReports = CspReportConfiguration.builder().path("/csp-reports").build();
+        WebSecurityConfiguration withReports = WebSecurityConfiguration.builder().cspReports(cspReports).build();
+        WebSecurityReloader reporting = new WebSecurityReloader(WebSecurityConfiguration.DEFAULT, withReports,
+                BaseValidator.newValidator(), new UserAgentBrowserClassifier(), WebSecurityMetrics.NOOP,
+                this.policies, Optional.of("/app/csp-reports"));
+
+        WebSecurityConfiguration derived = reporting.reload(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("default-src 'self';")
+                .cspReports(cspReports)
+                .putPaths("/docs", WebSecurityConfiguration.builder()
+                        .contentSecurityPolicy("default-src *; report-uri /elsewhere")
+                        .build())
+                .putHosts("tenant.example.com", WebSecurityConfiguration.builder()
+                        .contentSecurityPolicy("default-src 'none'")
+                        .build())
+                .putHosts("directives.example.com", WebSecurityConfiguration.builder()
+                        .contentSecurityPolicy("")
+                        .putCspDirectives("default-src", "'self'")
+                        .build())
+                .build());
+
+        assertEquals("default-src 'self'; report-uri /app/csp-reports", derived.contentSecurityPolicy().get());
+        assertEquals("default-src *; report-uri /elsewhere",
+                derived.paths().get("/docs").contentSecurityPolicy().get());
+        assertEquals("default-src 'none'; report-uri /app/csp-reports",
+                derived.hosts().get("tenant.example.com").contentSecurityPolicy().get());
+        // a policy made up of directives gets the report-uri as a directive
+        assertEquals(ImmutableMap.of("default-src", "'self'", "report-uri", "/app/csp-reports"),
+                derived.hosts().get("directives.example.com").cspDirectives());
+        assertEquals("default-src 'self';report-uri /app/csp-reports",
+                this.headerFilter.getInjector().getHeaders(new MockHttpServletRequest())
+                        .headers().get(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testReloadReplacesFetchMetadataPolicies() {
+        WebSecurityConfiguration checked = WebSecurityConfiguration.builder()
+                .fetchMetadata(FetchMetadataConfiguration.DEFAULT)
+                .build();
+        PolicyReference checkedPolicies =
+                new PolicyReference(PathPolicies.compile(checked, this.classifier, WebSecurityMetrics.NOOP));
+        FetchMetadataFilter fetchMetadataFilter = new FetchMetadataFilter(checkedPolicies, WebSecurityMetrics.NOOP);
+        WebSecurityReloader checking = new WebSecurityReloader(WebSecurityConfiguration.DEFAULT, checked,
+                BaseValidator.newValidator(), this.classifier, WebSecurityMetrics.NOOP, checkedPolicies,
+                Optional.empty(), AssetDigests.EMPTY);
+
+        checking.reload(WebSecurityConfiguration.builder()
+                .fetchMetadata(FetchMetadataConfiguration.builder().addAllowedDestinations("image").build())
+                .putPaths("/embed", WebSecurityConfiguration.builder()
+                        .fetchMetadata(FetchMetadataConfiguration.DISABLED)
+                        .build())
+                .build());
+
+        PathPrefixTrie<FetchMetadataPolicy> pathPolicies = fetchMetadataFilter.getHostPolicies().defaultValue();
+        assertTrue(pathPolicies.rootValue().isAllowed("cross-site", "no-cors", "image", "GET"));
+        assertFalse(pathPolicies.rootValue().isAllowed("cross-site", "no-cors", "script", "GET"));
+        assertFalse(pathPolicies.get("/embed", null).isEnabled());
+
+        try {
+            checking.reload(WebSecurityConfiguration.DEFAULT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("fetchMetadata"));
+        }
+    }
+
+    @Test
+    public void testReloadKeepsAssetHashes() throws IOException, ServletException {
+        Path assets = this.folder.newFolder("assets").toPath();
+        Files.write(assets.resolve("index.html"), "<script>start();</script>".getBytes(StandardCharsets.UTF_8));
+        AssetDigests digests = AssetIntegrityScanner.builder().directory(assets).build().scan();
+        String hash = digests.scriptHashes().first();
+        WebSecurityReloader scanned = new WebSecurityReloader(WebSecurityConfiguration.DEFAULT,
+                WebSecurityConfiguration.DEFAULT, BaseValidator.newValidator(), new UserAgentBrowserClassifier(),
+                WebSecurityMetrics.NOOP, this.policies, Optional.empty(), digests);
+
+        WebSecurityConfiguration derived = scanned.reload(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("default-src 'self'; script-src 'self' 'unsafe-inline'")
+                .putPaths("/docs", WebSecurityConfiguration.builder().frameOptions("deny").build())
+                .build());
+
+        assertEquals(ImmutableSet.of(hash), derived.cspScriptHashes());
+        assertEquals("default-src 'self';script-src 'self' " + hash,
+                this.headerFilter.getInjector().getHeaders(new MockHttpServletRequest())
+                        .headers().get(HttpHeaders.CONTENT_SECURITY_POLICY));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/docs");
+        request.setServletPath("/docs");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.headerFilter.doFilter(request, response, NO_OP_CHAIN);
+        assertEquals("deny", response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals("default-src 'self';script-src 'self' " + hash,
+                response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testReloadFromFile() throws IOException {
+        Path file = this.folder.newFile("config.yml").toPath();
+        write(file, "server:\n"
+                + "  rootPath: /api/*\n"
+                + "webSecurity:\n"
+                + "  frameOptions: yaml\n"
+                + "  cors:\n"
+                + "    allowedOrigins: \"http://other\"\n");
+
+        WebSecurityConfiguration derived = this.reloader.reload(file);
+
+        assertEquals("yaml", derived.frameOptions().get());
+        assertTrue(this.corsFilter.getPolicy().isOriginAllowed("http://other"));
+        assertFalse(this.corsFilter.getPolicy().isOriginAllowed(ORIGIN));
+    }
+
+    @Test
+    public void testReloadFromFileWithoutSection() throws IOException {
+        Path file = this.folder.newFile("config.yml").toPath();
+        write(file, "server:\n  rootPath: /api/*\n");
+
+        WebSecurityReloader withoutCors = new WebSecurityReloader(WebSecurityConfiguration.DEFAULT,
+                WebSecurityConfiguration.DEFAULT, BaseValidator.newValidator(), new UserAgentBrowserClassifier(),
+                WebSecurityMetrics.NOOP, this.policies, Optional.empty());
+
+        assertEquals(WebSecurityConfiguration.DEFAULT, withoutCors.reload(file));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS,
+                this.headerFilter.getInjector().getHeaders(new MockHttpServletRequest())
+                        .headers().get(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test(timeout = 60000)
+    public void testReadersNeverSeeATornPolicy() throws Exception {
+        int readers = 4;
+        int reloads = 2000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        CountDownLatch started = new CountDownLatch(readers);
+        AtomicBoolean reloading = new AtomicBoolean(true);
+        AtomicLong firstSeen = new AtomicLong();
+        AtomicLong secondSeen = new AtomicLong();
+
+        try {
+            Future<?>[] results = new Future<?>[readers];
+            for (int reader = 0; reader < readers; reader++) {
+                results[reader] = executor.submit(() -> {
+                    started.countDown();
+                    while (reloading.get()) {
+                        String generation = readGeneration();
+                        (generation.equals("a") ? firstSeen : secondSeen).incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+
+            started.await();
+            for (int reload = 0; reload < reloads; reload++) {
+                this.reloader.reload(reload % 2 == 0 ? SECOND : FIRST);
+            }
+            reloading.set(false);
+
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertTrue(firstSeen.get() > 0);
+        assertTrue(secondSeen.get() > 0);
+    }
+
+    /**
+     * Filters a request and returns the generation of its headers, failing if either filter added headers from more
+     * than one generation or the filters added headers from different generations.
+     */
+    private String readGeneration() throws IOException, ServletException {
+        MockHttpServletResponse response = filter();
+
+        String frameOptions = response.getHeader(HttpHeaders.X_FRAME_OPTIONS);
+        String contentSecurityPolicy = response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY);
+        if (!contentSecurityPolicy.endsWith(frameOptions)) {
+            fail("torn headers: " + contentSecurityPolicy + " and " + frameOptions);
+        }
+
+        String exposedHeaders = response.getHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS);
+        boolean allowCredentials = response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS) != null;
+        if (allowCredentials != exposedHeaders.equals("X-a")) {
+            fail("torn CORS headers: " + exposedHeaders + " with credentials " + allowCredentials);
+        }
+        if (!exposedHeaders.equals("X-" + frameOptions)) {
+            fail("filters used different generations: " + exposedHeaders + " and " + frameOptions);
+        }
+
+        return frameOptions;
+    }
+
+    private MockHttpServletResponse filter() throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index.html");
+        request.addHeader(HttpHeaders.ORIGIN, ORIGIN);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        this.corsFilter.doFilter(request, response, NO_OP_CHAIN);
+        this.headerFilter.doFilter(request, response, NO_OP_CHAIN);
+        return response;
+    }
+
+    private void assertRejected(WebSecurityConfiguration configuration) {
+        try {
+            this.reloader.reload(configuration);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static WebSecurityConfiguration generation(String name, boolean allowCredentials) {
+        return WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("default-src 'self' " + name)
+                .frameOptions(name)
+                .cors(CorsConfiguration.builder()
+                        .allowedOrigins(ORIGIN)
+                        .allowCredentials(allowCredentials)
+                        .exposedHeaders("X-" + name)
+                        .build())
+                .build();
+    }
+
+    private static void write(Path file, String contents) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
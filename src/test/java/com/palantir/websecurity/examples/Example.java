@@ -7,9 +7,11 @@ package com.palantir.websecurity.examples;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.annotations.VisibleForTesting;
 import com.palantir.websecurity.CorsConfiguration;
+import com.palantir.websecurity.NoWebSecurityHeaders;
 import com.palantir.websecurity.WebSecurityBundle;
 import com.palantir.websecurity.WebSecurityConfigurable;
 import com.palantir.websecurity.WebSecurityConfiguration;
+import com.palantir.websecurity.WebSecurityHeaders;
 import io.dropwizard.Application;
 import io.dropwizard.Configuration;
 import io.dropwizard.assets.AssetsBundle;
@@ -54,6 +56,36 @@ public final class Example {
         }
     }
 
+    /**
+     * Jersey resource whose responses get the App Security headers, used in both the Web + REST example applications.
+     */
+    @Path("secured")
+    @WebSecurityHeaders
+    public static final class ExampleSecuredResource {
+
+        @GET
+        @Produces(MediaType.TEXT_HTML)
+        public String secured() {
+            return EXAMPLES_RESOURCE_RESPONSE;
+        }
+
+        @GET
+        @Path("frame")
+        @Produces(MediaType.TEXT_HTML)
+        @WebSecurityHeaders(frameOptions = "deny")
+        public String frame() {
+            return EXAMPLES_RESOURCE_RESPONSE;
+        }
+
+        @GET
+        @Path("unsecured")
+        @Produces(MediaType.TEXT_HTML)
+        @NoWebSecurityHeaders
+        public String unsecured() {
+            return EXAMPLES_RESOURCE_RESPONSE;
+        }
+    }
+
     /**
      * Configuration class used in both the Web + REST example applications.
      */
@@ -101,6 +133,7 @@ public final class Example {
         @Override
         public void run(ExampleConfiguration configuration, Environment environment) throws Exception {
             environment.jersey().register(new ExampleResource());
+            environment.jersey().register(new ExampleSecuredResource());
         }
 
         @VisibleForTesting
@@ -68,4 +68,39 @@ public final class ExampleRestTests {
         assertNull(response.getHeaderString(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
         assertNull(response.getHeaderString(HttpHeaders.X_FRAME_OPTIONS));
     }
+
+    @Test
+    public void testWebSecurityHeadersAppliedToAnnotatedApi() {
+        Response response = client
+                .target(String.format("http://localhost:%d/example-context/secured", RULE.getLocalPort())).request()
+                .get();
+
+        assertEquals(200, response.getStatus());
+        assertEquals(Example.CSP_FROM_APP, response.getHeaderString(HttpHeaders.CONTENT_SECURITY_POLICY));
+        assertEquals(Example.CTO_FROM_YML, response.getHeaderString(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+        assertNull(response.getHeaderString(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testAnnotatedMethodOverridesHeaders() {
+        Response response = client
+                .target(String.format("http://localhost:%d/example-context/secured/frame", RULE.getLocalPort()))
+                .request()
+                .get();
+
+        assertEquals("deny", response.getHeaderString(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(Example.CTO_FROM_YML, response.getHeaderString(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+    }
+
+    @Test
+    public void testWebSecurityHeadersNotAppliedToExemptApi() {
+        Response response = client
+                .target(String.format("http://localhost:%d/example-context/secured/unsecured", RULE.getLocalPort()))
+                .request()
+                .get();
+
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeaderString(HttpHeaders.CONTENT_SECURITY_POLICY));
+        assertNull(response.getHeaderString(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+    }
 }
@@ -0,0 +1,207 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link AssetIntegrityScanner}.
+ */
+public final class AssetIntegrityScannerTests {
+
+    private static final String SCRIPT = "alert('Hello, world.');";
+    private static final String SCRIPT_DIGEST =
+            "sha384-H8BRh8j48O9oYatfu5AZzq6A9RINhZO5H16dQZngK7T62em8MUt1FLm52t+eX6xO";
+    private static final String STYLE = "a {}\n";
+    private static final String STYLE_DIGEST =
+            "sha384-VqTncJnMTjgpguW7gfd6DsoZsDKP1T/cH3sZijNcAL6Df+OLW1LdZ6iJJeD2wrbM";
+    private static final String MODULE_DIGEST =
+            "sha384-KlhFi9myr7PcE7s8I9PrXwQqrIrJ5jBx2maHjwpAfZxZjLRX5wcWNzIKCKDRkne1";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path assets;
+
+    @Before
+    public void before() throws IOException {
+        this.assets = this.folder.newFolder("assets").toPath();
+    }
+
+    @Test
+    public void testScriptsAndStylesHashed() throws IOException {
+        write("js/app.js", SCRIPT);
+        write("css/site.css", STYLE);
+        write("README.txt", SCRIPT);
+
+        AssetDigests digests = AssetIntegrityScanner.builder().directory(this.assets).build().scan();
+
+        assertEquals(ImmutableMap.of("css/site.css", STYLE_DIGEST, "js/app.js", SCRIPT_DIGEST), digests.integrity());
+        assertEquals(SCRIPT_DIGEST, digests.integrity("js/app.js"));
+        assertNull(digests.integrity("README.txt"));
+        assertTrue(digests.scriptHashes().isEmpty());
+        assertEquals(2, digests.hashedAssets());
+    }
+
+    @Test
+    public void testInlineBlocksHashed() throws IOException {
+        write("index.html", "<html><head><script>" + SCRIPT + "</script><SCRIPT src=\"app.js\"></SCRIPT>"
+                + "<style media=\"screen\">a {}\r\n</style></head>"
+                + "<body><script type=\"module\">var a = 1;\r\nvar b = 2;\r</script></body></html>");
+
+        AssetDigests digests = AssetIntegrityScanner.builder().directory(this.assets).build().scan();
+
+        assertEquals(ImmutableSet.of("'" + SCRIPT_DIGEST + "'", "'" + MODULE_DIGEST + "'"), digests.scriptHashes());
+        assertEquals(ImmutableSet.of("'" + STYLE_DIGEST + "'"), digests.styleHashes());
+        assertTrue(digests.integrity().isEmpty());
+    }
+
+    @Test
+    public void testIndexSkipsUnchangedAssets() throws IOException {
+        Path script = write("js/app.js", SCRIPT);
+        write("index.html", "<style>" + STYLE + "</style>");
+        AssetIntegrityScanner scanner = AssetIntegrityScanner.builder()
+                .directory(this.assets)
+                .index(this.folder.getRoot().toPath().resolve("cache/assets.index"))
+                .threads(2)
+                .build();
+
+        AssetDigests cold = scanner.scan();
+        AssetDigests warm = scanner.scan();
+
+        assertEquals(2, cold.hashedAssets());
+        assertEquals(0, warm.hashedAssets());
+        assertEquals(cold.integrity(), warm.integrity());
+        assertEquals(cold.styleHashes(), warm.styleHashes());
+
+        Files.write(script, "alert(1);".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(script, FileTime.fromMillis(0));
+        AssetDigests changed = scanner.scan();
+
+        assertEquals(1, changed.hashedAssets());
+        assertEquals(digest("alert(1);"), changed.integrity("js/app.js"));
+    }
+
+    @Test
+    public void testInvalidIndexIgnored() throws IOException {
+        write("js/app.js", SCRIPT);
+        Path index = this.folder.newFile("assets.index").toPath();
+        Files.write(index, "not an index\n".getBytes(StandardCharsets.UTF_8));
+
+        AssetDigests digests = AssetIntegrityScanner.builder().directory(this.assets).index(index).build().scan();
+
+        assertEquals(SCRIPT_DIGEST, digests.integrity("js/app.js"));
+        assertEquals(1, AssetIntegrityScanner.readIndex(index).size());
+    }
+
+    @Test
+    public void testClasspathRootsScanned() throws IOException {
+        Path jar = this.folder.getRoot().toPath().resolve("assets.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            // like the jars of builds, with entries for the directories
+            putEntry(out, "assets/", "");
+            putEntry(out, "assets/js/", "");
+            putEntry(out, "assets/js/app.js", SCRIPT);
+            putEntry(out, "assets/index.html", "<style>" + STYLE + "</style>");
+            putEntry(out, "other/js/other.js", STYLE);
+        }
+        write("assets/css/site.css", STYLE);
+
+        URLClassLoader classLoader = new URLClassLoader(
+                new URL[] {jar.toUri().toURL(), this.assets.toUri().toURL()}, null);
+        AssetDigests digests = AssetIntegrityScanner.builder()
+                .classpathRoot("/assets/")
+                .classLoader(classLoader)
+                .build()
+                .scan();
+
+        assertEquals(ImmutableMap.of("css/site.css", STYLE_DIGEST, "js/app.js", SCRIPT_DIGEST), digests.integrity());
+        assertEquals(ImmutableSet.of("'" + STYLE_DIGEST + "'"), digests.styleHashes());
+    }
+
+    @Test
+    public void testManifestWritten() throws IOException {
+        write("js/app.js", SCRIPT);
+        Path manifest = this.folder.getRoot().toPath().resolve("sri/manifest.json");
+
+        AssetIntegrityScanner.builder().directory(this.assets).build().scan().writeManifest(manifest);
+
+        assertEquals("{\n  \"js/app.js\" : \"" + SCRIPT_DIGEST + "\"\n}",
+                new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8).replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void testManyAssetsRescannedFromIndex() throws IOException {
+        for (int i = 0; i < 2000; i++) {
+            write("js/" + (i % 20) + "/module" + i + ".js", "export const value = " + i + ";");
+        }
+        AssetIntegrityScanner scanner = AssetIntegrityScanner.builder()
+                .directory(this.assets)
+                .index(this.folder.getRoot().toPath().resolve("assets.index"))
+                .build();
+
+        assertEquals(2000, scanner.scan().hashedAssets());
+
+        AssetDigests warm = scanner.scan();
+        assertEquals(2000, warm.assets());
+        assertEquals(0, warm.hashedAssets());
+        assertEquals(digest("export const value = 7;"), warm.integrity("js/7/module7.js"));
+    }
+
+    @Test
+    public void testMissingDirectorySkipped() throws IOException {
+        AssetDigests digests = AssetIntegrityScanner.builder()
+                .directory(this.assets.resolve("missing"))
+                .classpathRoot("/missing")
+                .build()
+                .scan();
+
+        assertEquals(0, digests.assets());
+    }
+
+    private Path write(String path, String contents) throws IOException {
+        Path file = this.assets.resolve(path);
+        Files.createDirectories(file.getParent());
+        return Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void putEntry(JarOutputStream out, String name, String contents) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(contents.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+
+    private static String digest(String contents) throws IOException {
+        Path file = Files.createTempFile("asset", ".js");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(contents.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            return AssetIntegrityScanner.digest(new AssetIntegrityScanner.Asset("asset.js", file.toString(),
+                    AssetIntegrityScanner.Kind.SCRIPT, 0, 0, file, null, null)).integrity();
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
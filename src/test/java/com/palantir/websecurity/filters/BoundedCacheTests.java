@@ -0,0 +1,67 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.cache.CacheStats;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BoundedCache}.
+ */
+public final class BoundedCacheTests {
+
+    private final BoundedCache<String, String> cache = new BoundedCache<>(3);
+
+    @Test
+    public void testGetComputesOnce() {
+        assertEquals("A", cache.get("a", String::toUpperCase));
+        assertEquals("A", cache.get("a", key -> "unexpected"));
+
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+    }
+
+    @Test
+    public void testBoundedEvictsUnreferencedEntries() {
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+
+        // mark everything but b as recently used
+        cache.getIfPresent("a");
+        cache.getIfPresent("c");
+
+        cache.put("d", "d");
+
+        assertEquals(3, cache.size());
+        assertNull(cache.getIfPresent("b"));
+        assertEquals("a", cache.getIfPresent("a"));
+        assertEquals(1, cache.stats().evictionCount());
+    }
+
+    @Test
+    public void testBoundedWhenAllEntriesReferenced() {
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, "value");
+            cache.getIfPresent("key" + i);
+        }
+
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        cache.put("a", "a");
+
+        cache.invalidateAll();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.getIfPresent("a"));
+    }
+}
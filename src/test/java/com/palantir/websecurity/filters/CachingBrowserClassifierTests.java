@@ -0,0 +1,57 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link CachingBrowserClassifier}.
+ */
+public final class CachingBrowserClassifierTests {
+
+    private static final String USER_AGENT = "user-agent";
+
+    private final BrowserClassifier delegate = mock(BrowserClassifier.class);
+
+    @Test
+    public void testClassifiesOncePerUserAgent() {
+        when(delegate.classify(USER_AGENT)).thenReturn(BrowserClass.MODERN);
+        CachingBrowserClassifier classifier = new CachingBrowserClassifier(delegate);
+
+        assertEquals(BrowserClass.MODERN, classifier.classify(USER_AGENT));
+        assertEquals(BrowserClass.MODERN, classifier.classify(USER_AGENT));
+
+        verify(delegate, times(1)).classify(USER_AGENT);
+        assertEquals(1, classifier.stats().hitCount());
+    }
+
+    @Test
+    public void testMissingUserAgentNotCached() {
+        when(delegate.classify(null)).thenReturn(BrowserClass.NON_BROWSER);
+        CachingBrowserClassifier classifier = new CachingBrowserClassifier(delegate);
+
+        assertEquals(BrowserClass.NON_BROWSER, classifier.classify(null));
+        assertEquals(0, classifier.size());
+    }
+
+    @Test
+    public void testBounded() {
+        CachingBrowserClassifier classifier = new CachingBrowserClassifier(new UserAgentBrowserClassifier(), 10);
+
+        for (int i = 0; i < 1000; i++) {
+            classifier.classify("agent-" + i);
+        }
+
+        assertTrue(classifier.size() <= 10);
+        assertTrue(classifier.stats().evictionCount() >= 990);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ContentSecurityPolicy}.
+ */
+public final class ContentSecurityPolicyTests {
+
+    @Test
+    public void testParse() {
+        ContentSecurityPolicy policy = ContentSecurityPolicy.parse(
+                " Default-Src 'self'  'self' ;script-src\t'nonce-{nonce}' https://CDN.example.com/Path;; "
+                        + "upgrade-insecure-requests; default-src *; in_valid 'self'");
+
+        assertEquals(ImmutableSet.of("'self'"), policy.get("default-src"));
+        assertEquals(ImmutableSet.of("'nonce-{nonce}'", "https://CDN.example.com/Path"), policy.get("SCRIPT-SRC"));
+        assertEquals(ImmutableSet.of(), policy.get("upgrade-insecure-requests"));
+        assertNull(policy.get("in_valid"));
+        assertEquals("default-src 'self';script-src 'nonce-{nonce}' https://CDN.example.com/Path;"
+                + "upgrade-insecure-requests", policy.toString());
+        assertTrue(ContentSecurityPolicy.parse(" ; ").isEmpty());
+        assertEquals(ContentSecurityPolicy.EMPTY, ContentSecurityPolicy.parse(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSeveralPoliciesRejected() {
+        ContentSecurityPolicy.parse("default-src 'self', script-src 'self'");
+    }
+
+    @Test
+    public void testMerge() {
+        ContentSecurityPolicy defaults = ContentSecurityPolicy.builder()
+                .directive("default-src", "'self'")
+                .directive("img-src", "'self'", "data:")
+                .build();
+        ContentSecurityPolicy overrides = ContentSecurityPolicy.builder()
+                .directive("frame-ancestors", "'none'")
+                .directive("IMG-SRC", "https:")
+                .build();
+
+        assertEquals("default-src 'self';img-src https:;frame-ancestors 'none'",
+                defaults.merge(overrides).toString());
+        assertEquals(defaults, defaults.merge(ContentSecurityPolicy.EMPTY));
+    }
+
+    @Test
+    public void testMinifyDropsDirectivesEqualToTheirFallback() {
+        ContentSecurityPolicy policy = ContentSecurityPolicy.parse("default-src 'self' https://cdn.example.com; "
+                + "script-src https://cdn.example.com 'self'; script-src-elem 'self' https://cdn.example.com; "
+                + "style-src 'self'; style-src-attr 'self'; worker-src 'self'; frame-ancestors 'self'");
+
+        // script-src-elem falls back to script-src, worker-src to script-src, never to frame-ancestors
+        assertEquals("default-src 'self' https://cdn.example.com;style-src 'self';worker-src 'self';"
+                + "frame-ancestors 'self';frame-src 'none'",
+                policy.merge(ContentSecurityPolicy.builder()
+                        .directive("frame-src", "'none'")
+                        .directive("worker-src", "'self'")
+                        .build())
+                        .minify().toString());
+        // only the nearest fallback counts
+        assertEquals("default-src 'self';script-src 'none';script-src-elem 'self'",
+                ContentSecurityPolicy.parse("default-src 'self'; script-src 'none'; script-src-elem 'self'").minify()
+                        .toString());
+    }
+
+    @Test
+    public void testMinifyKeepsDirectivesOthersFallBackThrough() {
+        // without child-src, worker-src would fall back to script-src and allow workers from the CDN
+        assertEquals("default-src 'self';script-src 'self' https://cdn.example.com;worker-src 'self'",
+                ContentSecurityPolicy.parse("default-src 'self'; script-src 'self' https://cdn.example.com; "
+                        + "child-src 'self'; worker-src 'self'").minify().toString());
+        // and without worker-src, it would fall back to child-src
+        assertEquals("default-src 'self';script-src 'none';child-src 'self'",
+                ContentSecurityPolicy.parse("default-src 'self'; script-src 'none'; worker-src 'self'; "
+                        + "child-src 'self'").minify().toString());
+    }
+
+    @Test
+    public void testMinifyDropsSourcesCoveredByTheirScheme() {
+        ContentSecurityPolicy policy = ContentSecurityPolicy.parse(
+                "img-src https://a.example.com HTTPS: data: https://b.example.com http://c.example.com 'self'");
+
+        assertEquals("img-src HTTPS: data: http://c.example.com 'self'", policy.minify().toString());
+    }
+
+    @Test
+    public void testDefaultPolicyIsMinified() {
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY,
+                ContentSecurityPolicy.parse(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY).minify()
+                        .toString());
+    }
+
+    @Test
+    public void testSentPolicy() {
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY + ";img-src *",
+                WebSecurityHeaderInjector.contentSecurityPolicy(WebSecurityConfiguration.builder()
+                        .putCspDirectives("img-src", "*")
+                        .build()));
+        assertEquals("script-src 'self';upgrade-insecure-requests",
+                WebSecurityHeaderInjector.contentSecurityPolicy(WebSecurityConfiguration.builder()
+                        .contentSecurityPolicy("")
+                        .putCspDirectives("Script-Src", " 'self' ")
+                        .putCspDirectives("upgrade-insecure-requests", "")
+                        .build()));
+        // several policies can't be merged and are sent as configured
+        assertEquals("default-src 'self', script-src 'self'",
+                WebSecurityHeaderInjector.contentSecurityPolicy(WebSecurityConfiguration.builder()
+                        .contentSecurityPolicy("default-src 'self', script-src 'self'")
+                        .build()));
+        assertEquals("", WebSecurityHeaderInjector.contentSecurityPolicy(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("")
+                .build()));
+    }
+
+    @Test
+    public void testWithHashes() {
+        ContentSecurityPolicy policy = ContentSecurityPolicy.parse(
+                "default-src 'self' 'unsafe-inline'; style-src 'self'; img-src 'none'");
+
+        assertEquals("default-src 'self' 'unsafe-inline';style-src 'self' 'sha384-b';img-src 'none';"
+                        + "script-src 'self' 'sha384-a'",
+                policy.withHashes("script-src", ImmutableList.of("'sha384-a'"))
+                        .withHashes("style-src", ImmutableList.of("'sha384-b'"))
+                        .toString());
+        assertEquals(policy, policy.withHashes("img-src", ImmutableList.of("'sha384-a'")));
+        assertEquals(policy, policy.withHashes("script-src", ImmutableList.of()));
+        assertEquals(ContentSecurityPolicy.EMPTY,
+                ContentSecurityPolicy.EMPTY.withHashes("script-src", ImmutableList.of("'sha384-a'")));
+    }
+
+    @Test
+    public void testSentPolicyWithHashes() {
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY + ";script-src 'self' 'sha256-a='",
+                WebSecurityHeaderInjector.contentSecurityPolicy(WebSecurityConfiguration.builder()
+                        .addCspScriptHashes("'sha256-a='")
+                        .build()));
+    }
+
+    @Test
+    public void testValidation() {
+        assertTrue(ContentSecurityPolicy.isDirectiveName("Script-Src"));
+        assertFalse(ContentSecurityPolicy.isDirectiveName(""));
+        assertFalse(ContentSecurityPolicy.isDirectiveName("script src"));
+        assertTrue(ContentSecurityPolicy.isDirectiveValues("'self' https:"));
+        assertFalse(ContentSecurityPolicy.isDirectiveValues("'self'; img-src *"));
+        assertFalse(ContentSecurityPolicy.isDirectiveValues("'self', img-src *"));
+        assertTrue(ContentSecurityPolicy.isHashSource("'sha384-oqVuAfXRKap7fdgcCY5uykM6+R9GqQ8K/uxy9rx7HNQ='"));
+        assertFalse(ContentSecurityPolicy.isHashSource("sha384-abc"));
+        assertFalse(ContentSecurityPolicy.isHashSource("'sha1-abc'"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidValueRejected() {
+        ContentSecurityPolicy.builder().directive("img-src", "'self' data:");
+    }
+}
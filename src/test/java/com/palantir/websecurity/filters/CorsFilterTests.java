@@ -0,0 +1,349 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.CorsConfiguration;
+import java.io.IOException;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link CorsFilter}.
+ */
+public final class CorsFilterTests {
+
+    private static final CorsConfiguration CONFIG = CorsConfiguration.builder()
+            .allowedOrigins("http://origin,https://*.example.com")
+            .build();
+
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private final FilterChain chain = mock(FilterChain.class);
+
+    @Test
+    public void testNoOriginHeaders() throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api");
+
+        new CorsFilter(CONFIG).doFilter(request, response, chain);
+
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void testAllowedOrigin() throws IOException, ServletException {
+        MockHttpServletRequest request = request("GET", "http://origin");
+
+        new CorsFilter(CONFIG).doFilter(request, response, chain);
+
+        assertEquals("http://origin", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals(HttpHeaders.ORIGIN, response.getHeader(HttpHeaders.VARY));
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS));
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void testAllowedWildcardOrigin() throws IOException, ServletException {
+        MockHttpServletRequest request = request("POST", "https://app.example.com");
+
+        new CorsFilter(CONFIG).doFilter(request, response, chain);
+
+        assertEquals("https://app.example.com", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void testRejectedOrigin() throws IOException, ServletException {
+        MockHttpServletRequest request = request("GET", "https://example.org");
+
+        new CorsFilter(CONFIG).doFilter(request, response, chain);
+
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertNull(response.getHeader(HttpHeaders.VARY));
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void testAnyOriginHasNoVary() throws IOException, ServletException {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .allowedOrigins("*")
+                .allowCredentials(true)
+                .exposedHeaders("X-Total,X-Next")
+                .build();
+        MockHttpServletRequest request = request("GET", "https://example.org");
+
+        new CorsFilter(config).doFilter(request, response, chain);
+
+        assertEquals("https://example.org", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals("true", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS));
+        assertEquals("X-Total,X-Next", response.getHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS));
+        assertNull(response.getHeader(HttpHeaders.VARY));
+    }
+
+    @Test
+    public void testAllowedPreflight() throws IOException, ServletException {
+        MockHttpServletRequest request = request("OPTIONS", "http://origin");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "PUT");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, "authorization, Content-Type");
+
+        new CorsFilter(CONFIG).doFilter(request, response, chain);
+
+        assertEquals("http://origin", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals(HttpHeaders.ORIGIN, response.getHeader(HttpHeaders.VARY));
+        assertEquals("1800", response.getHeader(HttpHeaders.ACCESS_CONTROL_MAX_AGE));
+        assertEquals("DELETE,GET,HEAD,POST,PUT", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS));
+        assertEquals(
+                "Accept,Authorization,Content-Type,Origin,X-Requested-With",
+                response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void testPreflightWithDisallowedMethod() throws IOException, ServletException {
+        MockHttpServletRequest request = request("OPTIONS", "http://origin");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "PATCH");
+
+        new CorsFilter(CONFIG).doFilter(request, response, chain);
+
+        assertEquals(ImmutableList.of(), ImmutableList.copyOf(response.getHeaderNames()));
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void testPreflightWithDisallowedHeader() throws IOException, ServletException {
+        MockHttpServletRequest request = request("OPTIONS", "http://origin");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "GET");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, "Authorization,X-Custom");
+
+        new CorsFilter(CONFIG).doFilter(request, response, chain);
+
+        assertEquals(ImmutableList.of(), ImmutableList.copyOf(response.getHeaderNames()));
+    }
+
+    @Test
+    public void testPreflightWithAnyHeaders() throws IOException, ServletException {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .allowedHeaders("*")
+                .build();
+        MockHttpServletRequest request = request("OPTIONS", "http://origin");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "GET");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS, " X-Custom , X-Other");
+
+        new CorsFilter(config).doFilter(request, response, chain);
+
+        assertEquals("X-Custom,X-Other", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+    }
+
+    @Test
+    public void testPreflightNotChained() throws IOException, ServletException {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .chainPreflight(false)
+                .build();
+        MockHttpServletRequest request = request("OPTIONS", "http://origin");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "GET");
+
+        new CorsFilter(config).doFilter(request, response, chain);
+
+        assertEquals("http://origin", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        verify(chain, never()).doFilter(request, response);
+    }
+
+    @Test
+    public void testAnswerPreflight() throws IOException, ServletException {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .answerPreflight(true)
+                .build();
+        MockHttpServletRequest request = request("OPTIONS", "http://origin");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "GET");
+
+        new CorsFilter(config).doFilter(request, response, chain);
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals("http://origin", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals("1800", response.getHeader(HttpHeaders.ACCESS_CONTROL_MAX_AGE));
+        verify(chain, never()).doFilter(request, response);
+    }
+
+    @Test
+    public void testAnswerPreflightChainsDeniedPreflights() throws IOException, ServletException {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .answerPreflight(true)
+                .build();
+        MockHttpServletRequest request = request("OPTIONS", "http://origin");
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "PATCH");
+
+        new CorsFilter(config).doFilter(request, response, chain);
+
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void testPreflightRateLimit() throws IOException, ServletException {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .allowedOrigins("http://origin,http://other")
+                .preflightRateLimit(1)
+                .build();
+        CorsFilter filter = new CorsFilter(config);
+
+        MockHttpServletResponse first = preflight(filter, "http://origin");
+        MockHttpServletResponse second = preflight(filter, "http://origin");
+        MockHttpServletResponse other = preflight(filter, "http://other");
+
+        assertEquals("http://origin", first.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals(429, second.getStatus());
+        assertEquals("1", second.getHeader(HttpHeaders.RETRY_AFTER));
+        assertNull(second.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals("http://other", other.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        verify(chain, times(2)).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+    }
+
+    @Test
+    public void testRejectedPreflightRateLimit() throws IOException, ServletException {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .rejectedPreflightRateLimit(1)
+                .build();
+        CorsFilter filter = new CorsFilter(config);
+
+        assertEquals(HttpServletResponse.SC_OK, preflight(filter, "http://evil").getStatus());
+        assertEquals(429, preflight(filter, "http://evil").getStatus());
+        assertEquals(429, preflight(filter, "http://evil2").getStatus());
+        assertEquals("http://origin",
+                preflight(filter, "http://origin").getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+
+        // requests that are not preflights are never limited, since same-origin requests can have the header too
+        MockHttpServletRequest request = request("POST", "http://evil");
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        verify(chain).doFilter(eq(request), any(ServletResponse.class));
+    }
+
+    @Test
+    public void testPreflightRateLimitWithAnyOrigin() throws IOException, ServletException {
+        CorsConfiguration config = CorsConfiguration.builder()
+                .allowedOrigins("*,http://origin")
+                .preflightRateLimit(1)
+                .rejectedPreflightRateLimit(1)
+                .build();
+        CorsFilter filter = new CorsFilter(config);
+
+        // made-up origins share one limit rather than each getting a fresh one
+        assertEquals("http://made-up0",
+                preflight(filter, "http://made-up0").getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        for (int i = 1; i < 100; i++) {
+            assertEquals(429, preflight(filter, "http://made-up" + i).getStatus());
+        }
+        assertEquals("http://origin",
+                preflight(filter, "http://origin").getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals(429, preflight(filter, "http://origin").getStatus());
+    }
+
+    @Test
+    public void testWebSocketUpgradeIgnored() throws IOException, ServletException {
+        MockHttpServletRequest request = request("GET", "http://origin");
+        request.addHeader(HttpHeaders.CONNECTION, "Upgrade");
+        request.addHeader(HttpHeaders.UPGRADE, "websocket");
+
+        new CorsFilter(CONFIG).doFilter(request, response, chain);
+
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void testSetConfigurationReplacesVerdicts() throws IOException, ServletException {
+        CorsFilter filter = new CorsFilter(CONFIG);
+        filter.doFilter(request("GET", "http://origin"), response, chain);
+        assertEquals("http://origin", response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+
+        filter.setConfiguration(CorsConfiguration.builder().allowedOrigins("http://other").build());
+        MockHttpServletResponse newResponse = new MockHttpServletResponse();
+        filter.doFilter(request("GET", "http://origin"), newResponse, chain);
+
+        assertNull(newResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals(0, filter.getPolicy().originCacheStats().hitCount());
+    }
+
+    @Test
+    public void testPathPolicies() throws IOException, ServletException {
+        PathPrefixTrie<CorsPolicy> policies = PathPrefixTrie.builder(CorsPolicy.DISABLED)
+                .put("/api", CorsPolicy.of(CONFIG))
+                .put("/api/public", CorsPolicy.of(CorsConfiguration.builder().allowedOrigins("*").build()))
+                .build();
+        CorsFilter filter = new CorsFilter(policies, WebSecurityMetrics.NOOP);
+
+        MockHttpServletRequest root = request("GET", "http://other");
+        root.setServletPath("/index.html");
+        filter.doFilter(root, response, chain);
+        assertNull(response.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertNull(response.getHeader(HttpHeaders.VARY));
+
+        MockHttpServletRequest api = request("GET", "http://other");
+        api.setServletPath("/api");
+        api.setPathInfo("/hello");
+        MockHttpServletResponse apiResponse = new MockHttpServletResponse();
+        filter.doFilter(api, apiResponse, chain);
+        assertNull(apiResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+
+        MockHttpServletRequest publicApi = request("GET", "http://other");
+        publicApi.setServletPath("/api");
+        publicApi.setPathInfo("/public/hello");
+        MockHttpServletResponse publicResponse = new MockHttpServletResponse();
+        filter.doFilter(publicApi, publicResponse, chain);
+        assertEquals("http://other", publicResponse.getHeader(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+
+        assertEquals(CorsPolicy.DISABLED, filter.getPolicy());
+    }
+
+    @Test
+    public void testLaterDispatchesSkipped() throws IOException, ServletException {
+        MockHttpServletRequest request = request("GET", "http://origin");
+        CorsFilter filter = new CorsFilter(CONFIG);
+
+        filter.doFilter(request, response, (req, resp) -> {
+            request.setDispatcherType(DispatcherType.FORWARD);
+            filter.doFilter(req, resp, chain);
+        });
+
+        assertEquals(ImmutableList.of("http://origin"), response.getHeaders(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN));
+        assertEquals(ImmutableList.of(HttpHeaders.ORIGIN), response.getHeaders(HttpHeaders.VARY));
+        verify(chain).doFilter(request, response);
+    }
+
+    private MockHttpServletResponse preflight(CorsFilter filter, String origin) throws IOException, ServletException {
+        MockHttpServletRequest request = request("OPTIONS", origin);
+        request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "PUT");
+        MockHttpServletResponse preflightResponse = new MockHttpServletResponse();
+        filter.doFilter(request, preflightResponse, chain);
+        return preflightResponse;
+    }
+
+    private static MockHttpServletRequest request(String method, String origin) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/api");
+        request.addHeader(HttpHeaders.ORIGIN, origin);
+        return request;
+    }
+}
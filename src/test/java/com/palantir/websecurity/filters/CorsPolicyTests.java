@@ -0,0 +1,194 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.CorsConfiguration;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CorsPolicy}.
+ */
+public final class CorsPolicyTests {
+
+    private static final CorsPolicy POLICY = CorsPolicy.of(CorsConfiguration.builder()
+            .allowedOrigins("http://origin, https://*.example.com")
+            .build());
+
+    @Test
+    public void testOriginList() {
+        assertTrue(POLICY.isOriginAllowed("http://origin"));
+        assertTrue(POLICY.isOriginAllowed("https://evil.org http://origin"));
+        assertFalse(POLICY.isOriginAllowed("https://evil.org  http://other"));
+        assertFalse(POLICY.isOriginAllowed(" "));
+        assertFalse(POLICY.isOriginAllowed("null"));
+    }
+
+    @Test
+    public void testAnyOrigin() {
+        CorsPolicy policy = CorsPolicy.of(CorsConfiguration.builder().allowedOrigins("http://origin,*").build());
+
+        assertTrue(policy.anyOriginAllowed());
+        assertTrue(policy.isOriginAllowed("null"));
+    }
+
+    @Test
+    public void testMethodsAreCaseSensitive() {
+        assertTrue(POLICY.isMethodAllowed("PUT"));
+        assertFalse(POLICY.isMethodAllowed("put"));
+        assertFalse(POLICY.isMethodAllowed("PATCH"));
+        assertFalse(POLICY.isMethodAllowed(null));
+    }
+
+    @Test
+    public void testHeadersIgnoreCase() {
+        assertTrue(POLICY.areHeadersAllowed(null));
+        assertTrue(POLICY.areHeadersAllowed(""));
+        assertTrue(POLICY.areHeadersAllowed("authorization"));
+        assertTrue(POLICY.areHeadersAllowed(" ACCEPT ,content-type,, x-requested-with "));
+        assertFalse(POLICY.areHeadersAllowed("Authorization,X-Custom"));
+        assertFalse(POLICY.areHeadersAllowed("Authorizatio"));
+        assertNull(POLICY.allowHeadersFor("Authorization"));
+    }
+
+    @Test
+    public void testAnyHeaders() {
+        CorsPolicy policy = CorsPolicy.of(CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .allowedHeaders("*")
+                .build());
+
+        assertTrue(policy.areHeadersAllowed("X-Anything"));
+        assertEquals("", policy.allowHeadersFor(null));
+        assertEquals("X-A,X-B", policy.allowHeadersFor("X-A, X-B,"));
+        assertFalse(policy.preflightHeaders().headers().containsKey(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+    }
+
+    @Test
+    public void testPrecomputedHeaders() {
+        CorsPolicy policy = CorsPolicy.of(CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .allowedMethods("GET, POST")
+                .allowedHeaders("Authorization")
+                .allowCredentials(true)
+                .exposedHeaders("X-Total")
+                .preflightMaxAge(0)
+                .build());
+
+        assertEquals(ImmutableList.of("GET", "POST"), policy.allowedMethods());
+        assertEquals(
+                ImmutableMap.of(
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true",
+                        HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS, "X-Total"),
+                policy.simpleHeaders().headers());
+        assertEquals(
+                ImmutableMap.of(
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true",
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, "GET,POST",
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, "Authorization"),
+                policy.preflightHeaders().headers());
+    }
+
+    @Test
+    public void testVerdictsAreCached() {
+        CorsPolicy policy = CorsPolicy.of(CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .allowCredentials(true)
+                .build());
+
+        OriginVerdict allowed = policy.verdict("http://origin");
+        assertTrue(allowed.isAllowed());
+        assertEquals(
+                ImmutableMap.of(
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "http://origin",
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true"),
+                allowed.actualHeaders().headers());
+        assertSame(allowed, policy.verdict("http://origin"));
+
+        assertSame(OriginVerdict.DENIED, policy.verdict("http://other"));
+        assertSame(OriginVerdict.DENIED, policy.verdict("http://other"));
+
+        assertEquals(2, policy.originCacheStats().hitCount());
+        assertEquals(2, policy.originCacheStats().missCount());
+        assertEquals(2, policy.originCacheSize());
+
+        policy.invalidateCaches();
+        assertEquals(0, policy.originCacheSize());
+        assertNotSame(allowed, policy.verdict("http://origin"));
+    }
+
+    @Test
+    public void testVerdictCacheIsBounded() {
+        CorsPolicy policy = CorsPolicy.of(CorsConfiguration.builder().allowedOrigins("*").build(), 2);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.verdict("http://origin" + i).isAllowed());
+        }
+
+        assertEquals(2, policy.originCacheSize());
+        assertEquals(8, policy.originCacheStats().evictionCount());
+    }
+
+    @Test
+    public void testPreflightResponsesAreCached() {
+        HeaderPlan response = POLICY.preflightResponse("http://origin", "PUT", "Authorization, Content-Type");
+
+        assertEquals(
+                ImmutableMap.of(
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "http://origin",
+                        HttpHeaders.ACCESS_CONTROL_MAX_AGE, "1800",
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, "DELETE,GET,HEAD,POST,PUT",
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS,
+                        "Accept,Authorization,Content-Type,Origin,X-Requested-With"),
+                response.headers());
+        assertSame(response, POLICY.preflightResponse("http://origin", "PUT", "authorization,content-type"));
+        assertNotSame(response, POLICY.preflightResponse("http://origin", "GET", "authorization,content-type"));
+    }
+
+    @Test
+    public void testPreflightResponsesForDeniedPreflights() {
+        assertSame(HeaderPlan.EMPTY, POLICY.preflightResponse("http://other", "GET", null));
+        assertSame(HeaderPlan.EMPTY, POLICY.preflightResponse("http://origin", "PATCH", null));
+        assertSame(HeaderPlan.EMPTY, POLICY.preflightResponse("http://origin", "GET", "X-Custom"));
+        assertFalse(POLICY.preflightResponse("http://origin", "GET", null).isEmpty());
+    }
+
+    @Test
+    public void testMalformedPreflightDoesNotShareCachedResponse() {
+        CorsPolicy policy = CorsPolicy.of(CorsConfiguration.builder().allowedOrigins("http://origin").build());
+
+        assertSame(HeaderPlan.EMPTY, policy.preflightResponse("http://origin", "PUT", "authoriz ation"));
+        assertFalse(policy.preflightResponse("http://origin", "PUT", "authorization").isEmpty());
+        assertFalse(policy.preflightResponse("http://origin", "PUT", " Authorization ,\tContent-Type ").isEmpty());
+    }
+
+    @Test
+    public void testPreflightResponseEchoesAnyHeaders() {
+        CorsPolicy policy = CorsPolicy.of(CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .allowedHeaders("*")
+                .preflightMaxAge(60)
+                .build());
+
+        assertEquals(
+                ImmutableMap.of(
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "http://origin",
+                        HttpHeaders.ACCESS_CONTROL_MAX_AGE, "60",
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS, "DELETE,GET,HEAD,POST,PUT",
+                        HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, "X-A,X-B"),
+                policy.preflightResponse("http://origin", "GET", "X-A, X-B").headers());
+        assertEquals("", policy.preflightResponse("http://origin", "GET", null).headers()
+                .get(HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS));
+    }
+}
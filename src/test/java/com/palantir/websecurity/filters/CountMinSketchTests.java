@@ -0,0 +1,53 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link CountMinSketch}.
+ */
+public final class CountMinSketchTests {
+
+    @Test
+    public void testExactWithoutCollisions() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+
+        assertEquals(1, sketch.add(1L));
+        assertEquals(2, sketch.add(1L));
+        assertEquals(1, sketch.add(2L));
+        assertEquals(2, sketch.estimate(1L));
+        assertEquals(0, sketch.estimate(3L));
+        assertEquals(3, sketch.total());
+    }
+
+    @Test
+    public void testEstimatesNeverTooLow() {
+        CountMinSketch sketch = new CountMinSketch(4, 64);
+        for (long hash = 0; hash < 10_000; hash++) {
+            for (int i = 0; i < hash % 5; i++) {
+                sketch.add(hash);
+            }
+        }
+
+        for (long hash = 0; hash < 10_000; hash++) {
+            assertTrue(sketch.estimate(hash) >= hash % 5);
+        }
+    }
+
+    @Test
+    public void testClear() {
+        CountMinSketch sketch = new CountMinSketch(2, 16);
+        sketch.add(1L);
+
+        sketch.clear();
+
+        assertEquals(0, sketch.estimate(1L));
+        assertEquals(0, sketch.total());
+    }
+}
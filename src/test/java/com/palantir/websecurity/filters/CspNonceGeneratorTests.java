@@ -0,0 +1,74 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CspNonceGenerator}.
+ */
+public final class CspNonceGeneratorTests {
+
+    private static final Pattern BASE64 = Pattern.compile("[A-Za-z0-9+/]{24}");
+
+    private final CspNonceGenerator generator = new CspNonceGenerator();
+
+    @Test
+    public void testNoncesAreBase64() {
+        for (int count = 0; count < CspNonceGenerator.BATCH_SIZE * 3; count++) {
+            String nonce = this.generator.next();
+            assertTrue(nonce, BASE64.matcher(nonce).matches());
+        }
+    }
+
+    @Test
+    public void testNoncesAreUniqueAcrossRefillsAndReseeds() {
+        int nonces = CspNonceGenerator.RESEED_INTERVAL + CspNonceGenerator.BATCH_SIZE * 2;
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+
+        for (int count = 0; count < nonces; count++) {
+            seen.add(this.generator.next());
+        }
+
+        assertEquals(nonces, seen.size());
+    }
+
+    @Test
+    public void testNoncesAreUniqueAcrossThreads() throws Exception {
+        int threads = 4;
+        int noncesPerThread = CspNonceGenerator.BATCH_SIZE * 10;
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] results = new Future<?>[threads];
+            for (int thread = 0; thread < threads; thread++) {
+                results[thread] = executor.submit(() -> {
+                    for (int count = 0; count < noncesPerThread; count++) {
+                        seen.add(this.generator.next());
+                    }
+                });
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(threads * noncesPerThread, seen.size());
+    }
+}
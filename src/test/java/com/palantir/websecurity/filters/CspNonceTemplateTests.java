@@ -0,0 +1,40 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link CspNonceTemplate}.
+ */
+public final class CspNonceTemplateTests {
+
+    @Test
+    public void testRender() {
+        CspNonceTemplate template = CspNonceTemplate.compile("script-src 'nonce-{nonce}'; style-src 'self'");
+
+        assertEquals("script-src 'nonce-abc'; style-src 'self'", template.render("abc"));
+        assertEquals("script-src 'nonce-xyz123'; style-src 'self'", template.render("xyz123"));
+    }
+
+    @Test
+    public void testRenderEveryPlaceholder() {
+        CspNonceTemplate template = CspNonceTemplate.compile("{nonce} {nonce}{nonce}");
+
+        assertEquals("ab abab", template.render("ab"));
+        assertEquals(" ", template.render(""));
+    }
+
+    @Test
+    public void testHasPlaceholder() {
+        assertTrue(CspNonceTemplate.hasPlaceholder("script-src 'nonce-{nonce}'"));
+        assertFalse(CspNonceTemplate.hasPlaceholder("script-src 'nonce-{nonce'"));
+        assertFalse(CspNonceTemplate.hasPlaceholder(WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link CspReportAdminServlet}.
+ */
+public final class CspReportAdminServletTests {
+
+    private final CspReportAggregator aggregator = new CspReportAggregator();
+    private final CspReportAdminServlet servlet = new CspReportAdminServlet(this.aggregator);
+
+    @Test
+    public void testTopViolations() throws Exception {
+        report("script-src", "https://cdn.example.com/a.js", 2);
+        report("img-src", "data:image/png;base64,AAAA", 1);
+
+        MockHttpServletResponse response = get(null, "1");
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals("application/json", response.getContentType());
+        assertEquals("{\"windowMinutes\":5,\"total\":3,\"violations\":[{\"directive\":\"script-src\","
+                + "\"blockedOrigin\":\"https://cdn.example.com\",\"documentPath\":\"/index.html\",\"count\":2}]}",
+                response.getContentAsString());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        MockHttpServletResponse response = get("60", null);
+
+        assertEquals("{\"windowMinutes\":60,\"total\":0,\"violations\":[]}", response.getContentAsString());
+    }
+
+    @Test
+    public void testInvalidParameters() throws Exception {
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, get("0", null).getStatus());
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, get("61", null).getStatus());
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, get("five", null).getStatus());
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, get(null, "-1").getStatus());
+    }
+
+    private void report(String directive, String blockedUri, int times) {
+        CspReport report = CspReport.builder()
+                .timestamp(System.currentTimeMillis())
+                .effectiveDirective(directive)
+                .blockedUri(blockedUri)
+                .documentUri("https://app.example.com/index.html")
+                .build();
+        for (int i = 0; i < times; i++) {
+            this.aggregator.onReport(report);
+        }
+    }
+
+    private MockHttpServletResponse get(String window, String limit) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/csp-reports");
+        if (window != null) {
+            request.setParameter("window", window);
+        }
+        if (limit != null) {
+            request.setParameter("limit", limit);
+        }
+        MockHttpServletResponse response = new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+        this.servlet.service(request, response);
+        return response;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CspReportAggregator}.
+ */
+public final class CspReportAggregatorTests {
+
+    private static final long MINUTE = 60_000L;
+    private static final long START = 1_000 * MINUTE;
+
+    private final TestClock clock = new TestClock(START);
+    private final CspReportAggregator aggregator = new CspReportAggregator(this.clock);
+
+    @Test
+    public void testTopViolations() {
+        report(START, "script-src", "https://cdn.example.com/a.js?v=1", "https://app.example.com/index.html?q=1", 5);
+        report(START, "script-src", "https://cdn.example.com/b.js", "https://app.example.com/index.html", 3);
+        report(START, "img-src", "data:image/png;base64,AAAA", "https://app.example.com/", 2);
+        report(START, "style-src", "inline", "https://app.example.com/settings#tab", 1);
+
+        List<Map.Entry<CspViolation, Long>> top = this.aggregator.top(5, 2);
+
+        assertEquals(2, top.size());
+        assertEquals(new CspViolation("script-src", "https://cdn.example.com", "/index.html"), top.get(0).getKey());
+        assertEquals(8L, (long) top.get(0).getValue());
+        assertEquals(new CspViolation("img-src", "data:", "/"), top.get(1).getKey());
+        assertEquals(2L, (long) top.get(1).getValue());
+        assertEquals(11, this.aggregator.total(5));
+    }
+
+    @Test
+    public void testWindow() {
+        report(START - 10 * MINUTE, "script-src", "inline", "/old", 4);
+        report(START - 2 * MINUTE, "script-src", "inline", "/recent", 3);
+        report(START, "script-src", "inline", "/recent", 1);
+
+        assertEquals(1, this.aggregator.total(1));
+        assertEquals(4, this.aggregator.total(5));
+        assertEquals(8, this.aggregator.total(15));
+        assertEquals(1, this.aggregator.top(5, 10).size());
+        assertEquals(4L, (long) this.aggregator.top(5, 10).get(0).getValue());
+        assertEquals(2, this.aggregator.top(15, 10).size());
+
+        this.clock.set(START + CspReportAggregator.MAX_WINDOW_MINUTES * MINUTE);
+        assertEquals(0, this.aggregator.total(CspReportAggregator.MAX_WINDOW_MINUTES));
+        assertTrue(this.aggregator.top(CspReportAggregator.MAX_WINDOW_MINUTES, 10).isEmpty());
+    }
+
+    @Test
+    public void testReportsOlderThanTheBucketsIgnored() {
+        report(START, "script-src", "inline", "/", 1);
+        report(START - CspReportAggregator.MAX_WINDOW_MINUTES * MINUTE, "script-src", "inline", "/", 1);
+
+        assertEquals(1, this.aggregator.total(CspReportAggregator.MAX_WINDOW_MINUTES));
+    }
+
+    @Test
+    public void testFrequentViolationsFoundAmongManyDistinctOnes() {
+        for (int i = 0; i < 100_000; i++) {
+            report(START, "img-src", "https://tracker" + i + ".example.com/pixel.gif", "/", 1);
+            if (i % 100 == 0) {
+                report(START, "script-src", "https://cdn.example.com/a.js", "/", 1);
+            }
+            if (i % 200 == 0) {
+                report(START, "style-src", "inline", "/", 1);
+            }
+        }
+
+        List<Map.Entry<CspViolation, Long>> top = this.aggregator.top(1, 2);
+
+        assertEquals(new CspViolation("script-src", "https://cdn.example.com", "/"), top.get(0).getKey());
+        assertEquals(new CspViolation("style-src", "inline", "/"), top.get(1).getKey());
+        // never too low, and too high by a small fraction of the total
+        assertTrue(top.get(0).getValue() >= 1_000 && top.get(0).getValue() < 1_000 + 1_000);
+        assertTrue(top.get(1).getValue() >= 500 && top.get(1).getValue() < 500 + 1_000);
+        assertEquals(101_500, this.aggregator.total(1));
+    }
+
+    private void report(long timestamp, String directive, String blockedUri, String documentUri, int times) {
+        CspReport report = CspReport.builder()
+                .timestamp(timestamp)
+                .effectiveDirective(directive)
+                .blockedUri(blockedUri)
+                .documentUri(documentUri)
+                .build();
+        for (int i = 0; i < times; i++) {
+            this.aggregator.onReport(report);
+        }
+    }
+
+    static final class TestClock extends Clock {
+
+        private long millis;
+
+        TestClock(long millis) {
+            this.millis = millis;
+        }
+
+        void set(long newMillis) {
+            this.millis = newMillis;
+        }
+
+        @Override
+        public long millis() {
+            return this.millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(this.millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CspReportParser}.
+ */
+public final class CspReportParserTests {
+
+    private static final long TIMESTAMP = 1234L;
+
+    private final List<CspReport> reports = new ArrayList<>();
+
+    @Test
+    public void testReportUriFormat() throws IOException {
+        int count = parse("{\"csp-report\": {"
+                + "\"document-uri\": \"https://example.com/page\","
+                + "\"referrer\": \"https://example.com/\","
+                + "\"violated-directive\": \"script-src-elem\","
+                + "\"effective-directive\": \"script-src-elem\","
+                + "\"original-policy\": \"default-src 'self'; report-uri /csp-reports\","
+                + "\"disposition\": \"enforce\","
+                + "\"blocked-uri\": \"https://evil.com/x.js\","
+                + "\"line-number\": 12,"
+                + "\"column-number\": 7,"
+                + "\"source-file\": \"https://example.com/app.js\","
+                + "\"status-code\": 200,"
+                + "\"script-sample\": \"\"}}");
+
+        assertEquals(1, count);
+        CspReport report = this.reports.get(0);
+        assertEquals(TIMESTAMP, report.timestamp());
+        assertEquals("https://example.com/page", report.documentUri());
+        assertEquals("https://example.com/", report.referrer());
+        assertEquals("script-src-elem", report.effectiveDirective());
+        assertEquals("enforce", report.disposition());
+        assertEquals("https://evil.com/x.js", report.blockedUri());
+        assertEquals(12, report.lineNumber());
+        assertEquals(7, report.columnNumber());
+        assertEquals("https://example.com/app.js", report.sourceFile());
+        assertEquals(200, report.statusCode());
+    }
+
+    @Test
+    public void testReportToFormat() throws IOException {
+        int count = parse("[{\"type\": \"csp-violation\", \"age\": 10, \"url\": \"https://example.com/page\","
+                + "\"body\": {\"documentURL\": \"https://example.com/page\", \"blockedURL\": \"inline\","
+                + "\"effectiveDirective\": \"style-src-attr\", \"disposition\": \"report\", \"lineNumber\": 3}},"
+                + "{\"type\": \"deprecation\", \"body\": {\"id\": \"x\"}},"
+                + "{\"body\": {\"blockedURL\": \"eval\", \"effectiveDirective\": \"script-src\"},"
+                + "\"type\": \"csp-violation\"}]");
+
+        assertEquals(2, count);
+        assertEquals("https://example.com/page", this.reports.get(0).documentUri());
+        assertEquals("inline", this.reports.get(0).blockedUri());
+        assertEquals("style-src-attr", this.reports.get(0).effectiveDirective());
+        assertEquals("report", this.reports.get(0).disposition());
+        assertEquals(3, this.reports.get(0).lineNumber());
+        assertEquals("eval", this.reports.get(1).blockedUri());
+        assertEquals("script-src", this.reports.get(1).effectiveDirective());
+    }
+
+    @Test
+    public void testViolatedDirectiveUsedWithoutEffectiveDirective() throws IOException {
+        parse("{\"csp-report\": {\"violated-directive\": \"img-src 'self' data:\"}}");
+
+        assertEquals("img-src", this.reports.get(0).effectiveDirective());
+    }
+
+    @Test
+    public void testMissingValuesAreEmpty() throws IOException {
+        parse("{\"csp-report\": {\"line-number\": \"twelve\", \"blocked-uri\": null}}");
+
+        CspReport report = this.reports.get(0);
+        assertEquals("", report.documentUri());
+        assertEquals("", report.blockedUri());
+        assertEquals("", report.effectiveDirective());
+        assertEquals(-1, report.lineNumber());
+        assertEquals(-1, report.statusCode());
+    }
+
+    @Test
+    public void testUnknownMembersSkipped() throws IOException {
+        int count = parse("{\"other\": {\"csp-report\": {}}, \"list\": [1, [2]], "
+                + "\"csp-report\": {\"nested\": {\"blocked-uri\": \"wrong\"}, \"blocked-uri\": \"right\"}}");
+
+        assertEquals(1, count);
+        assertEquals("right", this.reports.get(0).blockedUri());
+    }
+
+    @Test
+    public void testMalformedBodiesRejected() {
+        assertMalformed("");
+        assertMalformed("\"csp-report\"");
+        assertMalformed("{\"csp-report\": {\"blocked-uri\": ");
+        assertMalformed("[1, 2]");
+        assertMalformed("not json");
+    }
+
+    @Test
+    public void testReportsBeforeErrorPassedOn() {
+        assertMalformed("[{\"type\": \"csp-violation\", \"body\": {}}, {\"type\": ");
+
+        assertEquals(1, this.reports.size());
+    }
+
+    private int parse(String body) throws IOException {
+        return CspReportParser.parse(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), TIMESTAMP, this.reports::add);
+    }
+
+    private void assertMalformed(String body) {
+        try {
+            parse(body);
+            fail(body);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
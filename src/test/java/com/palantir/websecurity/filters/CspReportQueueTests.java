@@ -0,0 +1,215 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CspReportQueue}.
+ */
+public final class CspReportQueueTests {
+
+    private static final int THREADS = 8;
+    private static final int REPORTS_PER_THREAD = 20000;
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final DropwizardWebSecurityMetrics metrics = new DropwizardWebSecurityMetrics(this.registry);
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @After
+    public void after() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testReportsPassedToListenerInOrder() throws Exception {
+        List<CspReport> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        CspReportQueue queue = new CspReportQueue(4, 1, report -> {
+            received.add(report);
+            done.countDown();
+        }, this.metrics);
+        queue.start();
+
+        CspReport first = report(1);
+        CspReport second = report(2);
+        CspReport third = report(3);
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(second));
+        assertTrue(queue.offer(third));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        queue.stop();
+        assertEquals(3, received.size());
+        assertEquals(first, received.get(0));
+        assertEquals(second, received.get(1));
+        assertEquals(third, received.get(2));
+        assertEquals(3, queued());
+    }
+
+    @Test
+    public void testFullQueueDropsReports() throws Exception {
+        CspReportQueue queue = new CspReportQueue(3, 1, report -> { }, this.metrics);
+
+        // not started, so nothing is taken off the queue
+        assertTrue(queue.offer(report(1)));
+        assertTrue(queue.offer(report(2)));
+        assertTrue(queue.offer(report(3)));
+        assertFalse(queue.offer(report(4)));
+
+        assertEquals(3, queue.size());
+        assertEquals(3, queued());
+        assertEquals(1, dropped());
+
+        // space is reused once reports are taken
+        assertEquals(1, queue.poll().timestamp());
+        assertTrue(queue.offer(report(5)));
+        assertEquals(2, queue.poll().timestamp());
+        assertEquals(3, queue.poll().timestamp());
+        assertEquals(5, queue.poll().timestamp());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testListenerFailuresDoNotStopWorkers() throws Exception {
+        CountDownLatch done = new CountDownLatch(2);
+        CspReportQueue queue = new CspReportQueue(4, 1, report -> {
+            done.countDown();
+            throw new IllegalStateException("listener failed");
+        }, this.metrics);
+        queue.start();
+
+        queue.offer(report(1));
+        queue.offer(report(2));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        queue.stop();
+    }
+
+    @Test
+    public void testStopDrainsQueue() throws Exception {
+        Set<CspReport> received = ConcurrentHashMap.newKeySet();
+        CspReportQueue queue = new CspReportQueue(100, 2, received::add, this.metrics);
+        for (int i = 0; i < 100; i++) {
+            queue.offer(report(i));
+        }
+
+        queue.start();
+        queue.stop();
+
+        assertEquals(100, received.size());
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * A listener that never returns stands in for a report storm the workers can't keep up with. Request threads must
+     * still finish every offer without waiting, and every report must be either queued or counted as dropped.
+     */
+    @Test(timeout = 60000)
+    public void testOffersNeverBlockWhenWorkersAreStuck() throws Exception {
+        CountDownLatch stuck = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CspReportQueue queue = new CspReportQueue(1024, 2, report -> {
+            stuck.countDown();
+            await(release);
+        }, this.metrics);
+        queue.start();
+        queue.offer(report(-1));
+        queue.offer(report(-2));
+        assertTrue(stuck.await(10, TimeUnit.SECONDS));
+
+        List<Future<Long>> offers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            offers.add(this.executor.submit(() -> offerAll(queue)));
+        }
+
+        long slowestOfferNanos = 0;
+        for (Future<Long> offer : offers) {
+            slowestOfferNanos = Math.max(slowestOfferNanos, offer.get(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(2 + THREADS * REPORTS_PER_THREAD, queued() + dropped());
+        assertEquals(2 + 1024, queued());
+        assertEquals(1024, queue.size());
+        assertTrue("an offer took " + slowestOfferNanos + "ns",
+                slowestOfferNanos < TimeUnit.MILLISECONDS.toNanos(500));
+
+        release.countDown();
+        queue.stop();
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * Many threads offering to a queue with workers that keep up lose no reports.
+     */
+    @Test(timeout = 60000)
+    public void testConcurrentOffersDelivered() throws Exception {
+        Set<CspReport> received = ConcurrentHashMap.newKeySet();
+        CspReportQueue queue = new CspReportQueue(THREADS * REPORTS_PER_THREAD, 3, received::add, this.metrics);
+        queue.start();
+
+        List<Future<Long>> offers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            offers.add(this.executor.submit(() -> offerAll(queue)));
+        }
+        for (Future<Long> offer : offers) {
+            offer.get(30, TimeUnit.SECONDS);
+        }
+        queue.stop();
+
+        assertEquals(0, dropped());
+        assertEquals(THREADS * REPORTS_PER_THREAD, received.size());
+    }
+
+    /**
+     * Offers {@link #REPORTS_PER_THREAD} reports and returns the longest time an offer took.
+     */
+    private static long offerAll(CspReportQueue queue) {
+        long slowest = 0;
+        for (int i = 0; i < REPORTS_PER_THREAD; i++) {
+            CspReport report = report(i);
+            long start = System.nanoTime();
+            queue.offer(report);
+            slowest = Math.max(slowest, System.nanoTime() - start);
+        }
+        return slowest;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long queued() {
+        return this.registry.counter("webSecurity.cspReports.queued").getCount();
+    }
+
+    private long dropped() {
+        return this.registry.counter("webSecurity.cspReports.dropped").getCount();
+    }
+
+    private static CspReport report(long timestamp) {
+        return CspReport.builder().timestamp(timestamp).blockedUri("https://evil.com").build();
+    }
+}
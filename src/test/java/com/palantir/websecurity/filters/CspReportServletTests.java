@@ -0,0 +1,202 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link CspReportServlet}.
+ */
+public final class CspReportServletTests {
+
+    private static final String REPORT = "{\"csp-report\": {\"blocked-uri\": \"https://evil.com/x.js\","
+            + "\"effective-directive\": \"script-src\"}}";
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final DropwizardWebSecurityMetrics metrics = new DropwizardWebSecurityMetrics(this.registry);
+    private final CspReportQueue queue = new CspReportQueue(8, 1, report -> { }, this.metrics);
+    private final CspReportServlet servlet = new CspReportServlet(this.queue, 1024, this.metrics);
+
+    @After
+    public void after() throws InterruptedException {
+        this.queue.stop();
+    }
+
+    @Test
+    public void testReportQueued() throws Exception {
+        MockHttpServletResponse response = post("application/csp-report", REPORT);
+
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, response.getStatus());
+        assertEquals(1, this.queue.size());
+        CspReport report = this.queue.poll();
+        assertEquals("https://evil.com/x.js", report.blockedUri());
+        assertEquals("script-src", report.effectiveDirective());
+        assertTrue(report.timestamp() > 0);
+    }
+
+    @Test
+    public void testReportToBatchQueued() throws Exception {
+        MockHttpServletResponse response = post("application/reports+json; charset=utf-8",
+                "[{\"type\": \"csp-violation\", \"body\": {\"blockedURL\": \"inline\"}},"
+                        + "{\"type\": \"csp-violation\", \"body\": {\"blockedURL\": \"eval\"}}]");
+
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, response.getStatus());
+        assertEquals(2, this.queue.size());
+    }
+
+    @Test
+    public void testOtherContentTypesRejected() throws Exception {
+        assertEquals(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, post("text/plain", REPORT).getStatus());
+        assertEquals(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, post(null, REPORT).getStatus());
+        assertEquals(0, this.queue.size());
+    }
+
+    @Test
+    public void testMalformedReportCounted() throws Exception {
+        MockHttpServletResponse response = post("application/csp-report", "{\"csp-report\": ");
+
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, response.getStatus());
+        assertEquals(0, this.queue.size());
+        assertEquals(1, this.registry.counter("webSecurity.cspReports.malformed").getCount());
+    }
+
+    @Test
+    public void testLargeReportsRejected() throws Exception {
+        StringBuilder body = new StringBuilder("{\"csp-report\": {\"blocked-uri\": \"");
+        for (int i = 0; i < 1024; i++) {
+            body.append('x');
+        }
+        body.append("\"}}");
+
+        assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                post("application/csp-report", body.toString()).getStatus());
+
+        // a chunked body is cut off at the limit
+        ReportRequest chunked = new ReportRequest("application/csp-report", body.toString());
+        chunked.contentLength = -1;
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.servlet.service(chunked, response);
+
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, response.getStatus());
+        assertEquals(0, this.queue.size());
+        assertEquals(2, this.registry.counter("webSecurity.cspReports.malformed").getCount());
+    }
+
+    @Test
+    public void testFullQueueStillAnswered() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(HttpServletResponse.SC_NO_CONTENT, post("application/csp-report", REPORT).getStatus());
+        }
+
+        assertEquals(8, this.queue.size());
+        assertEquals(2, this.registry.counter("webSecurity.cspReports.dropped").getCount());
+    }
+
+    /**
+     * Request threads answer every report while the worker is stuck in the listener.
+     */
+    @Test(timeout = 60000)
+    public void testRequestsNeverWaitForProcessing() throws Exception {
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CspReportQueue stuckQueue = new CspReportQueue(64, 1, report -> {
+            stuck.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, this.metrics);
+        CspReportServlet stuckServlet = new CspReportServlet(stuckQueue, 1024, this.metrics);
+        stuckQueue.start();
+        post(stuckServlet, "application/csp-report", REPORT);
+        assertTrue(stuck.await(10, TimeUnit.SECONDS));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> requests = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                requests.add(executor.submit(() -> {
+                    int answered = 0;
+                    for (int j = 0; j < 1000; j++) {
+                        if (post(stuckServlet, "application/csp-report", REPORT).getStatus()
+                                == HttpServletResponse.SC_NO_CONTENT) {
+                            answered++;
+                        }
+                    }
+                    return answered;
+                }));
+            }
+
+            for (Future<Integer> answered : requests) {
+                assertEquals(1000, (int) answered.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+            release.countDown();
+            stuckQueue.stop();
+        }
+
+        assertEquals(1 + 64, this.registry.counter("webSecurity.cspReports.queued").getCount());
+        assertEquals(8 * 1000 - 64, this.registry.counter("webSecurity.cspReports.dropped").getCount());
+    }
+
+    private MockHttpServletResponse post(String contentType, String body) throws Exception {
+        return post(this.servlet, contentType, body);
+    }
+
+    private static MockHttpServletResponse post(CspReportServlet target, String contentType, String body)
+            throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        target.service(request(contentType, body), response);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String contentType, String body) {
+        return new ReportRequest(contentType, body);
+    }
+
+    /**
+     * Sets the content type without parsing it, which the mock request can only do with Spring's web classes.
+     */
+    private static final class ReportRequest extends MockHttpServletRequest {
+        private final String contentType;
+        private int contentLength;
+
+        ReportRequest(String contentType, String body) {
+            super("POST", "/csp-reports");
+            this.contentType = contentType;
+            byte[] content = body.getBytes(StandardCharsets.UTF_8);
+            this.contentLength = content.length;
+            setContent(content);
+        }
+
+        @Override
+        public String getContentType() {
+            return this.contentType;
+        }
+
+        @Override
+        public int getContentLength() {
+            return this.contentLength;
+        }
+    }
+}
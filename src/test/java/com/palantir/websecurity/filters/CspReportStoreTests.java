@@ -0,0 +1,248 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.palantir.websecurity.filters.CspReportAggregatorTests.TestClock;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link CspReportStore}.
+ */
+public final class CspReportStoreTests {
+
+    private static final long MINUTE = 60_000L;
+    private static final long START = 1_000 * MINUTE;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestClock clock = new TestClock(START);
+    private Path directory;
+    private CspReportStore store;
+
+    @Before
+    public void before() throws IOException {
+        this.directory = this.folder.getRoot().toPath().resolve("reports");
+    }
+
+    @After
+    public void after() throws Exception {
+        if (this.store != null) {
+            this.store.stop();
+        }
+    }
+
+    @Test
+    public void testReportsWrittenOnFlush() throws Exception {
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+
+        this.store.onReport(report(START, "https://evil.com/x.js"));
+        assertTrue(read(0).isEmpty());
+
+        this.store.flush();
+
+        List<String> records = read(0);
+        assertEquals(1, records.size());
+        assertEquals("{\"timestamp\":60000000,\"documentUri\":\"https://example.com/\",\"referrer\":\"\","
+                + "\"blockedUri\":\"https://evil.com/x.js\",\"effectiveDirective\":\"script-src\","
+                + "\"disposition\":\"\",\"sourceFile\":\"\",\"lineNumber\":-1,\"columnNumber\":-1,"
+                + "\"statusCode\":-1}", records.get(0));
+    }
+
+    @Test
+    public void testReadSince() throws Exception {
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+
+        this.store.onReport(report(START - 10 * MINUTE, "https://old.com/x.js"));
+        this.store.onReport(report(START, "https://new.com/x.js"));
+        this.store.flush();
+
+        List<String> records = read(START - MINUTE);
+        assertEquals(1, records.size());
+        assertTrue(records.get(0).contains("https://new.com/x.js"));
+        assertEquals(2, read(0).size());
+    }
+
+    @Test
+    public void testSegmentsRolledBySize() throws Exception {
+        start(1000, 60 * MINUTE, 1024 * 1024);
+
+        for (int i = 0; i < 20; i++) {
+            this.store.onReport(report(START, "https://evil.com/" + i + ".js"));
+            this.store.flush();
+        }
+
+        assertTrue(segments().length > 1);
+        for (File segment : segments()) {
+            assertTrue(segment.length() < 1000 + 300);
+        }
+        assertEquals(20, read(0).size());
+    }
+
+    @Test
+    public void testSegmentsRolledByAge() throws Exception {
+        start(1024 * 1024, MINUTE, 1024 * 1024);
+
+        this.store.onReport(report(START, "https://evil.com/x.js"));
+        this.store.flush();
+        assertEquals(1, segments().length);
+
+        this.clock.set(START + MINUTE);
+        this.store.flush();
+        assertEquals(2, segments().length);
+
+        // empty segments are kept open however old they are
+        this.clock.set(START + 10 * MINUTE);
+        this.store.flush();
+        assertEquals(2, segments().length);
+    }
+
+    @Test
+    public void testOldestSegmentsDeletedBeyondMaxSize() throws Exception {
+        start(1000, 60 * MINUTE, 3000);
+
+        for (int i = 0; i < 100; i++) {
+            this.store.onReport(report(START + i, "https://evil.com/" + i + ".js"));
+            this.store.flush();
+        }
+
+        long total = 0;
+        for (File segment : segments()) {
+            total += segment.length();
+        }
+        assertTrue(total <= 3000);
+        assertEquals(total, this.store.size());
+
+        List<String> records = read(0);
+        assertTrue(records.size() < 100);
+        assertTrue(records.get(records.size() - 1).contains("https://evil.com/99.js"));
+    }
+
+    @Test
+    public void testRestartKeepsSegments() throws Exception {
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+        this.store.onReport(report(START, "https://evil.com/1.js"));
+        this.store.stop();
+
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+        this.store.onReport(report(START, "https://evil.com/2.js"));
+        this.store.stop();
+
+        // the empty segment of a restart without reports is removed
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+        this.store.stop();
+
+        assertEquals(2, segments().length);
+        assertEquals(2, read(0).size());
+    }
+
+    @Test
+    public void testRestartNamesSegmentAfterCurrentTime() throws Exception {
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+        this.store.onReport(report(START, "https://evil.com/1.js"));
+        this.store.stop();
+
+        this.clock.set(START + 24 * 60 * MINUTE);
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+        this.store.onReport(report(START + 24 * 60 * MINUTE, "https://evil.com/2.js"));
+        this.store.flush();
+
+        // the new segment is not rotated for being as old as the previous one
+        File[] segments = segments();
+        Arrays.sort(segments);
+        assertEquals(2, segments.length);
+        assertTrue(segments[1].getName().contains(String.format("%013d", START + 24 * 60 * MINUTE)));
+        assertEquals(1, read(START + 60 * MINUTE).size());
+    }
+
+    @Test
+    public void testRecoversWhenNewSegmentFails() throws Exception {
+        start(1, 60 * MINUTE, 1024 * 1024);
+        Path moved = this.folder.getRoot().toPath().resolve("moved");
+
+        // the full segment is written, but the next one can't be created
+        this.store.onReport(report(START, "https://first.com/x.js"));
+        Files.move(this.directory, moved);
+        this.store.flush();
+        Files.createDirectories(this.directory);
+
+        this.store.onReport(report(START, "https://second.com/x.js"));
+        this.store.flush();
+
+        List<String> records = read(0);
+        assertEquals(1, records.size());
+        assertTrue(records.get(0).contains("https://second.com/x.js"));
+    }
+
+    @Test
+    public void testReportsDroppedWhenStopped() throws Exception {
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+        this.store.stop();
+
+        this.store.onReport(report(START, "https://evil.com/x.js"));
+        this.store.flush();
+
+        assertTrue(read(0).isEmpty());
+    }
+
+    @Test
+    public void testIncompleteLinesSkipped() throws Exception {
+        start(1024 * 1024, 60 * MINUTE, 1024 * 1024);
+        this.store.onReport(report(START, "https://evil.com/x.js"));
+        this.store.flush();
+
+        Files.write(segments()[0].toPath(), "{\"timestamp\":60000000,\"documentUri\":\"htt".getBytes(
+                StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertEquals(1, read(0).size());
+    }
+
+    @Test
+    public void testReadMissingDirectory() throws Exception {
+        assertTrue(read(0).isEmpty());
+        assertFalse(Files.exists(this.directory));
+    }
+
+    private void start(long segmentSize, long segmentMillis, long maxSize) throws IOException {
+        this.store = new CspReportStore(this.directory, segmentSize, segmentMillis, maxSize, this.clock);
+        this.store.start();
+    }
+
+    private List<String> read(long since) throws IOException {
+        List<String> records = new ArrayList<>();
+        CspReportStore.read(this.directory, since, records::add);
+        return records;
+    }
+
+    private File[] segments() {
+        return this.directory.toFile().listFiles();
+    }
+
+    private static CspReport report(long timestamp, String blockedUri) {
+        return CspReport.builder()
+                .timestamp(timestamp)
+                .documentUri("https://example.com/")
+                .blockedUri(blockedUri)
+                .effectiveDirective("script-src")
+                .build();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CspViolation}.
+ */
+public final class CspViolationTests {
+
+    @Test
+    public void testOrigin() {
+        assertEquals("https://cdn.example.com:8443", CspViolation.origin("https://cdn.example.com:8443/a/b.js?v=1"));
+        assertEquals("https://cdn.example.com", CspViolation.origin("https://cdn.example.com"));
+        assertEquals("https://cdn.example.com", CspViolation.origin("https://cdn.example.com?v=1"));
+        assertEquals("data:", CspViolation.origin("data:image/png;base64,AAAA"));
+        assertEquals("inline", CspViolation.origin("inline"));
+        assertEquals("", CspViolation.origin(""));
+    }
+
+    @Test
+    public void testPath() {
+        assertEquals("/app/index.html", CspViolation.path("https://example.com/app/index.html?q=1#top"));
+        assertEquals("/", CspViolation.path("https://example.com"));
+        assertEquals("/", CspViolation.path("https://example.com#top"));
+        assertEquals("/app", CspViolation.path("/app?q=1"));
+        assertEquals("", CspViolation.path(""));
+    }
+
+    @Test
+    public void testEquality() {
+        CspViolation violation = new CspViolation("script-src", "inline", "/");
+
+        assertEquals(violation, new CspViolation("script-src", "inline", "/"));
+        assertEquals(violation.hashCode(), new CspViolation("script-src", "inline", "/").hashCode());
+        assertEquals(violation.longHash(), new CspViolation("script-src", "inline", "/").longHash());
+        assertNotEquals(violation, new CspViolation("script-src", "/", "inline"));
+        assertNotEquals(violation.longHash(), new CspViolation("script-src", "/", "inline").longHash());
+    }
+
+    @Test
+    public void testLongValuesTruncated() {
+        String longPath = "/" + Strings.repeat("a", 1000);
+
+        CspViolation violation = new CspViolation("script-src", "inline", longPath);
+
+        assertEquals(CspViolation.MAX_LENGTH, violation.documentPath().length());
+        assertEquals(violation, new CspViolation("script-src", "inline", longPath + "b"));
+    }
+}
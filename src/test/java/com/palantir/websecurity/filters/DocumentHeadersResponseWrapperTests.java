@@ -0,0 +1,130 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.io.IOException;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Tests for {@link DocumentHeadersResponseWrapper}.
+ */
+public final class DocumentHeadersResponseWrapperTests {
+
+    private static final WebSecurityHeaderInjector INJECTOR = new WebSecurityHeaderInjector(
+            WebSecurityConfiguration.builder().documentHeadersOnly(true).build());
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final NonceHtmlResponseWrapperTests.ContentTypeResponse response =
+            new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+    private final DocumentHeadersResponseWrapper wrapper =
+            new DocumentHeadersResponseWrapper(this.request, this.response, INJECTOR);
+
+    @Test
+    public void testContentTypeOptionsInjectedUpFront() {
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_TYPE_OPTIONS,
+                this.response.getHeader(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+        assertNull(this.response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testDocumentGetsAllHeaders() {
+        this.wrapper.setContentType("text/html; charset=utf-8");
+
+        assertInjected(true);
+    }
+
+    @Test
+    public void testAssetGetsContentTypeOptionsOnly() throws IOException {
+        this.wrapper.setContentType("application/javascript");
+        this.wrapper.getOutputStream();
+        this.wrapper.finish();
+
+        assertInjected(false);
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_TYPE_OPTIONS,
+                this.response.getHeader(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+    }
+
+    @Test
+    public void testContentTypeHeader() {
+        this.wrapper.setHeader(HttpHeaders.CONTENT_TYPE, "image/svg+xml");
+
+        assertInjected(true);
+    }
+
+    @Test
+    public void testHeadersKeptWhenContentTypeChanges() {
+        this.wrapper.setContentType("text/html");
+        this.wrapper.setContentType("application/json");
+
+        assertInjected(true);
+    }
+
+    @Test
+    public void testBodyWithoutContentType() throws IOException {
+        this.wrapper.getWriter();
+
+        assertInjected(true);
+    }
+
+    @Test
+    public void testFinishWithoutContentType() {
+        this.wrapper.finish();
+
+        assertInjected(true);
+    }
+
+    @Test
+    public void testErrorPage() throws IOException {
+        this.wrapper.setContentType("application/json");
+        this.wrapper.sendError(500);
+
+        assertInjected(true);
+    }
+
+    @Test
+    public void testResetKeepsContentTypeOptions() {
+        this.wrapper.setContentType("text/html");
+        this.wrapper.reset();
+
+        assertFalse(this.wrapper.isInjected());
+        assertNull(this.response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_TYPE_OPTIONS,
+                this.response.getHeader(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+    }
+
+    @Test
+    public void testNonceStoredUpFront() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .documentHeadersOnly(true)
+                .build());
+        DocumentHeadersResponseWrapper nonceWrapper =
+                new DocumentHeadersResponseWrapper(this.request, this.response, injector);
+
+        String nonce = (String) this.request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+        assertNotNull(nonce);
+
+        nonceWrapper.setContentType("text/html");
+        assertEquals("script-src 'nonce-" + nonce + "'", this.response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    private void assertInjected(boolean injected) {
+        assertEquals(injected, this.wrapper.isInjected());
+        assertEquals(injected ? WebSecurityHeaderInjector.DEFAULT_CONTENT_SECURITY_POLICY : null,
+                this.response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY));
+        assertEquals(injected ? WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS : null,
+                this.response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(injected ? WebSecurityHeaderInjector.DEFAULT_XSS_PROTECTION : null,
+                this.response.getHeader(HttpHeaders.X_XSS_PROTECTION));
+    }
+}
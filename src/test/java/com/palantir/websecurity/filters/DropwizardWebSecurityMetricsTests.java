@@ -0,0 +1,194 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.CorsConfiguration;
+import com.palantir.websecurity.FetchMetadataConfiguration;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link DropwizardWebSecurityMetrics}.
+ */
+public final class DropwizardWebSecurityMetricsTests {
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final DropwizardWebSecurityMetrics metrics = new DropwizardWebSecurityMetrics(registry, "test", 1);
+    private final FilterChain chain = mock(FilterChain.class);
+
+    @Test
+    public void testHeaderMetrics() throws IOException, ServletException {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(
+                WebSecurityConfiguration.DEFAULT, new UserAgentBrowserClassifier(), this.metrics);
+        this.metrics.registerHeaders(injector);
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(injector, "/api/*", this.metrics);
+
+        filter.doFilter(request("/index.html", "Mozilla/5.0 (Windows NT 10.0) Chrome/58.0"), response(), chain);
+        filter.doFilter(request("/index.html", "Mozilla/5.0 (Trident/7.0; rv:11.0)"), response(), chain);
+        filter.doFilter(request("/api", "curl/7.54.0"), response(), chain);
+
+        assertEquals(2L, gauge("test.headers.injected"));
+        assertEquals(1, this.registry.counter("test.headers.jerseySkipped").getCount());
+        assertEquals(3, this.registry.timer("test.headers.latency").getCount());
+        assertEquals(2L, gauge("test.headers.injected." + HttpHeaders.CONTENT_SECURITY_POLICY));
+        assertEquals(2L, gauge("test.headers.injected." + HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(1L, gauge("test.headers.injected."
+                + WebSecurityHeaderInjector.HEADER_IE_X_CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testDocumentSkippedMetric() throws IOException, ServletException {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(
+                WebSecurityConfiguration.builder().documentHeadersOnly(true).build(),
+                new UserAgentBrowserClassifier(), this.metrics);
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(injector, "/api/*", this.metrics);
+
+        filter.doFilter(request("/app.js", "curl/7.54.0"), new NonceHtmlResponseWrapperTests.ContentTypeResponse(),
+                (req, resp) -> resp.setContentType("application/javascript"));
+        filter.doFilter(request("/index.html", "curl/7.54.0"), response(), chain);
+
+        assertEquals(1, this.registry.counter("test.headers.documentSkipped").getCount());
+        assertEquals(1L, gauge("test.headers.injected"));
+    }
+
+    @Test
+    public void testOverBudgetMetric() throws IOException, ServletException {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(
+                WebSecurityConfiguration.builder().headerBudget(200).build(),
+                new UserAgentBrowserClassifier(), this.metrics);
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(injector, "/api/*", this.metrics);
+
+        filter.doFilter(request("/index.html", "Mozilla/5.0 (Windows NT 10.0) Chrome/58.0"), response(), chain);
+        filter.doFilter(request("/index.html", "Mozilla/5.0 (Trident/7.0; rv:11.0)"), response(), chain);
+
+        assertEquals(1, this.registry.counter("test.headers.overBudget").getCount());
+        assertEquals(2L, gauge("test.headers.injected"));
+    }
+
+    @Test
+    public void testFetchMetadataRejectedMetric() throws IOException, ServletException {
+        FetchMetadataFilter filter = new FetchMetadataFilter(
+                PathPrefixTrie.of(FetchMetadataPolicy.of(FetchMetadataConfiguration.DEFAULT, false)), this.metrics);
+        MockHttpServletRequest crossSite = request("/api", "curl/7.54.0");
+        crossSite.addHeader(FetchMetadataPolicy.SEC_FETCH_SITE, "cross-site");
+
+        filter.doFilter(crossSite, new NonceHtmlResponseWrapperTests.ContentTypeResponse(), chain);
+        filter.doFilter(request("/api", "curl/7.54.0"), response(), chain);
+
+        assertEquals(1, this.registry.counter("test.fetchMetadata.rejected").getCount());
+    }
+
+    @Test
+    public void testHeaderMetricsOfSeveralInjectors() {
+        WebSecurityHeaderInjector root = new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT);
+        WebSecurityHeaderInjector widget = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .frameOptions(WebSecurityConfiguration.TURN_OFF)
+                .build());
+
+        this.metrics.registerHeaders(ImmutableList.of(root, widget));
+
+        assertTrue(this.registry.getGauges().containsKey("test.headers.injected." + HttpHeaders.X_XSS_PROTECTION));
+        // injected on some paths only, so it can't be counted from the browser classes
+        assertFalse(this.registry.getGauges().containsKey("test.headers.injected." + HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testCorsMetrics() throws IOException, ServletException {
+        CorsFilter filter = new CorsFilter(CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .answerPreflight(true)
+                .build(), this.metrics);
+        this.metrics.registerCache("cors.origins", () -> filter.getPolicy().originCacheStats());
+
+        filter.doFilter(corsRequest("GET", "http://origin", null), response(), chain);
+        filter.doFilter(corsRequest("GET", "http://origin", null), response(), chain);
+        filter.doFilter(corsRequest("GET", "http://other", null), response(), chain);
+        filter.doFilter(corsRequest("OPTIONS", "http://origin", "GET"), response(), chain);
+        filter.doFilter(corsRequest("OPTIONS", "http://origin", "PATCH"), response(), chain);
+        filter.doFilter(corsRequest("OPTIONS", "http://other", "GET"), response(), chain);
+
+        assertEquals(2, this.registry.counter("test.cors.allowed").getCount());
+        assertEquals(1, this.registry.counter("test.cors.rejected").getCount());
+        assertEquals(1, this.registry.counter("test.cors.preflight.answered").getCount());
+        assertEquals(0, this.registry.counter("test.cors.preflight.allowed").getCount());
+        assertEquals(2, this.registry.counter("test.cors.preflight.rejected").getCount());
+        assertEquals(6, this.registry.timer("test.cors.latency").getCount());
+
+        // 2 misses for the 2 origins, then hits, including the lookups when building the 2 preflight responses
+        assertEquals(6.0 / 8.0, (Double) gauge("test.cors.origins.hitRatio"), 0.001);
+        assertEquals(0L, gauge("test.cors.origins.evictions"));
+    }
+
+    @Test
+    public void testPreflightLimitedMetric() throws IOException, ServletException {
+        CorsFilter filter = new CorsFilter(CorsConfiguration.builder()
+                .allowedOrigins("http://origin")
+                .preflightRateLimit(1)
+                .build(), this.metrics);
+
+        filter.doFilter(corsRequest("OPTIONS", "http://origin", "GET"), response(), chain);
+        filter.doFilter(corsRequest("OPTIONS", "http://origin", "GET"), response(), chain);
+
+        assertEquals(1, this.registry.counter("test.cors.preflight.allowed").getCount());
+        assertEquals(1, this.registry.counter("test.cors.preflight.limited").getCount());
+    }
+
+    @Test
+    public void testLatencyIsSampled() {
+        DropwizardWebSecurityMetrics sampled = new DropwizardWebSecurityMetrics(this.registry, "sampled", 1000);
+
+        int timed = 0;
+        for (int i = 0; i < 1000; i++) {
+            long start = sampled.startTiming();
+            if (start != WebSecurityMetrics.NOT_SAMPLED) {
+                timed++;
+            }
+            sampled.corsTimed(start);
+        }
+
+        assertEquals(timed, this.registry.timer("sampled.cors.latency").getCount());
+        assertNotEquals(1000, timed);
+    }
+
+    private Object gauge(String name) {
+        Gauge<?> gauge = this.registry.getGauges().get(name);
+        return gauge.getValue();
+    }
+
+    private static MockHttpServletRequest request(String servletPath, String userAgent) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", servletPath);
+        request.setServletPath(servletPath);
+        request.addHeader(HttpHeaders.USER_AGENT, userAgent);
+        return request;
+    }
+
+    private static MockHttpServletRequest corsRequest(String method, String origin, String requestedMethod) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/api");
+        request.addHeader(HttpHeaders.ORIGIN, origin);
+        if (requestedMethod != null) {
+            request.addHeader(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, requestedMethod);
+        }
+        return request;
+    }
+
+    private static MockHttpServletResponse response() {
+        return new MockHttpServletResponse();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import com.palantir.websecurity.FetchMetadataConfiguration;
+import java.io.IOException;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link FetchMetadataFilter}.
+ */
+public final class FetchMetadataFilterTests {
+
+    private final FilterChain chain = mock(FilterChain.class);
+    private final WebSecurityMetrics metrics = mock(WebSecurityMetrics.class);
+    private final FetchMetadataFilter filter = new FetchMetadataFilter(
+            PathPrefixTrie.builder(FetchMetadataPolicy.of(FetchMetadataConfiguration.DEFAULT, false))
+                    .put("/embed", FetchMetadataPolicy.DISABLED)
+                    .build(),
+            this.metrics);
+
+    @Test
+    public void testCrossSiteRequestRejected() throws IOException, ServletException {
+        MockHttpServletRequest request = request("POST", "/api/delete", "cross-site", "cors", "empty");
+        MockHttpServletResponse response = new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        verify(this.chain, never()).doFilter(request, response);
+        verify(this.metrics).fetchMetadataRejected();
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, response.getStatus());
+        assertEquals("text/plain; charset=utf-8", response.getContentType());
+        assertEquals("Cross-site request rejected\n", response.getContentAsString());
+        assertEquals(response.getContentAsByteArray().length, response.getContentLength());
+    }
+
+    @Test
+    public void testAllowedRequestsPassed() throws IOException, ServletException {
+        assertPassed(request("POST", "/api/delete", "same-origin", "cors", "empty"));
+        assertPassed(request("GET", "/index.html", "cross-site", "navigate", "document"));
+        assertPassed(new MockHttpServletRequest("POST", "/api/delete"));
+
+        verify(this.metrics, never()).fetchMetadataRejected();
+    }
+
+    @Test
+    public void testExemptPathPassed() throws IOException, ServletException {
+        assertPassed(request("GET", "/embed/widget.js", "cross-site", "no-cors", "script"));
+    }
+
+    @Test
+    public void testLaterDispatchesPassed() throws IOException, ServletException {
+        MockHttpServletRequest request = request("GET", "/app.js", "cross-site", "no-cors", "script");
+        request.setDispatcherType(DispatcherType.ERROR);
+
+        assertPassed(request);
+    }
+
+    @Test
+    public void testPoliciesReplaced() throws IOException, ServletException {
+        this.filter.setHostPolicies(HostTable.of(PathPrefixTrie.of(FetchMetadataPolicy.of(
+                FetchMetadataConfiguration.builder().addAllowedDestinations("script").build(), false))));
+
+        assertPassed(request("GET", "/app.js", "cross-site", "no-cors", "script"));
+
+        // the path is no longer exempt
+        MockHttpServletResponse response = new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+        this.filter.doFilter(request("GET", "/embed/site.css", "cross-site", "no-cors", "style"), response,
+                this.chain);
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, response.getStatus());
+    }
+
+    private void assertPassed(MockHttpServletRequest request) throws IOException, ServletException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        this.filter.doFilter(request, response, this.chain);
+
+        verify(this.chain).doFilter(request, response);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+    }
+
+    private static MockHttpServletRequest request(String method, String path, String site, String mode,
+            String destination) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.setServletPath(path);
+        request.addHeader(FetchMetadataPolicy.SEC_FETCH_SITE, site);
+        request.addHeader(FetchMetadataPolicy.SEC_FETCH_MODE, mode);
+        request.addHeader(FetchMetadataPolicy.SEC_FETCH_DEST, destination);
+        return request;
+    }
+}
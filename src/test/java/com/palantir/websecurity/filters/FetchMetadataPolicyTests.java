@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.palantir.websecurity.FetchMetadataConfiguration;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FetchMetadataPolicy}.
+ */
+public final class FetchMetadataPolicyTests {
+
+    private final FetchMetadataPolicy policy = FetchMetadataPolicy.of(FetchMetadataConfiguration.DEFAULT, false);
+
+    @Test
+    public void testRequestsWithoutFetchMetadataAllowed() {
+        assertTrue(this.policy.isAllowed(null, null, null, "POST"));
+        assertTrue(this.policy.isAllowed(null, "no-cors", "script", "GET"));
+    }
+
+    @Test
+    public void testSameOriginAndUserRequestsAllowed() {
+        assertTrue(this.policy.isAllowed("same-origin", "cors", "empty", "POST"));
+        assertTrue(this.policy.isAllowed("same-site", "no-cors", "image", "GET"));
+        assertTrue(this.policy.isAllowed("none", "navigate", "document", "GET"));
+    }
+
+    @Test
+    public void testCrossSiteRequestsRejected() {
+        assertFalse(this.policy.isAllowed("cross-site", "no-cors", "script", "GET"));
+        assertFalse(this.policy.isAllowed("cross-site", "cors", "empty", "POST"));
+        assertFalse(this.policy.isAllowed("cross-site", "no-cors", "image", "GET"));
+        assertFalse(this.policy.isAllowed("cross-site", "websocket", "websocket", "GET"));
+        // unknown values are treated as cross-site and as values that aren't allowed
+        assertFalse(this.policy.isAllowed("other-site", "no-cors", "image", "GET"));
+        assertFalse(this.policy.isAllowed("cross-site", "teleport", "document", "GET"));
+    }
+
+    @Test
+    public void testCrossSiteNavigationsAllowed() {
+        assertTrue(this.policy.isAllowed("cross-site", "navigate", "document", "GET"));
+        assertTrue(this.policy.isAllowed("cross-site", "navigate", "iframe", "HEAD"));
+        assertTrue(this.policy.isAllowed("cross-site", "nested-navigate", "iframe", "GET"));
+        assertTrue(this.policy.isAllowed("cross-site", "navigate", null, "GET"));
+        assertFalse(this.policy.isAllowed("cross-site", "navigate", "document", "POST"));
+        assertFalse(this.policy.isAllowed("cross-site", "navigate", "object", "GET"));
+        assertFalse(this.policy.isAllowed("cross-site", "navigate", "embed", "GET"));
+    }
+
+    @Test
+    public void testConfiguredPolicy() {
+        FetchMetadataPolicy strict = FetchMetadataPolicy.of(FetchMetadataConfiguration.builder()
+                .allowSameSite(false)
+                .allowNavigations(false)
+                .addAllowedDestinations("image", "font")
+                .build(), true);
+
+        assertFalse(strict.isAllowed("same-site", "no-cors", "script", "GET"));
+        assertFalse(strict.isAllowed("cross-site", "navigate", "document", "GET"));
+        assertTrue(strict.isAllowed("same-site", "no-cors", "image", "GET"));
+        assertTrue(strict.isAllowed("cross-site", "cors", "font", "GET"));
+        // CORS is enabled, so the CorsFilter decides on CORS requests
+        assertTrue(strict.isAllowed("cross-site", "cors", "empty", "DELETE"));
+        assertTrue(strict.isAllowed("same-origin", "no-cors", "script", "GET"));
+    }
+
+    @Test
+    public void testDisabledPolicyAllowsEverything() {
+        assertFalse(FetchMetadataPolicy.DISABLED.isEnabled());
+        assertTrue(FetchMetadataPolicy.DISABLED.isAllowed("cross-site", "no-cors", "script", "GET"));
+        assertTrue(FetchMetadataPolicy.of(FetchMetadataConfiguration.DISABLED, false)
+                .isAllowed("cross-site", "cors", "empty", "POST"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDestinationRejected() {
+        FetchMetadataPolicy.of(FetchMetadataConfiguration.builder().addAllowedDestinations("picture").build(), false);
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link Hashes}.
+ */
+public final class HashesTests {
+
+    @Test
+    public void testMixMatchesMurmurHash3() {
+        assertEquals(0L, Hashes.mix(0L));
+        assertEquals(0xB456BCFC34C2CB2CL, Hashes.mix(1L));
+        assertEquals(0x810879608E4259CCL, Hashes.mix(42L));
+    }
+}
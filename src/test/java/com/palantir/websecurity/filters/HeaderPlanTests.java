@@ -0,0 +1,84 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HttpHeaders;
+import java.util.Collections;
+import org.eclipse.jetty.server.Response;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link HeaderPlan}.
+ */
+public final class HeaderPlanTests {
+
+    private static final String TEST_VALUE = "test";
+
+    private final HeaderPlan plan = HeaderPlan.builder()
+            .header(HttpHeaders.X_FRAME_OPTIONS, "sameorigin")
+            .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+            .headerIfNotEmpty(HttpHeaders.X_XSS_PROTECTION, "")
+            .build();
+
+    @Test
+    public void testEmpty() {
+        assertTrue(HeaderPlan.EMPTY.isEmpty());
+        assertTrue(HeaderPlan.builder().headerIfNotEmpty(HttpHeaders.X_FRAME_OPTIONS, "").build().isEmpty());
+    }
+
+    @Test
+    public void testBuilderReplacesValues() {
+        HeaderPlan replaced = HeaderPlan.builder()
+                .from(this.plan)
+                .header("x-frame-options", "deny")
+                .build();
+
+        assertEquals(ImmutableList.of(HttpHeaders.X_FRAME_OPTIONS, HttpHeaders.CACHE_CONTROL),
+                replaced.headers().keySet().asList());
+        assertEquals("deny", replaced.headers().get(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testApplyServletResponse() {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.addHeader(HttpHeaders.X_FRAME_OPTIONS, TEST_VALUE);
+
+        this.plan.apply(response);
+
+        assertEquals(Collections.singletonList("sameorigin"), response.getHeaders(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals("no-cache", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertNull(response.getHeader(HttpHeaders.X_XSS_PROTECTION));
+    }
+
+    @Test
+    public void testApplyJettyResponse() {
+        Response response = new Response(null, null);
+        response.addHeader(HttpHeaders.X_FRAME_OPTIONS, TEST_VALUE);
+        response.addHeader(HttpHeaders.X_FRAME_OPTIONS, TEST_VALUE);
+
+        this.plan.apply(response);
+        this.plan.apply(response);
+
+        assertEquals(Collections.singletonList("sameorigin"), response.getHeaders(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals("no-cache", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals(2, response.getHttpFields().size());
+    }
+
+    @Test
+    public void testApplyJettyResponseNotDuringInclude() {
+        Response response = new Response(null, null);
+        response.include();
+
+        this.plan.apply(response);
+
+        assertEquals(0, response.getHttpFields().size());
+    }
+}
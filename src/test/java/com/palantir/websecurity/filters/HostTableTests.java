@@ -0,0 +1,109 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+/**
+ * Tests for {@link HostTable}.
+ */
+public final class HostTableTests {
+
+    private final HostTable<String> table = HostTable.builder("default")
+            .put("example.com", "example")
+            .put("Tenant.Example.com.", "tenant")
+            .put("10.0.0.1", "ipv4")
+            .put("[::1]", "ipv6")
+            .build();
+
+    @Test
+    public void testGet() {
+        assertEquals("example", this.table.get("example.com"));
+        assertEquals("tenant", this.table.get("tenant.example.com"));
+        assertEquals("ipv4", this.table.get("10.0.0.1"));
+        assertEquals("ipv6", this.table.get("[::1]"));
+    }
+
+    @Test
+    public void testCasePortAndTrailingDotIgnored() {
+        assertEquals("example", this.table.get("EXAMPLE.com"));
+        assertEquals("example", this.table.get("example.com:8443"));
+        assertEquals("example", this.table.get("example.com."));
+        assertEquals("tenant", this.table.get("TENANT.example.COM.:80"));
+        assertEquals("ipv4", this.table.get("10.0.0.1:8080"));
+        assertEquals("ipv6", this.table.get("[::1]:8080"));
+    }
+
+    @Test
+    public void testUnknownHosts() {
+        assertEquals("default", this.table.get(null));
+        assertEquals("default", this.table.get(""));
+        assertEquals("default", this.table.get("other.example.com"));
+        assertEquals("default", this.table.get("example.co"));
+        assertEquals("default", this.table.get("example.comm"));
+        assertEquals("default", this.table.get("[::2]"));
+        assertEquals("default", HostTable.of("default").get("example.com"));
+    }
+
+    @Test
+    public void testHostsAndValues() {
+        HostTable<String> shared = HostTable.builder("default")
+                .put("a.example.com", "shared")
+                .put("b.example.com", "shared")
+                .put("c.example.com", "default")
+                .build();
+
+        assertEquals(ImmutableList.of("default", "shared"), shared.values());
+        assertEquals(ImmutableMap.of("a.example.com", "shared", "b.example.com", "shared", "c.example.com", "default"),
+                ImmutableMap.copyOf(shared.hosts()));
+        assertEquals("tenant", this.table.hosts().get("tenant.example.com"));
+    }
+
+    @Test
+    public void testManyHosts() {
+        HostTable.Builder<Integer> builder = HostTable.builder(-1);
+        for (int i = 0; i < 20000; i++) {
+            builder.put("tenant-" + i + ".example.com", i);
+        }
+        HostTable<Integer> hosts = builder.build();
+
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(Integer.valueOf(i), hosts.get("tenant-" + i + ".example.com"));
+        }
+        assertEquals(Integer.valueOf(-1), hosts.get("tenant-20000.example.com"));
+        assertEquals(20000, hosts.hosts().size());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("tenant.example.com", HostTable.normalize("Tenant.Example.COM."));
+        assertEquals("[::1]", HostTable.normalize("[::1]"));
+        assertInvalid("");
+        assertInvalid(".");
+        assertInvalid("example.com:8080");
+        assertInvalid("https://example.com");
+        assertInvalid("example.com/path");
+        assertInvalid("[::g]");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateHostsRejected() {
+        HostTable.builder("default").put("example.com", "a").put("Example.com.", "b");
+    }
+
+    private static void assertInvalid(String host) {
+        try {
+            HostTable.normalize(host);
+            fail(host);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -7,10 +7,12 @@ package com.palantir.websecurity.filters;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import com.google.common.net.HttpHeaders;
 import com.palantir.websecurity.WebSecurityConfiguration;
 import java.io.IOException;
+import javax.servlet.DispatcherType;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import org.junit.Test;
@@ -40,6 +42,33 @@ public final class JerseyAwareWebSecurityFilterTests {
         assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
     }
 
+    @Test
+    public void testInjectForPathPrefix() throws IOException, ServletException {
+        PathPrefixTrie<WebSecurityHeaderInjector> injectors =
+                PathPrefixTrie.builder(new WebSecurityHeaderInjector(DEFAULT_CONFIG))
+                        .put("/widget", new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                                .frameOptions(WebSecurityConfiguration.TURN_OFF)
+                                .build()))
+                        .build();
+        JerseyAwareWebSecurityFilter filter =
+                new JerseyAwareWebSecurityFilter(injectors, "/api/*", WebSecurityMetrics.NOOP);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/widget/frame.html");
+        request.setServletPath("/widget/frame.html");
+        filter.doFilter(request, response, chain);
+
+        assertNull(response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_TYPE_OPTIONS,
+                response.getHeader(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+
+        MockHttpServletResponse other = new MockHttpServletResponse();
+        MockHttpServletRequest otherRequest = new MockHttpServletRequest("GET", "/widgets");
+        otherRequest.setServletPath("/widgets");
+        filter.doFilter(otherRequest, other, chain);
+
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, other.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
     @Test
     public void testNotInjectForJerseyPathWithStar() throws IOException, ServletException {
         JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(DEFAULT_CONFIG, "/api/*");
@@ -58,13 +87,211 @@ public final class JerseyAwareWebSecurityFilterTests {
         assertNotInjecting(filter);
     }
 
+    @Test
+    public void testNotInjectForJerseyPathDifferentCase() throws IOException, ServletException {
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(DEFAULT_CONFIG, "/API/*");
+        assertNotInjecting(filter, "/Api");
+    }
+
+    @Test
+    public void testNotInjectForJerseyAtRoot() throws IOException, ServletException {
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(DEFAULT_CONFIG, "/*");
+        assertNotInjecting(filter, "");
+    }
+
+    @Test
+    public void testInjectForPathSharingJerseyPrefix() throws IOException, ServletException {
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(DEFAULT_CONFIG, "/api/*");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/apidocs/index.html");
+        request.setServletPath("/apidocs");
+
+        filter.doFilter(request, response, chain);
+
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
     private void assertNotInjecting(JerseyAwareWebSecurityFilter filter) throws IOException, ServletException {
-        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/hello");
+        assertNotInjecting(filter, "/api");
+    }
+
+    private void assertNotInjecting(JerseyAwareWebSecurityFilter filter, String servletPath)
+            throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", servletPath + "/hello");
         // the servlet path is used to check if the request is for Jersey
-        request.setServletPath("/api");
+        request.setServletPath(servletPath);
 
         filter.doFilter(request, response, chain);
 
         assertNull(response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
     }
+
+    @Test
+    public void testHtmlNonces() throws IOException, ServletException {
+        NonceHtmlResponseWrapperTests.ContentTypeResponse htmlResponse =
+                new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .htmlNonces(true)
+                .build(), "/api/*");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index.html");
+        request.setServletPath("/index.html");
+
+        filter.doFilter(request, htmlResponse, (req, resp) -> {
+            resp.setContentType("text/html");
+            resp.getWriter().print("<script>");
+        });
+
+        String nonce = (String) request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+        assertEquals("<script nonce=\"" + nonce + "\">", htmlResponse.getContentAsString());
+    }
+
+    @Test
+    public void testLaterDispatchesSkipped() throws IOException, ServletException {
+        PathPrefixTrie<WebSecurityHeaderInjector> injectors =
+                PathPrefixTrie.builder(new WebSecurityHeaderInjector(DEFAULT_CONFIG))
+                        .put("/assets", new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                                .frameOptions("deny")
+                                .build()))
+                        .build();
+        JerseyAwareWebSecurityFilter filter =
+                new JerseyAwareWebSecurityFilter(injectors, "/api/*", WebSecurityMetrics.NOOP);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index.html");
+        request.setServletPath("/index.html");
+
+        filter.doFilter(request, response, (req, resp) -> {
+            // forward to another path, which is filtered again
+            request.setDispatcherType(DispatcherType.FORWARD);
+            request.setServletPath("/assets/index.html");
+            filter.doFilter(req, resp, chain);
+        });
+
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(1, response.getHeaders(HttpHeaders.X_FRAME_OPTIONS).size());
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void testJerseyForwardsInjected() throws IOException, ServletException {
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(DEFAULT_CONFIG, "/api/*");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/hello");
+        request.setServletPath("/api");
+
+        filter.doFilter(request, response, (req, resp) -> {
+            request.setDispatcherType(DispatcherType.FORWARD);
+            request.setServletPath("/views/hello.html");
+            filter.doFilter(req, resp, chain);
+        });
+
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testHtmlNoncesInErrorDispatches() throws IOException, ServletException {
+        NonceHtmlResponseWrapperTests.ContentTypeResponse htmlResponse =
+                new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .htmlNonces(true)
+                .build(), "/api/*");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index.html");
+        request.setServletPath("/index.html");
+        FilterChain errorPage = (req, resp) -> {
+            resp.setContentType("text/html");
+            resp.getWriter().print("<script>");
+        };
+
+        filter.doFilter(request, htmlResponse, chain);
+        // the error dispatch gets the unwrapped response
+        request.setDispatcherType(DispatcherType.ERROR);
+        filter.doFilter(request, htmlResponse, errorPage);
+
+        String nonce = (String) request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+        assertEquals("<script nonce=\"" + nonce + "\">", htmlResponse.getContentAsString());
+    }
+
+    @Test
+    public void testHtmlNoncesNotInJerseyResponses() throws IOException, ServletException {
+        NonceHtmlResponseWrapperTests.ContentTypeResponse htmlResponse =
+                new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .htmlNonces(true)
+                .build(), "/api/*");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/hello");
+        request.setServletPath("/api");
+
+        filter.doFilter(request, htmlResponse, (req, resp) -> {
+            resp.setContentType("text/html");
+            resp.getWriter().print("<script>");
+        });
+
+        assertEquals("<script>", htmlResponse.getContentAsString());
+    }
+
+    @Test
+    public void testDocumentHeadersOnly() throws IOException, ServletException {
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(WebSecurityConfiguration.builder()
+                .documentHeadersOnly(true)
+                .build(), "/api/*");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/assets/app.js");
+        request.setServletPath("/assets/app.js");
+        NonceHtmlResponseWrapperTests.ContentTypeResponse script =
+                new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+
+        filter.doFilter(request, script, (req, resp) -> resp.setContentType("application/javascript"));
+
+        assertNull(script.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_TYPE_OPTIONS,
+                script.getHeader(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+
+        MockHttpServletRequest pageRequest = new MockHttpServletRequest("GET", "/index.html");
+        pageRequest.setServletPath("/index.html");
+        NonceHtmlResponseWrapperTests.ContentTypeResponse page =
+                new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+
+        filter.doFilter(pageRequest, page, (req, resp) -> resp.setContentType("text/html"));
+
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, page.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testDocumentHeadersOnlyWithHtmlNonces() throws IOException, ServletException {
+        NonceHtmlResponseWrapperTests.ContentTypeResponse htmlResponse =
+                new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .htmlNonces(true)
+                .documentHeadersOnly(true)
+                .build(), "/api/*");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/index.html");
+        request.setServletPath("/index.html");
+
+        filter.doFilter(request, htmlResponse, (req, resp) -> {
+            resp.setContentType("text/html");
+            resp.getWriter().print("<script>");
+        });
+
+        String nonce = (String) request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+        assertEquals("<script nonce=\"" + nonce + "\">", htmlResponse.getContentAsString());
+        assertEquals("script-src 'nonce-" + nonce + "'", htmlResponse.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testDocumentHeadersOnlyInErrorDispatches() throws IOException, ServletException {
+        JerseyAwareWebSecurityFilter filter = new JerseyAwareWebSecurityFilter(WebSecurityConfiguration.builder()
+                .documentHeadersOnly(true)
+                .build(), "/api/*");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/assets/app.js");
+        request.setServletPath("/assets/app.js");
+        NonceHtmlResponseWrapperTests.ContentTypeResponse errorResponse =
+                new NonceHtmlResponseWrapperTests.ContentTypeResponse();
+
+        filter.doFilter(request, errorResponse, (req, resp) -> resp.setContentType("application/javascript"));
+        // the error dispatch gets the unwrapped response
+        request.setDispatcherType(DispatcherType.ERROR);
+        filter.doFilter(request, errorResponse, (req, resp) -> resp.setContentType("text/html"));
+
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS,
+                errorResponse.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.net.HttpHeaders;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/**
+ * Tests for {@link NonceHtmlResponseWrapper} and the {@link HtmlNonceScanner}.
+ */
+public final class NonceHtmlResponseWrapperTests {
+
+    private static final String NONCE = "abc+/123";
+    private static final String TWO_BYTE_CHARACTER = "\u00e9"; // e with an acute accent
+
+    private final ContentTypeResponse response = new ContentTypeResponse();
+    private final NonceHtmlResponseWrapper wrapper = new NonceHtmlResponseWrapper(this.response, NONCE);
+
+    @Test
+    public void testScriptAndStyleTags() throws IOException {
+        assertRewritten(
+                "<html><head><script src=\"a.js\"></script><STYLE>p {}</STYLE><Script>x()</Script>",
+                "<html><head><script src=\"a.js\" nonce=\"abc+/123\"></script><STYLE nonce=\"abc+/123\">p {}</STYLE>"
+                        + "<Script nonce=\"abc+/123\">x()</Script>");
+    }
+
+    @Test
+    public void testOtherTagsUntouched() throws IOException {
+        String html = "<scripts></scripts><styles/><stylesheet><link rel=stylesheet><p>script style</p>< script>";
+        assertRewritten(html, html);
+    }
+
+    @Test
+    public void testTagNameEnds() throws IOException {
+        // browsers ignore the slash, so the style element only ends at its end tag
+        assertRewritten("<style/></style><script\n>",
+                "<style/ nonce=\"abc+/123\"></style><script\n nonce=\"abc+/123\">");
+    }
+
+    @Test
+    public void testTagsWithNonceSkipped() throws IOException {
+        // only an attribute named nonce counts, not one that has nonce in its name or value
+        assertRewritten("<script nonce=\"other\"></script><style NONCE></style><script src=a.js nonce=x></script>"
+                        + "<script data-nonce=x src=nonce title=\"nonce\" nonces></script><script src = nonce>",
+                "<script nonce=\"other\"></script><style NONCE></style><script src=a.js nonce=x></script>"
+                        + "<script data-nonce=x src=nonce title=\"nonce\" nonces nonce=\"abc+/123\"></script>"
+                        + "<script src = nonce nonce=\"abc+/123\">");
+    }
+
+    @Test
+    public void testCommentsSkipped() throws IOException {
+        assertRewritten("<!-- <script> -- > --><!----><script>",
+                "<!-- <script> -- > --><!----><script nonce=\"abc+/123\">");
+    }
+
+    @Test
+    public void testDoctypeAndEndTags() throws IOException {
+        assertRewritten("<!DOCTYPE html></p><script>", "<!DOCTYPE html></p><script nonce=\"abc+/123\">");
+    }
+
+    @Test
+    public void testElementContentsSkipped() throws IOException {
+        assertRewritten(
+                "<script>var tag = '<script>'; var end = '</scripts>';</script ><style><style></style><script>",
+                "<script nonce=\"abc+/123\">var tag = '<script>'; var end = '</scripts>';</script ><style "
+                        + "nonce=\"abc+/123\"><style></style><script nonce=\"abc+/123\">");
+    }
+
+    @Test
+    public void testQuotedAttributes() throws IOException {
+        assertRewritten("<a title='>' href=\"<script>\"><script>", "<a title='>' href=\"<script>\"><script "
+                + "nonce=\"abc+/123\">");
+    }
+
+    @Test
+    public void testOneByteAtATime() throws IOException {
+        this.response.setContentType("text/html");
+        ServletOutputStream output = this.wrapper.getOutputStream();
+        for (byte value : ("<p><script>" + TWO_BYTE_CHARACTER + "</script>").getBytes(StandardCharsets.UTF_8)) {
+            output.write(value);
+        }
+
+        assertEquals("<p><script nonce=\"abc+/123\">" + TWO_BYTE_CHARACTER + "</script>",
+                new String(this.response.getContentAsByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriter() throws IOException {
+        this.response.setContentType("text/html");
+        PrintWriter writer = this.wrapper.getWriter();
+        writer.print("<scr");
+        writer.print("ipt>");
+        writer.write("<style>".toCharArray());
+        writer.write('<');
+        writer.flush();
+
+        assertEquals("<script nonce=\"abc+/123\"><style>", this.response.getContentAsString().substring(0, 32));
+    }
+
+    @Test
+    public void testOtherContentTypesPassThrough() throws IOException {
+        this.wrapper.setContentLength(8);
+        this.response.setContentType("application/javascript");
+        this.wrapper.getOutputStream().write("<script>".getBytes(StandardCharsets.UTF_8));
+
+        assertFalse(this.wrapper.isRewriting());
+        assertEquals("<script>", this.response.getContentAsString());
+        assertEquals(8, this.response.getContentLength());
+    }
+
+    @Test
+    public void testPartialContentPassesThrough() throws IOException {
+        this.response.setContentType("text/html");
+        this.response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        this.wrapper.getOutputStream().write("<script>".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("<script>", this.response.getContentAsString());
+    }
+
+    @Test
+    public void testContentLengthOfHtmlDropped() throws IOException {
+        this.wrapper.setHeader(HttpHeaders.CONTENT_LENGTH, "8");
+        this.wrapper.setContentType("text/html");
+        this.wrapper.getOutputStream().write("<script>".getBytes(StandardCharsets.UTF_8));
+        this.wrapper.setContentLength(8);
+        this.wrapper.finish();
+
+        assertTrue(this.wrapper.isRewriting());
+        assertNull(this.response.getHeader(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    @Test
+    public void testContentLengthWithoutBodyKept() {
+        this.wrapper.setContentType("text/html");
+        this.wrapper.setIntHeader(HttpHeaders.CONTENT_LENGTH, 10);
+        this.wrapper.finish();
+
+        assertEquals(10, this.response.getContentLength());
+    }
+
+    private void assertRewritten(String html, String expected) throws IOException {
+        this.response.setContentType("text/html");
+        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+
+        // split the HTML across two writes so that tags span writes
+        ServletOutputStream output = this.wrapper.getOutputStream();
+        output.write(bytes, 0, bytes.length / 2);
+        output.write(bytes, bytes.length / 2, bytes.length - bytes.length / 2);
+
+        assertEquals(expected, this.response.getContentAsString());
+    }
+
+    /**
+     * Keeps the content type as it is set, since the mock response needs Spring's web classes to parse it.
+     */
+    static final class ContentTypeResponse extends MockHttpServletResponse {
+        private String contentType;
+
+        @Override
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType() {
+            return this.contentType;
+        }
+    }
+}
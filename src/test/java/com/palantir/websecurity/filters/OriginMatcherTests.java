@@ -0,0 +1,69 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+/**
+ * Tests for {@link OriginMatcher}.
+ */
+public final class OriginMatcherTests {
+
+    @Test
+    public void testExactOrigins() {
+        OriginMatcher matcher = OriginMatcher.of(ImmutableList.of("http://origin", "https://origin:8443"));
+
+        assertTrue(matcher.matches("http://origin"));
+        assertTrue(matcher.matches("https://origin:8443"));
+        assertFalse(matcher.matches("https://origin"));
+        assertFalse(matcher.matches("http://origin.com"));
+    }
+
+    @Test
+    public void testWildcardOrigins() {
+        OriginMatcher matcher = OriginMatcher.of(ImmutableList.of("https://*.example.com", "http://*.example.com:*"));
+
+        assertTrue(matcher.matches("https://app.example.com"));
+        assertTrue(matcher.matches("https://a.b.example.com"));
+        assertTrue(matcher.matches("https://.example.com"));
+        assertFalse(matcher.matches("https://example.com"));
+        assertFalse(matcher.matches("https://app.example.com.evil"));
+        assertFalse(matcher.matches("https://appxexample.com"));
+        assertFalse(matcher.matches("http://app.example.com"));
+
+        // the second wildcard is handled by a regular expression
+        assertTrue(matcher.matches("http://app.example.com:8080"));
+    }
+
+    @Test
+    public void testWildcardPrefixAndSuffixDoNotOverlap() {
+        OriginMatcher matcher = OriginMatcher.of(ImmutableList.of("https://a*a"));
+
+        assertTrue(matcher.matches("https://aa"));
+        assertTrue(matcher.matches("https://aba"));
+        assertFalse(matcher.matches("https://a"));
+    }
+
+    @Test
+    public void testRegexOrigins() {
+        OriginMatcher matcher = OriginMatcher.of(ImmutableList.of("https://(app|api)*.example.com"));
+
+        assertTrue(matcher.matches("https://app1.example.com"));
+        assertTrue(matcher.matches("https://api.example.com"));
+        assertFalse(matcher.matches("https://web.example.com"));
+    }
+
+    @Test
+    public void testNoOrigins() {
+        OriginMatcher matcher = OriginMatcher.of(ImmutableList.<String>of());
+
+        assertFalse(matcher.matches("http://origin"));
+        assertFalse(matcher.matches(""));
+    }
+}
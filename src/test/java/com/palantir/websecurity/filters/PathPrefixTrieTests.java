@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PathPrefixTrie}.
+ */
+public final class PathPrefixTrieTests {
+
+    private final PathPrefixTrie<String> trie = PathPrefixTrie.builder("root")
+            .put("/docs", "docs")
+            .put("/docs/api/*", "docs-api")
+            .put("/widget/", "widget")
+            .put("/widgets", "widgets")
+            .build();
+
+    @Test
+    public void testRootValue() {
+        assertEquals("root", this.trie.get(""));
+        assertEquals("root", this.trie.get("/"));
+        assertEquals("root", this.trie.get("/index.html"));
+        assertEquals("root", this.trie.get("/doc"));
+    }
+
+    @Test
+    public void testPrefixMatchesOnSegmentBoundary() {
+        assertEquals("docs", this.trie.get("/docs"));
+        assertEquals("docs", this.trie.get("/docs/"));
+        assertEquals("docs", this.trie.get("/docs/index.html"));
+        assertEquals("root", this.trie.get("/docsearch"));
+        assertEquals("widget", this.trie.get("/widget/frame"));
+        assertEquals("widgets", this.trie.get("/widgets"));
+        assertEquals("root", this.trie.get("/widgetsx"));
+    }
+
+    @Test
+    public void testLongestPrefixWins() {
+        assertEquals("docs-api", this.trie.get("/docs/api"));
+        assertEquals("docs-api", this.trie.get("/docs/api/index.html"));
+        assertEquals("docs", this.trie.get("/docs/apis"));
+        assertEquals("docs", this.trie.get("/docs/ap"));
+    }
+
+    @Test
+    public void testServletPathAndPathInfo() {
+        assertEquals("docs-api", this.trie.get("/docs", "/api/index.html"));
+        assertEquals("docs", this.trie.get("/do", "cs/apis"));
+        assertEquals("root", this.trie.get("/docs", "earch"));
+        assertEquals("docs", this.trie.get("/docs", null));
+        assertEquals("widget", this.trie.get("", "/widget"));
+    }
+
+    @Test
+    public void testPathsAreCaseSensitive() {
+        assertEquals("root", this.trie.get("/DOCS"));
+    }
+
+    @Test
+    public void testPrefixesAndValues() {
+        assertEquals(ImmutableMap.of(
+                "/docs", "docs",
+                "/docs/api", "docs-api",
+                "/widget", "widget",
+                "/widgets", "widgets"), this.trie.prefixes());
+        assertEquals(ImmutableList.of("root", "docs", "docs-api", "widget", "widgets"), this.trie.values());
+        assertEquals(ImmutableList.of("root"), PathPrefixTrie.builder("root").put("/a", "root").build().values());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("/docs", PathPrefixTrie.normalize("/docs/*"));
+        assertEquals("/docs", PathPrefixTrie.normalize("/docs/"));
+        assertEquals("/docs", PathPrefixTrie.normalize("/docs"));
+        assertEquals("", PathPrefixTrie.normalize("/*"));
+        assertEquals("", PathPrefixTrie.normalize("/"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRelativePrefix() {
+        PathPrefixTrie.builder("root").put("docs", "docs");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRootPrefix() {
+        PathPrefixTrie.builder("root").put("/*", "all");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatePrefix() {
+        PathPrefixTrie.builder("root").put("/docs", "docs").put("/docs/*", "other");
+    }
+}
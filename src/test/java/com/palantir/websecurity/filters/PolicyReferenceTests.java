@@ -0,0 +1,54 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import com.palantir.websecurity.WebSecurityConfiguration;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Tests for {@link PolicyReference}.
+ */
+public final class PolicyReferenceTests {
+
+    private static final PolicySnapshot SECOND = PolicySnapshot.DEFAULT.withConfiguration(
+            WebSecurityConfiguration.builder().frameOptions("deny").build());
+
+    @Test
+    public void testRequestKeepsPinnedSnapshot() {
+        PolicyReference reference = new PolicyReference(PolicySnapshot.DEFAULT);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        assertSame(PolicySnapshot.DEFAULT, reference.forRequest(request));
+        reference.set(SECOND);
+
+        assertSame(PolicySnapshot.DEFAULT, reference.forRequest(request));
+        assertSame(SECOND, reference.forRequest(new MockHttpServletRequest()));
+    }
+
+    @Test
+    public void testReferencesPinSeparately() {
+        PolicyReference first = new PolicyReference(PolicySnapshot.DEFAULT);
+        PolicyReference second = new PolicyReference(SECOND);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        assertSame(PolicySnapshot.DEFAULT, first.forRequest(request));
+        assertSame(SECOND, second.forRequest(request));
+        assertNotEquals(first.attribute(), second.attribute());
+    }
+
+    @Test
+    public void testUpdateReplacesCurrentSnapshot() {
+        PolicyReference reference = new PolicyReference(PolicySnapshot.DEFAULT);
+
+        reference.update(snapshot -> snapshot.withConfiguration(SECOND.configuration()));
+
+        assertSame(SECOND.configuration(), reference.get().configuration());
+        assertSame(PolicySnapshot.DEFAULT.injectors(), reference.get().injectors());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+/**
+ * Tests for {@link PreflightRateLimiter} and {@link TokenBucket}.
+ */
+public final class PreflightRateLimiterTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(-5 * SECOND);
+
+    @Test
+    public void testTokenBucket() {
+        TokenBucket bucket = new TokenBucket(2, 3, this.now.get());
+
+        assertTrue(bucket.tryAcquire(this.now.get()));
+        assertTrue(bucket.tryAcquire(this.now.get()));
+        assertTrue(bucket.tryAcquire(this.now.get()));
+        assertFalse(bucket.tryAcquire(this.now.get()));
+        assertFalse(bucket.isIdle(this.now.get()));
+
+        // refills at the rate, up to the burst
+        assertTrue(bucket.tryAcquire(this.now.get() + SECOND / 2));
+        assertFalse(bucket.tryAcquire(this.now.get() + SECOND / 2));
+        assertTrue(bucket.isIdle(this.now.get() + 2 * SECOND));
+        assertEquals(3, acquireAll(bucket, this.now.get() + 10 * SECOND));
+    }
+
+    @Test
+    public void testOriginsLimitedSeparately() {
+        PreflightRateLimiter limiter = new PreflightRateLimiter(2, 0, 16, this.now::get);
+
+        assertTrue(limiter.tryAcquire("http://a", true));
+        assertTrue(limiter.tryAcquire("http://a", true));
+        assertFalse(limiter.tryAcquire("http://a", true));
+        assertTrue(limiter.tryAcquire("http://b", true));
+
+        this.now.addAndGet(SECOND);
+        assertTrue(limiter.tryAcquire("http://a", true));
+
+        // not limited
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire("http://evil", false));
+        }
+    }
+
+    @Test
+    public void testRejectedOriginsShareALimit() {
+        PreflightRateLimiter limiter = new PreflightRateLimiter(0, 64, 16, this.now::get);
+
+        int allowed = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (limiter.tryAcquire("http://evil" + i, false)) {
+                allowed++;
+            }
+        }
+        assertEquals(64, allowed);
+        assertTrue(limiter.tryAcquire("http://origin", true));
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    public void testIdleOriginsEvictedFirst() {
+        PreflightRateLimiter limiter = new PreflightRateLimiter(1, 0, 4, this.now::get);
+        for (int i = 0; i < 4; i++) {
+            limiter.tryAcquire("http://idle" + i, true);
+        }
+        this.now.addAndGet(SECOND);
+
+        limiter.tryAcquire("http://busy", true);
+        assertFalse(limiter.tryAcquire("http://busy", true));
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire("http://new" + i, true);
+            assertTrue(limiter.size() <= 4);
+        }
+
+        // the busy origin is only evicted once no bucket is idle, so it stays limited for a while
+        assertEquals(4, limiter.size());
+    }
+
+    private static int acquireAll(TokenBucket bucket, long time) {
+        int acquired = 0;
+        while (bucket.tryAcquire(time)) {
+            acquired++;
+        }
+        return acquired;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link UserAgentBrowserClassifier}.
+ */
+public final class UserAgentBrowserClassifierTests {
+
+    private final BrowserClassifier classifier = new UserAgentBrowserClassifier();
+
+    @Test
+    public void testLegacyIe() {
+        assertEquals(BrowserClass.LEGACY_IE,
+                classifier.classify("Mozilla/5.0 (compatible; MSIE 10.0; Windows NT 6.1; Trident/6.0)"));
+        assertEquals(BrowserClass.LEGACY_IE,
+                classifier.classify("Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; rv:11.0) like Gecko"));
+    }
+
+    @Test
+    public void testModern() {
+        assertEquals(BrowserClass.MODERN, classifier.classify(
+                "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/61.0 Safari/537.36"));
+    }
+
+    @Test
+    public void testNonBrowser() {
+        assertEquals(BrowserClass.NON_BROWSER, classifier.classify("okhttp/3.8.1"));
+        assertEquals(BrowserClass.NON_BROWSER, classifier.classify(null));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Splitter;
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.io.IOException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link WebSecurityHeaderCustomizer}.
+ */
+public final class WebSecurityHeaderCustomizerTests {
+
+    private final Server server = new Server();
+    private final LocalConnector connector = new LocalConnector(this.server);
+    private final LocalConnector adminConnector =
+            new LocalConnector(this.server, new HttpConnectionFactory(new HttpConfiguration()));
+    private final ServletContextHandler context = new ServletContextHandler();
+
+    private WebSecurityHeaderCustomizer customizer;
+
+    @Before
+    public void before() throws Exception {
+        this.adminConnector.setName(WebSecurityHeaderCustomizer.ADMIN_CONNECTOR_NAME);
+        this.server.addConnector(this.connector);
+        this.server.addConnector(this.adminConnector);
+
+        this.context.setContextPath("/app");
+        this.context.addServlet(new ServletHolder(new OkServlet()), "/api/*");
+        this.context.addServlet(new ServletHolder(new OkServlet()), "/assets/*");
+        this.context.addServlet(new ServletHolder(new ErrorServlet()), "/error/*");
+        this.server.setHandler(this.context);
+
+        PathPrefixTrie<WebSecurityHeaderInjector> injectors =
+                PathPrefixTrie.builder(new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT))
+                        .put("/assets/docs", new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                                .frameOptions("deny")
+                                .build()))
+                        .build();
+        this.customizer = new WebSecurityHeaderCustomizer(injectors, this.context, "/api/*", WebSecurityMetrics.NOOP);
+        this.customizer.install(this.server);
+
+        this.server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        this.server.stop();
+    }
+
+    @Test
+    public void testInjectHeaders() throws Exception {
+        String response = get(this.connector, "/app/assets/index.html");
+
+        assertTrue(response, response.startsWith("HTTP/1.1 200"));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, header(response, HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testInjectForPathPrefix() throws Exception {
+        String response = get(this.connector, "/app/assets/docs/index.html");
+
+        assertEquals("deny", header(response, HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testJerseyRequestsSkipped() throws Exception {
+        assertNull(header(get(this.connector, "/app/api/hello"), HttpHeaders.X_FRAME_OPTIONS));
+        assertNull(header(get(this.connector, "/app/api"), HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testResponsesOutsideServletsCovered() throws Exception {
+        String outsideContext = get(this.connector, "/other");
+        String noServlet = get(this.connector, "/app/missing");
+
+        assertTrue(outsideContext, outsideContext.startsWith("HTTP/1.1 404"));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS,
+                header(outsideContext, HttpHeaders.X_FRAME_OPTIONS));
+        assertTrue(noServlet, noServlet.startsWith("HTTP/1.1 404"));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, header(noServlet, HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testErrorPagesCovered() throws Exception {
+        String response = get(this.connector, "/app/error/page");
+
+        assertTrue(response, response.startsWith("HTTP/1.1 500"));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, header(response, HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testAdminConnectorSkipped() throws Exception {
+        assertNull(header(get(this.adminConnector, "/app/assets/index.html"), HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testSetInjectors() throws Exception {
+        this.customizer.setInjectors(PathPrefixTrie.of(new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .frameOptions("reloaded")
+                .build())));
+
+        String response = get(this.connector, "/app/assets/docs/index.html");
+
+        assertEquals("reloaded", header(response, HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testInjectForHost() throws Exception {
+        PathPrefixTrie<WebSecurityHeaderInjector> tenant = PathPrefixTrie.of(new WebSecurityHeaderInjector(
+                WebSecurityConfiguration.builder().frameOptions("tenant").build()));
+        this.customizer.setHostInjectors(HostTable.builder(this.customizer.getInjectors())
+                .put("tenant.example.com", tenant)
+                .put("[::1]", tenant)
+                .build());
+
+        assertEquals("tenant", header(get(this.connector, "/app/assets/index.html", "Tenant.Example.com:8080"),
+                HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals("tenant", header(get(this.connector, "/app/assets/index.html", "[::1]:8080"),
+                HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals("deny", header(get(this.connector, "/app/assets/docs/index.html", "other.example.com"),
+                HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    private static String get(LocalConnector localConnector, String path) throws Exception {
+        return get(localConnector, path, "localhost");
+    }
+
+    private static String get(LocalConnector localConnector, String path, String host) throws Exception {
+        return localConnector.getResponses(
+                "GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n");
+    }
+
+    private static String header(String response, String name) {
+        for (String line : Splitter.on("\r\n").split(response)) {
+            if (line.isEmpty()) {
+                return null;
+            }
+            if (line.regionMatches(true, 0, name + ":", 0, name.length() + 1)) {
+                return line.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static final class OkServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+            resp.setStatus(HttpServletResponse.SC_OK);
+        }
+    }
+
+    private static final class ErrorServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertTrue;
+
+import com.palantir.websecurity.WebSecurityConfiguration;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.http.HostPortHttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.hpack.HpackEncoder;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Measures the bytes the headers of a {@link WebSecurityHeaderInjector} take in the responses of an HTTP/2 connection
+ * to a cleartext (h2c) Jetty connector, after HPACK compression.
+ */
+public final class WebSecurityHeaderInjectorHttp2Tests {
+
+    private static final int RESPONSES = 4;
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int SETTINGS = 0x4;
+    private static final int CONTINUATION = 0x9;
+    private static final int END_STREAM = 0x1;
+    private static final int END_HEADERS = 0x4;
+
+    private final Server server = new Server();
+
+    @After
+    public void after() throws Exception {
+        this.server.stop();
+    }
+
+    @Test
+    public void testStaticHeadersIndexedAfterFirstResponse() throws Exception {
+        int[] without = headerBytes(null);
+        int[] with = headerBytes(WebSecurityConfiguration.builder().http2Headers(true).build());
+
+        // the first response carries the headers, which are then sent as indices of a byte or two each
+        assertTrue(Arrays.toString(with), with[0] - without[0] > 100);
+        for (int i = 1; i < RESPONSES; i++) {
+            assertTrue(Arrays.toString(with), with[i] - without[i] <= 4);
+        }
+    }
+
+    @Test
+    public void testNoncePolicySentWithEveryResponse() throws Exception {
+        WebSecurityConfiguration config = WebSecurityConfiguration.builder()
+                .http2Headers(true)
+                .contentSecurityPolicy("default-src 'self';script-src 'nonce-{nonce}'")
+                .build();
+        int[] without = headerBytes(null);
+        int[] with = headerBytes(config);
+
+        // the nonce makes every policy different, so it is sent in full, only the name is indexed
+        for (int i = 1; i < RESPONSES; i++) {
+            assertTrue(Arrays.toString(with), with[i] - without[i] > 40);
+        }
+    }
+
+    /**
+     * Returns the bytes of the header block of each of {@link #RESPONSES} responses on one connection to a server
+     * that injects the headers for the {@code config}, or no headers if it is null.
+     */
+    private int[] headerBytes(WebSecurityConfiguration config) throws Exception {
+        this.server.stop();
+        for (Connector connector : this.server.getConnectors()) {
+            this.server.removeConnector(connector);
+        }
+
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setSendDateHeader(false);
+        httpConfig.setSendServerVersion(false);
+        ServerConnector connector = new ServerConnector(this.server, new HTTP2CServerConnectionFactory(httpConfig));
+        this.server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(new ServletHolder(new OkServlet()), "/*");
+        if (config != null) {
+            context.addFilter(new FilterHolder(new WebSecurityFilter(config)), "/*",
+                    EnumSet.of(DispatcherType.REQUEST));
+        }
+        this.server.setHandler(context);
+        this.server.start();
+
+        try (Socket socket = new Socket("localhost", connector.getLocalPort())) {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(PREFACE);
+            writeFrame(out, SETTINGS, 0, 0, new byte[0]);
+
+            HpackEncoder encoder = new HpackEncoder();
+            int[] bytes = new int[RESPONSES];
+            for (int i = 0; i < RESPONSES; i++) {
+                int stream = 2 * i + 1;
+                writeFrame(out, HEADERS, END_STREAM | END_HEADERS, stream, request(encoder, connector.getLocalPort()));
+                bytes[i] = readHeaderBytes(in, stream);
+            }
+            return bytes;
+        }
+    }
+
+    private static byte[] request(HpackEncoder encoder, int port) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        encoder.encode(buffer, new MetaData.Request("GET", HttpScheme.HTTP,
+                new HostPortHttpField("localhost:" + port), "/index.html", HttpVersion.HTTP_2, new HttpFields()));
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int stream, byte[] payload)
+            throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_LENGTH + payload.length);
+        frame.put((byte) (payload.length >>> 16)).put((byte) (payload.length >>> 8)).put((byte) payload.length);
+        frame.put((byte) type).put((byte) flags).putInt(stream).put(payload);
+        out.write(frame.array());
+        out.flush();
+    }
+
+    /**
+     * Reads frames until the response on the {@code stream} has ended, and returns the length of its header block.
+     */
+    private static int readHeaderBytes(DataInputStream in, int stream) throws IOException {
+        int headerBytes = 0;
+        while (true) {
+            byte[] header = new byte[FRAME_HEADER_LENGTH];
+            in.readFully(header);
+            int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+            int type = header[3];
+            int flags = header[4];
+            int frameStream = ByteBuffer.wrap(header, 5, 4).getInt() & Integer.MAX_VALUE;
+            in.readFully(new byte[length]);
+
+            if (frameStream != stream) {
+                continue;
+            }
+            if (type == HEADERS || type == CONTINUATION) {
+                headerBytes += length;
+            }
+            if ((type == HEADERS || type == DATA) && (flags & END_STREAM) != 0) {
+                return headerBytes;
+            }
+        }
+    }
+
+    private static final class OkServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+            resp.setStatus(HttpServletResponse.SC_OK);
+        }
+    }
+}
@@ -5,10 +5,17 @@
 package com.palantir.websecurity.filters;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 import com.google.common.net.HttpHeaders;
 import com.palantir.websecurity.WebSecurityConfiguration;
+import java.util.Locale;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
@@ -20,6 +27,7 @@ public final class WebSecurityHeaderInjectorTests {
 
     private static final String USER_AGENT_NOT_IE = "not-ie-10-or-11";
     private static final String TEST_VALUE = "test";
+    private static final String NONCE_POLICY = "script-src 'nonce-{nonce}'; style-src 'nonce-{nonce}'";
 
     private final MockHttpServletRequest request = new MockHttpServletRequest();
     private final MockHttpServletResponse response = new MockHttpServletResponse();
@@ -138,4 +146,151 @@ public final class WebSecurityHeaderInjectorTests {
 
         assertEquals(TEST_VALUE, response.getHeader(HttpHeaders.X_XSS_PROTECTION));
     }
+
+    @Test
+    public void testContentSecurityPolicyNonce() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy(NONCE_POLICY)
+                .build());
+
+        injector.injectHeaders(request, response);
+
+        String nonce = (String) request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+        assertEquals(CspNonceGenerator.NONCE_LENGTH, nonce.length());
+        assertEquals("script-src 'nonce-" + nonce + "';style-src 'nonce-" + nonce + "'",
+                response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY));
+        assertNull(response.getHeader(WebSecurityHeaderInjector.HEADER_IE_X_CONTENT_SECURITY_POLICY));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS, response.getHeader(HttpHeaders.X_FRAME_OPTIONS));
+        assertTrue(injector.usesNonce());
+        assertEquals("script-src 'nonce-{nonce}';style-src 'nonce-{nonce}'",
+                injector.getHeaders(request).headers().get(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testContentSecurityPolicyNonceIe() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy(NONCE_POLICY)
+                .build());
+
+        request.addHeader(HttpHeaders.USER_AGENT, WebSecurityHeaderInjector.USER_AGENT_IE_11);
+
+        injector.injectHeaders(request, response);
+
+        String policy = response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY);
+        assertFalse(policy.contains(WebSecurityHeaderInjector.CSP_NONCE_PLACEHOLDER));
+        assertEquals(policy, response.getHeader(WebSecurityHeaderInjector.HEADER_IE_X_CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testContentSecurityPolicyNoncePerRequest() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy(NONCE_POLICY)
+                .build());
+        MockHttpServletRequest otherRequest = new MockHttpServletRequest();
+
+        injector.injectHeaders(request, response);
+        injector.injectHeaders(otherRequest, new MockHttpServletResponse());
+
+        assertNotEquals(request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE),
+                otherRequest.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE));
+    }
+
+    @Test
+    public void testContentSecurityPolicyNonceKeptForRequest() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .build());
+
+        request.setAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE, "existing");
+
+        injector.injectHeaders(request, response);
+
+        assertEquals("script-src 'nonce-existing'", response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testUnsafeNonceReplaced() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .build());
+
+        request.setAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE, "bad\"\r\n");
+
+        injector.injectHeaders(request, response);
+
+        String nonce = (String) request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+        assertEquals(CspNonceGenerator.NONCE_LENGTH, nonce.length());
+        assertEquals("script-src 'nonce-" + nonce + "'", response.getHeader(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testNoNonceWithoutPlaceholder() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT);
+
+        injector.injectHeaders(request, response);
+
+        assertFalse(injector.usesNonce());
+        assertNull(request.getAttribute(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE));
+    }
+
+    @Test
+    public void testHttp2HeaderNamesLowerCased() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .http2Headers(true)
+                .build());
+
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_FRAME_OPTIONS,
+                injector.getHeaders(BrowserClass.MODERN).headers().get("x-frame-options"));
+        for (String name : injector.getHeaders(BrowserClass.LEGACY_IE).headers().keySet()) {
+            assertEquals(name.toLowerCase(Locale.ROOT), name);
+        }
+    }
+
+    @Test
+    public void testHeaderBytes() {
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.DEFAULT);
+        WebSecurityHeaderInjector nonceInjector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .build());
+
+        assertEquals(196, injector.headerBytes(BrowserClass.MODERN));
+        assertEquals(196 + 103, injector.headerBytes(BrowserClass.LEGACY_IE));
+        // the policy with a nonce of 24 characters is 43 characters long
+        assertEquals(95 + 70, nonceInjector.headerBytes(BrowserClass.MODERN));
+    }
+
+    @Test
+    public void testHeadersOverBudgetCounted() {
+        WebSecurityMetrics metrics = mock(WebSecurityMetrics.class);
+        WebSecurityHeaderInjector injector = new WebSecurityHeaderInjector(WebSecurityConfiguration.builder()
+                .headerBudget(200)
+                .build(), new UserAgentBrowserClassifier(), metrics);
+        MockHttpServletRequest ieRequest = new MockHttpServletRequest();
+        ieRequest.addHeader(HttpHeaders.USER_AGENT, WebSecurityHeaderInjector.USER_AGENT_IE_11);
+
+        injector.injectHeaders(request, response);
+        verify(metrics, never()).headersOverBudget();
+
+        injector.injectHeaders(ieRequest, new MockHttpServletResponse());
+        verify(metrics).headersOverBudget();
+    }
+
+    @Test
+    public void testIsDocument() {
+        assertTrue(WebSecurityHeaderInjector.isDocument(null));
+        assertTrue(WebSecurityHeaderInjector.isDocument(""));
+        assertTrue(WebSecurityHeaderInjector.isDocument("text/html"));
+        assertTrue(WebSecurityHeaderInjector.isDocument(" Text/HTML ; charset=utf-8"));
+        assertTrue(WebSecurityHeaderInjector.isDocument("application/xhtml+xml"));
+        assertTrue(WebSecurityHeaderInjector.isDocument("image/svg+xml"));
+        assertTrue(WebSecurityHeaderInjector.isDocument("text/xml"));
+        assertTrue(WebSecurityHeaderInjector.isDocument("application/pdf"));
+
+        assertFalse(WebSecurityHeaderInjector.isDocument("application/javascript"));
+        assertFalse(WebSecurityHeaderInjector.isDocument("text/css;charset=utf-8"));
+        assertFalse(WebSecurityHeaderInjector.isDocument("image/png"));
+        assertFalse(WebSecurityHeaderInjector.isDocument("application/json"));
+        assertFalse(WebSecurityHeaderInjector.isDocument("text/htmlx"));
+        assertFalse(WebSecurityHeaderInjector.isDocument("+xml"));
+    }
 }
@@ -0,0 +1,236 @@
+/*
+ * (c) Copyright 2016 Palantir Technologies Inc. All rights reserved.
+ */
+
+package com.palantir.websecurity.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.net.HttpHeaders;
+import com.palantir.websecurity.NoWebSecurityHeaders;
+import com.palantir.websecurity.WebSecurityConfiguration;
+import com.palantir.websecurity.WebSecurityHeaders;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Tests for {@link WebSecurityHeadersFeature}.
+ */
+public final class WebSecurityHeadersFeatureTests {
+
+    private static final WebSecurityConfiguration CONFIG = WebSecurityConfiguration.builder()
+            .contentSecurityPolicy("default-src 'self'")
+            .frameOptions("sameorigin")
+            .build();
+
+    private final WebSecurityHeadersFeature feature =
+            new WebSecurityHeadersFeature(CONFIG, new UserAgentBrowserClassifier(), WebSecurityMetrics.NOOP);
+
+    @Test
+    public void testUnannotatedMethodsNotFiltered() throws Exception {
+        FeatureContext context = mock(FeatureContext.class);
+
+        this.feature.configure(resourceInfo(Unannotated.class, "get"), context);
+        this.feature.configure(resourceInfo(Annotated.class, "none"), context);
+
+        verify(context, never()).register(any(), anyInt());
+    }
+
+    @Test
+    public void testClassAnnotation() throws Exception {
+        MultivaluedMap<String, Object> headers = filter(configure(Annotated.class, "get"));
+
+        assertEquals("default-src 'self'", headers.getFirst(HttpHeaders.CONTENT_SECURITY_POLICY));
+        assertEquals("sameorigin", headers.getFirst(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_TYPE_OPTIONS,
+                headers.getFirst(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+    }
+
+    @Test
+    public void testMethodAnnotationOverridesClass() throws Exception {
+        MultivaluedMap<String, Object> headers = filter(configure(Annotated.class, "frame"));
+
+        assertEquals("deny", headers.getFirst(HttpHeaders.X_FRAME_OPTIONS));
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_SECURITY_POLICY));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_XSS_PROTECTION, headers.getFirst(HttpHeaders.X_XSS_PROTECTION));
+    }
+
+    @Test
+    public void testMethodAnnotationInUnannotatedClass() throws Exception {
+        MultivaluedMap<String, Object> headers = filter(configure(Unannotated.class, "annotated"));
+
+        assertEquals("sameorigin", headers.getFirst(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testResourceHeadersKept() throws Exception {
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        headers.putSingle(HttpHeaders.X_FRAME_OPTIONS, "from resource");
+
+        filter(configure(Annotated.class, "get"), headers, new HashMap<>());
+
+        assertEquals("from resource", headers.getFirst(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(1, headers.get(HttpHeaders.X_FRAME_OPTIONS).size());
+    }
+
+    @Test
+    public void testNonceStoredInRequestProperty() throws Exception {
+        WebSecurityHeadersFeature nonceFeature = new WebSecurityHeadersFeature(WebSecurityConfiguration.builder()
+                .contentSecurityPolicy("script-src 'nonce-{nonce}'")
+                .build(), new UserAgentBrowserClassifier(), WebSecurityMetrics.NOOP);
+        ContainerResponseFilter filter = configure(nonceFeature, Annotated.class, "get");
+        Map<String, Object> properties = new HashMap<>();
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+
+        filter(filter, headers, properties);
+
+        String nonce = (String) properties.get(WebSecurityHeaderInjector.CSP_NONCE_ATTRIBUTE);
+        assertEquals("script-src 'nonce-" + nonce + "'", headers.getFirst(HttpHeaders.CONTENT_SECURITY_POLICY));
+    }
+
+    @Test
+    public void testDocumentHeadersOnlyByMediaType() throws Exception {
+        WebSecurityHeadersFeature documentFeature = new WebSecurityHeadersFeature(WebSecurityConfiguration.builder()
+                .from(CONFIG)
+                .documentHeadersOnly(true)
+                .build(), new UserAgentBrowserClassifier(), WebSecurityMetrics.NOOP);
+        ContainerResponseFilter filter = configure(documentFeature, Annotated.class, "get");
+
+        MultivaluedMap<String, Object> json = filter(filter, MediaType.APPLICATION_JSON_TYPE);
+        assertFalse(json.containsKey(HttpHeaders.X_FRAME_OPTIONS));
+        assertEquals(WebSecurityHeaderInjector.DEFAULT_CONTENT_TYPE_OPTIONS,
+                json.getFirst(HttpHeaders.X_CONTENT_TYPE_OPTIONS));
+
+        MultivaluedMap<String, Object> html = filter(filter, MediaType.TEXT_HTML_TYPE);
+        assertEquals("sameorigin", html.getFirst(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test
+    public void testSetConfiguration() throws Exception {
+        ContainerResponseFilter filter = configure(Annotated.class, "get");
+
+        this.feature.setConfiguration(WebSecurityConfiguration.builder().frameOptions("reloaded").build());
+
+        assertEquals("reloaded", filter(filter).getFirst(HttpHeaders.X_FRAME_OPTIONS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testConflictingAnnotationsRejected() throws Exception {
+        this.feature.configure(resourceInfo(Unannotated.class, "conflicting"), mock(FeatureContext.class));
+    }
+
+    private ContainerResponseFilter configure(Class<?> resourceClass, String method) throws Exception {
+        return configure(this.feature, resourceClass, method);
+    }
+
+    private static ContainerResponseFilter configure(WebSecurityHeadersFeature feature, Class<?> resourceClass,
+            String method) throws Exception {
+        FeatureContext context = mock(FeatureContext.class);
+        feature.configure(resourceInfo(resourceClass, method), context);
+
+        ArgumentCaptor<Object> filter = ArgumentCaptor.forClass(Object.class);
+        verify(context).register(filter.capture(), eq(Priorities.HEADER_DECORATOR));
+        return (ContainerResponseFilter) filter.getValue();
+    }
+
+    private static ResourceInfo resourceInfo(Class<?> resourceClass, String method) throws Exception {
+        ResourceInfo resourceInfo = mock(ResourceInfo.class);
+        doReturn(resourceClass).when(resourceInfo).getResourceClass();
+        when(resourceInfo.getResourceMethod()).thenReturn(resourceClass.getMethod(method));
+        return resourceInfo;
+    }
+
+    private static MultivaluedMap<String, Object> filter(ContainerResponseFilter filter) throws IOException {
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        filter(filter, headers, new HashMap<>());
+        return headers;
+    }
+
+    private static MultivaluedMap<String, Object> filter(ContainerResponseFilter filter, MediaType mediaType)
+            throws IOException {
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        ContainerResponseContext response = mock(ContainerResponseContext.class);
+        when(response.getHeaders()).thenReturn(headers);
+        when(response.getMediaType()).thenReturn(mediaType);
+
+        filter.filter(mock(ContainerRequestContext.class), response);
+        return headers;
+    }
+
+    private static void filter(ContainerResponseFilter filter, MultivaluedMap<String, Object> headers,
+            Map<String, Object> properties) throws IOException {
+        ContainerRequestContext request = mock(ContainerRequestContext.class);
+        when(request.getProperty(any(String.class))).thenAnswer(invocation ->
+                properties.get((String) invocation.getArguments()[0]));
+        doAnswer(invocation -> {
+            properties.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            return null;
+        }).when(request).setProperty(any(String.class), any());
+        ContainerResponseContext response = mock(ContainerResponseContext.class);
+        when(response.getHeaders()).thenReturn(headers);
+
+        filter.filter(request, response);
+    }
+
+    /**
+     * A resource without a class annotation.
+     */
+    public static final class Unannotated {
+        public String get() {
+            return "get";
+        }
+
+        @WebSecurityHeaders
+        public String annotated() {
+            return "annotated";
+        }
+
+        @WebSecurityHeaders
+        @NoWebSecurityHeaders
+        public String conflicting() {
+            return "conflicting";
+        }
+    }
+
+    /**
+     * A resource whose methods get the headers unless they opt out.
+     */
+    @WebSecurityHeaders
+    public static final class Annotated {
+        public String get() {
+            return "get";
+        }
+
+        @WebSecurityHeaders(frameOptions = "deny", contentSecurityPolicy = WebSecurityConfiguration.TURN_OFF)
+        public String frame() {
+            return "frame";
+        }
+
+        @NoWebSecurityHeaders
+        public String none() {
+            return "none";
+        }
+    }
+}